@@ -0,0 +1,118 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.infrastructure.entity.WalletBalanceSnapshotEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.WalletBalanceSnapshotRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import jakarta.persistence.EntityNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Periodically checkpoints the running balance of every wallet into {@code wallet_balance_snapshots}, so historical
+ * balance reads only replay the ledger written since the latest snapshot.
+ * <p>
+ * Snapshots are taken {@code settle-lag} in the past: ledger timestamps are assigned before commit, and a snapshot
+ * must never be taken at an instant that an in-flight transaction could still write to.
+ */
+@Component
+@ConditionalOnProperty(prefix = "sws.snapshot", name = "enabled", havingValue = "true")
+public class BalanceSnapshotJob {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceSnapshotJob.class);
+    private static final UUID FIRST_WALLET_ID = new UUID(0L, 0L);
+
+    private final WalletRepository walletRepository;
+    private final TransactionRepository transactionRepository;
+    private final WalletBalanceSnapshotRepository snapshotRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Clock clock;
+    private final Duration settleLag;
+    private final int batchSize;
+
+    @Autowired
+    public BalanceSnapshotJob(WalletRepository walletRepository,
+                              TransactionRepository transactionRepository,
+                              WalletBalanceSnapshotRepository snapshotRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${sws.snapshot.settle-lag}") Duration settleLag,
+                              @Value("${sws.snapshot.batch-size}") int batchSize) {
+        this(walletRepository, transactionRepository, snapshotRepository, transactionManager, Clock.systemUTC(), settleLag, batchSize);
+    }
+
+    BalanceSnapshotJob(WalletRepository walletRepository,
+                       TransactionRepository transactionRepository,
+                       WalletBalanceSnapshotRepository snapshotRepository,
+                       PlatformTransactionManager transactionManager,
+                       Clock clock,
+                       Duration settleLag,
+                       int batchSize) {
+        this.walletRepository = walletRepository;
+        this.transactionRepository = transactionRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.clock = clock;
+        this.settleLag = settleLag;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${sws.snapshot.interval}", initialDelayString = "${sws.snapshot.interval}")
+    public void run() {
+        Instant takenAt = clock.instant().minus(settleLag);
+        int taken = 0;
+        UUID after = FIRST_WALLET_ID;
+        List<UUID> walletIds;
+        do {
+            walletIds = walletRepository.findIdsAfter(after, Limit.of(batchSize));
+            for (UUID walletId : walletIds) {
+                try {
+                    if (snapshot(walletId, takenAt)) {
+                        taken++;
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Could not snapshot wallet {} at {}", walletId, takenAt, e);
+                }
+                after = walletId;
+            }
+        } while (walletIds.size() == batchSize);
+        log.info("Balance snapshot at {} stored {} snapshot(s)", takenAt, taken);
+    }
+
+    /**
+     * Stores the balance of the wallet at {@code takenAt}, unless nothing was written to its ledger since the
+     * previous snapshot. Returns whether a snapshot was stored.
+     */
+    public boolean snapshot(UUID walletId, Instant takenAt) {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            Optional<WalletBalanceSnapshotEntity> previous = snapshotRepository
+                    .findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(walletId, takenAt);
+            boolean hasActivity = previous
+                    .map(s -> transactionRepository.existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(walletId, s.getTakenAt(), takenAt))
+                    .orElseGet(() -> transactionRepository.existsByWalletIdAndTimestampLessThanEqual(walletId, takenAt));
+            if (!hasActivity) {
+                return false;
+            }
+
+            BigDecimal balance = transactionRepository.findBalanceByWalletIdAt(walletId, takenAt)
+                    .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
+            snapshotRepository.save(new WalletBalanceSnapshotEntity(walletId, balance, takenAt));
+            return true;
+        }));
+    }
+}
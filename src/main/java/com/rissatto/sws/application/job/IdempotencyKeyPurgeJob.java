@@ -0,0 +1,103 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyPartitions;
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Keeps idempotency keys for at least {@code retention}. On PostgreSQL {@code idempotency_keys} is partitioned by
+ * claim day: each run creates the partitions of today and the next {@code days-ahead} days and drops every partition
+ * whose whole day is older than the retention, so expiry costs no row deletes and leaves nothing to vacuum. Only
+ * stray rows in the default partition are deleted one by one. An unpartitioned table falls back to a plain delete.
+ * <p>
+ * A key dropped this way is forgotten: a request that reuses it afterwards runs again.
+ */
+@Component
+@ConditionalOnProperty(prefix = "sws.idempotency.purge", name = "enabled", havingValue = "true")
+public class IdempotencyKeyPurgeJob {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyKeyPurgeJob.class);
+
+    private final IdempotencyKeyPartitions partitions;
+    private final IdempotencyKeyRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final Clock clock;
+    private final Duration retention;
+    private final int daysAhead;
+
+    @Autowired
+    public IdempotencyKeyPurgeJob(IdempotencyKeyPartitions partitions,
+                                  IdempotencyKeyRepository repository,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${sws.idempotency.retention}") Duration retention,
+                                  @Value("${sws.idempotency.purge.days-ahead}") int daysAhead) {
+        this(partitions, repository, transactionManager, Clock.systemUTC(), retention, daysAhead);
+    }
+
+    IdempotencyKeyPurgeJob(IdempotencyKeyPartitions partitions,
+                           IdempotencyKeyRepository repository,
+                           PlatformTransactionManager transactionManager,
+                           Clock clock,
+                           Duration retention,
+                           int daysAhead) {
+        if (retention.isNegative() || retention.isZero()) {
+            throw new IllegalArgumentException("retention must be positive");
+        }
+        this.partitions = partitions;
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.clock = clock;
+        this.retention = retention;
+        this.daysAhead = daysAhead;
+    }
+
+    @Scheduled(fixedDelayString = "${sws.idempotency.purge.interval}")
+    public void run() {
+        // Keys created on or after this day are within the retention
+        LocalDate cutoff = LocalDate.ofInstant(clock.instant().minus(retention), clock.getZone());
+        if (!partitions.isPartitioned()) {
+            int deleted = Objects.requireNonNull(transactionTemplate.execute(status -> repository.deleteCreatedBefore(cutoff)));
+            log.info("Idempotency purge deleted {} key(s) created before {}", deleted, cutoff);
+            return;
+        }
+
+        List<LocalDate> days = partitions.days();
+        LocalDate today = LocalDate.now(clock);
+        for (int i = 0; i <= daysAhead; i++) {
+            LocalDate day = today.plusDays(i);
+            if (!days.contains(day)) {
+                try {
+                    partitions.create(day);
+                } catch (DataAccessException e) {
+                    log.warn("Could not create the idempotency key partition of {}", day, e);
+                }
+            }
+        }
+
+        int dropped = 0;
+        for (LocalDate day : days) {
+            if (day.isBefore(cutoff)) {
+                partitions.drop(day);
+                dropped++;
+            }
+        }
+        int deleted = partitions.purgeDefault(cutoff);
+        log.info("Idempotency purge dropped {} daily partition(s) and deleted {} stray key(s) created before {}",
+                dropped, deleted, cutoff);
+    }
+}
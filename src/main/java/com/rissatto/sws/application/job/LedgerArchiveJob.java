@@ -0,0 +1,147 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.infrastructure.archive.LedgerArchive;
+import com.rissatto.sws.infrastructure.entity.WalletBalanceSnapshotEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.WalletBalanceSnapshotRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Periodically moves ledger rows older than {@code retention} out of {@code transactions} into the
+ * {@link LedgerArchive}, wallet by wallet, so the table and its indexes only hold the recent ledger.
+ * <p>
+ * Each run first deletes the rows the previous run archived, next to a summary snapshot of the balance they add up to
+ * (so balances after them still resolve from the table), then archives the rows up to the new horizon. Rows leave the
+ * table a whole run after their segment became readable, so no read that started before it still expects them there;
+ * until then reads take them from the archive and skip their copies in the table.
+ */
+@Component
+@ConditionalOnProperty(prefix = "sws.archive", name = "enabled", havingValue = "true")
+public class LedgerArchiveJob {
+
+    private static final Logger log = LoggerFactory.getLogger(LedgerArchiveJob.class);
+    private static final UUID FIRST_WALLET_ID = new UUID(0L, 0L);
+
+    private final WalletRepository walletRepository;
+    private final TransactionRepository transactionRepository;
+    private final WalletBalanceSnapshotRepository snapshotRepository;
+    private final LedgerArchive ledgerArchive;
+    private final TransactionOperations transactionOperations;
+    private final Clock clock;
+    private final Duration retention;
+    private final int batchSize;
+
+    @Autowired
+    public LedgerArchiveJob(WalletRepository walletRepository,
+                            TransactionRepository transactionRepository,
+                            WalletBalanceSnapshotRepository snapshotRepository,
+                            LedgerArchive ledgerArchive,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${sws.archive.retention}") Duration retention,
+                            @Value("${sws.archive.batch-size}") int batchSize) {
+        this(walletRepository, transactionRepository, snapshotRepository, ledgerArchive,
+                new TransactionTemplate(transactionManager), Clock.systemUTC(), retention, batchSize);
+    }
+
+    LedgerArchiveJob(WalletRepository walletRepository,
+                     TransactionRepository transactionRepository,
+                     WalletBalanceSnapshotRepository snapshotRepository,
+                     LedgerArchive ledgerArchive,
+                     TransactionOperations transactionOperations,
+                     Clock clock,
+                     Duration retention,
+                     int batchSize) {
+        if (retention.isNegative() || retention.isZero()) {
+            throw new IllegalArgumentException("retention must be positive");
+        }
+        this.walletRepository = walletRepository;
+        this.transactionRepository = transactionRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.ledgerArchive = ledgerArchive;
+        this.transactionOperations = transactionOperations;
+        this.clock = clock;
+        this.retention = retention;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${sws.archive.interval}", initialDelayString = "${sws.archive.interval}")
+    public void run() {
+        Instant through = clock.instant().minus(retention).truncatedTo(ChronoUnit.MICROS);
+        int archived = 0;
+        UUID after = FIRST_WALLET_ID;
+        List<UUID> walletIds;
+        do {
+            walletIds = walletRepository.findIdsAfter(after, Limit.of(batchSize));
+            for (UUID walletId : walletIds) {
+                try {
+                    if (archive(walletId, through)) {
+                        archived++;
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("Could not archive the ledger of wallet {} through {}", walletId, through, e);
+                }
+                after = walletId;
+            }
+        } while (walletIds.size() == batchSize);
+        log.info("Ledger archive through {} archived {} wallet(s)", through, archived);
+    }
+
+    /**
+     * Deletes the wallet's rows archived by an earlier run, then archives its rows up to {@code through}. Returns
+     * whether any rows were archived.
+     */
+    public boolean archive(UUID walletId, Instant through) {
+        Optional<LedgerArchive.Closing> closing = ledgerArchive.closing(walletId);
+        closing.ifPresent(archivedThrough -> transactionOperations.executeWithoutResult(status -> {
+            WalletBalanceSnapshotEntity summary = snapshotRepository
+                    .findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(walletId, archivedThrough.through())
+                    .filter(snapshot -> snapshot.getTakenAt().equals(archivedThrough.through()))
+                    .orElseGet(() -> snapshotRepository.save(new WalletBalanceSnapshotEntity(walletId,
+                            archivedThrough.balance(), archivedThrough.through())));
+            int deleted = transactionRepository.deleteByWalletIdAndTimestampLessThanEqual(walletId, summary.getTakenAt());
+            if (deleted > 0) {
+                log.debug("Deleted {} archived ledger row(s) of wallet {}", deleted, walletId);
+            }
+        }));
+        if (closing.isPresent() && !closing.get().through().isBefore(through)) {
+            return false;
+        }
+
+        return Boolean.TRUE.equals(transactionOperations.execute(status -> {
+            boolean hasRows = closing
+                    .map(archived -> transactionRepository.existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(
+                            walletId, archived.through(), through))
+                    .orElseGet(() -> transactionRepository.existsByWalletIdAndTimestampLessThanEqual(walletId, through));
+            if (!hasRows) {
+                return false;
+            }
+            Instant from = closing.map(archived -> archived.through().plus(1, ChronoUnit.MICROS)).orElse(Instant.EPOCH);
+            try (Stream<LedgerEntry> rows = transactionRepository.streamLedger(walletId, from,
+                    through.plus(1, ChronoUnit.MICROS))) {
+                ledgerArchive.append(walletId, through, rows.iterator());
+            }
+            return true;
+        }));
+    }
+}
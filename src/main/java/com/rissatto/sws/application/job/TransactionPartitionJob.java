@@ -0,0 +1,71 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.infrastructure.repository.TransactionPartitions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.YearMonth;
+import java.util.List;
+
+/**
+ * Keeps the monthly partitions of {@code transactions} ahead of the ledger on PostgreSQL: each run creates the
+ * partitions of this month and the next {@code months-ahead} months that do not exist yet, so new rows never land in
+ * the default partition. Does nothing where the table is not partitioned. Ledger partitions are never dropped.
+ */
+@Component
+@ConditionalOnProperty(prefix = "sws.transactions.partitions", name = "enabled", havingValue = "true")
+public class TransactionPartitionJob {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionPartitionJob.class);
+
+    private final TransactionPartitions partitions;
+    private final Clock clock;
+    private final int monthsAhead;
+
+    @Autowired
+    public TransactionPartitionJob(TransactionPartitions partitions,
+                                   @Value("${sws.transactions.partitions.months-ahead}") int monthsAhead) {
+        this(partitions, Clock.systemUTC(), monthsAhead);
+    }
+
+    TransactionPartitionJob(TransactionPartitions partitions, Clock clock, int monthsAhead) {
+        if (monthsAhead < 1) {
+            throw new IllegalArgumentException("months-ahead must be positive");
+        }
+        this.partitions = partitions;
+        this.clock = clock;
+        this.monthsAhead = monthsAhead;
+    }
+
+    @Scheduled(fixedDelayString = "${sws.transactions.partitions.interval}")
+    public void run() {
+        if (!partitions.isPartitioned()) {
+            return;
+        }
+
+        List<YearMonth> months = partitions.months();
+        YearMonth thisMonth = YearMonth.now(clock);
+        int created = 0;
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = thisMonth.plusMonths(i);
+            if (!months.contains(month)) {
+                try {
+                    partitions.create(month);
+                    created++;
+                } catch (DataAccessException e) {
+                    log.warn("Could not create the transaction partition of {}", month, e);
+                }
+            }
+        }
+        if (created > 0) {
+            log.info("Created {} monthly transaction partition(s) up to {}", created, thisMonth.plusMonths(monthsAhead));
+        }
+    }
+}
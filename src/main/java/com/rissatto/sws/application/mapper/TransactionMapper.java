@@ -3,6 +3,8 @@ package com.rissatto.sws.application.mapper;
 import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.infrastructure.entity.TransactionEntity;
 
+import java.math.BigDecimal;
+
 public final class TransactionMapper {
 
     private TransactionMapper() {
@@ -19,6 +21,13 @@ public final class TransactionMapper {
         );
     }
 
+    public static TransactionEntity toEntity(Transaction transaction, BigDecimal balanceAfter, long sequenceNumber) {
+        TransactionEntity entity = toEntity(transaction);
+        entity.setBalanceAfter(balanceAfter);
+        entity.setSequenceNumber(sequenceNumber);
+        return entity;
+    }
+
     public static Transaction toDomain(TransactionEntity entity) {
         return new Transaction(
                 entity.getId(),
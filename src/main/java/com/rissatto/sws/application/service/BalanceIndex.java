@@ -0,0 +1,578 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.infrastructure.archive.LedgerArchive;
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerMovement;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Read-side index of wallet ledgers as prefix sums, so a balance {@code at} an instant is a binary search in memory.
+ * <p>
+ * Each indexed wallet keeps two primitive columns, the epoch-micros timestamp of every ledger row and the running
+ * balance after it in minor units ({@code amount-scale} decimals), on the heap or, with {@code off-heap}, in direct
+ * buffers. A wallet is loaded from its ledger the first time it is asked for (and the most recently written
+ * {@code warm-up-wallets} at startup), and every write through this instance appends its row once its transaction
+ * committed. An append checks the row's sequence number against the last one indexed; a wallet that missed a row, was
+ * striped (stripe credits carry no sequence number) or holds an amount finer than the scale is dropped and answered
+ * from the database until it is loaded again. A wallet with archived history is loaded from where its archive closed,
+ * which answers for the instants before.
+ * <p>
+ * Memory is bounded by {@code max-rows} across all wallets, evicting the least recently used wallets first. The index
+ * only sees the writes of this instance, so it must stay off ({@code sws.balance-index.enabled}) when several instances
+ * share the database. Hits, misses, loads and evictions are exported over JMX as
+ * {@code com.rissatto.sws:type=BalanceIndex}.
+ */
+@Component
+@ManagedResource(objectName = "com.rissatto.sws:type=BalanceIndex",
+        description = "In-memory prefix sums of wallet ledgers answering historical balances")
+public class BalanceIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(BalanceIndex.class);
+    private static final int INITIAL_ROWS = 16;
+    // Lower bound of a full ledger read; ledger timestamps are always after it
+    private static final Instant BEFORE_LEDGER = Instant.EPOCH;
+    private static final Instant END_OF_LEDGER = Instant.parse("9999-12-31T00:00:00Z");
+
+    private final WalletRepository walletRepository;
+    private final TransactionRepository transactionRepository;
+    private final LedgerArchive ledgerArchive;
+    private final TransactionOperations loadTransaction;
+    private final boolean enabled;
+    private final long maxRows;
+    private final int amountScale;
+    private final boolean offHeap;
+    private final int warmUpWallets;
+    // Access-ordered, so iteration starts at the least recently used wallet; guarded by itself
+    private final LinkedHashMap<UUID, Ledger> ledgers = new LinkedHashMap<>(16, 0.75f, true);
+    private long rows;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder drops = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public BalanceIndex(WalletRepository walletRepository,
+                        TransactionRepository transactionRepository,
+                        LedgerArchive ledgerArchive,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${sws.balance-index.enabled}") boolean enabled,
+                        @Value("${sws.balance-index.max-rows}") long maxRows,
+                        @Value("${sws.balance-index.amount-scale}") int amountScale,
+                        @Value("${sws.balance-index.off-heap}") boolean offHeap,
+                        @Value("${sws.balance-index.warm-up-wallets}") int warmUpWallets) {
+        this(walletRepository, transactionRepository, ledgerArchive, loadTransaction(transactionManager), enabled, maxRows,
+                amountScale, offHeap, warmUpWallets);
+    }
+
+    BalanceIndex(WalletRepository walletRepository,
+                 TransactionRepository transactionRepository,
+                 LedgerArchive ledgerArchive,
+                 TransactionOperations loadTransaction,
+                 boolean enabled,
+                 long maxRows,
+                 int amountScale,
+                 boolean offHeap,
+                 int warmUpWallets) {
+        if (maxRows < 1) {
+            throw new IllegalArgumentException("max-rows must be positive");
+        }
+        this.walletRepository = walletRepository;
+        this.transactionRepository = transactionRepository;
+        this.ledgerArchive = ledgerArchive;
+        this.loadTransaction = loadTransaction;
+        this.enabled = enabled;
+        this.maxRows = maxRows;
+        this.amountScale = amountScale;
+        this.offHeap = offHeap;
+        this.warmUpWallets = warmUpWallets;
+    }
+
+    /**
+     * The wallet ledger and its sequence number are read in one snapshot, in a transaction of their own.
+     */
+    private static TransactionOperations loadTransaction(PlatformTransactionManager transactionManager) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(true);
+        template.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        return template;
+    }
+
+    /**
+     * Loads the most recently written wallets, newest first, until {@code warm-up-wallets} or {@code max-rows} is
+     * reached.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled || warmUpWallets < 1) {
+            return;
+        }
+        int loaded = 0;
+        try {
+            for (UUID walletId : walletRepository.findIdsByRecentActivity(Limit.of(warmUpWallets))) {
+                if (load(walletId) != null) {
+                    loaded++;
+                }
+                if (getRows() >= maxRows) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not warm up the balance index; wallets will be loaded as they are read", e);
+            return;
+        }
+        log.info("Balance index warmed up with {} wallet(s), {} row(s)", loaded, getRows());
+    }
+
+    /**
+     * The wallet's balance at {@code at}, counting every row with {@code timestamp <= at}, loading the wallet first if
+     * it is not indexed yet. Empty when the index is off or cannot answer for the wallet (unknown, striped, being
+     * loaded, or read inside a transaction, whose snapshot a load must not bypass); callers then ask the database.
+     */
+    public Optional<BigDecimal> balanceAt(UUID walletId, Instant at) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Ledger ledger;
+        synchronized (ledgers) {
+            ledger = ledgers.get(walletId);
+        }
+        if (ledger != null) {
+            Optional<BigDecimal> balance = ledger.balanceAt(atMicros(at));
+            (balance.isPresent() ? hits : misses).increment();
+            return balance;
+        }
+        misses.increment();
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return Optional.empty();
+        }
+        ledger = load(walletId);
+        return ledger == null ? Optional.empty() : ledger.balanceAt(atMicros(at));
+    }
+
+    /**
+     * Appends a ledger row to its wallet, if indexed, once the current transaction committed.
+     */
+    public void appendAfterCommit(TransactionEntity row) {
+        if (!enabled) {
+            return;
+        }
+        if (row.getSequenceNumber() == null) {
+            dropAfterCommit(row.getWalletId());
+            return;
+        }
+        appendAfterCommit(row.getWalletId(), row.getSequenceNumber(), row.getTimestamp(), row.getAmount());
+    }
+
+    /**
+     * Appends the row with the given sequence number, timestamp and signed amount to its wallet, if indexed, once the
+     * current transaction committed.
+     */
+    public void appendAfterCommit(UUID walletId, long sequenceNumber, Instant timestamp, BigDecimal amount) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> {
+            Long minorUnits = toMinorUnits(amount);
+            if (timestamp == null || minorUnits == null) {
+                drop(walletId);
+            } else {
+                append(walletId, new Row(sequenceNumber, rowMicros(timestamp), minorUnits));
+            }
+        });
+    }
+
+    /**
+     * Drops the wallet from the index once the current transaction committed, for writes whose rows cannot be appended.
+     */
+    public void dropAfterCommit(UUID walletId) {
+        if (!enabled) {
+            return;
+        }
+        afterCommit(() -> drop(walletId));
+    }
+
+    @ManagedAttribute(description = "Whether historical balances are answered from the index")
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @ManagedAttribute(description = "Whether the columns live outside the Java heap")
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    @ManagedAttribute(description = "Wallets currently indexed or being loaded")
+    public int getSize() {
+        synchronized (ledgers) {
+            return ledgers.size();
+        }
+    }
+
+    @ManagedAttribute(description = "Ledger rows currently indexed, across all wallets")
+    public long getRows() {
+        synchronized (ledgers) {
+            return rows;
+        }
+    }
+
+    @ManagedAttribute(description = "Historical balances answered from the index")
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @ManagedAttribute(description = "Historical balances the index could not answer without a load or the database")
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(description = "Share of historical balances answered from the index")
+    public double getHitRate() {
+        long lookups = hits.sum() + misses.sum();
+        return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+    }
+
+    @ManagedAttribute(description = "Wallets loaded from their ledger")
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @ManagedAttribute(description = "Committed rows appended to an indexed wallet")
+    public long getAppends() {
+        return appends.sum();
+    }
+
+    @ManagedAttribute(description = "Wallets dropped for a write that could not be appended")
+    public long getDrops() {
+        return drops.sum();
+    }
+
+    @ManagedAttribute(description = "Least recently used wallets evicted to stay within max-rows")
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Reads the wallet's whole ledger into a new entry. The entry is registered before the read starts, so rows
+     * committed while it runs are queued on it rather than lost, and applied after the rows read, skipping those the
+     * read already saw. Null when the wallet cannot be indexed or is already being loaded.
+     */
+    private Ledger load(UUID walletId) {
+        Ledger ledger = new Ledger(offHeap);
+        synchronized (ledgers) {
+            if (ledgers.putIfAbsent(walletId, ledger) != null) {
+                return null;
+            }
+        }
+        loads.increment();
+        boolean loaded;
+        try {
+            loaded = Boolean.TRUE.equals(loadTransaction.execute(status -> read(walletId, ledger)));
+        } catch (RuntimeException e) {
+            log.warn("Could not load wallet {} into the balance index", walletId, e);
+            loaded = false;
+        }
+        loaded = loaded && ledger.finishLoad();
+        synchronized (ledgers) {
+            if (!loaded) {
+                ledgers.remove(walletId, ledger);
+                return null;
+            }
+            if (ledgers.get(walletId) != ledger) {
+                return null;
+            }
+            rows += ledger.size();
+            evictOverflow();
+            return ledgers.containsKey(walletId) ? ledger : null;
+        }
+    }
+
+    private boolean read(UUID walletId, Ledger ledger) {
+        Optional<VersionedWallet> wallet = walletRepository.findVersionedById(walletId);
+        if (wallet.isEmpty() || wallet.get().getStripes() != 0) {
+            return false;
+        }
+        // An archived wallet's ledger starts where its archive closed; balances up to then come from the archive
+        long balance = 0;
+        Instant after = BEFORE_LEDGER;
+        Optional<LedgerArchive.Closing> archived = ledgerArchive.closing(walletId);
+        if (archived.isPresent()) {
+            Long opening = toMinorUnits(archived.get().balance());
+            if (opening == null) {
+                return false;
+            }
+            balance = opening;
+            after = archived.get().through();
+        }
+        ledger.setOpening(balance);
+        try (Stream<LedgerMovement> movements = transactionRepository.streamMovements(walletId, after,
+                END_OF_LEDGER)) {
+            for (Iterator<LedgerMovement> it = movements.iterator(); it.hasNext(); ) {
+                LedgerMovement movement = it.next();
+                Long minorUnits = toMinorUnits(movement.getAmount());
+                if (minorUnits == null || ledger.size() >= maxRows) {
+                    return false;
+                }
+                balance += minorUnits;
+                ledger.add(rowMicros(movement.getTimestamp()), balance);
+            }
+        }
+        ledger.setLastSequenceNumber(wallet.get().getLastSequenceNumber());
+        return true;
+    }
+
+    private void append(UUID walletId, Row row) {
+        Ledger ledger;
+        synchronized (ledgers) {
+            ledger = ledgers.get(walletId);
+        }
+        if (ledger == null) {
+            return;
+        }
+        switch (ledger.append(row)) {
+            case APPENDED -> {
+                appends.increment();
+                synchronized (ledgers) {
+                    if (ledgers.get(walletId) == ledger) {
+                        rows++;
+                        evictOverflow();
+                    }
+                }
+            }
+            case GAP -> drop(walletId);
+            case QUEUED, SEEN -> {
+            }
+        }
+    }
+
+    private void drop(UUID walletId) {
+        Ledger ledger;
+        synchronized (ledgers) {
+            ledger = ledgers.get(walletId);
+            if (ledger == null) {
+                return;
+            }
+            // A wallet still loading is told to discard itself, since its snapshot may predate the write
+            if (!ledger.markDropped()) {
+                return;
+            }
+            ledgers.remove(walletId);
+            rows -= ledger.size();
+        }
+        drops.increment();
+    }
+
+    /**
+     * Evicts the least recently used loaded wallets until the rows fit in {@code max-rows}. Called holding the map.
+     */
+    private void evictOverflow() {
+        Iterator<Ledger> eldest = ledgers.values().iterator();
+        while (rows > maxRows && eldest.hasNext()) {
+            Ledger ledger = eldest.next();
+            if (ledger.isLoaded()) {
+                eldest.remove();
+                rows -= ledger.size();
+                evictions.increment();
+            }
+        }
+    }
+
+    private Long toMinorUnits(BigDecimal amount) {
+        try {
+            return amount.movePointRight(amountScale).longValueExact();
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A row's timestamp in epoch micros, rounded to the nearest microsecond the way the database stores it.
+     */
+    private static long rowMicros(Instant timestamp) {
+        return Math.addExact(Math.multiplyExact(timestamp.getEpochSecond(), 1_000_000L), (timestamp.getNano() + 500) / 1000);
+    }
+
+    /**
+     * The last epoch microsecond not after {@code at}, so a row counts exactly when {@code timestamp <= at}.
+     */
+    private static long atMicros(Instant at) {
+        return Math.addExact(Math.multiplyExact(at.getEpochSecond(), 1_000_000L), at.getNano() / 1000);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private record Row(long sequenceNumber, long micros, long balanceDelta) {
+    }
+
+    private enum AppendResult {APPENDED, QUEUED, SEEN, GAP}
+
+    /**
+     * One wallet's columns: row timestamps in epoch micros, ascending, and the running balance after each row in minor
+     * units. Rows committed while it is being loaded are queued until the load finished.
+     */
+    private final class Ledger {
+
+        private final boolean direct;
+        private LongBuffer micros;
+        private LongBuffer balances;
+        private int size;
+        private long opening;
+        private long lastSequenceNumber;
+        private List<Row> queued = new ArrayList<>();
+        private boolean dropped;
+
+        private Ledger(boolean direct) {
+            this.direct = direct;
+            this.micros = allocate(INITIAL_ROWS);
+            this.balances = allocate(INITIAL_ROWS);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized boolean isLoaded() {
+            return queued == null;
+        }
+
+        synchronized void setOpening(long opening) {
+            this.opening = opening;
+        }
+
+        synchronized void setLastSequenceNumber(long lastSequenceNumber) {
+            this.lastSequenceNumber = lastSequenceNumber;
+        }
+
+        synchronized void add(long timestamp, long balance) {
+            if (size == micros.capacity()) {
+                micros = grow(micros);
+                balances = grow(balances);
+            }
+            micros.put(size, timestamp);
+            balances.put(size, balance);
+            size++;
+        }
+
+        /**
+         * Applies the rows queued during the load. False when one of them left a gap or the wallet was dropped meanwhile.
+         */
+        synchronized boolean finishLoad() {
+            List<Row> pending = queued;
+            queued = null;
+            if (dropped) {
+                return false;
+            }
+            for (Row row : pending) {
+                if (apply(row) == AppendResult.GAP) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        synchronized AppendResult append(Row row) {
+            if (queued != null) {
+                queued.add(row);
+                return AppendResult.QUEUED;
+            }
+            return apply(row);
+        }
+
+        /**
+         * Marks the ledger dropped. True when it was loaded and can be removed right away; a ledger still loading is
+         * removed by its load instead.
+         */
+        synchronized boolean markDropped() {
+            dropped = true;
+            return queued == null;
+        }
+
+        synchronized Optional<BigDecimal> balanceAt(long at) {
+            if (queued != null || dropped) {
+                return Optional.empty();
+            }
+            // Last row with a timestamp at or before the instant; before the first row the wallet held the opening
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (micros.get(middle) <= at) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return Optional.of(BigDecimal.valueOf(high < 0 ? opening : balances.get(high), amountScale));
+        }
+
+        private AppendResult apply(Row row) {
+            if (row.sequenceNumber() <= lastSequenceNumber) {
+                return AppendResult.SEEN;
+            }
+            if (row.sequenceNumber() != lastSequenceNumber + 1 || (size > 0 && row.micros() < micros.get(size - 1))) {
+                return AppendResult.GAP;
+            }
+            add(row.micros(), (size == 0 ? opening : balances.get(size - 1)) + row.balanceDelta());
+            lastSequenceNumber = row.sequenceNumber();
+            return AppendResult.APPENDED;
+        }
+
+        private LongBuffer grow(LongBuffer column) {
+            LongBuffer grown = allocate(column.capacity() * 2);
+            grown.put(column.duplicate().clear());
+            return grown.clear();
+        }
+
+        private LongBuffer allocate(int capacity) {
+            return direct
+                    ? ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer()
+                    : LongBuffer.wrap(new long[capacity]);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.rissatto.sws.application.service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The instants a balance series is sampled at: {@code from}, then every {@code step} up to and including {@code to}.
+ * Checked on creation, so a bad range is rejected before anything is read or streamed.
+ */
+public record BalanceSeries(Instant from, Instant to, Duration step) {
+
+    static final long MAX_POINTS = 100_000;
+
+    public BalanceSeries {
+        if (from == null || to == null) {
+            throw new IllegalArgumentException("from and to are required");
+        }
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("to must not be before from");
+        }
+        if (step == null || step.isZero() || step.isNegative()) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        if (Duration.between(from, to).dividedBy(step) >= MAX_POINTS) {
+            throw new IllegalArgumentException(String.format("at most %d points per series", MAX_POINTS));
+        }
+    }
+
+    /**
+     * Parses {@code step} as an ISO-8601 duration ({@code PT1H}, {@code P1D}).
+     */
+    public static BalanceSeries of(Instant from, Instant to, String step) {
+        Duration duration;
+        try {
+            duration = (step == null) ? null : Duration.parse(step);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("step is invalid");
+        }
+        return new BalanceSeries(from, to, duration);
+    }
+
+    /**
+     * The last sampled instant, the latest {@code from + n * step} not after {@code to}.
+     */
+    Instant last() {
+        return from.plus(step.multipliedBy(Duration.between(from, to).dividedBy(step)));
+    }
+
+    /**
+     * The wallet's balance at {@code at}, counting every transaction with {@code timestamp <= at}.
+     */
+    public record Point(Instant at, BigDecimal balance) {
+    }
+}
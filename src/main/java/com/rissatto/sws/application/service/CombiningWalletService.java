@@ -0,0 +1,128 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.WalletBalance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Routes concurrent deposits and withdrawals on the same wallet through a {@link WalletOperationCombiner}, so each
+ * batch takes the wallet lock and commits once ({@link WalletServiceImpl#applyBatch}). Callers wait for their batch
+ * outside any transaction, holding no connection. Everything else goes straight to {@link WalletServiceImpl}.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(prefix = "sws.wallet.combiner", name = "enabled", havingValue = "true")
+public class CombiningWalletService implements WalletService {
+
+    private final WalletServiceImpl delegate;
+    private final WalletOperationCombiner combiner;
+
+    @Autowired
+    public CombiningWalletService(WalletServiceImpl delegate,
+                                  @Value("${sws.wallet.combiner.max-delay}") Duration maxDelay,
+                                  @Value("${sws.wallet.combiner.max-batch-size}") int maxBatchSize) {
+        this.delegate = delegate;
+        this.combiner = new WalletOperationCombiner(delegate::applyBatch, maxDelay, maxBatchSize);
+    }
+
+    @Override
+    public Wallet create(UUID userId) {
+        return delegate.create(userId);
+    }
+
+    @Override
+    public Wallet create(UUID userId, String idempotencyKey) {
+        return delegate.create(userId, idempotencyKey);
+    }
+
+    @Override
+    public Wallet getById(UUID walletId) {
+        return delegate.getById(walletId);
+    }
+
+    @Override
+    public BigDecimal getCurrentBalance(UUID walletId) {
+        return delegate.getCurrentBalance(walletId);
+    }
+
+    @Override
+    public Wallet deposit(UUID walletId, BigDecimal amount) {
+        return deposit(walletId, amount, null);
+    }
+
+    @Override
+    public Wallet deposit(UUID walletId, BigDecimal amount, String idempotencyKey) {
+        return combiner.submit(walletId, WalletOperation.deposit(amount, idempotencyKey));
+    }
+
+    @Override
+    public Wallet withdraw(UUID walletId, BigDecimal amount) {
+        return withdraw(walletId, amount, null);
+    }
+
+    @Override
+    public Wallet withdraw(UUID walletId, BigDecimal amount, String idempotencyKey) {
+        return combiner.submit(walletId, WalletOperation.withdrawal(amount, idempotencyKey));
+    }
+
+    @Override
+    public Wallet transfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount) {
+        return delegate.transfer(sourceWalletId, targetWalletId, amount);
+    }
+
+    @Override
+    public Wallet transfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount, String idempotencyKey) {
+        return delegate.transfer(sourceWalletId, targetWalletId, amount, idempotencyKey);
+    }
+
+    @Override
+    public Wallet stripe(UUID walletId, int stripes) {
+        return delegate.stripe(walletId, stripes);
+    }
+
+    @Override
+    public BigDecimal getHistoricalBalance(UUID walletId, Instant at) {
+        return delegate.getHistoricalBalance(walletId, at);
+    }
+
+    @Override
+    public boolean isSettled(Instant at) {
+        return delegate.isSettled(at);
+    }
+
+    @Override
+    public Stream<List<WalletBalance>> getHistoricalBalances(Set<UUID> walletIds, Instant at) {
+        return delegate.getHistoricalBalances(walletIds, at);
+    }
+
+    @Override
+    public void getBalanceSeries(UUID walletId, BalanceSeries series, Consumer<BalanceSeries.Point> sink) {
+        delegate.getBalanceSeries(walletId, series, sink);
+    }
+
+    @Override
+    public TransactionPage getTransactions(UUID walletId, Set<Transaction.Type> types, Instant from, Instant to,
+                                           String cursor, int limit) {
+        return delegate.getTransactions(walletId, types, from, to, cursor, limit);
+    }
+
+    @Override
+    public void exportTransactions(UUID walletId, Instant from, Instant to, Consumer<LedgerEntry> sink) {
+        delegate.exportTransactions(walletId, from, to, sink);
+    }
+}
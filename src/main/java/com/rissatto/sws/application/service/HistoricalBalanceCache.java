@@ -0,0 +1,132 @@
+package com.rissatto.sws.application.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Historical balances at settled instants, which can no longer change.
+ * <p>
+ * A ledger row is stamped before its transaction commits and never in the future, so once an instant is more than
+ * {@code settle-lag} (the longest a write may take to commit) in the past, every row at or before it is visible and a
+ * balance read {@code at} it is final. Only those are cached, up to {@code capacity} entries, evicting the least
+ * recently read first; nothing needs invalidating, so the cache is safe with several instances. Hits and misses are
+ * exported over JMX as {@code com.rissatto.sws:type=HistoricalBalanceCache}.
+ */
+@Component
+@ManagedResource(objectName = "com.rissatto.sws:type=HistoricalBalanceCache",
+        description = "Historical balances at settled instants")
+public class HistoricalBalanceCache {
+
+    private final int capacity;
+    private final Duration settleLag;
+    private final Clock clock;
+    // Access-ordered, so the least recently read balance is evicted first; guarded by itself
+    private final LinkedHashMap<Key, BigDecimal> balances;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public HistoricalBalanceCache(@Value("${sws.historical-balance.cache.capacity}") int capacity,
+                                  @Value("${sws.historical-balance.cache.settle-lag}") Duration settleLag) {
+        this(capacity, settleLag, Clock.systemUTC());
+    }
+
+    HistoricalBalanceCache(int capacity, Duration settleLag, Clock clock) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        if (settleLag.isNegative()) {
+            throw new IllegalArgumentException("settle-lag must not be negative");
+        }
+        this.capacity = capacity;
+        this.settleLag = settleLag;
+        this.clock = clock;
+        this.balances = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, BigDecimal> eldest) {
+                if (size() > HistoricalBalanceCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Whether {@code at} is at least {@code settle-lag} in the past, so balances read at it are final.
+     */
+    public boolean isSettled(Instant at) {
+        return !at.isAfter(clock.instant().minus(settleLag));
+    }
+
+    /**
+     * The wallet's balance at {@code at}, if cached.
+     */
+    public Optional<BigDecimal> get(UUID walletId, Instant at) {
+        BigDecimal balance;
+        synchronized (balances) {
+            balance = balances.get(new Key(walletId, at));
+        }
+        (balance == null ? misses : hits).increment();
+        return Optional.ofNullable(balance);
+    }
+
+    /**
+     * Caches the wallet's balance at {@code at} if {@code at} is settled; unsettled balances may still change.
+     */
+    public void putIfSettled(UUID walletId, Instant at, BigDecimal balance) {
+        if (capacity == 0 || !isSettled(at)) {
+            return;
+        }
+        synchronized (balances) {
+            balances.put(new Key(walletId, at), balance);
+        }
+    }
+
+    @ManagedAttribute(description = "Balances currently cached")
+    public int getSize() {
+        synchronized (balances) {
+            return balances.size();
+        }
+    }
+
+    @ManagedAttribute(description = "Historical balances answered from the cache")
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @ManagedAttribute(description = "Historical balances that were read from the index or the database")
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(description = "Share of historical balances answered from the cache")
+    public double getHitRate() {
+        long lookups = hits.sum() + misses.sum();
+        return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+    }
+
+    @ManagedAttribute(description = "Least recently read balances dropped to stay within capacity")
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private record Key(UUID walletId, Instant at) {
+    }
+}
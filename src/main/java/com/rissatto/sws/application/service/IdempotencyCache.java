@@ -0,0 +1,452 @@
+package com.rissatto.sws.application.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.rissatto.sws.infrastructure.entity.IdempotencyKey;
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyPartitions;
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Idempotency keys, claimed before their operation runs and answered from the response it stored.
+ * <p>
+ * {@link #claim} inserts the key with {@code ON CONFLICT DO NOTHING} inside the caller's transaction: the caller that
+ * gets the row runs the operation and {@link #complete}s the key with its serialized result in the same transaction,
+ * while a concurrent request with the same key waits on that row and then replays the stored result, with no query
+ * on the resource and no second execution. An operation that fails rolls its claim back with it. Where the table is
+ * partitioned by day, and a key therefore only unique per day, each claim first takes a transaction-scoped advisory
+ * lock on the key and only inserts when no day holds it yet, so claims racing across midnight still conflict; the
+ * claim's day is remembered until the key is completed or released, so both only touch the claimed row.
+ * <p>
+ * Completed keys are kept in memory with their response for {@code ttl} and up to {@code capacity} entries (the
+ * oldest go first), once the transaction that stored them committed. A Bloom filter of every stored key, loaded from
+ * the table at startup and added to on every claim, tells a replay that missed the cache (read the stored response)
+ * from a first-time key (claim it straight away). The filter only knows the keys written through this instance, so it
+ * must be turned off ({@code sws.idempotency.cache.bloom-filter.enabled}) when several instances share the database.
+ * <p>
+ * Hits, misses, claims and skipped reads are exported over JMX as {@code com.rissatto.sws:type=IdempotencyCache}.
+ */
+@Component
+@ManagedResource(objectName = "com.rissatto.sws:type=IdempotencyCache",
+        description = "Idempotency key claims, their stored responses and the Bloom filter in front of their table")
+public class IdempotencyCache {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyCache.class);
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final IdempotencyKeyRepository repository;
+    private final int capacity;
+    private final long ttlNanos;
+    private final BloomFilter bloomFilter;
+    private final LongSupplier nanoClock;
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    // Keys claimed by transactions still open, with the day their row was claimed on
+    private final ConcurrentHashMap<String, Claim> openClaims = new ConcurrentHashMap<>();
+    private final boolean lockClaims;
+    private volatile boolean bloomFilterLoaded;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder claimConflicts = new LongAdder();
+    private final LongAdder bloomFilterSkips = new LongAdder();
+    private final LongAdder bloomFilterFalsePositives = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public IdempotencyCache(IdempotencyKeyRepository repository,
+                            IdempotencyKeyPartitions partitions,
+                            @Value("${sws.idempotency.cache.capacity}") int capacity,
+                            @Value("${sws.idempotency.cache.ttl}") Duration ttl,
+                            @Value("${sws.idempotency.cache.bloom-filter.enabled}") boolean bloomFilterEnabled,
+                            @Value("${sws.idempotency.cache.bloom-filter.expected-keys}") long expectedKeys,
+                            @Value("${sws.idempotency.cache.bloom-filter.false-positive-rate}") double falsePositiveRate) {
+        this(repository, partitions.isPartitioned(), capacity, ttl,
+                bloomFilterEnabled ? new BloomFilter(expectedKeys, falsePositiveRate) : null, System::nanoTime);
+    }
+
+    IdempotencyCache(IdempotencyKeyRepository repository, boolean lockClaims, int capacity, Duration ttl,
+                     BloomFilter bloomFilter, LongSupplier nanoClock) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.repository = repository;
+        this.lockClaims = lockClaims;
+        this.capacity = capacity;
+        this.ttlNanos = ttl.toNanos();
+        this.bloomFilter = bloomFilter;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Loads every stored key into the Bloom filter, in batches along the primary key; lookups only trust the filter
+     * once this finished.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadBloomFilter() {
+        if (bloomFilter == null) {
+            return;
+        }
+        long loaded = 0;
+        String afterKey = "";
+        String afterOperation = "";
+        List<IdempotencyKey> keys;
+        try {
+            do {
+                keys = repository.findAllAfter(afterKey, afterOperation, Limit.of(LOAD_BATCH_SIZE));
+                for (IdempotencyKey key : keys) {
+                    bloomFilter.put(cacheKey(key.getIdempotencyKey(), key.getOperation()));
+                    afterKey = key.getIdempotencyKey();
+                    afterOperation = key.getOperation();
+                }
+                loaded += keys.size();
+            } while (keys.size() == LOAD_BATCH_SIZE);
+        } catch (RuntimeException e) {
+            log.warn("Could not load the idempotency Bloom filter; every key will be looked up", e);
+            return;
+        }
+        bloomFilterLoaded = true;
+        log.info("Idempotency Bloom filter loaded with {} key(s)", loaded);
+    }
+
+    /**
+     * Replays the response stored for the key, or claims the key for the caller, who must then run the operation and
+     * {@link #complete} it in the same transaction. Empty means claimed. Keys stored before responses were kept only
+     * have their resource id, which {@code legacy} turns into a response.
+     */
+    public <T> Optional<T> claim(String idempotencyKey, String operation, Class<T> responseType,
+                                 Function<UUID, T> legacy) {
+        String cacheKey = cacheKey(idempotencyKey, operation);
+        Optional<T> cached = cached(cacheKey, responseType);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        misses.increment();
+        if (lockClaims) {
+            repository.lock(idempotencyKey, operation);
+        }
+        if (mightBeStored(cacheKey)) {
+            Optional<T> stored = stored(cacheKey, idempotencyKey, operation, responseType, legacy);
+            if (stored.isPresent()) {
+                return stored;
+            }
+        }
+
+        claims.increment();
+        if (bloomFilter != null) {
+            bloomFilter.put(cacheKey);
+        }
+        Instant claimedAt = Instant.now();
+        LocalDate claimedOn = LocalDate.ofInstant(claimedAt, ZoneOffset.UTC);
+        if (repository.claim(idempotencyKey, operation, claimedAt, claimedOn) == 1) {
+            remember(cacheKey, new Claim(claimedOn));
+            return Optional.empty();
+        }
+        claimConflicts.increment();
+        return Optional.of(stored(cacheKey, idempotencyKey, operation, responseType, legacy)
+                .orElseThrow(() -> new IllegalStateException(
+                        String.format("Idempotency key %s for %s is claimed but has no response", idempotencyKey, operation))));
+    }
+
+    /**
+     * The response stored for the key, without claiming it; empty when the key was never used.
+     */
+    public <T> Optional<T> find(String idempotencyKey, String operation, Class<T> responseType,
+                                Function<UUID, T> legacy) {
+        String cacheKey = cacheKey(idempotencyKey, operation);
+        Optional<T> cached = cached(cacheKey, responseType);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        misses.increment();
+        return mightBeStored(cacheKey)
+                ? stored(cacheKey, idempotencyKey, operation, responseType, legacy)
+                : Optional.empty();
+    }
+
+    /**
+     * Stores the result of the operation a {@link #claim} let through.
+     */
+    public void complete(String idempotencyKey, String operation, UUID resourceId, Object response) {
+        String cacheKey = cacheKey(idempotencyKey, operation);
+        Claim claim = openClaims.remove(cacheKey);
+        if (claim == null || repository.complete(idempotencyKey, operation, claim.day(), resourceId,
+                serialize(response), Instant.now()) != 1) {
+            throw new IllegalStateException(
+                    String.format("Idempotency key %s for %s was not claimed", idempotencyKey, operation));
+        }
+        cacheAfterCommit(cacheKey, response);
+    }
+
+    /**
+     * Gives back a claim whose operation was rejected without failing the transaction.
+     */
+    public void release(String idempotencyKey, String operation) {
+        Claim claim = openClaims.remove(cacheKey(idempotencyKey, operation));
+        if (claim != null) {
+            repository.release(idempotencyKey, operation, claim.day());
+        }
+    }
+
+    /**
+     * Deletes a completed key whose operation was reversed, so the key can be used again; it leaves the cache once the
+     * transaction committed.
+     */
+    public void revoke(String idempotencyKey, String operation) {
+        repository.revoke(idempotencyKey, operation);
+        String cacheKey = cacheKey(idempotencyKey, operation);
+        afterCommit(() -> entries.remove(cacheKey));
+    }
+
+    /**
+     * Stores completed keys that were never claimed, for writers that already ran their operations as the only
+     * writer of the resource. Each key is inserted with its response the way {@link #claim} inserts it, locked first
+     * where claims are, and in key order so two batches sharing keys cannot deadlock. Returns the keys another
+     * transaction already stored, which are left as they are; the caller must roll back rather than answer with them.
+     */
+    public List<Completion> storeAll(Collection<Completion> completions) {
+        Instant storedAt = Instant.now();
+        LocalDate storedOn = LocalDate.ofInstant(storedAt, ZoneOffset.UTC);
+        List<Completion> taken = new ArrayList<>();
+        List<Completion> sorted = completions.stream()
+                .sorted(Comparator.comparing(completion -> cacheKey(completion.idempotencyKey(), completion.operation())))
+                .toList();
+        for (Completion completion : sorted) {
+            String cacheKey = cacheKey(completion.idempotencyKey(), completion.operation());
+            if (lockClaims) {
+                repository.lock(completion.idempotencyKey(), completion.operation());
+            }
+            claims.increment();
+            if (bloomFilter != null) {
+                bloomFilter.put(cacheKey);
+            }
+            if (repository.store(completion.idempotencyKey(), completion.operation(), completion.resourceId(),
+                    serialize(completion.response()), storedAt, storedOn) == 1) {
+                cacheAfterCommit(cacheKey, completion.response());
+            } else {
+                claimConflicts.increment();
+                taken.add(completion);
+            }
+        }
+        return taken;
+    }
+
+    @ManagedAttribute(description = "Keys currently cached")
+    public int getSize() {
+        return entries.size();
+    }
+
+    @ManagedAttribute(description = "Lookups answered from the cache")
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @ManagedAttribute(description = "Lookups that went to the database")
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(description = "Keys inserted by claims, including those that turned out to be taken")
+    public long getClaims() {
+        return claims.sum();
+    }
+
+    @ManagedAttribute(description = "Claims that found the key already taken and replayed its response")
+    public long getClaimConflicts() {
+        return claimConflicts.sum();
+    }
+
+    @ManagedAttribute(description = "Lookups the Bloom filter answered as never seen, without reading the key")
+    public long getBloomFilterSkips() {
+        return bloomFilterSkips.sum();
+    }
+
+    @ManagedAttribute(description = "Key reads the Bloom filter let through for a key that was not stored")
+    public long getBloomFilterFalsePositives() {
+        return bloomFilterFalsePositives.sum();
+    }
+
+    @ManagedAttribute(description = "Share of lookups answered from the cache")
+    public double getHitRate() {
+        return rate(hits.sum());
+    }
+
+    @ManagedAttribute(description = "Share of lookups that went to the database")
+    public double getMissRate() {
+        return rate(misses.sum());
+    }
+
+    @ManagedAttribute(description = "Keys dropped for being expired or over capacity")
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @ManagedAttribute(description = "Whether lookups trust the Bloom filter yet")
+    public boolean isBloomFilterLoaded() {
+        return bloomFilterLoaded;
+    }
+
+    private double rate(long count) {
+        long lookups = hits.sum() + misses.sum();
+        return lookups == 0 ? 0 : (double) count / lookups;
+    }
+
+    private <T> Optional<T> cached(String cacheKey, Class<T> responseType) {
+        Entry entry = entries.get(cacheKey);
+        if (entry != null) {
+            if (entry.expiresAt - nanoClock.getAsLong() > 0) {
+                hits.increment();
+                return Optional.of(responseType.cast(entry.response));
+            }
+            entries.remove(cacheKey, entry);
+        }
+        return Optional.empty();
+    }
+
+    private boolean mightBeStored(String cacheKey) {
+        if (!bloomFilterLoaded) {
+            return true;
+        }
+        if (bloomFilter.mightContain(cacheKey)) {
+            return true;
+        }
+        bloomFilterSkips.increment();
+        return false;
+    }
+
+    private <T> Optional<T> stored(String cacheKey, String idempotencyKey, String operation, Class<T> responseType,
+                                   Function<UUID, T> legacy) {
+        Optional<IdempotencyKey> stored = repository.findByIdempotencyKeyAndOperation(idempotencyKey, operation);
+        if (stored.isEmpty()) {
+            if (bloomFilterLoaded) {
+                bloomFilterFalsePositives.increment();
+            }
+            return Optional.empty();
+        }
+        IdempotencyKey key = stored.get();
+        if (key.getResponse() == null) {
+            return Optional.ofNullable(key.getResourceId()).map(legacy);
+        }
+        T response = deserialize(key.getResponse(), responseType);
+        cache(cacheKey, response);
+        return Optional.of(response);
+    }
+
+    private String serialize(Object response) {
+        try {
+            return objectMapper.writeValueAsString(response);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize idempotent response " + response, e);
+        }
+    }
+
+    private <T> T deserialize(String response, Class<T> responseType) {
+        try {
+            return objectMapper.readValue(response, responseType);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not read stored idempotent response as " + responseType.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Keeps the claim until its transaction ends, unless {@link #complete} or {@link #release} took it first; compared
+     * by identity, so the end of one transaction never drops the claim a later one made on the same key.
+     */
+    private void remember(String cacheKey, Claim claim) {
+        openClaims.put(cacheKey, claim);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    openClaims.computeIfPresent(cacheKey, (key, open) -> open == claim ? null : open);
+                }
+            });
+        }
+    }
+
+    private void cacheAfterCommit(String cacheKey, Object response) {
+        afterCommit(() -> cache(cacheKey, response));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void cache(String cacheKey, Object response) {
+        long now = nanoClock.getAsLong();
+        Entry entry = new Entry(cacheKey, response, now + ttlNanos);
+        if (entries.putIfAbsent(cacheKey, entry) == null) {
+            insertionOrder.offer(entry);
+        }
+        evict(now);
+    }
+
+    /**
+     * Entries expire in insertion order, so the queue head is always the next one to go, for either reason.
+     */
+    private void evict(long now) {
+        Entry eldest;
+        while ((eldest = insertionOrder.peek()) != null
+                && (eldest.expiresAt - now <= 0 || entries.size() > capacity)) {
+            if (insertionOrder.remove(eldest) && entries.remove(eldest.cacheKey, eldest)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private static String cacheKey(String idempotencyKey, String operation) {
+        return operation + ':' + idempotencyKey;
+    }
+
+    /**
+     * The outcome of an operation run under an idempotency key.
+     */
+    public record Completion(String idempotencyKey, String operation, UUID resourceId, Object response) {
+    }
+
+    private record Entry(String cacheKey, Object response, long expiresAt) {
+    }
+
+    private record Claim(LocalDate day) {
+    }
+}
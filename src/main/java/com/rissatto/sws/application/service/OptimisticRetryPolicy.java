@@ -0,0 +1,31 @@
+package com.rissatto.sws.application.service;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How often the optimistic write mode retries a compare-and-set that lost to a concurrent writer, and how long it
+ * pauses in between: a random time up to {@code backoff} doubled per attempt (at most 64 times), so writers that
+ * collided do not retry in lockstep.
+ */
+record OptimisticRetryPolicy(int maxAttempts, Duration backoff) {
+
+    private static final int MAX_BACKOFF_DOUBLINGS = 6;
+
+    OptimisticRetryPolicy {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+    }
+
+    /**
+     * Pauses before attempt {@code attempt + 1}, after {@code attempt} failed.
+     */
+    void pause(int attempt) {
+        long bound = backoff.toNanos() << Math.min(attempt - 1, MAX_BACKOFF_DOUBLINGS);
+        if (bound > 0) {
+            LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(bound));
+        }
+    }
+}
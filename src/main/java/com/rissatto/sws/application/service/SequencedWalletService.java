@@ -0,0 +1,277 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.PendingTransferEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.WalletBalance;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Single-writer ledger engine, enabled with the {@code sequencer} profile. Wallets are partitioned by id hash across
+ * a fixed set of {@link WalletSequencer}s, each the only writer of its wallets: it keeps their balances in memory,
+ * applies deposits and withdrawals without row locks and journals them in batches before acknowledging.
+ * <p>
+ * A transfer is a two-step handoff: the debit is applied and journaled by the source's sequencer together with a
+ * pending transfer row, then the credit by the target's, which deletes the row. The credit cannot be rejected by the
+ * {@link Wallet} rules, so it is retried if its journal write fails; one that still fails is compensated by crediting
+ * the amount back to the source, journaled together with the release of the transfer's idempotency key and the
+ * deletion of the row, so the caller gets the error and a retry runs the transfer again. Whichever of the credit and
+ * the refund deletes the row is the only one applied. Transfers left pending by a crash, or by a refund that could not
+ * be journaled either, are finished the same way when the application starts.
+ * <p>
+ * The sequencers must be the only writers of the wallet rows: run one instance per database, and do not mix with the
+ * other write modes. Creation, historical reads and everything else go to {@link WalletServiceImpl}; striping is not
+ * supported, since a sequenced wallet does not contend.
+ */
+@Service
+@Primary
+@Profile("sequencer")
+public class SequencedWalletService implements WalletService {
+
+    private static final Logger log = LoggerFactory.getLogger(SequencedWalletService.class);
+    private static final String DEPOSIT_OPERATION = "depositWallet";
+    private static final String WITHDRAW_OPERATION = "withdrawWallet";
+    private static final String TRANSFER_OPERATION = "transferWallet";
+    private static final int CREDIT_ATTEMPTS = 3;
+
+    private final WalletServiceImpl delegate;
+    private final SequencerStore store;
+    private final IdempotencyCache idempotencyCache;
+    private final List<WalletSequencer> sequencers;
+
+    @Autowired
+    public SequencedWalletService(WalletServiceImpl delegate,
+                                  SequencerStore store,
+                                  IdempotencyCache idempotencyCache,
+                                  @Value("${sws.wallet.sequencer.partitions}") int partitions,
+                                  @Value("${sws.wallet.sequencer.ring-size}") int ringSize,
+                                  @Value("${sws.wallet.sequencer.max-batch-size}") int maxBatchSize) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("partitions must be positive");
+        }
+        this.delegate = delegate;
+        this.store = store;
+        this.idempotencyCache = idempotencyCache;
+        List<WalletSequencer> sequencers = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            WalletSequencer sequencer = new WalletSequencer("wallet-sequencer-" + i, store, ringSize, maxBatchSize);
+            sequencer.start();
+            sequencers.add(sequencer);
+        }
+        this.sequencers = List.copyOf(sequencers);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        for (WalletSequencer sequencer : sequencers) {
+            sequencer.stop();
+        }
+    }
+
+    /**
+     * Credits, or failing that refunds, every transfer whose debit was journaled before the last shutdown but whose
+     * credit was not.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void settlePendingTransfers() {
+        List<PendingTransferEntity> pending = store.pendingTransfers();
+        if (!pending.isEmpty()) {
+            log.info("Settling {} transfer(s) left pending", pending.size());
+        }
+        for (PendingTransferEntity transfer : pending) {
+            try {
+                settle(transfer.getId(), transfer.getSourceWalletId(), transfer.getTargetWalletId(),
+                        transfer.getAmount(), transfer.getIdempotencyKey());
+            } catch (RuntimeException e) {
+                log.error("Transfer {} could not be credited", transfer.getId(), e);
+            }
+        }
+    }
+
+    @Override
+    public Wallet create(UUID userId) {
+        return delegate.create(userId);
+    }
+
+    @Override
+    public Wallet create(UUID userId, String idempotencyKey) {
+        return delegate.create(userId, idempotencyKey);
+    }
+
+    @Override
+    public Wallet getById(UUID walletId) {
+        return sequencerOf(walletId).journaled(walletId).orElseGet(() -> delegate.getById(walletId));
+    }
+
+    @Override
+    public BigDecimal getCurrentBalance(UUID walletId) {
+        return getById(walletId).balance();
+    }
+
+    @Override
+    public Wallet deposit(UUID walletId, BigDecimal amount) {
+        return deposit(walletId, amount, null);
+    }
+
+    @Override
+    public Wallet deposit(UUID walletId, BigDecimal amount, String idempotencyKey) {
+        return replay(idempotencyKey, DEPOSIT_OPERATION).orElseGet(() -> sequencerOf(walletId).submit(
+                new WalletSequencer.Command(Transaction.Type.DEPOSIT, walletId, null, amount,
+                        idempotencyKey, DEPOSIT_OPERATION, "Wallet not found")));
+    }
+
+    @Override
+    public Wallet withdraw(UUID walletId, BigDecimal amount) {
+        return withdraw(walletId, amount, null);
+    }
+
+    @Override
+    public Wallet withdraw(UUID walletId, BigDecimal amount, String idempotencyKey) {
+        return replay(idempotencyKey, WITHDRAW_OPERATION).orElseGet(() -> sequencerOf(walletId).submit(
+                new WalletSequencer.Command(Transaction.Type.WITHDRAWAL, walletId, null, amount,
+                        idempotencyKey, WITHDRAW_OPERATION, "Wallet not found")));
+    }
+
+    @Override
+    public Wallet transfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount) {
+        return transfer(sourceWalletId, targetWalletId, amount, null);
+    }
+
+    @Override
+    public Wallet transfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount, String idempotencyKey) {
+        Optional<Wallet> replayed = replay(idempotencyKey, TRANSFER_OPERATION);
+        if (replayed.isPresent()) {
+            return replayed.get();
+        }
+        if (!sourceWalletId.equals(targetWalletId) && sequencerOf(targetWalletId).journaled(targetWalletId).isEmpty()
+                && !store.exists(targetWalletId)) {
+            throw new EntityNotFoundException("Target Wallet not found");
+        }
+
+        UUID transferId = UUID.randomUUID();
+        Wallet updatedSource = sequencerOf(sourceWalletId).submit(
+                new WalletSequencer.Command(Transaction.Type.TRANSFER_OUT, sourceWalletId, targetWalletId, amount,
+                        idempotencyKey, TRANSFER_OPERATION, "Source Wallet not found", transferId));
+        settle(transferId, sourceWalletId, targetWalletId, amount, idempotencyKey);
+        return updatedSource;
+    }
+
+    @Override
+    public Wallet stripe(UUID walletId, int stripes) {
+        throw new IllegalArgumentException("Striping is not supported by the sequenced ledger engine");
+    }
+
+    @Override
+    public BigDecimal getHistoricalBalance(UUID walletId, Instant at) {
+        return delegate.getHistoricalBalance(walletId, at);
+    }
+
+    @Override
+    public boolean isSettled(Instant at) {
+        return delegate.isSettled(at);
+    }
+
+    @Override
+    public Stream<List<WalletBalance>> getHistoricalBalances(Set<UUID> walletIds, Instant at) {
+        return delegate.getHistoricalBalances(walletIds, at);
+    }
+
+    @Override
+    public void getBalanceSeries(UUID walletId, BalanceSeries series, Consumer<BalanceSeries.Point> sink) {
+        delegate.getBalanceSeries(walletId, series, sink);
+    }
+
+    @Override
+    public TransactionPage getTransactions(UUID walletId, Set<Transaction.Type> types, Instant from, Instant to,
+                                           String cursor, int limit) {
+        return delegate.getTransactions(walletId, types, from, to, cursor, limit);
+    }
+
+    @Override
+    public void exportTransactions(UUID walletId, Instant from, Instant to, Consumer<LedgerEntry> sink) {
+        delegate.exportTransactions(walletId, from, to, sink);
+    }
+
+    /**
+     * Credits the target of a debited transfer, refunding the source if the credit cannot be journaled. Throws the
+     * credit's error unless the refund found the transfer credited after all.
+     */
+    private void settle(UUID transferId, UUID sourceWalletId, UUID targetWalletId, BigDecimal amount,
+                        String idempotencyKey) {
+        try {
+            credit(targetWalletId, sourceWalletId, amount, null, null, transferId, "Target Wallet not found");
+        } catch (RuntimeException e) {
+            if (refund(transferId, sourceWalletId, targetWalletId, amount, idempotencyKey, e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns false when the transfer was already settled, i.e. its credit was journaled after all.
+     */
+    private boolean refund(UUID transferId, UUID sourceWalletId, UUID targetWalletId, BigDecimal amount,
+                           String idempotencyKey, RuntimeException cause) {
+        log.warn("Transfer of {} from {} to {} was debited but its credit could not be journaled; refunding the source",
+                amount, sourceWalletId, targetWalletId, cause);
+        try {
+            return credit(sourceWalletId, targetWalletId, amount, idempotencyKey, TRANSFER_OPERATION, transferId,
+                    "Source Wallet not found") != null;
+        } catch (RuntimeException e) {
+            log.error("Transfer of {} from {} to {} was debited but neither credited nor refunded; it stays pending",
+                    amount, sourceWalletId, targetWalletId, e);
+            cause.addSuppressed(e);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the credited wallet, or {@code null} if the transfer was already settled and nothing was credited.
+     */
+    private Wallet credit(UUID walletId, UUID counterpartWalletId, BigDecimal amount, String idempotencyKey,
+                          String operation, UUID transferId, String notFoundMessage) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return sequencerOf(walletId).submit(new WalletSequencer.Command(Transaction.Type.TRANSFER_IN,
+                        walletId, counterpartWalletId, amount, idempotencyKey, operation, notFoundMessage,
+                        transferId));
+            } catch (RuntimeException e) {
+                if (attempt == CREDIT_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Optional<Wallet> replay(String idempotencyKey, String operation) {
+        if (idempotencyKey == null) {
+            return Optional.empty();
+        }
+        return idempotencyCache.find(idempotencyKey, operation, Wallet.class, this::getById);
+    }
+
+    private WalletSequencer sequencerOf(UUID walletId) {
+        return sequencers.get(Math.floorMod(walletId.hashCode(), sequencers.size()));
+    }
+}
@@ -0,0 +1,121 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.infrastructure.entity.PendingTransferEntity;
+import com.rissatto.sws.infrastructure.repository.PendingTransferRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import jakarta.persistence.EntityNotFoundException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Database side of the {@link WalletSequencer}s: loads a wallet the first time its sequencer touches it and journals
+ * each applied batch (wallet rows, ledger rows, idempotency keys, pending transfers) in one transaction.
+ */
+@Component
+@Profile("sequencer")
+public class SequencerStore {
+
+    private final WalletRepository walletRepository;
+    private final TransactionRepository transactionRepository;
+    private final PendingTransferRepository pendingTransferRepository;
+    private final IdempotencyCache idempotencyCache;
+    private final BalanceIndex balanceIndex;
+    private final WalletCache walletCache;
+    private final WalletServiceImpl walletService;
+
+    @Autowired
+    public SequencerStore(WalletRepository walletRepository,
+                          TransactionRepository transactionRepository,
+                          PendingTransferRepository pendingTransferRepository,
+                          IdempotencyCache idempotencyCache,
+                          BalanceIndex balanceIndex,
+                          WalletCache walletCache,
+                          WalletServiceImpl walletService) {
+        this.walletRepository = walletRepository;
+        this.transactionRepository = transactionRepository;
+        this.pendingTransferRepository = pendingTransferRepository;
+        this.idempotencyCache = idempotencyCache;
+        this.balanceIndex = balanceIndex;
+        this.walletCache = walletCache;
+        this.walletService = walletService;
+    }
+
+    /**
+     * Reads the wallet row, folding any stripes left from before the sequencer owned the wallet back into it first.
+     */
+    public VersionedWallet load(UUID walletId, String notFoundMessage) {
+        VersionedWallet wallet = walletRepository.findVersionedById(walletId)
+                .orElseThrow(() -> new EntityNotFoundException(notFoundMessage));
+        if (wallet.getStripes() == 0) {
+            return wallet;
+        }
+        walletService.stripe(walletId, 0);
+        return walletRepository.findVersionedById(walletId)
+                .orElseThrow(() -> new EntityNotFoundException(notFoundMessage));
+    }
+
+    public boolean exists(UUID walletId) {
+        return walletRepository.existsById(walletId);
+    }
+
+    /**
+     * The transfers whose debit was journaled but whose credit or refund was not.
+     */
+    public List<PendingTransferEntity> pendingTransfers() {
+        return pendingTransferRepository.findAll();
+    }
+
+    /**
+     * Writes a batch back. Each wallet row is compare-and-set against the version the sequencer loaded it at; a
+     * mismatch means something other than the sequencer wrote the wallet, and rolls the whole batch back. Keys
+     * released by refunds are deleted in the same transaction as the refunds' ledger rows, and the transfers opened by
+     * debits are inserted in the same transaction as the debits'.
+     * <p>
+     * The pending transfers the batch settles are deleted first, in id order, then the keys its refunds release, so a
+     * retry in the same batch can store its key again, then its idempotency keys inserted, in key order. Transfers
+     * already deleted and keys already stored by another batch are returned and the transaction rolled back without
+     * writing anything else, so the sequencer can journal the batch again without their commands; no conflicts means
+     * the batch was written.
+     */
+    @Transactional
+    public WalletSequencer.Conflicts journal(WalletSequencer.Journal journal) {
+        Set<UUID> settledElsewhere = new LinkedHashSet<>();
+        journal.settledTransfers().stream()
+                .sorted()
+                .filter(transferId -> pendingTransferRepository.settle(transferId) == 0)
+                .forEach(settledElsewhere::add);
+        journal.releasedKeys().forEach(key -> idempotencyCache.revoke(key.idempotencyKey(), key.operation()));
+        Set<String> takenElsewhere = idempotencyCache.storeAll(journal.idempotencyKeys()).stream()
+                .map(key -> WalletSequencer.keyId(key.idempotencyKey(), key.operation()))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        WalletSequencer.Conflicts conflicts = new WalletSequencer.Conflicts(settledElsewhere, takenElsewhere);
+        if (!conflicts.isEmpty()) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return conflicts;
+        }
+
+        for (WalletSequencer.Account account : journal.accounts()) {
+            int updated = walletRepository.compareAndSet(account.wallet().id(), account.version(),
+                    account.wallet().balance(), account.lastSequenceNumber(), account.lastTransactionAt());
+            if (updated != 1) {
+                throw new IllegalStateException("Wallet " + account.wallet().id() + " was written outside its sequencer");
+            }
+            walletCache.putAfterCommit(account.wallet(), account.lastSequenceNumber());
+        }
+        transactionRepository.saveAll(journal.ledger());
+        journal.ledger().forEach(balanceIndex::appendAfterCommit);
+        pendingTransferRepository.saveAll(journal.openedTransfers());
+        return conflicts;
+    }
+}
@@ -0,0 +1,47 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A page of a wallet's ledger, newest first. {@code nextCursor} resumes the listing right after the page's last row,
+ * and is {@code null} on the last page.
+ */
+public record TransactionPage(List<LedgerEntry> transactions, String nextCursor) {
+
+    static TransactionPage of(List<LedgerEntry> transactions, boolean hasNext) {
+        if (!hasNext) {
+            return new TransactionPage(transactions, null);
+        }
+        LedgerEntry last = transactions.get(transactions.size() - 1);
+        return new TransactionPage(transactions, new Position(last.getTimestamp(), last.getId()).encode());
+    }
+
+    /**
+     * The {@code (timestamp, id)} of the last row a page ended on, carried by the cursor as opaque base64url.
+     */
+    record Position(Instant timestamp, UUID id) {
+
+        static Position decode(String cursor) {
+            try {
+                String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = decoded.indexOf('/');
+                return new Position(Instant.parse(decoded.substring(0, separator)),
+                        UUID.fromString(decoded.substring(separator + 1)));
+            } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+                throw new IllegalArgumentException("cursor is invalid");
+            }
+        }
+
+        String encode() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString((timestamp + "/" + id).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -2,14 +2,14 @@ package com.rissatto.sws.application.service;
 
 import com.rissatto.sws.application.mapper.UserMapper;
 import com.rissatto.sws.domain.User;
-import com.rissatto.sws.infrastructure.entity.IdempotencyKey;
 import com.rissatto.sws.infrastructure.entity.UserEntity;
-import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
 import com.rissatto.sws.infrastructure.repository.UserRepository;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.Optional;
 import java.util.UUID;
@@ -19,12 +19,21 @@ public class UserServiceImpl implements UserService {
 
     private static final String OPERATION = "createUser";
     private final UserRepository repository;
-    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final IdempotencyCache idempotencyCache;
+    private final TransactionOperations transactionOperations;
+    private final InFlightRequests<User> inFlight = new InFlightRequests<>();
 
     @Autowired
-    public UserServiceImpl(UserRepository userRepository, IdempotencyKeyRepository idempotencyKeyRepository) {
+    public UserServiceImpl(UserRepository userRepository, IdempotencyCache idempotencyCache,
+                           PlatformTransactionManager transactionManager) {
+        this(userRepository, idempotencyCache, new TransactionTemplate(transactionManager));
+    }
+
+    UserServiceImpl(UserRepository userRepository, IdempotencyCache idempotencyCache,
+                    TransactionOperations transactionOperations) {
         this.repository = userRepository;
-        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.idempotencyCache = idempotencyCache;
+        this.transactionOperations = transactionOperations;
     }
 
     @Override
@@ -32,26 +41,23 @@ public class UserServiceImpl implements UserService {
         return create(name, null);
     }
 
+    /**
+     * Duplicates of a keyed request still running wait for its result before opening a transaction of their own.
+     */
     @Override
-    @Transactional
     public User create(String name, String idempotencyKey) {
-        if (idempotencyKey != null) {
-            Optional<IdempotencyKey> existingIdempotencyKey = idempotencyKeyRepository.findByIdempotencyKeyAndOperation(idempotencyKey, OPERATION);
-            if (existingIdempotencyKey.isPresent()) {
-                UUID resourceId = existingIdempotencyKey.get().getResourceId();
-                return getById(resourceId);
-            }
-        }
-
-        User domain = User.create(name);
-        UserEntity entity = UserMapper.toEntity(domain);
-        repository.save(entity);
-
-        if (idempotencyKey != null) {
-            idempotencyKeyRepository.save(new IdempotencyKey(idempotencyKey, OPERATION, entity.getId()));
+        if (idempotencyKey == null) {
+            return transactionOperations.execute(status -> save(name));
         }
-
-        return UserMapper.toDomain(entity);
+        return inFlight.run(OPERATION + ':' + idempotencyKey, () -> transactionOperations.execute(status -> {
+            Optional<User> replayed = idempotencyCache.claim(idempotencyKey, OPERATION, User.class, this::getById);
+            if (replayed.isPresent()) {
+                return replayed.get();
+            }
+            User created = save(name);
+            idempotencyCache.complete(idempotencyKey, OPERATION, created.id(), created);
+            return created;
+        }));
     }
 
     @Override
@@ -59,4 +65,11 @@ public class UserServiceImpl implements UserService {
         UserEntity entity = repository.findById(id).orElseThrow(() -> new EntityNotFoundException("user not found"));
         return UserMapper.toDomain(entity);
     }
+
+    private User save(String name) {
+        User domain = User.create(name);
+        UserEntity entity = UserMapper.toEntity(domain);
+        repository.save(entity);
+        return UserMapper.toDomain(entity);
+    }
 }
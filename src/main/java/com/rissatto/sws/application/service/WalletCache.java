@@ -0,0 +1,209 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Committed wallets, so current-balance and wallet reads skip the database.
+ * <p>
+ * Every write through this instance puts the wallet it produced once its transaction committed, and reads outside a
+ * transaction put what they read; each entry carries the wallet's ledger sequence number, so a late put never replaces
+ * a newer state. Writes that leave no sequence number (stripe credits, re-striping) drop the wallet instead, leaving a
+ * tombstone until the ttl passes, so a read that raced the write cannot put the state it replaced back: one past the
+ * dropped entry's sequence number, or refusing every put when the wallet was not cached. Striped wallets are never cached, their balance being spread over rows this cache
+ * does not see. Reads inside a transaction bypass it, since they may see that transaction's own uncommitted writes.
+ * <p>
+ * Entries are kept for {@code ttl}, which bounds how stale a wallet written elsewhere (another instance) can be read,
+ * and up to {@code capacity} of them, evicting the least recently read first; a capacity of zero turns the cache off.
+ * Hits, misses, expirations and evictions are exported over JMX as {@code com.rissatto.sws:type=WalletCache}.
+ */
+@Component
+@ManagedResource(objectName = "com.rissatto.sws:type=WalletCache", description = "Committed wallets by id")
+public class WalletCache {
+
+    private final int capacity;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    // Access-ordered, so the least recently read wallet is evicted first; guarded by itself
+    private final LinkedHashMap<UUID, Entry> wallets;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Autowired
+    public WalletCache(@Value("${sws.wallet.cache.capacity}") int capacity,
+                       @Value("${sws.wallet.cache.ttl}") Duration ttl) {
+        this(capacity, ttl, System::nanoTime);
+    }
+
+    WalletCache(int capacity, Duration ttl, LongSupplier nanoClock) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.capacity = capacity;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+        this.wallets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Entry> eldest) {
+                if (size() > WalletCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The wallet as last committed, if cached and not expired. Always empty inside a transaction.
+     */
+    public Optional<Wallet> get(UUID walletId) {
+        if (capacity == 0 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return Optional.empty();
+        }
+        Entry entry;
+        synchronized (wallets) {
+            entry = wallets.get(walletId);
+            if (entry != null && entry.expiresAt() - nanoClock.getAsLong() <= 0) {
+                wallets.remove(walletId);
+                if (entry.wallet() != null) {
+                    expirations.increment();
+                }
+                entry = null;
+            }
+        }
+        if (entry != null && entry.wallet() == null) {
+            entry = null;
+        }
+        (entry == null ? misses : hits).increment();
+        return entry == null ? Optional.empty() : Optional.of(entry.wallet());
+    }
+
+    /**
+     * Caches a wallet read from the database at {@code sequenceNumber}, unless read inside a transaction.
+     */
+    public void put(Wallet wallet, long sequenceNumber) {
+        if (capacity == 0 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return;
+        }
+        store(wallet, sequenceNumber);
+    }
+
+    /**
+     * Caches the wallet a write produced at {@code sequenceNumber} once the current transaction committed.
+     */
+    public void putAfterCommit(Wallet wallet, long sequenceNumber) {
+        if (capacity == 0) {
+            return;
+        }
+        afterCommit(() -> store(wallet, sequenceNumber));
+    }
+
+    /**
+     * Drops the wallet once the current transaction committed, for writes whose resulting wallet is not known. Until the
+     * ttl passes, puts at or below the dropped entry's sequence number are refused, or every put if none was cached.
+     */
+    public void evictAfterCommit(UUID walletId) {
+        if (capacity == 0) {
+            return;
+        }
+        afterCommit(() -> {
+            long now = nanoClock.getAsLong();
+            synchronized (wallets) {
+                Entry current = wallets.get(walletId);
+                // Without a cached entry the sequence number the write left behind is unknown
+                long floor = Long.MAX_VALUE;
+                if (current != null && current.expiresAt() - now > 0) {
+                    floor = current.wallet() == null ? current.sequenceNumber() : current.sequenceNumber() + 1;
+                }
+                wallets.put(walletId, new Entry(null, floor, now + ttlNanos));
+            }
+        });
+    }
+
+    @ManagedAttribute(description = "Whether wallet reads are answered from the cache")
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    @ManagedAttribute(description = "Wallets currently cached, including tombstones of dropped ones")
+    public int getSize() {
+        synchronized (wallets) {
+            return wallets.size();
+        }
+    }
+
+    @ManagedAttribute(description = "Wallet reads answered from the cache")
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @ManagedAttribute(description = "Wallet reads that went to the database")
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @ManagedAttribute(description = "Share of wallet reads answered from the cache")
+    public double getHitRate() {
+        long lookups = hits.sum() + misses.sum();
+        return lookups == 0 ? 0 : (double) hits.sum() / lookups;
+    }
+
+    @ManagedAttribute(description = "Wallets dropped once older than the ttl")
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    @ManagedAttribute(description = "Least recently read wallets dropped to stay within capacity")
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private void store(Wallet wallet, long sequenceNumber) {
+        long now = nanoClock.getAsLong();
+        synchronized (wallets) {
+            Entry current = wallets.get(wallet.id());
+            if (current != null && current.sequenceNumber() > sequenceNumber && current.expiresAt() - now > 0) {
+                return;
+            }
+            wallets.put(wallet.id(), new Entry(wallet, sequenceNumber, now + ttlNanos));
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    // A null wallet is a tombstone: the lowest sequence number a put must carry
+    private record Entry(Wallet wallet, long sequenceNumber, long expiresAt) {
+    }
+}
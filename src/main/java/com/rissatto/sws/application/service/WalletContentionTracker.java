@@ -0,0 +1,174 @@
+package com.rissatto.sws.application.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Picks the {@link WalletWriteMode#ADAPTIVE} strategy of each wallet from the contention its writes ran into.
+ * <p>
+ * Every wallet starts {@link WalletWriteMode#OPTIMISTIC}. Each compare-and-set feeds an exponentially smoothed conflict
+ * rate; once it rises above {@code lock-above-conflict-rate} the wallet switches to {@link WalletWriteMode#PESSIMISTIC}.
+ * From then on each row lock feeds a smoothed lock-wait rate (a lock counts as waited for when it took longer than
+ * {@code lock-wait}); once that falls below {@code unlock-below-wait-rate} the wallet goes back to optimistic. A wallet
+ * that switched starts with the rate that made it switch, so it takes a run of calm writes to flip it back.
+ * <p>
+ * Only the {@code capacity} most recently written wallets are tracked; a wallet that drops out starts over as
+ * optimistic. The counters are exported over JMX as {@code com.rissatto.sws:type=WalletContention}.
+ */
+@Component
+@ManagedResource(objectName = "com.rissatto.sws:type=WalletContention",
+        description = "Per-wallet choice between optimistic and locked writes")
+public class WalletContentionTracker {
+
+    private static final double SMOOTHING = 0.1;
+
+    private final double lockAboveConflictRate;
+    private final double unlockBelowWaitRate;
+    private final long lockWaitNanos;
+    private final Map<UUID, Contention> wallets;
+
+    private final LongAdder compareAndSets = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder locks = new LongAdder();
+    private final LongAdder lockWaits = new LongAdder();
+    private final LongAdder switchesToLocking = new LongAdder();
+    private final LongAdder switchesToOptimistic = new LongAdder();
+
+    @Autowired
+    public WalletContentionTracker(@Value("${sws.wallet.adaptive.capacity}") int capacity,
+                                   @Value("${sws.wallet.adaptive.lock-above-conflict-rate}") double lockAboveConflictRate,
+                                   @Value("${sws.wallet.adaptive.unlock-below-wait-rate}") double unlockBelowWaitRate,
+                                   @Value("${sws.wallet.adaptive.lock-wait}") Duration lockWait) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (unlockBelowWaitRate >= lockAboveConflictRate) {
+            throw new IllegalArgumentException("unlock-below-wait-rate must be lower than lock-above-conflict-rate");
+        }
+        this.lockAboveConflictRate = lockAboveConflictRate;
+        this.unlockBelowWaitRate = unlockBelowWaitRate;
+        this.lockWaitNanos = lockWait.toNanos();
+        this.wallets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Contention> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns {@link WalletWriteMode#OPTIMISTIC} or {@link WalletWriteMode#PESSIMISTIC} for the next write to the wallet.
+     */
+    public WalletWriteMode strategyFor(UUID walletId) {
+        synchronized (wallets) {
+            Contention contention = wallets.get(walletId);
+            return contention != null && contention.locking ? WalletWriteMode.PESSIMISTIC : WalletWriteMode.OPTIMISTIC;
+        }
+    }
+
+    public void recordCompareAndSet(UUID walletId, boolean conflicted) {
+        compareAndSets.increment();
+        if (conflicted) {
+            conflicts.increment();
+        }
+        synchronized (wallets) {
+            Contention contention = wallets.computeIfAbsent(walletId, id -> new Contention());
+            contention.conflictRate = smooth(contention.conflictRate, conflicted);
+            if (!contention.locking && contention.conflictRate > lockAboveConflictRate) {
+                contention.locking = true;
+                contention.lockWaitRate = contention.conflictRate;
+                switchesToLocking.increment();
+            }
+        }
+    }
+
+    public void recordLock(UUID walletId, long waitedNanos) {
+        boolean waited = waitedNanos > lockWaitNanos;
+        locks.increment();
+        if (waited) {
+            lockWaits.increment();
+        }
+        synchronized (wallets) {
+            Contention contention = wallets.get(walletId);
+            if (contention == null || !contention.locking) {
+                // an optimistic wallet only locks after running out of retries, which its conflict rate already shows
+                return;
+            }
+            contention.lockWaitRate = smooth(contention.lockWaitRate, waited);
+            if (contention.lockWaitRate < unlockBelowWaitRate) {
+                contention.locking = false;
+                contention.conflictRate = contention.lockWaitRate;
+                switchesToOptimistic.increment();
+            }
+        }
+    }
+
+    @ManagedOperation(description = "Current strategy of a wallet: OPTIMISTIC or PESSIMISTIC")
+    public String strategyOf(String walletId) {
+        return strategyFor(UUID.fromString(walletId)).name();
+    }
+
+    @ManagedAttribute(description = "Wallets currently tracked")
+    public int getTrackedWallets() {
+        synchronized (wallets) {
+            return wallets.size();
+        }
+    }
+
+    @ManagedAttribute(description = "Tracked wallets currently written under a row lock")
+    public int getLockingWallets() {
+        synchronized (wallets) {
+            return (int) wallets.values().stream().filter(contention -> contention.locking).count();
+        }
+    }
+
+    @ManagedAttribute(description = "Compare-and-set attempts")
+    public long getCompareAndSets() {
+        return compareAndSets.sum();
+    }
+
+    @ManagedAttribute(description = "Compare-and-set attempts that lost to a concurrent writer")
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    @ManagedAttribute(description = "Row locks taken")
+    public long getLocks() {
+        return locks.sum();
+    }
+
+    @ManagedAttribute(description = "Row locks that took longer than lock-wait")
+    public long getLockWaits() {
+        return lockWaits.sum();
+    }
+
+    @ManagedAttribute(description = "Times a wallet switched from optimistic to locked writes")
+    public long getSwitchesToLocking() {
+        return switchesToLocking.sum();
+    }
+
+    @ManagedAttribute(description = "Times a wallet switched from locked back to optimistic writes")
+    public long getSwitchesToOptimistic() {
+        return switchesToOptimistic.sum();
+    }
+
+    private static double smooth(double rate, boolean hit) {
+        return rate + SMOOTHING * ((hit ? 1d : 0d) - rate);
+    }
+
+    private static final class Contention {
+        private boolean locking;
+        private double conflictRate;
+        private double lockWaitRate;
+    }
+}
@@ -0,0 +1,41 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.domain.Wallet;
+
+import java.math.BigDecimal;
+
+/**
+ * A deposit or withdrawal waiting to be applied as part of a batch on one wallet.
+ */
+public record WalletOperation(Transaction.Type type, BigDecimal amount, String idempotencyKey) {
+
+    public static WalletOperation deposit(BigDecimal amount, String idempotencyKey) {
+        return new WalletOperation(Transaction.Type.DEPOSIT, amount, idempotencyKey);
+    }
+
+    public static WalletOperation withdrawal(BigDecimal amount, String idempotencyKey) {
+        return new WalletOperation(Transaction.Type.WITHDRAWAL, amount, idempotencyKey);
+    }
+
+    /**
+     * Outcome of one operation in a batch: the wallet right after it was applied, or the error that rejected it.
+     */
+    public record Result(Wallet wallet, RuntimeException error) {
+
+        public static Result applied(Wallet wallet) {
+            return new Result(wallet, null);
+        }
+
+        public static Result rejected(RuntimeException error) {
+            return new Result(null, error);
+        }
+
+        public Wallet orThrow() {
+            if (error != null) {
+                throw error;
+            }
+            return wallet;
+        }
+    }
+}
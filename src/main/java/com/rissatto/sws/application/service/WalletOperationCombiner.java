@@ -0,0 +1,114 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Group commit per wallet. The first caller to reach a wallet with no open batch leads one: it waits up to
+ * {@code maxDelay} for other callers on the same wallet to join (or until {@code maxBatchSize} did), applies the
+ * whole batch with one call and hands every caller its own result. Callers arriving while a batch is being applied
+ * open the next one.
+ */
+final class WalletOperationCombiner {
+
+    private final BiFunction<UUID, List<WalletOperation>, List<WalletOperation.Result>> applier;
+    private final long maxDelayNanos;
+    private final int maxBatchSize;
+    private final ConcurrentMap<UUID, Batch> openBatches = new ConcurrentHashMap<>();
+
+    WalletOperationCombiner(BiFunction<UUID, List<WalletOperation>, List<WalletOperation.Result>> applier,
+                            Duration maxDelay,
+                            int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.applier = applier;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    Wallet submit(UUID walletId, WalletOperation operation) {
+        Pending pending = new Pending(operation);
+        while (true) {
+            Batch batch = openBatches.computeIfAbsent(walletId, id -> new Batch());
+            int position = batch.offer(pending);
+            if (position < 0) {
+                // Closed by its leader, which has not removed it yet
+                openBatches.remove(walletId, batch);
+                continue;
+            }
+            if (position == 0) {
+                lead(walletId, batch);
+            }
+            return pending.result.join().orThrow();
+        }
+    }
+
+    private void lead(UUID walletId, Batch batch) {
+        List<Pending> pendings = batch.awaitAndClose(System.nanoTime() + maxDelayNanos);
+        openBatches.remove(walletId, batch);
+        try {
+            List<WalletOperation.Result> results = applier.apply(walletId,
+                    pendings.stream().map(Pending::operation).toList());
+            for (int i = 0; i < pendings.size(); i++) {
+                pendings.get(i).result.complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            pendings.forEach(p -> p.result.complete(WalletOperation.Result.rejected(e)));
+        } finally {
+            pendings.forEach(p -> p.result.complete(
+                    WalletOperation.Result.rejected(new IllegalStateException("Batch was not applied"))));
+        }
+    }
+
+    private record Pending(WalletOperation operation, CompletableFuture<WalletOperation.Result> result) {
+
+        Pending(WalletOperation operation) {
+            this(operation, new CompletableFuture<>());
+        }
+    }
+
+    private final class Batch {
+
+        private final List<Pending> pendings = new ArrayList<>();
+        private boolean closed;
+
+        /**
+         * Joins the batch and returns the position in it, or -1 when the batch is already closed.
+         */
+        synchronized int offer(Pending pending) {
+            if (closed) {
+                return -1;
+            }
+            pendings.add(pending);
+            if (pendings.size() >= maxBatchSize) {
+                closed = true;
+                notifyAll();
+            }
+            return pendings.size() - 1;
+        }
+
+        synchronized List<Pending> awaitAndClose(long deadlineNanos) {
+            long remaining;
+            while (!closed && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+            return List.copyOf(pendings);
+        }
+    }
+}
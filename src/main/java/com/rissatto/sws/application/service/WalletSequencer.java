@@ -0,0 +1,378 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.application.mapper.TransactionMapper;
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.PendingTransferEntity;
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single writer for the wallets of one partition. Callers put commands on a bounded ring buffer (blocking while it is
+ * full); one thread drains up to {@code maxBatchSize} of them at a time, applies each to the wallet it keeps in memory
+ * with the {@link Wallet} rules and no locks, journals the whole batch through the {@link SequencerStore} in one
+ * transaction and only then hands every caller its result.
+ * <p>
+ * When a batch cannot be journaled its callers get the error and its wallets are dropped from memory, to be reloaded
+ * from the database on their next command. A transfer's debit opens a pending transfer in its batch, and the credit
+ * or refund settles it in theirs; one whose transfer turns out to be settled already is left out and the rest of its
+ * batch journaled again without it, so a transfer is credited or refunded at most once. Idempotency keys are inserted
+ * by the journal like claims: a command whose key another sequencer's batch stored first fails, and the rest of its
+ * batch is journaled again without it.
+ */
+final class WalletSequencer {
+
+    private static final Logger log = LoggerFactory.getLogger(WalletSequencer.class);
+    private static final int RECENT_IDEMPOTENCY_KEYS = 10_000;
+
+    private final SequencerStore store;
+    private final BlockingQueue<Command> ring;
+    private final int maxBatchSize;
+    private final Thread thread;
+    private final Map<UUID, Account> accounts = new HashMap<>();
+    private final Map<UUID, Wallet> journaled = new ConcurrentHashMap<>();
+    private final Map<String, Wallet> recentIdempotencyKeys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Wallet> eldest) {
+            return size() > RECENT_IDEMPOTENCY_KEYS;
+        }
+    };
+    private volatile boolean running = true;
+
+    WalletSequencer(String name, SequencerStore store, int ringSize, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.store = store;
+        this.ring = new ArrayBlockingQueue<>(ringSize);
+        this.maxBatchSize = maxBatchSize;
+        this.thread = Thread.ofPlatform().name(name).daemon().unstarted(this::run);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() throws InterruptedException {
+        running = false;
+        thread.interrupt();
+        thread.join();
+        List<Command> abandoned = new ArrayList<>();
+        ring.drainTo(abandoned);
+        abandoned.forEach(command -> command.result().completeExceptionally(new IllegalStateException("Sequencer stopped")));
+    }
+
+    /**
+     * Applies the command and returns the wallet right after it, once journaled; {@code null} for a credit whose
+     * transfer was already settled, which is not applied.
+     */
+    Wallet submit(Command command) {
+        if (!running) {
+            throw new IllegalStateException("Sequencer stopped");
+        }
+        try {
+            ring.put(command);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the sequencer", e);
+        }
+        try {
+            return command.result().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The wallet as last journaled, if this sequencer has touched it since it started.
+     */
+    Optional<Wallet> journaled(UUID walletId) {
+        return Optional.ofNullable(journaled.get(walletId));
+    }
+
+    private void run() {
+        List<Command> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                Command first = ring.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                ring.drainTo(batch, maxBatchSize - 1);
+                apply(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Sequencer batch failed", e);
+                batch.forEach(command -> command.result().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void apply(List<Command> batch) {
+        Set<UUID> settledElsewhere = new HashSet<>();
+        Set<String> takenElsewhere = new HashSet<>();
+        Conflicts conflicts;
+        do {
+            conflicts = apply(batch, settledElsewhere, takenElsewhere);
+            settledElsewhere.addAll(conflicts.settledTransfers());
+            takenElsewhere.addAll(conflicts.takenKeys());
+        } while (!conflicts.isEmpty());
+    }
+
+    /**
+     * Applies and journals the commands not answered yet, skipping credits of the transfers in {@code settledElsewhere}
+     * and failing commands whose key is in {@code takenElsewhere}. Returns what the journal found settled or taken
+     * already, in which case nothing was written and nobody answered.
+     */
+    private Conflicts apply(List<Command> batch, Set<UUID> settledElsewhere, Set<String> takenElsewhere) {
+        Map<UUID, Account> touched = new LinkedHashMap<>();
+        List<TransactionEntity> ledger = new ArrayList<>(batch.size());
+        Map<String, IdempotencyCache.Completion> keys = new HashMap<>();
+        Map<String, ReleasedKey> released = new HashMap<>();
+        List<PendingTransferEntity> opened = new ArrayList<>();
+        Set<UUID> settled = new LinkedHashSet<>();
+        List<Command> acknowledged = new ArrayList<>(batch.size());
+        List<Wallet> results = new ArrayList<>(batch.size());
+
+        for (Command command : batch) {
+            if (command.result().isDone()) {
+                continue;
+            }
+            if (command.settles() && (settledElsewhere.contains(command.transferId())
+                    || settled.contains(command.transferId()))) {
+                command.result().complete(null);
+                continue;
+            }
+
+            Account account;
+            try {
+                account = touched.containsKey(command.walletId())
+                        ? touched.get(command.walletId())
+                        : account(command.walletId(), command.notFoundMessage());
+            } catch (RuntimeException e) {
+                command.result().completeExceptionally(e);
+                continue;
+            }
+
+            String keyId = command.idempotencyKey() == null ? null : keyId(command.idempotencyKey(), command.operation());
+            if (keyId != null && !command.refund() && takenElsewhere.contains(keyId)) {
+                command.result().completeExceptionally(new IllegalStateException(String.format(
+                        "Idempotency key %s for %s was used concurrently", command.idempotencyKey(), command.operation())));
+                continue;
+            }
+            Wallet replayed = keyId == null || command.refund() ? null
+                    : keys.containsKey(keyId) ? (Wallet) keys.get(keyId).response() : recentIdempotencyKeys.get(keyId);
+            if (replayed != null) {
+                acknowledged.add(command);
+                results.add(replayed);
+                continue;
+            }
+
+            Wallet updated;
+            Transaction transaction;
+            try {
+                updated = command.applyTo(account.wallet());
+                transaction = command.transaction();
+            } catch (IllegalArgumentException | NullPointerException e) {
+                command.result().completeExceptionally(e);
+                continue;
+            }
+
+            Account next = account.next(updated, transaction.timestamp());
+            TransactionEntity entity = TransactionMapper.toEntity(transaction, updated.balance(), next.lastSequenceNumber());
+            entity.setTimestamp(next.lastTransactionAt());
+            ledger.add(entity);
+            touched.put(command.walletId(), next);
+            if (command.settles()) {
+                settled.add(command.transferId());
+            } else if (command.transferId() != null) {
+                opened.add(new PendingTransferEntity(command.transferId(), command.walletId(),
+                        command.counterpartWalletId(), command.amount(), command.idempotencyKey()));
+            }
+            if (keyId != null && command.refund()) {
+                keys.remove(keyId);
+                released.put(keyId, new ReleasedKey(command.idempotencyKey(), command.operation()));
+            } else if (keyId != null) {
+                keys.put(keyId, new IdempotencyCache.Completion(command.idempotencyKey(), command.operation(),
+                        command.walletId(), updated));
+            }
+            acknowledged.add(command);
+            results.add(updated);
+        }
+
+        try {
+            if (!touched.isEmpty()) {
+                Conflicts conflicts = store.journal(new Journal(touched.values(), ledger, keys.values(),
+                        released.values(), opened, settled));
+                if (!conflicts.isEmpty()) {
+                    return conflicts;
+                }
+            }
+        } catch (RuntimeException e) {
+            touched.keySet().forEach(walletId -> {
+                accounts.remove(walletId);
+                journaled.remove(walletId);
+            });
+            acknowledged.forEach(command -> command.result().completeExceptionally(e));
+            return Conflicts.NONE;
+        }
+
+        touched.forEach((walletId, account) -> {
+            Account committed = account.withVersion(account.version() + 1);
+            accounts.put(walletId, committed);
+            journaled.put(walletId, committed.wallet());
+        });
+        released.keySet().forEach(recentIdempotencyKeys::remove);
+        keys.forEach((keyId, key) -> recentIdempotencyKeys.put(keyId, (Wallet) key.response()));
+        for (int i = 0; i < acknowledged.size(); i++) {
+            acknowledged.get(i).result().complete(results.get(i));
+        }
+        return Conflicts.NONE;
+    }
+
+    static String keyId(String idempotencyKey, String operation) {
+        return operation + ':' + idempotencyKey;
+    }
+
+    private Account account(UUID walletId, String notFoundMessage) {
+        Account account = accounts.get(walletId);
+        if (account == null) {
+            VersionedWallet loaded = store.load(walletId, notFoundMessage);
+            account = new Account(new Wallet(loaded.getId(), loaded.getUserId(), loaded.getBalance()),
+                    loaded.getVersion(), loaded.getLastSequenceNumber(), loaded.getLastTransactionAt());
+            accounts.put(walletId, account);
+        }
+        return account;
+    }
+
+    /**
+     * A wallet as owned by its sequencer: its balance and the version, sequence number and ledger timestamp of its row.
+     * Within a batch the version stays the one the row was journaled at, which the batch compare-and-sets against.
+     */
+    record Account(Wallet wallet, long version, long lastSequenceNumber, Instant lastTransactionAt) {
+
+        Account next(Wallet updated, Instant timestamp) {
+            Instant stamped = lastTransactionAt == null || timestamp.isAfter(lastTransactionAt) ? timestamp : lastTransactionAt;
+            return new Account(updated, version, lastSequenceNumber + 1, stamped);
+        }
+
+        Account withVersion(long version) {
+            return new Account(wallet, version, lastSequenceNumber, lastTransactionAt);
+        }
+    }
+
+    /**
+     * An idempotency key given back by a refund, so the operation it recorded can run again.
+     */
+    record ReleasedKey(String idempotencyKey, String operation) {
+    }
+
+    /**
+     * What one batch writes: the wallet rows, the ledger, the idempotency keys stored and released, the transfers its
+     * debits opened and those its credits settle.
+     */
+    record Journal(Collection<Account> accounts,
+                   List<TransactionEntity> ledger,
+                   Collection<IdempotencyCache.Completion> idempotencyKeys,
+                   Collection<ReleasedKey> releasedKeys,
+                   List<PendingTransferEntity> openedTransfers,
+                   Set<UUID> settledTransfers) {
+    }
+
+    /**
+     * What a batch found already done by another: transfers already settled and idempotency keys (as
+     * {@code operation:key}) already stored. When not empty the batch was rolled back.
+     */
+    record Conflicts(Set<UUID> settledTransfers, Set<String> takenKeys) {
+
+        static final Conflicts NONE = new Conflicts(Set.of(), Set.of());
+
+        boolean isEmpty() {
+            return settledTransfers.isEmpty() && takenKeys.isEmpty();
+        }
+    }
+
+    /**
+     * One mutation of one wallet. A transfer is two commands sharing a {@code transferId}: the debit on the source,
+     * carrying the idempotency key, which opens the pending transfer, then the credit on the target, which settles it.
+     * A credit that carries an idempotency key is a refund of a debit whose credit could not be journaled: it settles
+     * the transfer on the source and releases the key the debit stored instead of storing one.
+     */
+    record Command(Transaction.Type type,
+                   UUID walletId,
+                   UUID counterpartWalletId,
+                   BigDecimal amount,
+                   String idempotencyKey,
+                   String operation,
+                   String notFoundMessage,
+                   UUID transferId,
+                   CompletableFuture<Wallet> result) {
+
+        Command(Transaction.Type type, UUID walletId, UUID counterpartWalletId, BigDecimal amount,
+                String idempotencyKey, String operation, String notFoundMessage) {
+            this(type, walletId, counterpartWalletId, amount, idempotencyKey, operation, notFoundMessage, null);
+        }
+
+        Command(Transaction.Type type, UUID walletId, UUID counterpartWalletId, BigDecimal amount,
+                String idempotencyKey, String operation, String notFoundMessage, UUID transferId) {
+            this(type, walletId, counterpartWalletId, amount, idempotencyKey, operation, notFoundMessage, transferId,
+                    new CompletableFuture<>());
+        }
+
+        boolean refund() {
+            return type == Transaction.Type.TRANSFER_IN && idempotencyKey != null;
+        }
+
+        boolean settles() {
+            return type == Transaction.Type.TRANSFER_IN && transferId != null;
+        }
+
+        Wallet applyTo(Wallet wallet) {
+            return switch (type) {
+                case DEPOSIT, TRANSFER_IN -> wallet.deposit(amount);
+                case WITHDRAWAL -> wallet.withdraw(amount);
+                case TRANSFER_OUT -> wallet.transferTo(new Wallet(counterpartWalletId, wallet.userId(), BigDecimal.ZERO), amount)
+                        .source();
+            };
+        }
+
+        Transaction transaction() {
+            return switch (type) {
+                case DEPOSIT -> Transaction.createDeposit(walletId, amount);
+                case WITHDRAWAL -> Transaction.createWithdrawal(walletId, amount);
+                case TRANSFER_IN -> Transaction.createTransferIn(walletId, amount);
+                case TRANSFER_OUT -> Transaction.createTransferOut(walletId, amount);
+            };
+        }
+    }
+}
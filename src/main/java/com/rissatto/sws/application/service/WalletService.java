@@ -1,10 +1,17 @@
 package com.rissatto.sws.application.service;
 
+import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.WalletBalance;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public interface WalletService {
 
@@ -28,5 +35,44 @@ public interface WalletService {
 
     Wallet transfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount, String idempotencyKey);
 
+    /**
+     * Spreads future credits to the wallet over {@code stripes} sub-balance rows (0 turns striping off), folding any
+     * existing stripes back into the wallet first.
+     */
+    Wallet stripe(UUID walletId, int stripes);
+
     BigDecimal getHistoricalBalance(UUID walletId, Instant at);
+
+    /**
+     * Whether every write stamped at or before {@code at} has committed, so balances read at it will never change.
+     */
+    boolean isSettled(Instant at);
+
+    /**
+     * Balances of the given wallets at {@code at}, computed lazily one chunk of ids (one query) at a time as the
+     * returned stream is consumed. Wallets that do not exist are left out. The arguments are checked right away.
+     */
+    Stream<List<WalletBalance>> getHistoricalBalances(Set<UUID> walletIds, Instant at);
+
+    /**
+     * Hands {@code sink} the wallet's balance at every instant of {@code series}, in order: one balance lookup at
+     * {@code from}, then a single pass over the ledger rows up to the last instant, read from a database cursor in a
+     * read-only transaction.
+     */
+    void getBalanceSeries(UUID walletId, BalanceSeries series, Consumer<BalanceSeries.Point> sink);
+
+    /**
+     * A page of at most {@code limit} ledger rows of the wallet, newest first, of the given types (all when empty)
+     * with {@code from <= timestamp < to} (either may be {@code null}). {@code cursor} is the previous page's
+     * {@link TransactionPage#nextCursor()}, or {@code null} for the first page; keep the filters the same across pages.
+     */
+    TransactionPage getTransactions(UUID walletId, Set<Transaction.Type> types, Instant from, Instant to, String cursor,
+                                    int limit);
+
+    /**
+     * Hands the wallet's ledger rows with {@code from <= timestamp < to} (either may be {@code null}) to {@code sink},
+     * oldest first, one at a time as they are read from a database cursor in a read-only transaction. An unknown wallet
+     * has no rows.
+     */
+    void exportTransactions(UUID walletId, Instant from, Instant to, Consumer<LedgerEntry> sink);
 }
\ No newline at end of file
@@ -4,21 +4,51 @@ import com.rissatto.sws.application.mapper.TransactionMapper;
 import com.rissatto.sws.application.mapper.WalletMapper;
 import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.domain.Wallet;
-import com.rissatto.sws.infrastructure.entity.IdempotencyKey;
+import com.rissatto.sws.infrastructure.archive.ArchivedTransaction;
+import com.rissatto.sws.infrastructure.archive.LedgerArchive;
 import com.rissatto.sws.infrastructure.entity.TransactionEntity;
 import com.rissatto.sws.infrastructure.entity.WalletEntity;
-import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
+import com.rissatto.sws.infrastructure.entity.WalletStripeEntity;
 import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerMovement;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.WalletBalance;
 import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.WalletState;
+import com.rissatto.sws.infrastructure.repository.WalletStripeRepository;
 import jakarta.persistence.EntityNotFoundException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 @Service
 public class WalletServiceImpl implements WalletService {
@@ -27,15 +57,78 @@ public class WalletServiceImpl implements WalletService {
     private static final String DEPOSIT_OPERATION = "depositWallet";
     private static final String WITHDRAW_OPERATION = "withdrawWallet";
     private static final String TRANSFER_OPERATION = "transferWallet";
+    private static final int MAX_STRIPES = 64;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_BALANCE_WALLETS = 100_000;
+    // Wallet ids per grouped balance query, well under the JDBC bind-parameter limit
+    private static final int BALANCE_CHUNK_SIZE = 1000;
+    // Upper bound of an open-ended history range; ledger timestamps are never in the future
+    private static final Instant END_OF_LEDGER = Instant.parse("9999-12-31T00:00:00Z");
     private final WalletRepository walletRepository;
+    private final WalletStripeRepository walletStripeRepository;
     private final TransactionRepository transactionRepository;
-    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final IdempotencyCache idempotencyCache;
+    private final WalletWriteModes writeModes;
+    private final OptimisticRetryPolicy retryPolicy;
+    private final WalletContentionTracker contentionTracker;
+    private final BalanceIndex balanceIndex;
+    private final HistoricalBalanceCache historicalBalanceCache;
+    private final LedgerArchive ledgerArchive;
+    private final WalletCache walletCache;
+    private final boolean trackContention;
+    private final TransactionOperations transactionOperations;
+    private final InFlightRequests<Wallet> inFlight = new InFlightRequests<>();
+    // Wallets last seen striped, so only their deposits try a stripe; a stale entry costs a stripe update that
+    // matches nothing, a missing one a locked deposit that finds the stripes and adds the wallet back
+    private final Set<UUID> stripedWallets = ConcurrentHashMap.newKeySet();
 
     @Autowired
-    public WalletServiceImpl(WalletRepository walletRepository, TransactionRepository transactionRepository, IdempotencyKeyRepository idempotencyKeyRepository) {
+    public WalletServiceImpl(WalletRepository walletRepository,
+                             WalletStripeRepository walletStripeRepository,
+                             TransactionRepository transactionRepository,
+                             IdempotencyCache idempotencyCache,
+                             @Value("${sws.wallet.write-mode.deposit:${sws.wallet.write-mode.default:pessimistic}}") WalletWriteMode depositMode,
+                             @Value("${sws.wallet.write-mode.withdraw:${sws.wallet.write-mode.default:pessimistic}}") WalletWriteMode withdrawMode,
+                             @Value("${sws.wallet.write-mode.transfer:${sws.wallet.write-mode.default:pessimistic}}") WalletWriteMode transferMode,
+                             @Value("${sws.wallet.optimistic.max-attempts:5}") int maxAttempts,
+                             @Value("${sws.wallet.optimistic.backoff:PT0.002S}") Duration backoff,
+                             WalletContentionTracker contentionTracker,
+                             BalanceIndex balanceIndex,
+                             HistoricalBalanceCache historicalBalanceCache,
+                             LedgerArchive ledgerArchive,
+                             WalletCache walletCache,
+                             PlatformTransactionManager transactionManager) {
+        this(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache,
+                new WalletWriteModes(depositMode, withdrawMode, transferMode), new OptimisticRetryPolicy(maxAttempts, backoff),
+                contentionTracker, balanceIndex, historicalBalanceCache, ledgerArchive, walletCache,
+                new TransactionTemplate(transactionManager));
+    }
+
+    WalletServiceImpl(WalletRepository walletRepository,
+                      WalletStripeRepository walletStripeRepository,
+                      TransactionRepository transactionRepository,
+                      IdempotencyCache idempotencyCache,
+                      WalletWriteModes writeModes,
+                      OptimisticRetryPolicy retryPolicy,
+                      WalletContentionTracker contentionTracker,
+                      BalanceIndex balanceIndex,
+                      HistoricalBalanceCache historicalBalanceCache,
+                      LedgerArchive ledgerArchive,
+                      WalletCache walletCache,
+                      TransactionOperations transactionOperations) {
         this.walletRepository = walletRepository;
+        this.walletStripeRepository = walletStripeRepository;
         this.transactionRepository = transactionRepository;
-        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.idempotencyCache = idempotencyCache;
+        this.writeModes = writeModes;
+        this.retryPolicy = retryPolicy;
+        this.contentionTracker = contentionTracker;
+        this.balanceIndex = balanceIndex;
+        this.historicalBalanceCache = historicalBalanceCache;
+        this.ledgerArchive = ledgerArchive;
+        this.walletCache = walletCache;
+        this.trackContention = writeModes.uses(WalletWriteMode.ADAPTIVE);
+        this.transactionOperations = transactionOperations;
     }
 
     @Override
@@ -44,32 +137,36 @@ public class WalletServiceImpl implements WalletService {
     }
 
     @Override
-    @Transactional
     public Wallet create(UUID userId, String idempotencyKey) {
-        if (idempotencyKey != null) {
-            Optional<IdempotencyKey> existingKey = idempotencyKeyRepository.findByIdempotencyKeyAndOperation(idempotencyKey, CREATE_OPERATION);
-            if (existingKey.isPresent()) {
-                UUID resourceId = existingKey.get().getResourceId();
-                return getById(resourceId);
-            }
-        }
-
-        Wallet domain = Wallet.create(userId);
-        WalletEntity toSave = WalletMapper.toEntity(domain);
-        WalletEntity saved = walletRepository.save(toSave);
-
-        if (idempotencyKey != null) {
-            idempotencyKeyRepository.save(new IdempotencyKey(idempotencyKey, CREATE_OPERATION, saved.getId()));
-        }
-
-        return WalletMapper.toDomain(saved);
+        return idempotent(idempotencyKey, CREATE_OPERATION, () -> {
+            Wallet domain = Wallet.create(userId);
+            WalletEntity toSave = WalletMapper.toEntity(domain);
+            WalletEntity saved = walletRepository.save(toSave);
+            Wallet created = WalletMapper.toDomain(saved);
+            walletCache.putAfterCommit(created, saved.getLastSequenceNumber());
+            return created;
+        });
     }
 
     @Override
     public Wallet getById(UUID walletId) {
-        WalletEntity entity = walletRepository.findById(walletId)
+        Optional<Wallet> cached = walletCache.get(walletId);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        if (!stripedWallets.contains(walletId)) {
+            WalletEntity entity = walletRepository.findById(walletId)
+                    .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
+            if (entity.getStripes() == 0) {
+                Wallet wallet = WalletMapper.toDomain(entity);
+                walletCache.put(wallet, entity.getLastSequenceNumber());
+                return wallet;
+            }
+            stripedWallets.add(walletId);
+        }
+        return walletRepository.findWithStripesById(walletId)
+                .map(WalletServiceImpl::toDomain)
                 .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
-        return WalletMapper.toDomain(entity);
     }
 
     @Override
@@ -78,104 +175,137 @@ public class WalletServiceImpl implements WalletService {
     }
 
     @Override
-    @Transactional
     public Wallet deposit(UUID walletId, BigDecimal amount) {
         return deposit(walletId, amount, null);
     }
 
     @Override
-    @Transactional
     public Wallet deposit(UUID walletId, BigDecimal amount, String idempotencyKey) {
-        if (idempotencyKey != null) {
-            Optional<IdempotencyKey> existing = idempotencyKeyRepository
-                    .findByIdempotencyKeyAndOperation(idempotencyKey, DEPOSIT_OPERATION);
-            if (existing.isPresent()) {
-                UUID resourceId = existing.get().getResourceId();
-                return getById(resourceId);
+        return idempotent(idempotencyKey, DEPOSIT_OPERATION, () -> applyDeposit(walletId, amount));
+    }
+
+    private Wallet applyDeposit(UUID walletId, BigDecimal amount) {
+        WalletWriteMode writeMode = strategy(writeModes.deposit(), walletId);
+        if (isPositive(amount)) {
+            // The atomic statement skips striped wallets, so a stripe is only worth trying once it came back empty
+            boolean atomic = writeMode == WalletWriteMode.ATOMIC;
+            Optional<Wallet> applied = atomic ? applyAtomically(Transaction.createDeposit(walletId, amount)) : Optional.empty();
+            if (applied.isEmpty() && (atomic || stripedWallets.contains(walletId))) {
+                applied = creditStripe(walletId, amount);
+            }
+            if (applied.isPresent()) {
+                return applied.get();
             }
         }
 
-        WalletEntity walletEntity = walletRepository.findByIdForUpdate(walletId)
-                .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
-
-        Wallet walletDomain = WalletMapper.toDomain(walletEntity);
-
-        Wallet updatedWallet = walletDomain.deposit(amount);
+        Wallet updatedWallet;
+        if (writeMode == WalletWriteMode.OPTIMISTIC) {
+            updatedWallet = applyOptimistically(readVersioned(walletId, "Wallet not found"),
+                    wallet -> wallet.deposit(amount), () -> Transaction.createDeposit(walletId, amount), "Wallet not found");
+        } else {
+            WalletEntity walletEntity = lockForUpdate(walletId, "Wallet not found");
+            consolidate(walletEntity);
 
-        WalletEntity updatedWalletEntity = WalletMapper.toEntity(updatedWallet);
-        walletRepository.save(updatedWalletEntity);
+            Wallet walletDomain = WalletMapper.toDomain(walletEntity);
 
-        Transaction transaction = Transaction.createDeposit(walletId, amount);
-        TransactionEntity transactionEntity = TransactionMapper.toEntity(transaction);
-        transactionRepository.save(transactionEntity);
+            updatedWallet = walletDomain.deposit(amount);
 
-        if (idempotencyKey != null) {
-            idempotencyKeyRepository.save(new IdempotencyKey(idempotencyKey, DEPOSIT_OPERATION, updatedWallet.id()));
+            record(walletEntity, updatedWallet, Transaction.createDeposit(walletId, amount));
         }
 
         return updatedWallet;
     }
 
     @Override
-    @Transactional
     public Wallet withdraw(UUID walletId, BigDecimal amount) {
         return withdraw(walletId, amount, null);
     }
 
     @Override
-    @Transactional
     public Wallet withdraw(UUID walletId, BigDecimal amount, String idempotencyKey) {
-        if (idempotencyKey != null) {
-            Optional<IdempotencyKey> existing = idempotencyKeyRepository
-                    .findByIdempotencyKeyAndOperation(idempotencyKey, WITHDRAW_OPERATION);
-            if (existing.isPresent()) {
-                UUID resourceId = existing.get().getResourceId();
-                return getById(resourceId);
+        return idempotent(idempotencyKey, WITHDRAW_OPERATION, () -> applyWithdrawal(walletId, amount));
+    }
+
+    private Wallet applyWithdrawal(UUID walletId, BigDecimal amount) {
+        WalletWriteMode writeMode = strategy(writeModes.withdraw(), walletId);
+        if (writeMode == WalletWriteMode.ATOMIC && isPositive(amount)) {
+            Optional<Wallet> applied = applyAtomically(Transaction.createWithdrawal(walletId, amount));
+            if (applied.isPresent()) {
+                return applied.get();
             }
         }
 
-        WalletEntity walletEntity = walletRepository.findByIdForUpdate(walletId)
-                .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
-
-        Wallet walletDomain = WalletMapper.toDomain(walletEntity);
+        Wallet updatedWallet;
+        if (writeMode == WalletWriteMode.OPTIMISTIC) {
+            updatedWallet = applyOptimistically(readVersioned(walletId, "Wallet not found"),
+                    wallet -> wallet.withdraw(amount), () -> Transaction.createWithdrawal(walletId, amount), "Wallet not found");
+        } else {
+            WalletEntity walletEntity = lockForUpdate(walletId, "Wallet not found");
+            consolidate(walletEntity);
 
-        Wallet updatedWallet = walletDomain.withdraw(amount);
+            Wallet walletDomain = WalletMapper.toDomain(walletEntity);
 
-        WalletEntity updatedWalletEntity = WalletMapper.toEntity(updatedWallet);
-        walletRepository.save(updatedWalletEntity);
+            updatedWallet = walletDomain.withdraw(amount);
 
-        Transaction transaction = Transaction.createWithdrawal(walletId, amount);
-        TransactionEntity transactionEntity = TransactionMapper.toEntity(transaction);
-        transactionRepository.save(transactionEntity);
-
-        if (idempotencyKey != null) {
-            idempotencyKeyRepository.save(new IdempotencyKey(idempotencyKey, WITHDRAW_OPERATION, updatedWallet.id()));
+            record(walletEntity, updatedWallet, Transaction.createWithdrawal(walletId, amount));
         }
 
         return updatedWallet;
     }
 
     @Override
-    @Transactional
     public Wallet transfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount) {
         return transfer(sourceWalletId, targetWalletId, amount, null);
     }
 
     @Override
-    @Transactional
     public Wallet transfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount, String idempotencyKey) {
-        if (idempotencyKey != null) {
-            Optional<IdempotencyKey> existing = idempotencyKeyRepository.findByIdempotencyKeyAndOperation(idempotencyKey, TRANSFER_OPERATION);
-            if (existing.isPresent()) {
-                UUID resourceId = existing.get().getResourceId();
-                return getById(resourceId);
+        return idempotent(idempotencyKey, TRANSFER_OPERATION, () -> applyTransfer(sourceWalletId, targetWalletId, amount));
+    }
+
+    private Wallet applyTransfer(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount) {
+        WalletWriteMode writeMode = strategy(writeModes.transfer(), sourceWalletId, targetWalletId);
+        if (writeMode == WalletWriteMode.ATOMIC && isPositive(amount)) {
+            Transaction transferOut = Transaction.createTransferOut(sourceWalletId, amount);
+            Transaction transferIn = Transaction.createTransferIn(targetWalletId, amount);
+            List<WalletState> applied = walletRepository.transferAndRecord(sourceWalletId, targetWalletId,
+                    transferIn.amount(), transferOut.id(), transferIn.id(), transferOut.timestamp());
+            if (!applied.isEmpty()) {
+                walletRepository.evict(sourceWalletId);
+                walletRepository.evict(targetWalletId);
+                Wallet updatedSource = null;
+                for (WalletState state : applied) {
+                    boolean source = state.getId().equals(sourceWalletId);
+                    balanceIndex.appendAfterCommit(state.getId(), state.getLastSequenceNumber(),
+                            state.getLastTransactionAt(), source ? transferOut.amount() : transferIn.amount());
+                    walletCache.putAfterCommit(toDomain(state), state.getLastSequenceNumber());
+                    if (source) {
+                        updatedSource = toDomain(state);
+                    }
+                }
+                return updatedSource;
             }
         }
 
-        WalletEntity sourceEntity = walletRepository.findByIdForUpdate(sourceWalletId)
+        if (writeMode == WalletWriteMode.OPTIMISTIC) {
+            return transferOptimistically(sourceWalletId, targetWalletId, amount);
+        }
+
+        long lockStartedAt = System.nanoTime();
+        Map<UUID, WalletEntity> locked = walletRepository.findAllByIdForUpdate(List.of(sourceWalletId, targetWalletId))
+                .stream()
+                .collect(Collectors.toMap(WalletEntity::getId, Function.identity()));
+        if (trackContention) {
+            long waitedNanos = System.nanoTime() - lockStartedAt;
+            contentionTracker.recordLock(sourceWalletId, waitedNanos);
+            contentionTracker.recordLock(targetWalletId, waitedNanos);
+        }
+        WalletEntity sourceEntity = Optional.ofNullable(locked.get(sourceWalletId))
                 .orElseThrow(() -> new EntityNotFoundException("Source Wallet not found"));
-        WalletEntity targetEntity = walletRepository.findByIdForUpdate(targetWalletId)
+        WalletEntity targetEntity = Optional.ofNullable(locked.get(targetWalletId))
                 .orElseThrow(() -> new EntityNotFoundException("Target Wallet not found"));
+        consolidate(sourceEntity);
+        consolidate(targetEntity);
 
         Wallet sourceWallet = WalletMapper.toDomain(sourceEntity);
         Wallet targetWallet = WalletMapper.toDomain(targetEntity);
@@ -185,35 +315,501 @@ public class WalletServiceImpl implements WalletService {
         Wallet updatedSource = transferResult.source();
         Wallet updatedDestination = transferResult.destination();
 
-        WalletEntity updatedSourceEntity = WalletMapper.toEntity(updatedSource);
-        WalletEntity updatedDestinationEntity = WalletMapper.toEntity(updatedDestination);
+        record(sourceEntity, updatedSource, Transaction.createTransferOut(sourceWalletId, amount));
+        record(targetEntity, updatedDestination, Transaction.createTransferIn(targetWalletId, amount));
 
-        walletRepository.save(updatedSourceEntity);
-        walletRepository.save(updatedDestinationEntity);
+        return updatedSource;
+    }
 
-        Transaction outTransaction = Transaction.createTransferOut(sourceWalletId, amount);
-        Transaction inTransaction = Transaction.createTransferIn(targetWalletId, amount);
+    @Override
+    @Transactional
+    public Wallet stripe(UUID walletId, int stripes) {
+        if (stripes < 0 || stripes > MAX_STRIPES) {
+            throw new IllegalArgumentException(String.format("stripes must be between 0 and %d", MAX_STRIPES));
+        }
 
-        transactionRepository.save(TransactionMapper.toEntity(outTransaction));
-        transactionRepository.save(TransactionMapper.toEntity(inTransaction));
+        WalletEntity walletEntity = walletRepository.findByIdForUpdate(walletId)
+                .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
+        List<WalletStripeEntity> existing = consolidate(walletEntity);
 
-        if (idempotencyKey != null) {
-            idempotencyKeyRepository.save(new IdempotencyKey(idempotencyKey, TRANSFER_OPERATION, updatedSource.id()));
+        walletStripeRepository.deleteAll(existing.subList(Math.min(stripes, existing.size()), existing.size()));
+        for (int stripe = existing.size(); stripe < stripes; stripe++) {
+            walletStripeRepository.save(new WalletStripeEntity(walletId, stripe));
         }
+        walletEntity.setStripes(stripes);
+        walletRepository.save(walletEntity);
+        if (stripes > 0) {
+            stripedWallets.add(walletId);
+        } else {
+            stripedWallets.remove(walletId);
+        }
+        balanceIndex.dropAfterCommit(walletId);
+        walletCache.evictAfterCommit(walletId);
 
-        return updatedSource;
+        return WalletMapper.toDomain(walletEntity);
+    }
+
+    /**
+     * Applies a batch of deposits and withdrawals to one wallet in a single transaction: the wallet is locked once,
+     * each operation is checked in order against the running {@link Wallet}, and the balance and every ledger row are
+     * written in one flush. A rejected operation gets its error and leaves the running balance as it was; an operation
+     * whose idempotency key was already used (before or earlier in the batch) gets that use's result without being
+     * applied. Keys are claimed as their operation comes up, and a rejected operation releases its claim.
+     */
+    @Transactional
+    public List<WalletOperation.Result> applyBatch(UUID walletId, List<WalletOperation> operations) {
+        WalletEntity walletEntity = walletRepository.findByIdForUpdate(walletId)
+                .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
+        consolidate(walletEntity);
+
+        Wallet wallet = WalletMapper.toDomain(walletEntity);
+        List<WalletOperation.Result> results = new ArrayList<>(operations.size());
+        List<TransactionEntity> ledger = new ArrayList<>(operations.size());
+        Map<String, IdempotencyCache.Completion> completions = new LinkedHashMap<>();
+        for (WalletOperation operation : operations) {
+            boolean deposit = operation.type().isDeposit();
+            String operationName = deposit ? DEPOSIT_OPERATION : WITHDRAW_OPERATION;
+            String idempotencyKey = operation.idempotencyKey();
+            String keyId = idempotencyKey == null ? null : operationName + ':' + idempotencyKey;
+            if (keyId != null) {
+                Optional<Wallet> replayed = completions.containsKey(keyId)
+                        ? Optional.of((Wallet) completions.get(keyId).response())
+                        : idempotencyCache.claim(idempotencyKey, operationName, Wallet.class, this::getById);
+                if (replayed.isPresent()) {
+                    results.add(WalletOperation.Result.applied(replayed.get()));
+                    continue;
+                }
+            }
+
+            Wallet updatedWallet;
+            Transaction transaction;
+            try {
+                updatedWallet = deposit ? wallet.deposit(operation.amount()) : wallet.withdraw(operation.amount());
+                transaction = deposit
+                        ? Transaction.createDeposit(walletId, operation.amount())
+                        : Transaction.createWithdrawal(walletId, operation.amount());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                if (keyId != null) {
+                    idempotencyCache.release(idempotencyKey, operationName);
+                }
+                results.add(WalletOperation.Result.rejected(e));
+                continue;
+            }
+            wallet = updatedWallet;
+
+            TransactionEntity transactionEntity = TransactionMapper.toEntity(transaction, wallet.balance(),
+                    walletEntity.nextSequenceNumber());
+            transactionEntity.setTimestamp(walletEntity.nextTransactionAt(transaction.timestamp()));
+            ledger.add(transactionEntity);
+            if (keyId != null) {
+                completions.put(keyId, new IdempotencyCache.Completion(idempotencyKey, operationName, walletId, wallet));
+            }
+            results.add(WalletOperation.Result.applied(wallet));
+        }
+
+        walletEntity.setBalance(wallet.balance());
+        walletRepository.save(walletEntity);
+        transactionRepository.saveAll(ledger);
+        ledger.forEach(balanceIndex::appendAfterCommit);
+        cacheAfterCommit(walletEntity, wallet);
+        completions.values().forEach(completion -> idempotencyCache.complete(completion.idempotencyKey(),
+                completion.operation(), completion.resourceId(), completion.response()));
+        return results;
     }
 
     @Override
     public BigDecimal getHistoricalBalance(UUID walletId, Instant at) {
-        walletRepository.findById(walletId)
+        Optional<BigDecimal> cached = historicalBalanceCache.get(walletId, at);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        BigDecimal balance = ledgerArchive.balanceAt(walletId, at)
+                .or(() -> balanceIndex.balanceAt(walletId, at))
+                .or(() -> transactionRepository.findBalanceAfterByWalletIdAt(walletId, at))
+                .or(() -> transactionRepository.findBalanceByWalletIdAt(walletId, at))
                 .orElseThrow(() -> new EntityNotFoundException("Wallet not found"));
+        historicalBalanceCache.putIfSettled(walletId, at, balance);
+        return balance;
+    }
 
-        return transactionRepository
-                .findByWalletIdAndTimestampLessThanEqual(walletId, at)
-                .stream()
-                .map(TransactionEntity::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    @Override
+    public boolean isSettled(Instant at) {
+        return historicalBalanceCache.isSettled(at);
+    }
+
+    @Override
+    public Stream<List<WalletBalance>> getHistoricalBalances(Set<UUID> walletIds, Instant at) {
+        if (walletIds == null || walletIds.isEmpty()) {
+            throw new IllegalArgumentException("walletIds must not be empty");
+        }
+        if (walletIds.size() > MAX_BALANCE_WALLETS) {
+            throw new IllegalArgumentException(String.format("at most %d wallets per request", MAX_BALANCE_WALLETS));
+        }
+        if (at == null) {
+            throw new IllegalArgumentException("at is required");
+        }
+        List<UUID> ids = List.copyOf(walletIds);
+        return IntStream.iterate(0, start -> start < ids.size(), start -> start + BALANCE_CHUNK_SIZE)
+                .mapToObj(start -> ids.subList(start, Math.min(start + BALANCE_CHUNK_SIZE, ids.size())))
+                .map(chunk -> balancesAt(chunk, at));
+    }
+
+    /**
+     * Wallets archived past {@code at} are answered by the archive, since the table no longer holds their rows before
+     * it; the others by one grouped query.
+     */
+    private List<WalletBalance> balancesAt(List<UUID> walletIds, Instant at) {
+        List<WalletBalance> balances = new ArrayList<>(walletIds.size());
+        List<UUID> live = new ArrayList<>(walletIds.size());
+        for (UUID walletId : walletIds) {
+            ledgerArchive.balanceAt(walletId, at).ifPresentOrElse(
+                    balance -> balances.add(new ArchivedBalance(walletId, balance)),
+                    () -> live.add(walletId));
+        }
+        if (balances.isEmpty()) {
+            return transactionRepository.findBalancesByWalletIdInAt(walletIds, at);
+        }
+        if (!live.isEmpty()) {
+            balances.addAll(transactionRepository.findBalancesByWalletIdInAt(live, at));
+        }
+        return balances;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void getBalanceSeries(UUID walletId, BalanceSeries series, Consumer<BalanceSeries.Point> sink) {
+        BigDecimal balance = getHistoricalBalance(walletId, series.from());
+        Instant last = series.last();
+        Instant next = series.from();
+        sink.accept(new BalanceSeries.Point(next, balance));
+        next = next.plus(series.step());
+
+        try (Stream<? extends LedgerMovement> movements = movements(walletId, series.from(), last)) {
+            for (Iterator<? extends LedgerMovement> it = movements.iterator(); it.hasNext(); ) {
+                LedgerMovement movement = it.next();
+                // Every boundary before this row sees the balance without it
+                while (movement.getTimestamp().isAfter(next)) {
+                    sink.accept(new BalanceSeries.Point(next, balance));
+                    next = next.plus(series.step());
+                }
+                balance = balance.add(movement.getAmount());
+            }
+        }
+        while (!next.isAfter(last)) {
+            sink.accept(new BalanceSeries.Point(next, balance));
+            next = next.plus(series.step());
+        }
+    }
+
+    @Override
+    public TransactionPage getTransactions(UUID walletId, Set<Transaction.Type> types, Instant from, Instant to,
+                                           String cursor, int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("limit must be between 1 and %d", MAX_PAGE_SIZE));
+        }
+        Collection<Transaction.Type> typeFilter = (types == null || types.isEmpty())
+                ? EnumSet.allOf(Transaction.Type.class)
+                : types;
+        Instant start = (from == null) ? Instant.EPOCH : from;
+
+        Instant end = (to == null) ? END_OF_LEDGER : to;
+        TransactionPage.Position after = (cursor == null) ? null : TransactionPage.Position.decode(cursor);
+        // The table only answers for rows after the archived ones; copies of those still in it are skipped
+        Optional<Instant> archivedThrough = ledgerArchive.closing(walletId).map(LedgerArchive.Closing::through);
+        Instant liveStart = archivedThrough.map(through -> through.plus(1, ChronoUnit.MICROS))
+                .filter(start::isBefore)
+                .orElse(start);
+
+        // One row past the page tells whether there is a next one
+        Limit fetch = Limit.of(limit + 1);
+        List<LedgerEntry> entries;
+        if (after == null) {
+            entries = transactionRepository.findLedgerPage(walletId, typeFilter, liveStart, end, fetch);
+        } else {
+            entries = transactionRepository.findLedgerPageBefore(walletId, typeFilter, liveStart, after.timestamp(),
+                    after.id(), fetch);
+        }
+        if (entries.size() <= limit && archivedThrough.isPresent() && !archivedThrough.get().isBefore(start)) {
+            List<LedgerEntry> archived = (after == null)
+                    ? ledgerArchive.readBefore(walletId, typeFilter, start, end, null, limit + 1 - entries.size())
+                    : ledgerArchive.readBefore(walletId, typeFilter, start, after.timestamp(), after.id(),
+                    limit + 1 - entries.size());
+            if (!archived.isEmpty()) {
+                entries = new ArrayList<>(entries);
+                entries.addAll(archived);
+            }
+        }
+
+        if (entries.isEmpty() && !walletRepository.existsById(walletId)) {
+            throw new EntityNotFoundException("Wallet not found");
+        }
+        boolean hasNext = entries.size() > limit;
+        return TransactionPage.of(hasNext ? entries.subList(0, limit) : entries, hasNext);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void exportTransactions(UUID walletId, Instant from, Instant to, Consumer<LedgerEntry> sink) {
+        Instant start = (from == null) ? Instant.EPOCH : from;
+        Instant end = (to == null) ? END_OF_LEDGER : to;
+        Optional<Instant> archivedThrough = ledgerArchive.closing(walletId).map(LedgerArchive.Closing::through);
+        if (archivedThrough.isEmpty() || archivedThrough.get().isBefore(start)) {
+            try (Stream<LedgerEntry> ledger = transactionRepository.streamLedger(walletId, start, end)) {
+                ledger.forEach(sink);
+            }
+            return;
+        }
+        // Archived rows first, then the table's rows after them
+        Instant liveStart = archivedThrough.get().plus(1, ChronoUnit.MICROS);
+        try (Stream<? extends LedgerEntry> ledger = Stream.concat(ledgerArchive.stream(walletId, start, end),
+                transactionRepository.streamLedger(walletId, liveStart, end))) {
+            ledger.forEach(sink);
+        }
+    }
+
+    /**
+     * The wallet's ledger rows with {@code after < timestamp <= upTo}, oldest first: archived ones from the archive,
+     * the rest from the table. Consume and close it inside a transaction.
+     */
+    private Stream<? extends LedgerMovement> movements(UUID walletId, Instant after, Instant upTo) {
+        Optional<Instant> archivedThrough = ledgerArchive.closing(walletId).map(LedgerArchive.Closing::through);
+        if (archivedThrough.isEmpty() || !archivedThrough.get().isAfter(after)) {
+            return transactionRepository.streamMovements(walletId, after, upTo);
+        }
+        Stream<ArchivedTransaction> archived = ledgerArchive.stream(walletId, after.plusNanos(1), upTo.plusNanos(1));
+        if (!archivedThrough.get().isBefore(upTo)) {
+            return archived;
+        }
+        return Stream.concat(archived, transactionRepository.streamMovements(walletId, archivedThrough.get(), upTo));
+    }
+
+    /**
+     * Runs {@code apply} in a transaction, once per idempotency key: the key is claimed first and completed with the
+     * resulting wallet, which is what a replay of the key returns. Duplicates arriving while the first is still running
+     * wait for its result before opening a transaction of their own, so they hold no connection and no lock.
+     */
+    private Wallet idempotent(String idempotencyKey, String operation, Supplier<Wallet> apply) {
+        if (idempotencyKey == null) {
+            return transactionOperations.execute(status -> apply.get());
+        }
+        return inFlight.run(operation + ':' + idempotencyKey, () -> transactionOperations.execute(status -> {
+            Optional<Wallet> replayed = idempotencyCache.claim(idempotencyKey, operation, Wallet.class, this::getById);
+            if (replayed.isPresent()) {
+                return replayed.get();
+            }
+            Wallet result = apply.get();
+            idempotencyCache.complete(idempotencyKey, operation, result.id(), result);
+            return result;
+        }));
+    }
+
+    /**
+     * Applies the transaction and its ledger row in a single guarded statement. Empty when the guard rejected it
+     * (unknown wallet, insufficient funds); callers then take the locked path, which re-checks the {@link Wallet}
+     * invariants and raises the matching error.
+     */
+    private Optional<Wallet> applyAtomically(Transaction transaction) {
+        Optional<WalletState> applied = walletRepository.applyAndRecord(transaction.walletId(), transaction.amount(),
+                transaction.id(), transaction.type().name(), transaction.timestamp());
+        applied.ifPresent(state -> {
+            walletRepository.evict(state.getId());
+            balanceIndex.appendAfterCommit(state.getId(), state.getLastSequenceNumber(), state.getLastTransactionAt(),
+                    transaction.amount());
+            walletCache.putAfterCommit(toDomain(state), state.getLastSequenceNumber());
+        });
+        return applied.map(WalletServiceImpl::toDomain);
+    }
+
+    /**
+     * Credits a striped wallet through one of its stripes, picked by the calling thread, so concurrent deposits only
+     * contend when they land on the same stripe and never on the wallet row. The ledger row carries no running balance
+     * or sequence number, since neither is known without the wallet lock. Empty when the wallet is not striped.
+     */
+    private Optional<Wallet> creditStripe(UUID walletId, BigDecimal amount) {
+        if (walletStripeRepository.credit(walletId, Thread.currentThread().threadId(), amount, Instant.now()) == 0) {
+            stripedWallets.remove(walletId);
+            return Optional.empty();
+        }
+        stripedWallets.add(walletId);
+
+        // Created once the stripe is locked, so a debit consolidating it is stamped either before or after this row
+        transactionRepository.save(TransactionMapper.toEntity(Transaction.createDeposit(walletId, amount)));
+        balanceIndex.dropAfterCommit(walletId);
+        walletCache.evictAfterCommit(walletId);
+
+        return Optional.of(getById(walletId));
+    }
+
+    /**
+     * Folds the stripes of a striped wallet into its locked wallet row, so the entity carries the full balance before
+     * the {@link Wallet} invariants are checked against it. The stripes are locked after the wallet row, and the next
+     * ledger row is stamped no earlier than the credits they hold. Returns the locked stripes (none when not striped).
+     */
+    private List<WalletStripeEntity> consolidate(WalletEntity walletEntity) {
+        if (walletEntity.getStripes() == 0) {
+            return List.of();
+        }
+        stripedWallets.add(walletEntity.getId());
+
+        List<WalletStripeEntity> stripes = walletStripeRepository.findAllByWalletIdForUpdate(walletEntity.getId());
+        BigDecimal balance = walletEntity.getBalance();
+        for (WalletStripeEntity stripe : stripes) {
+            if (stripe.getBalance().signum() != 0) {
+                balance = balance.add(stripe.getBalance());
+                stripe.setBalance(BigDecimal.ZERO);
+            }
+        }
+        walletEntity.setBalance(balance);
+        walletEntity.nextTransactionAt(Instant.now());
+        return stripes;
+    }
+
+    /**
+     * Checks the transfer against both wallets as read, then applies each side with {@link #applyOptimistically} in
+     * ascending id order: a side whose compare-and-set went through keeps its row locked, so taking them in the same
+     * order as the pessimistic path keeps opposite transfers from deadlocking.
+     */
+    private Wallet transferOptimistically(UUID sourceWalletId, UUID targetWalletId, BigDecimal amount) {
+        VersionedWallet source = readVersioned(sourceWalletId, "Source Wallet not found");
+        VersionedWallet target = readVersioned(targetWalletId, "Target Wallet not found");
+        toDomain(source).transferTo(toDomain(target), amount);
+
+        Supplier<Wallet> debit = () -> applyOptimistically(source, wallet -> wallet.withdraw(amount),
+                () -> Transaction.createTransferOut(sourceWalletId, amount), "Source Wallet not found");
+        Supplier<Wallet> credit = () -> applyOptimistically(target, wallet -> wallet.deposit(amount),
+                () -> Transaction.createTransferIn(targetWalletId, amount), "Target Wallet not found");
+        if (sourceWalletId.compareTo(targetWalletId) < 0) {
+            Wallet updatedSource = debit.get();
+            credit.get();
+            return updatedSource;
+        }
+        credit.get();
+        return debit.get();
+    }
+
+    /**
+     * Applies {@code operation} to the wallet without waiting for its row lock: the result is written back with a
+     * compare-and-set on the version it was computed from, and when a concurrent writer got there first the wallet is
+     * read again and the operation retried after a jittered pause. Once {@link OptimisticRetryPolicy#maxAttempts()}
+     * are used up, and for striped wallets, it locks the wallet and applies the operation the pessimistic way.
+     */
+    private Wallet applyOptimistically(VersionedWallet read,
+                                       UnaryOperator<Wallet> operation,
+                                       Supplier<Transaction> transaction,
+                                       String notFoundMessage) {
+        VersionedWallet current = read;
+        for (int attempt = 1; current.getStripes() == 0; attempt++) {
+            Wallet updatedWallet = operation.apply(toDomain(current));
+            Transaction applied = transaction.get();
+            long sequenceNumber = current.getLastSequenceNumber() + 1;
+            Instant timestamp = current.getLastTransactionAt() == null || applied.timestamp().isAfter(current.getLastTransactionAt())
+                    ? applied.timestamp()
+                    : current.getLastTransactionAt();
+            boolean set = walletRepository.compareAndSet(current.getId(), current.getVersion(), updatedWallet.balance(), sequenceNumber, timestamp) == 1;
+            if (trackContention) {
+                contentionTracker.recordCompareAndSet(current.getId(), !set);
+            }
+            if (set) {
+                walletRepository.evict(current.getId());
+                TransactionEntity transactionEntity = TransactionMapper.toEntity(applied, updatedWallet.balance(), sequenceNumber);
+                transactionEntity.setTimestamp(timestamp);
+                transactionRepository.save(transactionEntity);
+                balanceIndex.appendAfterCommit(transactionEntity);
+                walletCache.putAfterCommit(updatedWallet, sequenceNumber);
+                return updatedWallet;
+            }
+            if (attempt == retryPolicy.maxAttempts()) {
+                break;
+            }
+            retryPolicy.pause(attempt);
+            current = readVersioned(current.getId(), notFoundMessage);
+        }
+
+        WalletEntity walletEntity = lockForUpdate(current.getId(), notFoundMessage);
+        consolidate(walletEntity);
+        Wallet updatedWallet = operation.apply(WalletMapper.toDomain(walletEntity));
+        record(walletEntity, updatedWallet, transaction.get());
+        return updatedWallet;
+    }
+
+    /**
+     * Resolves {@link WalletWriteMode#ADAPTIVE} to the strategy the {@link WalletContentionTracker} currently picks for
+     * the wallets: locked as soon as one of them is.
+     */
+    private WalletWriteMode strategy(WalletWriteMode writeMode, UUID... walletIds) {
+        if (writeMode != WalletWriteMode.ADAPTIVE) {
+            return writeMode;
+        }
+        for (UUID walletId : walletIds) {
+            if (contentionTracker.strategyFor(walletId) == WalletWriteMode.PESSIMISTIC) {
+                return WalletWriteMode.PESSIMISTIC;
+            }
+        }
+        return WalletWriteMode.OPTIMISTIC;
+    }
+
+    private WalletEntity lockForUpdate(UUID walletId, String notFoundMessage) {
+        long startedAt = System.nanoTime();
+        WalletEntity walletEntity = walletRepository.findByIdForUpdate(walletId)
+                .orElseThrow(() -> new EntityNotFoundException(notFoundMessage));
+        if (trackContention) {
+            contentionTracker.recordLock(walletId, System.nanoTime() - startedAt);
+        }
+        return walletEntity;
+    }
+
+    private VersionedWallet readVersioned(UUID walletId, String notFoundMessage) {
+        return walletRepository.findVersionedById(walletId)
+                .orElseThrow(() -> new EntityNotFoundException(notFoundMessage));
+    }
+
+    private static Wallet toDomain(WalletState state) {
+        return new Wallet(state.getId(), state.getUserId(), state.getBalance());
+    }
+
+    private static boolean isPositive(BigDecimal amount) {
+        return amount != null && amount.signum() > 0;
     }
 
+    /**
+     * Applies the updated balance to the locked, managed wallet entity and appends the ledger row stamped with the
+     * resulting balance, the next per-wallet sequence number and a timestamp no earlier than the previous row's.
+     */
+    private void record(WalletEntity walletEntity, Wallet updatedWallet, Transaction transaction) {
+        walletEntity.setBalance(updatedWallet.balance());
+        long sequenceNumber = walletEntity.nextSequenceNumber();
+        Instant timestamp = walletEntity.nextTransactionAt(transaction.timestamp());
+        walletRepository.save(walletEntity);
+
+        TransactionEntity transactionEntity = TransactionMapper.toEntity(transaction, updatedWallet.balance(), sequenceNumber);
+        transactionEntity.setTimestamp(timestamp);
+        transactionRepository.save(transactionEntity);
+        balanceIndex.appendAfterCommit(transactionEntity);
+        cacheAfterCommit(walletEntity, updatedWallet);
+    }
+
+    /**
+     * Caches the wallet as written to its locked entity once the transaction committed; a striped wallet is dropped
+     * instead, since later stripe credits change its balance without touching the entity.
+     */
+    private void cacheAfterCommit(WalletEntity walletEntity, Wallet wallet) {
+        if (walletEntity.getStripes() == 0) {
+            walletCache.putAfterCommit(wallet, walletEntity.getLastSequenceNumber());
+        } else {
+            walletCache.evictAfterCommit(walletEntity.getId());
+        }
+    }
+
+    private record ArchivedBalance(UUID walletId, BigDecimal balance) implements WalletBalance {
+
+        @Override
+        public UUID getWalletId() {
+            return walletId;
+        }
+
+        @Override
+        public BigDecimal getBalance() {
+            return balance;
+        }
+    }
 }
@@ -0,0 +1,34 @@
+package com.rissatto.sws.application.service;
+
+/**
+ * How {@link WalletServiceImpl} applies balance mutations, selected with {@code sws.wallet.write-mode.default} and
+ * overridable per operation with {@code sws.wallet.write-mode.deposit}, {@code .withdraw} and {@code .transfer}.
+ */
+public enum WalletWriteMode {
+
+    /**
+     * Lock the wallet row with {@code SELECT ... FOR UPDATE}, apply the domain operation and write the entities back.
+     * Portable across every supported database.
+     */
+    PESSIMISTIC,
+
+    /**
+     * Apply the mutation, the ledger rows and the idempotency key in a single guarded statement, falling back to
+     * {@link #PESSIMISTIC} when the guard rejects it. Requires PostgreSQL.
+     */
+    ATOMIC,
+
+    /**
+     * Read the wallet without locking it, apply the domain operation and write it back with a compare-and-set on the
+     * wallet {@code version}, retrying with jittered backoff on conflicts and taking the {@link #PESSIMISTIC} path once
+     * the retries are used up. Portable; suits wallets that rarely see concurrent writes.
+     */
+    OPTIMISTIC,
+
+    /**
+     * Write each wallet {@link #OPTIMISTIC}ally until its compare-and-sets keep conflicting, then {@link #PESSIMISTIC}ally
+     * until its row locks stop waiting, as decided per wallet by the {@link WalletContentionTracker}. A transfer locks
+     * when either wallet does. Portable.
+     */
+    ADAPTIVE
+}
@@ -0,0 +1,16 @@
+package com.rissatto.sws.application.service;
+
+/**
+ * The {@link WalletWriteMode} of each balance mutation, so e.g. deposits can go optimistic while transfers stay
+ * pessimistic.
+ */
+record WalletWriteModes(WalletWriteMode deposit, WalletWriteMode withdraw, WalletWriteMode transfer) {
+
+    static WalletWriteModes of(WalletWriteMode mode) {
+        return new WalletWriteModes(mode, mode, mode);
+    }
+
+    boolean uses(WalletWriteMode mode) {
+        return deposit == mode || withdraw == mode || transfer == mode;
+    }
+}
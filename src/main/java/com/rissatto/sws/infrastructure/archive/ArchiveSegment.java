@@ -0,0 +1,381 @@
+package com.rissatto.sws.infrastructure.archive;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+/**
+ * One archived run of a wallet's ledger: the rows of {@code (previous through, through]} stored column by column, each
+ * column deflated on its own, so a balance only inflates the timestamps and amounts.
+ * <p>
+ * A {@value #HEADER_SIZE}-byte header holds the magic, version and row count, the epoch-micros timestamps of the first
+ * and last rows, the balance before the first row and after the last one (unscaled, with their scales), and for each
+ * column its offset, deflated length and CRC32C. Timestamps are zigzag varint deltas from the previous row; ids are
+ * 16 raw bytes; types are one ordinal byte; amounts and running balances are a varint of {@code scale + 1} ({@code 0}
+ * for a missing balance) followed by the zigzag varint of the unscaled value.
+ */
+final class ArchiveSegment {
+
+    static final int HEADER_SIZE = 108;
+
+    private static final int MAGIC = 0x53575341;
+    private static final byte VERSION = 1;
+    private static final int DIRECTORY = 48;
+    private static final int COLUMNS = 5;
+    private static final int TIMESTAMPS = 0;
+    private static final int IDS = 1;
+    private static final int TYPES = 2;
+    private static final int AMOUNTS = 3;
+    private static final int BALANCES = 4;
+    private static final Transaction.Type[] TYPE_VALUES = Transaction.Type.values();
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int rows;
+    private final long firstMicros;
+    private final long lastMicros;
+    private final BigDecimal opening;
+    private final BigDecimal closing;
+
+    private ArchiveSegment(Path path, MappedByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.get(4) != VERSION) {
+            throw new IllegalStateException("Not an archive segment: " + path);
+        }
+        this.path = path;
+        this.buffer = buffer;
+        this.rows = buffer.getInt(8);
+        this.firstMicros = buffer.getLong(16);
+        this.lastMicros = buffer.getLong(24);
+        this.opening = BigDecimal.valueOf(buffer.getLong(32), buffer.get(5));
+        this.closing = BigDecimal.valueOf(buffer.getLong(40), buffer.get(6));
+    }
+
+    /**
+     * Maps the segment read-only; the mapping outlives the channel.
+     */
+    static ArchiveSegment map(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ArchiveSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    long firstMicros() {
+        return firstMicros;
+    }
+
+    long lastMicros() {
+        return lastMicros;
+    }
+
+    BigDecimal opening() {
+        return opening;
+    }
+
+    BigDecimal closing() {
+        return closing;
+    }
+
+    /**
+     * The balance after every row with a timestamp at or before {@code atMicros}.
+     */
+    BigDecimal balanceAt(long atMicros) {
+        if (atMicros < firstMicros) {
+            return opening;
+        }
+        if (atMicros >= lastMicros) {
+            return closing;
+        }
+        try (Column timestamps = column(TIMESTAMPS); Column amounts = column(AMOUNTS)) {
+            BigDecimal balance = opening;
+            long micros = 0;
+            for (int i = 0; i < rows; i++) {
+                micros += unzigzag(timestamps.varint());
+                if (micros > atMicros) {
+                    break;
+                }
+                balance = balance.add(amounts.decimal());
+            }
+            return balance;
+        }
+    }
+
+    /**
+     * Decodes every row, oldest first.
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Writes the rows to {@code out} as a segment and returns the balance after the last one. {@code rows} must be
+     * ordered by timestamp and hold at least one row.
+     */
+    static BigDecimal write(OutputStream out, BigDecimal opening, Iterator<? extends LedgerEntry> rows) throws IOException {
+        ColumnWriter[] columns = new ColumnWriter[COLUMNS];
+        for (int i = 0; i < COLUMNS; i++) {
+            columns[i] = new ColumnWriter();
+        }
+        int count = 0;
+        long first = 0;
+        long previous = 0;
+        BigDecimal closing = opening;
+        while (rows.hasNext()) {
+            LedgerEntry row = rows.next();
+            long micros = micros(row.getTimestamp());
+            if (count == 0) {
+                first = micros;
+            } else if (micros < previous) {
+                throw new IllegalArgumentException("rows must be ordered by timestamp");
+            }
+            columns[TIMESTAMPS].varint(zigzag(micros - previous));
+            columns[IDS].uuid(row.getId());
+            columns[TYPES].write(row.getType().ordinal());
+            columns[AMOUNTS].decimal(row.getAmount());
+            columns[BALANCES].decimal(row.getBalanceAfter());
+            closing = closing.add(row.getAmount());
+            previous = micros;
+            count++;
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("rows must not be empty");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, MAGIC)
+                .put(4, VERSION)
+                .put(5, (byte) scale(opening))
+                .put(6, (byte) scale(closing))
+                .putInt(8, count)
+                .putLong(16, first)
+                .putLong(24, previous)
+                .putLong(32, unscaled(opening))
+                .putLong(40, unscaled(closing));
+        byte[][] deflated = new byte[COLUMNS][];
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < COLUMNS; i++) {
+            deflated[i] = columns[i].finish();
+            CRC32C crc = new CRC32C();
+            crc.update(deflated[i]);
+            header.putInt(DIRECTORY + i * 12, offset)
+                    .putInt(DIRECTORY + i * 12 + 4, deflated[i].length)
+                    .putInt(DIRECTORY + i * 12 + 8, (int) crc.getValue());
+            offset += deflated[i].length;
+        }
+        out.write(header.array());
+        for (byte[] column : deflated) {
+            out.write(column);
+        }
+        return closing;
+    }
+
+    static long micros(Instant timestamp) {
+        return Math.addExact(Math.multiplyExact(timestamp.getEpochSecond(), 1_000_000L), timestamp.getNano() / 1_000);
+    }
+
+    static Instant instant(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L);
+    }
+
+    private Column column(int index) {
+        int offset = buffer.getInt(DIRECTORY + index * 12);
+        int length = buffer.getInt(DIRECTORY + index * 12 + 4);
+        ByteBuffer deflated = buffer.slice(offset, length);
+        CRC32C crc = new CRC32C();
+        crc.update(deflated.duplicate());
+        if ((int) crc.getValue() != buffer.getInt(DIRECTORY + index * 12 + 8)) {
+            throw new IllegalStateException("Corrupt archive segment " + path + " (column " + index + ")");
+        }
+        return new Column(deflated);
+    }
+
+    private static int scale(BigDecimal value) {
+        return Math.max(value.scale(), 0);
+    }
+
+    private static long unscaled(BigDecimal value) {
+        return value.setScale(scale(value)).unscaledValue().longValueExact();
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads the rows of the segment in order, one column value at a time.
+     */
+    final class Cursor implements Iterator<ArchivedTransaction>, AutoCloseable {
+
+        private final Column timestamps = column(TIMESTAMPS);
+        private final Column ids = column(IDS);
+        private final Column types = column(TYPES);
+        private final Column amounts = column(AMOUNTS);
+        private final Column balances = column(BALANCES);
+        private int read;
+        private long micros;
+
+        @Override
+        public boolean hasNext() {
+            return read < rows;
+        }
+
+        @Override
+        public ArchivedTransaction next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            read++;
+            micros += unzigzag(timestamps.varint());
+            return new ArchivedTransaction(new UUID(ids.fixed64(), ids.fixed64()),
+                    TYPE_VALUES[types.read()], amounts.decimal(), balances.decimal(), instant(micros));
+        }
+
+        @Override
+        public void close() {
+            timestamps.close();
+            ids.close();
+            types.close();
+            amounts.close();
+            balances.close();
+        }
+    }
+
+    /**
+     * Inflates one column straight from the mapped file.
+     */
+    private static final class Column implements AutoCloseable {
+
+        private final Inflater inflater = new Inflater();
+        private final byte[] chunk = new byte[8192];
+        private int position;
+        private int limit;
+
+        Column(ByteBuffer deflated) {
+            inflater.setInput(deflated);
+        }
+
+        int read() {
+            if (position == limit) {
+                fill();
+            }
+            return chunk[position++] & 0xFF;
+        }
+
+        long fixed64() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | read();
+            }
+            return value;
+        }
+
+        long varint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = read();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        BigDecimal decimal() {
+            long scale = varint();
+            if (scale == 0) {
+                return null;
+            }
+            return BigDecimal.valueOf(unzigzag(varint()), (int) scale - 1);
+        }
+
+        private void fill() {
+            try {
+                limit = inflater.inflate(chunk);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt archive column", e);
+            }
+            position = 0;
+            if (limit == 0) {
+                throw new IllegalStateException("Archive column ended early");
+            }
+        }
+
+        @Override
+        public void close() {
+            inflater.end();
+        }
+    }
+
+    private static final class ColumnWriter {
+
+        private final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final DeflaterOutputStream out = new DeflaterOutputStream(deflated, deflater, 8192);
+
+        void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        void uuid(UUID id) throws IOException {
+            long[] halves = {id.getMostSignificantBits(), id.getLeastSignificantBits()};
+            for (long half : halves) {
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    out.write((int) (half >>> shift));
+                }
+            }
+        }
+
+        void varint(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void decimal(BigDecimal value) throws IOException {
+            if (value == null) {
+                varint(0);
+                return;
+            }
+            BigInteger unscaled = value.setScale(scale(value)).unscaledValue();
+            varint(scale(value) + 1L);
+            varint(zigzag(unscaled.longValueExact()));
+        }
+
+        byte[] finish() throws IOException {
+            out.finish();
+            deflater.end();
+            return deflated.toByteArray();
+        }
+    }
+}
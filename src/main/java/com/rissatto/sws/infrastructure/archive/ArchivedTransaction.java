@@ -0,0 +1,41 @@
+package com.rissatto.sws.infrastructure.archive;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerMovement;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Ledger row as read back from the archive, listed and exported like the rows still in the table.
+ */
+public record ArchivedTransaction(UUID id, Transaction.Type type, BigDecimal amount, BigDecimal balanceAfter,
+                                  Instant timestamp) implements LedgerEntry, LedgerMovement {
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public Transaction.Type getType() {
+        return type;
+    }
+
+    @Override
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    @Override
+    public BigDecimal getBalanceAfter() {
+        return balanceAfter;
+    }
+
+    @Override
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,268 @@
+package com.rissatto.sws.infrastructure.archive;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Cold ledger rows moved out of the database, one directory per wallet holding one {@link ArchiveSegment} per archived
+ * run, named after the epoch-micros instant it is complete through. Runs of a wallet follow each other: the first
+ * opens at zero and each later one opens at the balance the previous one closed at.
+ * <p>
+ * Which wallets have segments and the time range and balances of each are kept in memory (read from the headers when
+ * the archive opens); rows are read by mapping the segment files, inflating only the columns a read needs. A missing
+ * directory is an empty archive.
+ */
+public final class LedgerArchive {
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final UUID FIRST_ID = new UUID(0L, 0L);
+
+    private final Path directory;
+    // Each wallet's segments oldest first; replaced whole, never modified
+    private final Map<UUID, List<Segment>> wallets = new ConcurrentHashMap<>();
+
+    public LedgerArchive(Path directory) {
+        this.directory = directory;
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> walletDirectories = Files.list(directory)) {
+            for (Path walletDirectory : walletDirectories.filter(Files::isDirectory).toList()) {
+                UUID walletId;
+                try {
+                    walletId = UUID.fromString(walletDirectory.getFileName().toString());
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                List<Segment> segments = segments(walletDirectory);
+                if (!segments.isEmpty()) {
+                    wallets.put(walletId, segments);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The instant the wallet's archive is complete through and its balance then. Empty when nothing of the wallet was
+     * archived.
+     */
+    public Optional<Closing> closing(UUID walletId) {
+        List<Segment> segments = wallets.get(walletId);
+        if (segments == null) {
+            return Optional.empty();
+        }
+        Segment last = segments.getLast();
+        return Optional.of(new Closing(ArchiveSegment.instant(last.throughMicros()), last.closing()));
+    }
+
+    /**
+     * The wallet's balance at {@code at}, counting every row with {@code timestamp <= at}. Empty unless the archive
+     * holds the wallet's ledger up to {@code at}.
+     */
+    public Optional<BigDecimal> balanceAt(UUID walletId, Instant at) {
+        List<Segment> segments = wallets.get(walletId);
+        long atMicros = ArchiveSegment.micros(at);
+        if (segments == null || atMicros > segments.getLast().throughMicros()) {
+            return Optional.empty();
+        }
+        Segment segment = segments.stream()
+                .filter(candidate -> atMicros <= candidate.throughMicros())
+                .findFirst()
+                .orElseThrow();
+        if (atMicros < segment.firstMicros()) {
+            return Optional.of(segment.opening());
+        }
+        if (atMicros >= segment.lastMicros()) {
+            return Optional.of(segment.closing());
+        }
+        return Optional.of(ArchiveSegment.map(segment.path()).balanceAt(atMicros));
+    }
+
+    /**
+     * Streams the wallet's archived rows with {@code from <= timestamp < to}, oldest first, mapping one segment at a
+     * time as the stream is consumed. Close it to release the segment being read.
+     */
+    public Stream<ArchivedTransaction> stream(UUID walletId, Instant from, Instant to) {
+        return wallets.getOrDefault(walletId, List.of()).stream()
+                .filter(segment -> !ArchiveSegment.instant(segment.lastMicros()).isBefore(from)
+                        && ArchiveSegment.instant(segment.firstMicros()).isBefore(to))
+                .flatMap(segment -> {
+                    ArchiveSegment.Cursor cursor = ArchiveSegment.map(segment.path()).cursor();
+                    return StreamSupport.stream(Spliterators.spliterator(cursor, segment.rows(),
+                                    Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(cursor::close)
+                            .dropWhile(row -> row.timestamp().isBefore(from))
+                            .takeWhile(row -> row.timestamp().isBefore(to));
+                });
+    }
+
+    /**
+     * Up to {@code limit} of the wallet's archived rows of the given types with {@code timestamp >= from}, ordered
+     * before {@code (beforeTimestamp, beforeId)} by {@code (timestamp, id)}, newest first. A null {@code beforeId}
+     * takes the rows before {@code beforeTimestamp}.
+     */
+    public List<LedgerEntry> readBefore(UUID walletId, Collection<Transaction.Type> types, Instant from,
+                                        Instant beforeTimestamp, UUID beforeId, int limit) {
+        UUID before = (beforeId == null) ? FIRST_ID : beforeId;
+        List<LedgerEntry> page = new ArrayList<>();
+        List<Segment> segments = wallets.getOrDefault(walletId, List.of());
+        for (int i = segments.size() - 1; i >= 0 && page.size() < limit; i--) {
+            Segment segment = segments.get(i);
+            if (ArchiveSegment.instant(segment.lastMicros()).isBefore(from)) {
+                break;
+            }
+            if (ArchiveSegment.instant(segment.firstMicros()).isAfter(beforeTimestamp)) {
+                continue;
+            }
+            // The segment reads forward only, so keep the newest matches seen so far
+            Deque<LedgerEntry> newest = new ArrayDeque<>();
+            try (ArchiveSegment.Cursor cursor = ArchiveSegment.map(segment.path()).cursor()) {
+                while (cursor.hasNext()) {
+                    ArchivedTransaction row = cursor.next();
+                    int order = row.timestamp().compareTo(beforeTimestamp);
+                    if (order > 0 || (order == 0 && compareUnsigned(row.id(), before) >= 0)) {
+                        break;
+                    }
+                    if (!row.timestamp().isBefore(from) && types.contains(row.type())) {
+                        newest.addLast(row);
+                        if (newest.size() > limit - page.size()) {
+                            newest.removeFirst();
+                        }
+                    }
+                }
+            }
+            newest.descendingIterator().forEachRemaining(page::add);
+        }
+        return page;
+    }
+
+    /**
+     * Archives the wallet's rows up to {@code through} as its next segment and returns the balance after them. The rows
+     * must follow those already archived, be ordered by timestamp and include at least one. The segment is on disk
+     * before it becomes readable.
+     */
+    public BigDecimal append(UUID walletId, Instant through, Iterator<? extends LedgerEntry> rows) {
+        long throughMicros = ArchiveSegment.micros(through);
+        Optional<Closing> previous = closing(walletId);
+        long afterMicros = previous.map(closing -> ArchiveSegment.micros(closing.through())).orElse(Long.MIN_VALUE);
+        if (throughMicros <= afterMicros) {
+            throw new IllegalArgumentException("through must be after the archived rows");
+        }
+        Iterator<LedgerEntry> checked = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public LedgerEntry next() {
+                LedgerEntry row = rows.next();
+                long micros = ArchiveSegment.micros(row.getTimestamp());
+                if (micros <= afterMicros || micros > throughMicros) {
+                    throw new IllegalArgumentException("row " + row.getId() + " is outside the archived range");
+                }
+                return row;
+            }
+        };
+
+        Path walletDirectory = directory.resolve(walletId.toString());
+        Path target = walletDirectory.resolve(String.format("%020d%s", throughMicros, SEGMENT_SUFFIX));
+        Path temporary = walletDirectory.resolve(target.getFileName() + TEMPORARY_SUFFIX);
+        BigDecimal closing;
+        try {
+            Files.createDirectories(walletDirectory);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 65536);
+                closing = ArchiveSegment.write(out, previous.map(Closing::balance).orElse(BigDecimal.ZERO), checked);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+
+        ArchiveSegment written = ArchiveSegment.map(target);
+        wallets.compute(walletId, (id, segments) -> {
+            List<Segment> next = new ArrayList<>(segments == null ? List.of() : segments);
+            next.add(new Segment(target, throughMicros, written));
+            return List.copyOf(next);
+        });
+        return closing;
+    }
+
+    private static List<Segment> segments(Path walletDirectory) throws IOException {
+        try (Stream<Path> files = Files.list(walletDirectory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .map(path -> {
+                        String name = path.getFileName().toString();
+                        long through = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                        return new Segment(path, through, ArchiveSegment.map(path));
+                    })
+                    .sorted(Comparator.comparingLong(Segment::throughMicros))
+                    .toList();
+        }
+    }
+
+    /**
+     * Orders ids as PostgreSQL does, byte by byte.
+     */
+    private static int compareUnsigned(UUID a, UUID b) {
+        int order = Long.compareUnsigned(a.getMostSignificantBits(), b.getMostSignificantBits());
+        return order != 0 ? order : Long.compareUnsigned(a.getLeastSignificantBits(), b.getLeastSignificantBits());
+    }
+
+    /**
+     * The instant a wallet's archive is complete through and the balance after its last archived row.
+     */
+    public record Closing(Instant through, BigDecimal balance) {
+    }
+
+    private record Segment(Path path, long throughMicros, int rows, long firstMicros, long lastMicros,
+                           BigDecimal opening, BigDecimal closing) {
+
+        Segment(Path path, long throughMicros, ArchiveSegment header) {
+            this(path, throughMicros, header.rows(), header.firstMicros(), header.lastMicros(), header.opening(),
+                    header.closing());
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.rissatto.sws.infrastructure.config;
+
+import com.rissatto.sws.infrastructure.archive.LedgerArchive;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+/**
+ * Opens the {@link LedgerArchive} whether or not {@code sws.archive.enabled} is set: rows it holds are gone from the
+ * table, so reads consult it even once archiving stopped.
+ */
+@Configuration
+public class ArchiveConfig {
+
+    @Bean
+    public LedgerArchive ledgerArchive(@Value("${sws.archive.directory}") Path directory) {
+        return new LedgerArchive(directory);
+    }
+}
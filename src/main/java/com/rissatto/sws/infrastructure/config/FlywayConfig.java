@@ -0,0 +1,25 @@
+package com.rissatto.sws.infrastructure.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.flyway.FlywayConfigurationCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Map;
+
+/**
+ * Passes {@code spring.flyway.postgresql.transactional-lock} to Flyway 9 as its own
+ * {@code flyway.postgresql.transactional.lock} setting; Spring Boot only binds the former for Flyway 10's PostgreSQL
+ * module. Without it, Flyway holds its lock in an open transaction and {@code CREATE INDEX CONCURRENTLY} migrations wait
+ * on it forever.
+ */
+@Configuration
+public class FlywayConfig {
+
+    @Bean
+    public FlywayConfigurationCustomizer postgresqlTransactionalLockCustomizer(
+            @Value("${spring.flyway.postgresql.transactional-lock:true}") boolean transactionalLock) {
+        return configuration -> configuration.configuration(
+                Map.of("flyway.postgresql.transactional.lock", String.valueOf(transactionalLock)));
+    }
+}
@@ -0,0 +1,28 @@
+package com.rissatto.sws.infrastructure.config;
+
+import com.rissatto.sws.infrastructure.journal.FsyncPolicy;
+import com.rissatto.sws.infrastructure.journal.LedgerJournal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Opens the {@link LedgerJournal} when {@code sws.journal.enabled} is set.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "sws.journal", name = "enabled", havingValue = "true")
+public class JournalConfig {
+
+    @Bean(destroyMethod = "close")
+    public LedgerJournal ledgerJournal(@Value("${sws.journal.directory}") Path directory,
+                                       @Value("${sws.journal.segment-records}") int segmentRecords,
+                                       @Value("${sws.journal.fsync}") FsyncPolicy fsyncPolicy,
+                                       @Value("${sws.journal.fsync-interval}") Duration fsyncInterval,
+                                       @Value("${sws.journal.amount-scale}") int amountScale) {
+        return new LedgerJournal(directory, segmentRecords, fsyncPolicy, fsyncInterval, amountScale);
+    }
+}
@@ -3,24 +3,44 @@ package com.rissatto.sws.infrastructure.entity;
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.PrePersist;
 import jakarta.persistence.Table;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.UUID;
 
 @Entity
 @Table(name = "idempotency_keys")
+@IdClass(IdempotencyKeyId.class)
 public class IdempotencyKey extends Auditable {
 
     @Id
     @Column(nullable = false)
     private String idempotencyKey;
 
+    @Id
     @Column(nullable = false)
     private String operation;
 
-    @Column(nullable = false)
+    @Column
     private UUID resourceId;
 
+    /**
+     * The operation's result as serialized when it completed; {@code null} while the key is only claimed, and for keys
+     * stored before responses were kept.
+     */
+    @Column
+    private String response;
+
+    /**
+     * The UTC day of {@code createdAt}, which the table is partitioned by on PostgreSQL.
+     */
+    @Column(nullable = false, updatable = false)
+    private LocalDate createdOn;
+
     /**
      * Default constructor for JPA
      */
@@ -29,9 +49,14 @@ public class IdempotencyKey extends Auditable {
     }
 
     public IdempotencyKey(String idempotencyKey, String operation, UUID resourceId) {
+        this(idempotencyKey, operation, resourceId, null);
+    }
+
+    public IdempotencyKey(String idempotencyKey, String operation, UUID resourceId, String response) {
         this.idempotencyKey = idempotencyKey;
         this.operation = operation;
         this.resourceId = resourceId;
+        this.response = response;
     }
 
     public String getIdempotencyKey() {
@@ -46,6 +71,21 @@ public class IdempotencyKey extends Auditable {
         return resourceId;
     }
 
+    public String getResponse() {
+        return response;
+    }
+
+    public LocalDate getCreatedOn() {
+        return createdOn;
+    }
+
+    @PrePersist
+    void stampCreatedOn() {
+        // Entity callbacks run after the auditing listener has set createdAt
+        Instant createdAt = getCreatedAt() != null ? getCreatedAt() : Instant.now();
+        createdOn = LocalDate.ofInstant(createdAt, ZoneOffset.UTC);
+    }
+
     @Override
     public String toString() {
         return "IdempotencyKey{" +
@@ -54,4 +94,4 @@ public class IdempotencyKey extends Auditable {
                 ", resourceId=" + resourceId +
                 "} " + super.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,45 @@
+package com.rissatto.sws.infrastructure.entity;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Primary key of an {@link IdempotencyKey}: the same key may be used once per operation.
+ */
+public class IdempotencyKeyId implements Serializable {
+
+    private String idempotencyKey;
+    private String operation;
+
+    /**
+     * Default constructor for JPA
+     */
+    @SuppressWarnings("unused")
+    public IdempotencyKeyId() {
+    }
+
+    public IdempotencyKeyId(String idempotencyKey, String operation) {
+        this.idempotencyKey = idempotencyKey;
+        this.operation = operation;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IdempotencyKeyId other
+                && Objects.equals(idempotencyKey, other.idempotencyKey)
+                && Objects.equals(operation, other.operation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(idempotencyKey, operation);
+    }
+}
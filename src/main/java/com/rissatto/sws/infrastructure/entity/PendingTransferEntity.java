@@ -0,0 +1,108 @@
+package com.rissatto.sws.infrastructure.entity;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * A transfer of the sequenced ledger engine whose debit is journaled and whose credit, or refund, is not yet.
+ */
+@Entity
+@Table(name = "pending_transfers")
+public class PendingTransferEntity extends Auditable implements Persistable<UUID> {
+
+    @Id
+    @Column(name = "id", nullable = false, updatable = false)
+    private UUID id;
+
+    @Column(name = "source_wallet_id", nullable = false, updatable = false)
+    private UUID sourceWalletId;
+
+    @Column(name = "target_wallet_id", nullable = false, updatable = false)
+    private UUID targetWalletId;
+
+    @Column(name = "amount", nullable = false, updatable = false)
+    private BigDecimal amount;
+
+    @Column(name = "idempotency_key", updatable = false)
+    private String idempotencyKey;
+
+    /**
+     * The id is the transfer's, assigned before the row is written, so {@code save} cannot tell a new row by a null id.
+     */
+    @Transient
+    private boolean persisted;
+
+    /**
+     * Default constructor for JPA
+     */
+    @SuppressWarnings("unused")
+    protected PendingTransferEntity() {
+    }
+
+    public PendingTransferEntity(UUID id, UUID sourceWalletId, UUID targetWalletId, BigDecimal amount,
+                                 String idempotencyKey) {
+        this.id = id;
+        this.sourceWalletId = sourceWalletId;
+        this.targetWalletId = targetWalletId;
+        this.amount = amount;
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    @SuppressWarnings("unused")
+    @PostPersist
+    @PostLoad
+    protected void markPersisted() {
+        persisted = true;
+    }
+
+    @Override
+    public UUID getId() {
+        return id;
+    }
+
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
+    public UUID getSourceWalletId() {
+        return sourceWalletId;
+    }
+
+    public UUID getTargetWalletId() {
+        return targetWalletId;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PendingTransferEntity that)) return false;
+        return id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "PendingTransferEntity{" +
+                "id=" + id +
+                ", sourceWalletId=" + sourceWalletId +
+                ", targetWalletId=" + targetWalletId +
+                ", amount=" + amount +
+                ", idempotencyKey=" + idempotencyKey +
+                "} " + super.toString();
+    }
+}
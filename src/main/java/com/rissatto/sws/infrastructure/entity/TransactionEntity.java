@@ -2,6 +2,7 @@ package com.rissatto.sws.infrastructure.entity;
 
 import com.rissatto.sws.domain.Transaction;
 import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
 
 import java.math.BigDecimal;
 import java.time.Instant;
@@ -9,7 +10,7 @@ import java.util.UUID;
 
 @Entity
 @Table(name = "transactions")
-public class TransactionEntity extends Auditable {
+public class TransactionEntity extends Auditable implements Persistable<UUID> {
 
     @Id
     private UUID id;
@@ -27,6 +28,19 @@ public class TransactionEntity extends Auditable {
     @Column(nullable = false)
     private Instant timestamp;
 
+    @Column(name = "balance_after")
+    private BigDecimal balanceAfter;
+
+    @Column(name = "sequence_number")
+    private Long sequenceNumber;
+
+    /**
+     * Ledger rows carry their id from the domain, so {@code save} cannot tell new rows by a null id; without this it
+     * would merge, selecting every row before inserting it.
+     */
+    @Transient
+    private boolean persisted;
+
     /**
      * Default constructor for JPA
      */
@@ -57,11 +71,24 @@ public class TransactionEntity extends Auditable {
         }
     }
 
+    @SuppressWarnings("unused")
+    @PostPersist
+    @PostLoad
+    protected void markPersisted() {
+        persisted = true;
+    }
+
     // Getters e Setters
+    @Override
     public UUID getId() {
         return id;
     }
 
+    @Override
+    public boolean isNew() {
+        return !persisted;
+    }
+
     public void setId(UUID id) {
         this.id = id;
     }
@@ -98,6 +125,22 @@ public class TransactionEntity extends Auditable {
         this.timestamp = timestamp;
     }
 
+    public BigDecimal getBalanceAfter() {
+        return balanceAfter;
+    }
+
+    public void setBalanceAfter(BigDecimal balanceAfter) {
+        this.balanceAfter = balanceAfter;
+    }
+
+    public Long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public void setSequenceNumber(Long sequenceNumber) {
+        this.sequenceNumber = sequenceNumber;
+    }
+
     @Override
     public final boolean equals(Object o) {
         if (!(o instanceof TransactionEntity that)) return false;
@@ -117,6 +160,8 @@ public class TransactionEntity extends Auditable {
                 ", type=" + type +
                 ", amount=" + amount +
                 ", timestamp=" + timestamp +
+                ", balanceAfter=" + balanceAfter +
+                ", sequenceNumber=" + sequenceNumber +
                 "} " + super.toString();
     }
 }
\ No newline at end of file
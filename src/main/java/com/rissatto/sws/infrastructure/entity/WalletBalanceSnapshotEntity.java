@@ -0,0 +1,83 @@
+package com.rissatto.sws.infrastructure.entity;
+
+import jakarta.persistence.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+@Entity
+@Table(name = "wallet_balance_snapshots")
+public class WalletBalanceSnapshotEntity extends Auditable {
+
+    @Id
+    @Column(name = "id", nullable = false, updatable = false)
+    private UUID id;
+
+    @Column(name = "wallet_id", nullable = false, updatable = false)
+    private UUID walletId;
+
+    @Column(name = "balance", nullable = false, updatable = false)
+    private BigDecimal balance;
+
+    @Column(name = "taken_at", nullable = false, updatable = false)
+    private Instant takenAt;
+
+    /**
+     * Default constructor for JPA
+     */
+    @SuppressWarnings("unused")
+    protected WalletBalanceSnapshotEntity() {
+    }
+
+    public WalletBalanceSnapshotEntity(UUID walletId, BigDecimal balance, Instant takenAt) {
+        this.walletId = walletId;
+        this.balance = balance;
+        this.takenAt = takenAt;
+    }
+
+    @SuppressWarnings("unused")
+    @PrePersist
+    protected void onPrePersist() {
+        if (id == null) {
+            id = UUID.randomUUID();
+        }
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public UUID getWalletId() {
+        return walletId;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public Instant getTakenAt() {
+        return takenAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WalletBalanceSnapshotEntity that)) return false;
+        return id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "WalletBalanceSnapshotEntity{" +
+                "id=" + id +
+                ", walletId=" + walletId +
+                ", balance=" + balance +
+                ", takenAt=" + takenAt +
+                "} " + super.toString();
+    }
+}
@@ -3,6 +3,7 @@ package com.rissatto.sws.infrastructure.entity;
 import jakarta.persistence.*;
 
 import java.math.BigDecimal;
+import java.time.Instant;
 import java.util.UUID;
 
 @Entity
@@ -19,6 +20,19 @@ public class WalletEntity extends Auditable {
     @Column(name = "balance", nullable = false)
     private BigDecimal balance;
 
+    @Column(name = "last_sequence_number", nullable = false)
+    private long lastSequenceNumber;
+
+    @Column(name = "last_transaction_at")
+    private Instant lastTransactionAt;
+
+    @Column(name = "stripes", nullable = false)
+    private int stripes;
+
+    @Version
+    @Column(name = "version", nullable = false)
+    private Long version;
+
     /**
      * Default constructor for JPA
      */
@@ -63,6 +77,55 @@ public class WalletEntity extends Auditable {
         this.balance = balance;
     }
 
+    public long getLastSequenceNumber() {
+        return lastSequenceNumber;
+    }
+
+    public void setLastSequenceNumber(long lastSequenceNumber) {
+        this.lastSequenceNumber = lastSequenceNumber;
+    }
+
+    /**
+     * Advances the per-wallet ledger sequence; only call while holding the wallet row lock.
+     */
+    public long nextSequenceNumber() {
+        return ++lastSequenceNumber;
+    }
+
+    public Instant getLastTransactionAt() {
+        return lastTransactionAt;
+    }
+
+    public void setLastTransactionAt(Instant lastTransactionAt) {
+        this.lastTransactionAt = lastTransactionAt;
+    }
+
+    /**
+     * Returns the timestamp for the next ledger row: {@code timestamp}, unless an earlier writer already stamped a
+     * later one. Keeps ledger timestamps in sequence order; only call while holding the wallet row lock.
+     */
+    public Instant nextTransactionAt(Instant timestamp) {
+        if (lastTransactionAt == null || timestamp.isAfter(lastTransactionAt)) {
+            lastTransactionAt = timestamp;
+        }
+        return lastTransactionAt;
+    }
+
+    /**
+     * Number of sub-balance rows credits are spread over; 0 when the wallet is not striped.
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (!(o instanceof WalletEntity that)) return false;
@@ -80,6 +143,10 @@ public class WalletEntity extends Auditable {
                 "id=" + id +
                 ", userId=" + userId +
                 ", balance=" + balance +
+                ", lastSequenceNumber=" + lastSequenceNumber +
+                ", lastTransactionAt=" + lastTransactionAt +
+                ", stripes=" + stripes +
+                ", version=" + version +
                 "} " + super.toString();
     }
 }
@@ -0,0 +1,89 @@
+package com.rissatto.sws.infrastructure.entity;
+
+import jakarta.persistence.*;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * Sub-balance of a striped wallet. Credits land on one stripe; the wallet balance is the wallet row plus all stripes.
+ */
+@Entity
+@Table(name = "wallet_stripes")
+public class WalletStripeEntity extends Auditable {
+
+    @Id
+    @Column(name = "id", nullable = false, updatable = false)
+    private UUID id;
+
+    @Column(name = "wallet_id", nullable = false, updatable = false)
+    private UUID walletId;
+
+    @Column(name = "stripe", nullable = false, updatable = false)
+    private int stripe;
+
+    @Column(name = "balance", nullable = false)
+    private BigDecimal balance;
+
+    /**
+     * Default constructor for JPA
+     */
+    @SuppressWarnings("unused")
+    protected WalletStripeEntity() {
+    }
+
+    public WalletStripeEntity(UUID walletId, int stripe) {
+        this.walletId = walletId;
+        this.stripe = stripe;
+        this.balance = BigDecimal.ZERO;
+    }
+
+    @SuppressWarnings("unused")
+    @PrePersist
+    protected void onPrePersist() {
+        if (id == null) {
+            id = UUID.randomUUID();
+        }
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public UUID getWalletId() {
+        return walletId;
+    }
+
+    public int getStripe() {
+        return stripe;
+    }
+
+    public BigDecimal getBalance() {
+        return balance;
+    }
+
+    public void setBalance(BigDecimal balance) {
+        this.balance = balance;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WalletStripeEntity that)) return false;
+        return id.equals(that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "WalletStripeEntity{" +
+                "id=" + id +
+                ", walletId=" + walletId +
+                ", stripe=" + stripe +
+                ", balance=" + balance +
+                "} " + super.toString();
+    }
+}
@@ -0,0 +1,23 @@
+package com.rissatto.sws.infrastructure.journal;
+
+/**
+ * When {@link LedgerJournal#append} forces appended records to disk before returning.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Force after every append; each append pays a full flush.
+     */
+    PER_WRITE,
+
+    /**
+     * Force before returning, but one flush covers every record appended by concurrent callers up to that point, so
+     * appenders arriving while a flush is running share the next one.
+     */
+    GROUP,
+
+    /**
+     * Return as soon as the record is in the page cache and force on a timer; a crash can lose up to one interval.
+     */
+    INTERVAL
+}
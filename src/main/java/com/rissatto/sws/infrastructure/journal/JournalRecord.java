@@ -0,0 +1,44 @@
+package com.rissatto.sws.infrastructure.journal;
+
+import com.rissatto.sws.domain.Transaction;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * One ledger event as laid out in the {@link LedgerJournal}: the amount is signed, in minor units (e.g. cents for a
+ * scale of 2), and the timestamp has microsecond precision, like the database column.
+ */
+public record JournalRecord(UUID transactionId,
+                            UUID walletId,
+                            Transaction.Type type,
+                            long amountMinor,
+                            Instant timestamp,
+                            long walletSequence) {
+
+    public JournalRecord {
+        Objects.requireNonNull(transactionId, "transactionId must not be null");
+        Objects.requireNonNull(walletId, "walletId must not be null");
+        Objects.requireNonNull(type, "type must not be null");
+        Objects.requireNonNull(timestamp, "timestamp must not be null");
+    }
+
+    public static JournalRecord of(Transaction transaction, long walletSequence, int amountScale) {
+        long amountMinor;
+        try {
+            amountMinor = transaction.amount().setScale(amountScale, RoundingMode.UNNECESSARY).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(
+                    String.format("amount %s does not fit %d decimal places", transaction.amount(), amountScale), e);
+        }
+        return new JournalRecord(transaction.id(), transaction.walletId(), transaction.type(), amountMinor,
+                transaction.timestamp(), walletSequence);
+    }
+
+    public BigDecimal amount(int amountScale) {
+        return BigDecimal.valueOf(amountMinor, amountScale);
+    }
+}
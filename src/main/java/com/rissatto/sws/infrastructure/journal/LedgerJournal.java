@@ -0,0 +1,356 @@
+package com.rissatto.sws.infrastructure.journal;
+
+import com.rissatto.sws.domain.Transaction;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only write-ahead journal of ledger events in memory-mapped segment files.
+ * <p>
+ * Records have a fixed {@value #RECORD_SIZE}-byte layout: a CRC32C of the rest of the record, the type ordinal, the
+ * transaction and wallet ids, the signed amount in minor units, the timestamp in epoch microseconds and the wallet
+ * sequence number. Segments are preallocated to {@code recordsPerSegment} records and named after the position of
+ * their first record, so replay reads them in order and stops at the first slot whose checksum does not match, which
+ * is also how a journal reopened after a crash finds where to append next (a torn last record is overwritten).
+ * <p>
+ * Appends are serialized; when they are forced to disk is up to the {@link FsyncPolicy}.
+ */
+public final class LedgerJournal implements AutoCloseable {
+
+    public static final int RECORD_SIZE = 64;
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final Transaction.Type[] TYPES = Transaction.Type.values();
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final FsyncPolicy fsyncPolicy;
+    private final int amountScale;
+    private final ScheduledExecutorService flusher;
+    private final ByteBuffer scratch = ByteBuffer.allocate(RECORD_SIZE);
+    private final Object syncLock = new Object();
+
+    private Segment segment;
+    private long nextPosition;
+    private volatile long durablePosition;
+    private boolean closed;
+
+    public LedgerJournal(Path directory, int recordsPerSegment, FsyncPolicy fsyncPolicy, Duration fsyncInterval, int amountScale) {
+        if (recordsPerSegment < 1) {
+            throw new IllegalArgumentException("recordsPerSegment must be positive");
+        }
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.fsyncPolicy = fsyncPolicy;
+        this.amountScale = amountScale;
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments = segments();
+            if (segments.isEmpty()) {
+                segment = Segment.open(directory, 0, recordsPerSegment);
+                nextPosition = 0;
+            } else {
+                Path last = segments.getLast();
+                segment = Segment.open(directory, firstPosition(last), recordsPerSegment);
+                nextPosition = segment.firstPosition + segment.validRecords();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        durablePosition = nextPosition;
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("ledger-journal-flusher").daemon().factory());
+            long intervalNanos = fsyncInterval.toNanos();
+            flusher.scheduleWithFixedDelay(this::sync, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    public int amountScale() {
+        return amountScale;
+    }
+
+    /**
+     * Position the next appended record will get; also the number of records in the journal.
+     */
+    public synchronized long nextPosition() {
+        return nextPosition;
+    }
+
+    /**
+     * Appends the record and returns its position, once it is as durable as the {@link FsyncPolicy} promises.
+     */
+    public long append(JournalRecord record) {
+        return appendAll(List.of(record));
+    }
+
+    /**
+     * Appends the records in order and returns the position of the last one, forcing them to disk together.
+     */
+    public long appendAll(List<JournalRecord> records) {
+        if (records.isEmpty()) {
+            throw new IllegalArgumentException("records must not be empty");
+        }
+        long last;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            for (JournalRecord record : records) {
+                if (nextPosition - segment.firstPosition == segment.capacity) {
+                    roll();
+                }
+                encode(record, scratch);
+                segment.buffer.put((int) (nextPosition - segment.firstPosition) * RECORD_SIZE, scratch, 0, RECORD_SIZE);
+                nextPosition++;
+            }
+            last = nextPosition - 1;
+            if (fsyncPolicy == FsyncPolicy.PER_WRITE) {
+                segment.buffer.force();
+                durablePosition = nextPosition;
+            }
+        }
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            awaitDurable(last);
+        }
+        return last;
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     */
+    public void sync() {
+        awaitDurable(Long.MAX_VALUE - 1);
+    }
+
+    /**
+     * Reads every record in position order and returns how many there were.
+     */
+    public long replay(Consumer<JournalRecord> consumer) {
+        long end;
+        synchronized (this) {
+            end = nextPosition;
+        }
+        long replayed = 0;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        try {
+            for (Path path : segments()) {
+                long first = firstPosition(path);
+                if (first >= end) {
+                    break;
+                }
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    int records = (int) Math.min(channel.size() / RECORD_SIZE, end - first);
+                    for (int i = 0; i < records; i++) {
+                        record.clear();
+                        buffer.get(i * RECORD_SIZE, record.array(), 0, RECORD_SIZE);
+                        if (!valid(record)) {
+                            break;
+                        }
+                        consumer.accept(decode(record));
+                        replayed++;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return replayed;
+    }
+
+    /**
+     * Replays the journal into each wallet's balance and last sequence number.
+     */
+    public Map<UUID, WalletBalance> rebuildBalances() {
+        Map<UUID, long[]> totals = new HashMap<>();
+        replay(record -> {
+            long[] total = totals.computeIfAbsent(record.walletId(), id -> new long[2]);
+            total[0] = Math.addExact(total[0], record.amountMinor());
+            total[1] = Math.max(total[1], record.walletSequence());
+        });
+        Map<UUID, WalletBalance> balances = new HashMap<>(totals.size() * 2);
+        totals.forEach((walletId, total) ->
+                balances.put(walletId, new WalletBalance(BigDecimal.valueOf(total[0], amountScale), total[1])));
+        return balances;
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            segment.buffer.force();
+            durablePosition = nextPosition;
+            segment.close();
+        }
+    }
+
+    private void awaitDurable(long position) {
+        if (durablePosition > position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (durablePosition > position) {
+                return;
+            }
+            MappedByteBuffer buffer;
+            long written;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                buffer = segment.buffer;
+                written = nextPosition;
+            }
+            // Records before this segment were forced when it was rolled; later appends may ride along
+            buffer.force();
+            durablePosition = Math.max(durablePosition, written);
+        }
+    }
+
+    private void roll() {
+        segment.buffer.force();
+        durablePosition = Math.max(durablePosition, nextPosition);
+        segment.close();
+        try {
+            segment = Segment.open(directory, nextPosition, recordsPerSegment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static long firstPosition(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void encode(JournalRecord record, ByteBuffer buffer) {
+        Instant timestamp = record.timestamp();
+        buffer.clear();
+        buffer.putInt(0, 0)
+                .put(4, (byte) record.type().ordinal())
+                .put(5, (byte) 0).put(6, (byte) 0).put(7, (byte) 0)
+                .putLong(8, record.transactionId().getMostSignificantBits())
+                .putLong(16, record.transactionId().getLeastSignificantBits())
+                .putLong(24, record.walletId().getMostSignificantBits())
+                .putLong(32, record.walletId().getLeastSignificantBits())
+                .putLong(40, record.amountMinor())
+                .putLong(48, Math.addExact(Math.multiplyExact(timestamp.getEpochSecond(), 1_000_000L), timestamp.getNano() / 1_000))
+                .putLong(56, record.walletSequence());
+        buffer.putInt(0, checksum(buffer));
+    }
+
+    private static boolean valid(ByteBuffer buffer) {
+        return buffer.getInt(0) == checksum(buffer) && Byte.toUnsignedInt(buffer.get(4)) < TYPES.length;
+    }
+
+    private static JournalRecord decode(ByteBuffer buffer) {
+        long micros = buffer.getLong(48);
+        return new JournalRecord(
+                new UUID(buffer.getLong(8), buffer.getLong(16)),
+                new UUID(buffer.getLong(24), buffer.getLong(32)),
+                TYPES[buffer.get(4)],
+                buffer.getLong(40),
+                Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L),
+                buffer.getLong(56));
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 4, RECORD_SIZE - 4);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A wallet's balance and last sequence number as rebuilt from the journal.
+     */
+    public record WalletBalance(BigDecimal balance, long lastSequenceNumber) {
+    }
+
+    private static final class Segment {
+
+        private final long firstPosition;
+        private final int capacity;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long firstPosition, int capacity, FileChannel channel, MappedByteBuffer buffer) {
+            this.firstPosition = firstPosition;
+            this.capacity = capacity;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Maps the segment starting at {@code firstPosition}, creating it with room for {@code records} records, or
+         * keeping the capacity it was created with.
+         */
+        static Segment open(Path directory, long firstPosition, int records) throws IOException {
+            Path path = directory.resolve(String.format("%020d%s", firstPosition, SEGMENT_SUFFIX));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size() > 0 ? channel.size() - channel.size() % RECORD_SIZE : (long) records * RECORD_SIZE;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(firstPosition, (int) (size / RECORD_SIZE), channel, buffer);
+        }
+
+        /**
+         * Counts the records up to the first slot that does not hold a valid one.
+         */
+        int validRecords() {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            int count = 0;
+            while (count < capacity) {
+                record.clear();
+                buffer.get(count * RECORD_SIZE, record.array(), 0, RECORD_SIZE);
+                if (!valid(record)) {
+                    break;
+                }
+                count++;
+            }
+            return count;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The daily partitions of {@code idempotency_keys} on PostgreSQL, each named {@code idempotency_keys_yyyyMMdd} after
+ * the day of {@code created_on} it holds, next to {@code idempotency_keys_default} for rows outside all of them.
+ * Elsewhere the table is not partitioned and {@link #isPartitioned()} is false.
+ */
+@Repository
+public class IdempotencyKeyPartitions {
+
+    private static final String TABLE = "idempotency_keys";
+    private static final String DEFAULT_PARTITION = TABLE + "_default";
+    private static final Pattern DAILY_PARTITION = Pattern.compile(TABLE + "_(\\d{8})");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String schema;
+
+    @Autowired
+    public IdempotencyKeyPartitions(JdbcTemplate jdbcTemplate,
+                                    @Value("${spring.jpa.properties.hibernate.default_schema:sws}") String schema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.schema = schema;
+    }
+
+    public boolean isPartitioned() {
+        boolean postgres = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())));
+        return postgres && Boolean.TRUE.equals(jdbcTemplate.queryForObject("""
+                SELECT EXISTS (SELECT 1
+                                 FROM pg_partitioned_table p
+                                 JOIN pg_class c ON c.oid = p.partrelid
+                                 JOIN pg_namespace n ON n.oid = c.relnamespace
+                                WHERE n.nspname = ? AND c.relname = ?)
+                """, Boolean.class, schema, TABLE));
+    }
+
+    /**
+     * The days that have a partition, oldest first.
+     */
+    public List<LocalDate> days() {
+        return jdbcTemplate.queryForList("""
+                        SELECT c.relname
+                          FROM pg_inherits i
+                          JOIN pg_class c ON c.oid = i.inhrelid
+                          JOIN pg_class p ON p.oid = i.inhparent
+                          JOIN pg_namespace n ON n.oid = p.relnamespace
+                         WHERE n.nspname = ? AND p.relname = ?
+                        """, String.class, schema, TABLE).stream()
+                .map(DAILY_PARTITION::matcher)
+                .filter(Matcher::matches)
+                .map(matcher -> LocalDate.parse(matcher.group(1), DateTimeFormatter.BASIC_ISO_DATE))
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * Creates the partition for the day. Fails when the default partition already holds rows of that day.
+     */
+    public void create(LocalDate day) {
+        jdbcTemplate.execute(String.format("CREATE TABLE IF NOT EXISTS %s.%s PARTITION OF %s.%s FOR VALUES FROM ('%s') TO ('%s')",
+                schema, partition(day), schema, TABLE, day, day.plusDays(1)));
+    }
+
+    /**
+     * Drops the partition of the day with every key in it.
+     */
+    public void drop(LocalDate day) {
+        jdbcTemplate.execute(String.format("DROP TABLE IF EXISTS %s.%s", schema, partition(day)));
+    }
+
+    /**
+     * Deletes the rows of the default partition created before {@code day}.
+     */
+    public int purgeDefault(LocalDate day) {
+        return jdbcTemplate.update(String.format("DELETE FROM %s.%s WHERE created_on < ?", schema, DEFAULT_PARTITION), day);
+    }
+
+    private static String partition(LocalDate day) {
+        return TABLE + "_" + Objects.requireNonNull(day).format(DateTimeFormatter.BASIC_ISO_DATE);
+    }
+}
@@ -1,10 +1,136 @@
 package com.rissatto.sws.infrastructure.repository;
 
 import com.rissatto.sws.infrastructure.entity.IdempotencyKey;
+import com.rissatto.sws.infrastructure.entity.IdempotencyKeyId;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
-public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, String> {
-    Optional<IdempotencyKey> findByIdempotencyKeyAndOperation(String idempotencyKey, String operation);
+public interface IdempotencyKeyRepository extends JpaRepository<IdempotencyKey, IdempotencyKeyId> {
+    /**
+     * The earliest row for the key. On PostgreSQL a key is only unique per day; claims serialized by {@link #lock}
+     * never leave it on two days, but keys stored before they were may.
+     */
+    @Query("""
+            SELECT k FROM IdempotencyKey k
+             WHERE k.idempotencyKey = :idempotencyKey AND k.operation = :operation
+             ORDER BY k.createdAt
+             FETCH FIRST 1 ROW ONLY
+            """)
+    Optional<IdempotencyKey> findByIdempotencyKeyAndOperation(@Param("idempotencyKey") String idempotencyKey,
+                                                              @Param("operation") String operation);
+
+    /**
+     * The keys after {@code (afterKey, afterOperation)} in primary key order, so a batch may end between two operations
+     * of the same key.
+     */
+    @Query("""
+            SELECT k FROM IdempotencyKey k
+             WHERE k.idempotencyKey >= :afterKey
+               AND (k.idempotencyKey > :afterKey OR k.operation > :afterOperation)
+             ORDER BY k.idempotencyKey, k.operation
+            """)
+    List<IdempotencyKey> findAllAfter(@Param("afterKey") String afterKey,
+                                      @Param("afterOperation") String afterOperation,
+                                      Limit limit);
+
+    /**
+     * Holds a PostgreSQL advisory lock on the key until the transaction ends, so claims of the same key run one after
+     * the other whatever day they land on.
+     */
+    @Query(value = "SELECT count(*) FROM pg_advisory_xact_lock(hashtext(:idempotencyKey || ':' || :operation))",
+            nativeQuery = true)
+    long lock(@Param("idempotencyKey") String idempotencyKey, @Param("operation") String operation);
+
+    /**
+     * Inserts the key without a response yet; 0 when it is already there, on any day. A concurrent claim of the same
+     * key waits for the transaction holding it, so at most one caller gets 1 and the others then read what it stored.
+     * Only a claim made under {@link #lock} sees a row another transaction is inserting on a different day.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO {h-schema}idempotency_keys (idempotency_key, operation, created_at, updated_at, created_on)
+            SELECT :idempotencyKey, :operation, :claimedAt, :claimedAt, :claimedOn
+             WHERE NOT EXISTS (SELECT 1
+                                 FROM {h-schema}idempotency_keys
+                                WHERE idempotency_key = :idempotencyKey AND operation = :operation)
+            ON CONFLICT DO NOTHING
+            """, nativeQuery = true)
+    int claim(@Param("idempotencyKey") String idempotencyKey,
+              @Param("operation") String operation,
+              @Param("claimedAt") Instant claimedAt,
+              @Param("claimedOn") LocalDate claimedOn);
+
+    /**
+     * Inserts the key together with the response of an operation that already ran; 0 when it is already there, on any
+     * day, exactly like {@link #claim}.
+     */
+    @Modifying
+    @Query(value = """
+            INSERT INTO {h-schema}idempotency_keys
+                   (idempotency_key, operation, resource_id, response, created_at, updated_at, created_on)
+            SELECT :idempotencyKey, :operation, :resourceId, :response, :storedAt, :storedAt, :storedOn
+             WHERE NOT EXISTS (SELECT 1
+                                 FROM {h-schema}idempotency_keys
+                                WHERE idempotency_key = :idempotencyKey AND operation = :operation)
+            ON CONFLICT DO NOTHING
+            """, nativeQuery = true)
+    int store(@Param("idempotencyKey") String idempotencyKey,
+              @Param("operation") String operation,
+              @Param("resourceId") UUID resourceId,
+              @Param("response") String response,
+              @Param("storedAt") Instant storedAt,
+              @Param("storedOn") LocalDate storedOn);
+
+    @Modifying
+    @Query(value = """
+            UPDATE {h-schema}idempotency_keys
+               SET resource_id = :resourceId,
+                   response = :response,
+                   updated_at = :completedAt
+             WHERE idempotency_key = :idempotencyKey
+               AND operation = :operation
+               AND created_on = :claimedOn
+            """, nativeQuery = true)
+    int complete(@Param("idempotencyKey") String idempotencyKey,
+                 @Param("operation") String operation,
+                 @Param("claimedOn") LocalDate claimedOn,
+                 @Param("resourceId") UUID resourceId,
+                 @Param("response") String response,
+                 @Param("completedAt") Instant completedAt);
+
+    /**
+     * Drops a claim whose operation was rejected, so the key can be used again.
+     */
+    @Modifying
+    @Query("""
+            DELETE FROM IdempotencyKey k
+             WHERE k.idempotencyKey = :idempotencyKey AND k.operation = :operation AND k.createdOn = :claimedOn
+               AND k.response IS NULL
+            """)
+    int release(@Param("idempotencyKey") String idempotencyKey,
+                @Param("operation") String operation,
+                @Param("claimedOn") LocalDate claimedOn);
+
+    /**
+     * Drops a completed key whose operation was reversed, so the key can be used again.
+     */
+    @Modifying
+    @Query("DELETE FROM IdempotencyKey k WHERE k.idempotencyKey = :idempotencyKey AND k.operation = :operation")
+    int revoke(@Param("idempotencyKey") String idempotencyKey, @Param("operation") String operation);
+
+    /**
+     * Deletes the keys created before {@code day}, for tables that are not partitioned.
+     */
+    @Modifying
+    @Query("DELETE FROM IdempotencyKey k WHERE k.createdOn < :day")
+    int deleteCreatedBefore(@Param("day") LocalDate day);
 }
@@ -0,0 +1,20 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import com.rissatto.sws.infrastructure.entity.PendingTransferEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.UUID;
+
+public interface PendingTransferRepository extends JpaRepository<PendingTransferEntity, UUID> {
+
+    /**
+     * Deletes the pending transfer once its credit or refund is written; 0 when one of them already settled it. A
+     * concurrent settlement waits for the transaction holding the row, so at most one of them gets 1.
+     */
+    @Modifying
+    @Query("DELETE FROM PendingTransferEntity t WHERE t.id = :id")
+    int settle(@Param("id") UUID id);
+}
@@ -0,0 +1,85 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Objects;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The monthly partitions of {@code transactions} on PostgreSQL, each named {@code transactions_yyyyMM} after the month
+ * of {@code timestamp} it holds, next to {@code transactions_default} for rows outside all of them. Elsewhere the
+ * table is not partitioned and {@link #isPartitioned()} is false.
+ */
+@Repository
+public class TransactionPartitions {
+
+    private static final String TABLE = "transactions";
+    private static final DateTimeFormatter MONTH = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final Pattern MONTHLY_PARTITION = Pattern.compile(TABLE + "_(\\d{6})");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String schema;
+
+    @Autowired
+    public TransactionPartitions(JdbcTemplate jdbcTemplate,
+                                 @Value("${spring.jpa.properties.hibernate.default_schema:sws}") String schema) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.schema = schema;
+    }
+
+    public boolean isPartitioned() {
+        boolean postgres = Boolean.TRUE.equals(jdbcTemplate.execute((ConnectionCallback<Boolean>) connection ->
+                "PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())));
+        return postgres && Boolean.TRUE.equals(jdbcTemplate.queryForObject("""
+                SELECT EXISTS (SELECT 1
+                                 FROM pg_partitioned_table p
+                                 JOIN pg_class c ON c.oid = p.partrelid
+                                 JOIN pg_namespace n ON n.oid = c.relnamespace
+                                WHERE n.nspname = ? AND c.relname = ?)
+                """, Boolean.class, schema, TABLE));
+    }
+
+    /**
+     * The months that have a partition, oldest first.
+     */
+    public List<YearMonth> months() {
+        return jdbcTemplate.queryForList("""
+                        SELECT c.relname
+                          FROM pg_inherits i
+                          JOIN pg_class c ON c.oid = i.inhrelid
+                          JOIN pg_class p ON p.oid = i.inhparent
+                          JOIN pg_namespace n ON n.oid = p.relnamespace
+                         WHERE n.nspname = ? AND p.relname = ?
+                        """, String.class, schema, TABLE).stream()
+                .map(MONTHLY_PARTITION::matcher)
+                .filter(Matcher::matches)
+                .map(matcher -> YearMonth.parse(matcher.group(1), MONTH))
+                .sorted()
+                .toList();
+    }
+
+    /**
+     * Creates the partition for the month, with the indexes of the table plus the unique {@code (wallet_id,
+     * sequence_number)} index a partitioned table cannot declare, both in one implicit transaction. Fails when the
+     * default partition already holds rows of that month.
+     */
+    public void create(YearMonth month) {
+        String partition = partition(month);
+        jdbcTemplate.execute(String.format("CREATE TABLE IF NOT EXISTS %s.%s PARTITION OF %s.%s FOR VALUES FROM ('%s') TO ('%s'); "
+                        + "CREATE UNIQUE INDEX IF NOT EXISTS ux_%s_wallet_sequence ON %s.%s (wallet_id, sequence_number)",
+                schema, partition, schema, TABLE, month.atDay(1), month.plusMonths(1).atDay(1),
+                partition, schema, partition));
+    }
+
+    private static String partition(YearMonth month) {
+        return TABLE + "_" + Objects.requireNonNull(month).format(MONTH);
+    }
+}
@@ -1,17 +1,211 @@
 package com.rissatto.sws.infrastructure.repository;
 
+import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 public interface TransactionRepository extends JpaRepository<TransactionEntity, UUID> {
+
     List<TransactionEntity> findByWalletId(UUID walletId);
 
     List<TransactionEntity> findByWalletIdIn(Collection<UUID> walletIds);
 
     List<TransactionEntity> findByWalletIdAndTimestampLessThanEqual(UUID walletId, Instant timestamp);
+
+    /**
+     * Resolves the balance of a wallet at the given instant as the latest snapshot taken at or before it plus the
+     * ledger delta recorded after that snapshot, so the scanned range is bounded by the snapshot interval.
+     * Wallets without snapshots fall back to the full ledger sum; an empty result means the wallet does not exist.
+     */
+    @Query("""
+            SELECT COALESCE(s.balance, 0)
+                   + COALESCE((SELECT SUM(t.amount) FROM TransactionEntity t
+                               WHERE t.walletId = w.id
+                                 AND t.timestamp <= :timestamp
+                                 AND (s.takenAt IS NULL OR t.timestamp > s.takenAt)), 0)
+            FROM WalletEntity w
+            LEFT JOIN WalletBalanceSnapshotEntity s
+                   ON s.walletId = w.id
+                  AND s.takenAt = (SELECT MAX(s2.takenAt) FROM WalletBalanceSnapshotEntity s2
+                                   WHERE s2.walletId = w.id AND s2.takenAt <= :timestamp)
+            WHERE w.id = :walletId
+            """)
+    Optional<BigDecimal> findBalanceByWalletIdAt(@Param("walletId") UUID walletId,
+                                                 @Param("timestamp") Instant timestamp);
+
+    /**
+     * Balances of many wallets at the same instant in one grouped aggregate: each wallet's latest snapshot taken at or
+     * before it plus the ledger delta recorded after that snapshot, as in
+     * {@link #findBalanceByWalletIdAt(UUID, Instant)}. Wallets that do not exist are left out.
+     */
+    @Query("""
+            SELECT w.id AS walletId, COALESCE(s.balance, 0) + COALESCE(SUM(t.amount), 0) AS balance
+            FROM WalletEntity w
+            LEFT JOIN WalletBalanceSnapshotEntity s
+                   ON s.walletId = w.id
+                  AND s.takenAt = (SELECT MAX(s2.takenAt) FROM WalletBalanceSnapshotEntity s2
+                                   WHERE s2.walletId = w.id AND s2.takenAt <= :timestamp)
+            LEFT JOIN TransactionEntity t
+                   ON t.walletId = w.id
+                  AND t.timestamp <= :timestamp
+                  AND (s.takenAt IS NULL OR t.timestamp > s.takenAt)
+            WHERE w.id IN :walletIds
+            GROUP BY w.id, s.balance
+            """)
+    List<WalletBalance> findBalancesByWalletIdInAt(@Param("walletIds") Collection<UUID> walletIds,
+                                                   @Param("timestamp") Instant timestamp);
+
+    /**
+     * Reads the running balance stamped on the latest ledger row at or before the given instant: a single index seek
+     * on {@code (wallet_id, timestamp, sequence_number)}. Empty when there is no such row or it carries no
+     * {@code balance_after}; callers fall back to {@link #findBalanceByWalletIdAt(UUID, Instant)}.
+     */
+    @Query("""
+            SELECT t.balanceAfter FROM TransactionEntity t
+            WHERE t.walletId = :walletId AND t.timestamp <= :timestamp
+            ORDER BY t.timestamp DESC, t.sequenceNumber DESC
+            LIMIT 1
+            """)
+    Optional<BigDecimal> findBalanceAfterByWalletIdAt(@Param("walletId") UUID walletId,
+                                                      @Param("timestamp") Instant timestamp);
+
+    boolean existsByWalletIdAndTimestampLessThanEqual(UUID walletId, Instant timestamp);
+
+    boolean existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(UUID walletId, Instant after, Instant timestamp);
+
+    /**
+     * First page of a wallet's ledger, newest first: the rows of the given types with {@code from <= timestamp < to},
+     * ordered by {@code (timestamp, id)} descending. Reads the listed columns only, never the entities.
+     */
+    @Query("""
+            SELECT t.id AS id, t.type AS type, t.amount AS amount, t.balanceAfter AS balanceAfter,
+                   t.timestamp AS timestamp
+            FROM TransactionEntity t
+            WHERE t.walletId = :walletId
+              AND t.type IN :types
+              AND t.timestamp >= :from
+              AND t.timestamp < :to
+            ORDER BY t.timestamp DESC, t.id DESC
+            """)
+    List<LedgerEntry> findLedgerPage(@Param("walletId") UUID walletId,
+                                     @Param("types") Collection<Transaction.Type> types,
+                                     @Param("from") Instant from,
+                                     @Param("to") Instant to,
+                                     Limit limit);
+
+    /**
+     * Next page of a wallet's ledger: the rows ordered after {@code (beforeTimestamp, beforeId)}, the last row of the
+     * previous page. The redundant {@code timestamp <= :beforeTimestamp} bounds the range scanned on
+     * {@code (wallet_id, timestamp, id)}, so a page costs the same however deep it is.
+     */
+    @Query("""
+            SELECT t.id AS id, t.type AS type, t.amount AS amount, t.balanceAfter AS balanceAfter,
+                   t.timestamp AS timestamp
+            FROM TransactionEntity t
+            WHERE t.walletId = :walletId
+              AND t.type IN :types
+              AND t.timestamp >= :from
+              AND t.timestamp <= :beforeTimestamp
+              AND (t.timestamp < :beforeTimestamp OR t.id < :beforeId)
+            ORDER BY t.timestamp DESC, t.id DESC
+            """)
+    List<LedgerEntry> findLedgerPageBefore(@Param("walletId") UUID walletId,
+                                           @Param("types") Collection<Transaction.Type> types,
+                                           @Param("from") Instant from,
+                                           @Param("beforeTimestamp") Instant beforeTimestamp,
+                                           @Param("beforeId") UUID beforeId,
+                                           Limit limit);
+
+    /**
+     * Streams a wallet's ledger rows with {@code from <= timestamp < to}, oldest first, as projections the persistence
+     * context never holds on to. The driver fetches 1000 rows at a time (PostgreSQL only does so inside a transaction),
+     * so memory does not depend on ledger size. Consume and close it inside a transaction.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("""
+            SELECT t.id AS id, t.type AS type, t.amount AS amount, t.balanceAfter AS balanceAfter,
+                   t.timestamp AS timestamp
+            FROM TransactionEntity t
+            WHERE t.walletId = :walletId
+              AND t.timestamp >= :from
+              AND t.timestamp < :to
+            ORDER BY t.timestamp, t.id
+            """)
+    Stream<LedgerEntry> streamLedger(@Param("walletId") UUID walletId,
+                                     @Param("from") Instant from,
+                                     @Param("to") Instant to);
+
+    /**
+     * Streams the timestamp and amount of a wallet's ledger rows with {@code after < timestamp <= upTo}, oldest first,
+     * for folding into running balances in one pass. Fetched like {@link #streamLedger(UUID, Instant, Instant)}, so
+     * consume and close it inside a transaction.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("""
+            SELECT t.timestamp AS timestamp, t.amount AS amount
+            FROM TransactionEntity t
+            WHERE t.walletId = :walletId
+              AND t.timestamp > :after
+              AND t.timestamp <= :upTo
+            ORDER BY t.timestamp
+            """)
+    Stream<LedgerMovement> streamMovements(@Param("walletId") UUID walletId,
+                                           @Param("after") Instant after,
+                                           @Param("upTo") Instant upTo);
+
+    /**
+     * Deletes a wallet's ledger rows up to (and including) the given instant, once they are archived.
+     */
+    @Modifying
+    @Query("DELETE FROM TransactionEntity t WHERE t.walletId = :walletId AND t.timestamp <= :timestamp")
+    int deleteByWalletIdAndTimestampLessThanEqual(@Param("walletId") UUID walletId,
+                                                  @Param("timestamp") Instant timestamp);
+
+    /**
+     * Balance of one wallet, as resolved for many at once.
+     */
+    interface WalletBalance {
+        UUID getWalletId();
+
+        BigDecimal getBalance();
+    }
+
+    /**
+     * Ledger row as listed in a wallet's history.
+     */
+    interface LedgerEntry {
+        UUID getId();
+
+        Transaction.Type getType();
+
+        BigDecimal getAmount();
+
+        BigDecimal getBalanceAfter();
+
+        Instant getTimestamp();
+    }
+
+    /**
+     * Timestamp and signed amount of a ledger row, all a running balance needs.
+     */
+    interface LedgerMovement {
+        Instant getTimestamp();
+
+        BigDecimal getAmount();
+    }
 }
@@ -0,0 +1,12 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import com.rissatto.sws.infrastructure.entity.WalletBalanceSnapshotEntity;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.UUID;
+
+public interface WalletBalanceSnapshotRepository extends JpaRepository<WalletBalanceSnapshotEntity, UUID> {
+    Optional<WalletBalanceSnapshotEntity> findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(UUID walletId, Instant takenAt);
+}
@@ -2,17 +2,212 @@ package com.rissatto.sws.infrastructure.repository;
 
 import com.rissatto.sws.infrastructure.entity.WalletEntity;
 import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
-public interface WalletRepository extends JpaRepository<WalletEntity, UUID> {
+public interface WalletRepository extends JpaRepository<WalletEntity, UUID>, WalletRepositoryCustom {
 
     @Lock(LockModeType.PESSIMISTIC_WRITE)
     @Query("SELECT w FROM WalletEntity w WHERE w.id = :id")
     Optional<WalletEntity> findByIdForUpdate(@Param("id") UUID id);
+
+    /**
+     * Locks all given wallets in one statement. Rows are locked in ascending id order, so concurrent callers locking
+     * overlapping sets (e.g. opposite transfers) queue behind each other instead of deadlocking.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT w FROM WalletEntity w WHERE w.id IN :ids ORDER BY w.id")
+    List<WalletEntity> findAllByIdForUpdate(@Param("ids") Collection<UUID> ids);
+
+    /**
+     * Ids of the wallets written most recently, latest first, read backwards along {@code last_transaction_at}.
+     */
+    @Query("""
+            SELECT w.id FROM WalletEntity w
+            WHERE w.lastTransactionAt IS NOT NULL
+            ORDER BY w.lastTransactionAt DESC
+            """)
+    List<UUID> findIdsByRecentActivity(Limit limit);
+
+    /**
+     * Reads the wallet row straight from the database, bypassing the persistence context, as the base of a
+     * {@link #compareAndSet} in the optimistic write mode.
+     */
+    @Query("""
+            SELECT w.id AS id, w.userId AS userId, w.balance AS balance, w.lastSequenceNumber AS lastSequenceNumber,
+                   w.lastTransactionAt AS lastTransactionAt, w.stripes AS stripes, w.version AS version
+            FROM WalletEntity w
+            WHERE w.id = :id
+            """)
+    Optional<VersionedWallet> findVersionedById(@Param("id") UUID id);
+
+    /**
+     * The wallet with the balance of its stripes added to its own, in one statement, for reads of striped wallets.
+     */
+    @Query("""
+            SELECT w.id AS id, w.userId AS userId, w.balance + COALESCE(SUM(s.balance), 0) AS balance,
+                   w.lastSequenceNumber AS lastSequenceNumber, w.lastTransactionAt AS lastTransactionAt
+            FROM WalletEntity w
+            LEFT JOIN WalletStripeEntity s ON s.walletId = w.id
+            WHERE w.id = :id
+            GROUP BY w.id, w.userId, w.balance, w.lastSequenceNumber, w.lastTransactionAt
+            """)
+    Optional<WalletState> findWithStripesById(@Param("id") UUID id);
+
+    /**
+     * Writes the new balance, sequence number and ledger timestamp only if the wallet is still at {@code version},
+     * bumping it. Returns 0 when a concurrent writer changed the wallet since it was read; the row then stays as that
+     * writer left it. Callers {@link #evict(UUID)} the wallet afterwards, like after the atomic statements.
+     */
+    @Modifying(flushAutomatically = true)
+    @Query("""
+            UPDATE WalletEntity w
+               SET w.balance = :balance,
+                   w.lastSequenceNumber = :sequenceNumber,
+                   w.lastTransactionAt = :transactionAt,
+                   w.version = w.version + 1,
+                   w.updatedAt = :transactionAt
+             WHERE w.id = :id
+               AND w.version = :version
+            """)
+    int compareAndSet(@Param("id") UUID id,
+                      @Param("version") long version,
+                      @Param("balance") BigDecimal balance,
+                      @Param("sequenceNumber") long sequenceNumber,
+                      @Param("transactionAt") Instant transactionAt);
+
+    @Query("SELECT w.id FROM WalletEntity w WHERE w.id > :after ORDER BY w.id")
+    List<UUID> findIdsAfter(@Param("after") UUID after, Limit limit);
+
+    /**
+     * Adds {@code amount} (signed) to the balance, appends the ledger row stamped with the resulting balance, the next
+     * sequence number and a timestamp no earlier than the previous row's (the lock may be granted after a concurrent
+     * writer with a later {@code timestamp}), all in one PostgreSQL statement.
+     * The update is guarded so the balance never goes negative; an empty result means the wallet does not exist, is
+     * striped (its balance is not on the wallet row alone) or the guard rejected the mutation, and nothing was written.
+     * <p>
+     * The statement bypasses the persistence context: the new state is returned as a {@link WalletState} rather than as
+     * an entity, and callers {@link #evict(UUID)} the wallet before reading it again in the same transaction.
+     */
+    @Query(value = """
+            WITH w AS (
+                UPDATE {h-schema}wallets
+                   SET balance = balance + :amount,
+                       last_sequence_number = last_sequence_number + 1,
+                       last_transaction_at = GREATEST(last_transaction_at, :timestamp),
+                       version = version + 1,
+                       updated_at = :timestamp
+                 WHERE id = :walletId
+                   AND stripes = 0
+                   AND balance + :amount >= 0
+                RETURNING *
+            ), t AS (
+                INSERT INTO {h-schema}transactions (id, wallet_id, type, amount, timestamp, balance_after,
+                                                    sequence_number, created_at, updated_at)
+                SELECT :transactionId, w.id, :type, :amount, w.last_transaction_at, w.balance,
+                       w.last_sequence_number, :timestamp, :timestamp
+                  FROM w
+            )
+            SELECT id, user_id AS "userId", balance, last_sequence_number AS "lastSequenceNumber",
+                   last_transaction_at AS "lastTransactionAt" FROM w
+            """, nativeQuery = true)
+    Optional<WalletState> applyAndRecord(@Param("walletId") UUID walletId,
+                                         @Param("amount") BigDecimal amount,
+                                         @Param("transactionId") UUID transactionId,
+                                         @Param("type") String type,
+                                         @Param("timestamp") Instant timestamp);
+
+    /**
+     * Moves {@code amount} between two wallets and appends both ledger rows in one PostgreSQL statement, returning the
+     * updated source and target wallets. Both rows are locked in ascending id order first, so opposite transfers cannot
+     * deadlock. An empty result means a wallet does not exist or is striped, they are the same wallet or the source has
+     * insufficient funds, and nothing was written.
+     */
+    @Query(value = """
+            WITH locked AS (
+                SELECT id FROM {h-schema}wallets
+                 WHERE id IN (:sourceWalletId, :targetWalletId)
+                   AND stripes = 0
+                 ORDER BY id
+                   FOR NO KEY UPDATE
+            ), source AS (
+                UPDATE {h-schema}wallets
+                   SET balance = balance - :amount,
+                       last_sequence_number = last_sequence_number + 1,
+                       last_transaction_at = GREATEST(last_transaction_at, :timestamp),
+                       version = version + 1,
+                       updated_at = :timestamp
+                 WHERE id = :sourceWalletId
+                   AND balance - :amount >= 0
+                   AND (SELECT COUNT(*) FROM locked) = 2
+                RETURNING *
+            ), target AS (
+                UPDATE {h-schema}wallets
+                   SET balance = balance + :amount,
+                       last_sequence_number = last_sequence_number + 1,
+                       last_transaction_at = GREATEST(last_transaction_at, :timestamp),
+                       version = version + 1,
+                       updated_at = :timestamp
+                 WHERE id = :targetWalletId
+                   AND EXISTS (SELECT 1 FROM source)
+                RETURNING *
+            ), transfer_out AS (
+                INSERT INTO {h-schema}transactions (id, wallet_id, type, amount, timestamp, balance_after,
+                                                    sequence_number, created_at, updated_at)
+                SELECT :outTransactionId, s.id, 'TRANSFER_OUT', -:amount, s.last_transaction_at, s.balance,
+                       s.last_sequence_number, :timestamp, :timestamp
+                  FROM source s
+            ), transfer_in AS (
+                INSERT INTO {h-schema}transactions (id, wallet_id, type, amount, timestamp, balance_after,
+                                                    sequence_number, created_at, updated_at)
+                SELECT :inTransactionId, d.id, 'TRANSFER_IN', :amount, d.last_transaction_at, d.balance,
+                       d.last_sequence_number, :timestamp, :timestamp
+                  FROM target d
+            )
+            SELECT id, user_id AS "userId", balance, last_sequence_number AS "lastSequenceNumber",
+                   last_transaction_at AS "lastTransactionAt" FROM source
+            UNION ALL
+            SELECT id, user_id, balance, last_sequence_number, last_transaction_at FROM target
+            """, nativeQuery = true)
+    List<WalletState> transferAndRecord(@Param("sourceWalletId") UUID sourceWalletId,
+                                        @Param("targetWalletId") UUID targetWalletId,
+                                        @Param("amount") BigDecimal amount,
+                                        @Param("outTransactionId") UUID outTransactionId,
+                                        @Param("inTransactionId") UUID inTransactionId,
+                                        @Param("timestamp") Instant timestamp);
+
+    /**
+     * Wallet row as written by an atomic statement.
+     */
+    interface WalletState {
+        UUID getId();
+
+        UUID getUserId();
+
+        BigDecimal getBalance();
+
+        long getLastSequenceNumber();
+
+        Instant getLastTransactionAt();
+    }
+
+    /**
+     * Wallet row as read for a {@link #compareAndSet}.
+     */
+    interface VersionedWallet extends WalletState {
+        int getStripes();
+
+        long getVersion();
+    }
 }
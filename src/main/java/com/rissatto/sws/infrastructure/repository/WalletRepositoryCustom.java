@@ -0,0 +1,12 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import java.util.UUID;
+
+public interface WalletRepositoryCustom {
+
+    /**
+     * Detaches the wallet from the current persistence context, if it is there, so reads later in the same
+     * transaction see what native statements wrote instead of the stale managed instance. Never hits the database.
+     */
+    void evict(UUID walletId);
+}
@@ -0,0 +1,19 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import com.rissatto.sws.infrastructure.entity.WalletEntity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+import java.util.UUID;
+
+class WalletRepositoryCustomImpl implements WalletRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public void evict(UUID walletId) {
+        // getReference returns the managed instance when present and an uninitialized proxy otherwise
+        entityManager.detach(entityManager.getReference(WalletEntity.class, walletId));
+    }
+}
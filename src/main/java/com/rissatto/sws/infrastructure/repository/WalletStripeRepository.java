@@ -0,0 +1,41 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import com.rissatto.sws.infrastructure.entity.WalletStripeEntity;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+public interface WalletStripeRepository extends JpaRepository<WalletStripeEntity, UUID> {
+
+    /**
+     * Locks every stripe of the wallet in ascending stripe order. Callers hold the wallet row lock first.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM WalletStripeEntity s WHERE s.walletId = :walletId ORDER BY s.stripe")
+    List<WalletStripeEntity> findAllByWalletIdForUpdate(@Param("walletId") UUID walletId);
+
+    /**
+     * Adds {@code amount} to stripe {@code slot mod stripes} of the wallet without touching (or locking) the wallet
+     * row. Returns 0 when the wallet does not exist or is not striped.
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE {h-schema}wallet_stripes
+               SET balance = balance + :amount,
+                   updated_at = :timestamp
+             WHERE wallet_id = :walletId
+               AND stripe = MOD(:slot, (SELECT NULLIF(w.stripes, 0) FROM {h-schema}wallets w WHERE w.id = :walletId))
+            """, nativeQuery = true)
+    int credit(@Param("walletId") UUID walletId,
+               @Param("slot") long slot,
+               @Param("amount") BigDecimal amount,
+               @Param("timestamp") Instant timestamp);
+}
@@ -1,25 +1,47 @@
 package com.rissatto.sws.presentation.controller;
 
+import com.rissatto.sws.application.service.BalanceSeries;
+import com.rissatto.sws.application.service.TransactionPage;
 import com.rissatto.sws.application.service.WalletService;
+import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.WalletBalance;
 import com.rissatto.sws.presentation.dto.*;
+import com.rissatto.sws.presentation.export.BalanceSeriesWriter;
+import com.rissatto.sws.presentation.export.LedgerExportFormat;
+import com.rissatto.sws.presentation.export.LedgerExportWriter;
+import com.rissatto.sws.presentation.export.WalletBalanceWriter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 import java.math.BigDecimal;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 @RestController
 @RequestMapping("/wallets")
 public class WalletController {
 
     private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final CacheControl SETTLED_BALANCE_CACHE_CONTROL =
+            CacheControl.maxAge(Duration.ofDays(365)).cachePublic().immutable();
 
     private final WalletService walletService;
 
@@ -53,10 +75,119 @@ public class WalletController {
                                                          @RequestParam(name = "at", required = false)
                                                          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
                                                          LocalDateTime at) {
-        BigDecimal balance = (at == null)
-                ? walletService.getCurrentBalance(id)
-                : walletService.getHistoricalBalance(id, at.atZone(ZoneOffset.UTC).toInstant());
-        return ResponseEntity.ok(new GetBalanceResponse(balance));
+        if (at == null) {
+            return ResponseEntity.ok(new GetBalanceResponse(walletService.getCurrentBalance(id)));
+        }
+        Instant instant = at.atZone(ZoneOffset.UTC).toInstant();
+        BigDecimal balance = walletService.getHistoricalBalance(id, instant);
+        if (!walletService.isSettled(instant)) {
+            return ResponseEntity.ok(new GetBalanceResponse(balance));
+        }
+        // Final once settled, so caches may keep it for good; a matching If-None-Match is answered with a 304
+        return ResponseEntity.ok()
+                .cacheControl(SETTLED_BALANCE_CACHE_CONTROL)
+                .eTag(balanceETag(id, instant, balance))
+                .body(new GetBalanceResponse(balance));
+    }
+
+    /**
+     * Strong validator of a settled balance: the same wallet, instant and balance always render the same bytes.
+     */
+    private static String balanceETag(UUID id, Instant at, BigDecimal balance) {
+        String representation = id + "@" + at + "=" + balance.toPlainString();
+        return '"' + DigestUtils.md5DigestAsHex(representation.getBytes(StandardCharsets.UTF_8)) + '"';
+    }
+
+    @GetMapping("/{id}/balance/series")
+    public ResponseEntity<StreamingResponseBody> getBalanceSeries(@PathVariable UUID id,
+                                                                  @RequestParam(name = "from")
+                                                                  @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                  LocalDateTime from,
+                                                                  @RequestParam(name = "to")
+                                                                  @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                  LocalDateTime to,
+                                                                  @RequestParam(name = "step") String step) {
+        // Checked before streaming starts, while a bad range or an unknown wallet can still get its 400 or 404
+        BalanceSeries series = BalanceSeries.of(from.atZone(ZoneOffset.UTC).toInstant(),
+                to.atZone(ZoneOffset.UTC).toInstant(), step);
+        walletService.getById(id);
+
+        StreamingResponseBody body = out -> {
+            BalanceSeriesWriter writer = new BalanceSeriesWriter(out);
+            walletService.getBalanceSeries(id, series, writer);
+            writer.finish();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(BalanceSeriesWriter.CONTENT_TYPE))
+                .body(body);
+    }
+
+    @PostMapping("/balances:asOf")
+    public ResponseEntity<StreamingResponseBody> getHistoricalBalances(@RequestBody HistoricalBalancesRequest request) {
+        // Checked here, so a bad request is still answered with a 400 rather than a broken stream
+        Stream<List<WalletBalance>> balances = walletService.getHistoricalBalances(request.walletIds(), request.at());
+        StreamingResponseBody body = out -> {
+            try (balances) {
+                balances.forEach(new WalletBalanceWriter(out));
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(WalletBalanceWriter.CONTENT_TYPE))
+                .body(body);
+    }
+
+    @GetMapping("/{id}/transactions")
+    public ResponseEntity<TransactionPageResponse> getTransactions(@PathVariable UUID id,
+                                                                   @RequestParam(name = "type", required = false)
+                                                                   Set<Transaction.Type> types,
+                                                                   @RequestParam(name = "from", required = false)
+                                                                   @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                   LocalDateTime from,
+                                                                   @RequestParam(name = "to", required = false)
+                                                                   @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                   LocalDateTime to,
+                                                                   @RequestParam(name = "cursor", required = false)
+                                                                   String cursor,
+                                                                   @RequestParam(name = "limit", defaultValue = "50")
+                                                                   int limit) {
+        TransactionPage page = walletService.getTransactions(id, types,
+                (from == null) ? null : from.atZone(ZoneOffset.UTC).toInstant(),
+                (to == null) ? null : to.atZone(ZoneOffset.UTC).toInstant(),
+                cursor, limit);
+        List<TransactionResponse> transactions = page.transactions().stream()
+                .map(t -> new TransactionResponse(t.getId(), t.getType(), t.getAmount(), t.getBalanceAfter(),
+                        t.getTimestamp()))
+                .toList();
+        return ResponseEntity.ok(new TransactionPageResponse(transactions, page.nextCursor()));
+    }
+
+    @GetMapping("/{id}/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(@PathVariable UUID id,
+                                                                    @RequestParam(name = "format", defaultValue = "NDJSON")
+                                                                    LedgerExportFormat format,
+                                                                    @RequestParam(name = "from", required = false)
+                                                                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                    LocalDateTime from,
+                                                                    @RequestParam(name = "to", required = false)
+                                                                    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                    LocalDateTime to,
+                                                                    @RequestParam(name = "gzip", defaultValue = "false")
+                                                                    boolean gzip) {
+        // Resolved before streaming starts, while an unknown wallet can still get its 404
+        walletService.getById(id);
+        Instant start = (from == null) ? null : from.atZone(ZoneOffset.UTC).toInstant();
+        Instant end = (to == null) ? null : to.atZone(ZoneOffset.UTC).toInstant();
+
+        StreamingResponseBody body = out -> {
+            LedgerExportWriter writer = new LedgerExportWriter(out, format, gzip);
+            walletService.exportTransactions(id, start, end, writer);
+            writer.finish();
+        };
+        String filename = "wallet-" + id + "." + format.extension() + (gzip ? ".gz" : "");
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(gzip ? "application/gzip" : format.contentType()))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
     }
 
     @PostMapping("/{walletId}/deposit")
@@ -86,4 +217,11 @@ public class WalletController {
         return ResponseEntity.ok(new WalletResponse(wallet.id(), wallet.userId(), wallet.balance()));
     }
 
+    @PutMapping("/{walletId}/stripes")
+    public ResponseEntity<WalletResponse> stripe(@PathVariable UUID walletId,
+                                                 @RequestBody StripeWalletRequest request) {
+        Wallet wallet = walletService.stripe(walletId, request.stripes());
+        return ResponseEntity.ok(new WalletResponse(wallet.id(), wallet.userId(), wallet.balance()));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.rissatto.sws.presentation.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+
+public record HistoricalBalancesRequest(@JsonProperty("walletIds") Set<UUID> walletIds, Instant at) {
+}
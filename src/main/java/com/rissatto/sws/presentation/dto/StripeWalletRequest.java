@@ -0,0 +1,4 @@
+package com.rissatto.sws.presentation.dto;
+
+public record StripeWalletRequest(int stripes) {
+}
@@ -0,0 +1,6 @@
+package com.rissatto.sws.presentation.dto;
+
+import java.util.List;
+
+public record TransactionPageResponse(List<TransactionResponse> transactions, String nextCursor) {
+}
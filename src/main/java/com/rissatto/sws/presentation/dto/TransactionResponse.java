@@ -0,0 +1,11 @@
+package com.rissatto.sws.presentation.dto;
+
+import com.rissatto.sws.domain.Transaction;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+
+public record TransactionResponse(UUID id, Transaction.Type type, BigDecimal amount, BigDecimal balanceAfter,
+                                  Instant timestamp) {
+}
@@ -0,0 +1,46 @@
+package com.rissatto.sws.presentation.export;
+
+import com.rissatto.sws.application.service.BalanceSeries;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Writes the points of a balance series to a response body as NDJSON, one line per point, as they are computed.
+ */
+public class BalanceSeriesWriter implements Consumer<BalanceSeries.Point> {
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private final Writer writer;
+
+    public BalanceSeriesWriter(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void accept(BalanceSeries.Point point) {
+        try {
+            writer.write("{\"at\":\"");
+            writer.write(point.at().toString());
+            writer.write("\",\"balance\":");
+            writer.write(point.balance().toPlainString());
+            writer.write("}\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes what is buffered, leaving the response body open for the container to close.
+     */
+    public void finish() throws IOException {
+        writer.flush();
+    }
+}
@@ -0,0 +1,81 @@
+package com.rissatto.sws.presentation.export;
+
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+/**
+ * Line formats of a ledger export: one line per row, written straight from the row with no intermediate objects.
+ * Field names follow the API's snake_case.
+ */
+public enum LedgerExportFormat {
+
+    NDJSON("application/x-ndjson", "ndjson") {
+        @Override
+        void writeHeader(Writer writer) {
+        }
+
+        @Override
+        void writeRow(Writer writer, LedgerEntry entry) throws IOException {
+            writer.write("{\"id\":\"");
+            writer.write(entry.getId().toString());
+            writer.write("\",\"type\":\"");
+            writer.write(entry.getType().name());
+            writer.write("\",\"amount\":");
+            writer.write(entry.getAmount().toPlainString());
+            writer.write(",\"balance_after\":");
+            writer.write(plain(entry.getBalanceAfter(), "null"));
+            writer.write(",\"timestamp\":\"");
+            writer.write(entry.getTimestamp().toString());
+            writer.write("\"}\n");
+        }
+    },
+
+    CSV("text/csv", "csv") {
+        @Override
+        void writeHeader(Writer writer) throws IOException {
+            writer.write("id,type,amount,balance_after,timestamp\n");
+        }
+
+        @Override
+        void writeRow(Writer writer, LedgerEntry entry) throws IOException {
+            // No field can hold a comma, quote or line break, so none is quoted
+            writer.write(entry.getId().toString());
+            writer.write(',');
+            writer.write(entry.getType().name());
+            writer.write(',');
+            writer.write(entry.getAmount().toPlainString());
+            writer.write(',');
+            writer.write(plain(entry.getBalanceAfter(), ""));
+            writer.write(',');
+            writer.write(entry.getTimestamp().toString());
+            writer.write('\n');
+        }
+    };
+
+    private final String contentType;
+    private final String extension;
+
+    LedgerExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    abstract void writeHeader(Writer writer) throws IOException;
+
+    abstract void writeRow(Writer writer, LedgerEntry entry) throws IOException;
+
+    private static String plain(BigDecimal value, String missing) {
+        return (value == null) ? missing : value.toPlainString();
+    }
+}
@@ -0,0 +1,53 @@
+package com.rissatto.sws.presentation.export;
+
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes ledger rows to a response body as they are handed over, optionally gzipped. Only the write buffer is held in
+ * memory, so an export costs the same heap whatever the ledger size.
+ */
+public class LedgerExportWriter implements Consumer<LedgerEntry> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final LedgerExportFormat format;
+    private final GZIPOutputStream gzip;
+    private final Writer writer;
+
+    public LedgerExportWriter(OutputStream out, LedgerExportFormat format, boolean gzip) throws IOException {
+        this.format = format;
+        this.gzip = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+        this.writer = new BufferedWriter(new OutputStreamWriter(gzip ? this.gzip : out, StandardCharsets.UTF_8),
+                BUFFER_SIZE);
+        format.writeHeader(writer);
+    }
+
+    @Override
+    public void accept(LedgerEntry entry) {
+        try {
+            format.writeRow(writer, entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Flushes what is buffered and ends the gzip stream, leaving the response body open for the container to close.
+     */
+    public void finish() throws IOException {
+        writer.flush();
+        if (gzip != null) {
+            gzip.finish();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.rissatto.sws.presentation.export;
+
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.WalletBalance;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Writes wallet balances to a response body as NDJSON, one line per wallet, flushing after every chunk so the client
+ * receives each chunk as soon as its query returns.
+ */
+public class WalletBalanceWriter implements Consumer<List<WalletBalance>> {
+
+    public static final String CONTENT_TYPE = "application/x-ndjson";
+
+    private final Writer writer;
+
+    public WalletBalanceWriter(OutputStream out) {
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void accept(List<WalletBalance> chunk) {
+        try {
+            for (WalletBalance balance : chunk) {
+                writer.write("{\"wallet_id\":\"");
+                writer.write(balance.getWalletId().toString());
+                writer.write("\",\"balance\":");
+                writer.write(balance.getBalance().toPlainString());
+                writer.write("}\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
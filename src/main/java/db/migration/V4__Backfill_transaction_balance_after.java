@@ -0,0 +1,131 @@
+package db.migration;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Backfills {@code transactions.balance_after}, {@code transactions.sequence_number} and
+ * {@code wallets.last_sequence_number} for ledgers written before V3.
+ * <p>
+ * Wallets are read in keyset batches and each batch is replayed on its own connection by a small worker pool, one
+ * commit per batch, so large ledgers are rewritten in parallel without holding a single long transaction.
+ */
+public class V4__Backfill_transaction_balance_after extends BaseJavaMigration {
+
+    private static final int WALLET_BATCH_SIZE = 500;
+    private static final int UPDATE_BATCH_SIZE = 1_000;
+    private static final int PARALLELISM = Math.clamp(Runtime.getRuntime().availableProcessors(), 1, 4);
+
+    private static final String SELECT_WALLET_IDS =
+            "SELECT id FROM sws.wallets WHERE id > ? ORDER BY id LIMIT " + WALLET_BATCH_SIZE;
+    private static final String SELECT_LEDGER =
+            "SELECT id, amount FROM sws.transactions WHERE wallet_id = ? ORDER BY timestamp, created_at, id";
+    private static final String UPDATE_TRANSACTION =
+            "UPDATE sws.transactions SET balance_after = ?, sequence_number = ? WHERE id = ?";
+    private static final String UPDATE_WALLET =
+            "UPDATE sws.wallets SET last_sequence_number = ? WHERE id = ?";
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        DataSource dataSource = context.getConfiguration().getDataSource();
+        Connection connection = context.getConnection();
+
+        if (dataSource == null || PARALLELISM == 1) {
+            for (List<UUID> batch = nextBatch(connection, null); !batch.isEmpty(); batch = nextBatch(connection, batch.getLast())) {
+                backfill(connection, batch);
+            }
+            return;
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(PARALLELISM, PARALLELISM, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(PARALLELISM), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<Void>> futures = new ArrayList<>();
+        try {
+            for (List<UUID> batch = nextBatch(connection, null); !batch.isEmpty(); batch = nextBatch(connection, batch.getLast())) {
+                List<UUID> walletIds = batch;
+                futures.add(executor.submit(() -> {
+                    try (Connection worker = dataSource.getConnection()) {
+                        backfill(worker, walletIds);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<UUID> nextBatch(Connection connection, UUID after) throws SQLException {
+        List<UUID> walletIds = new ArrayList<>(WALLET_BATCH_SIZE);
+        try (PreparedStatement select = connection.prepareStatement(SELECT_WALLET_IDS)) {
+            select.setObject(1, after == null ? new UUID(0L, 0L) : after);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    walletIds.add(rs.getObject(1, UUID.class));
+                }
+            }
+        }
+        return walletIds;
+    }
+
+    private static void backfill(Connection connection, List<UUID> walletIds) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement selectLedger = connection.prepareStatement(SELECT_LEDGER);
+             PreparedStatement updateTransaction = connection.prepareStatement(UPDATE_TRANSACTION);
+             PreparedStatement updateWallet = connection.prepareStatement(UPDATE_WALLET)) {
+            selectLedger.setFetchSize(UPDATE_BATCH_SIZE);
+            int pending = 0;
+            for (UUID walletId : walletIds) {
+                BigDecimal balance = BigDecimal.ZERO;
+                long sequenceNumber = 0;
+                selectLedger.setObject(1, walletId);
+                try (ResultSet rs = selectLedger.executeQuery()) {
+                    while (rs.next()) {
+                        balance = balance.add(rs.getBigDecimal("amount"));
+                        updateTransaction.setBigDecimal(1, balance);
+                        updateTransaction.setLong(2, ++sequenceNumber);
+                        updateTransaction.setObject(3, rs.getObject("id", UUID.class));
+                        updateTransaction.addBatch();
+                        if (++pending == UPDATE_BATCH_SIZE) {
+                            updateTransaction.executeBatch();
+                            pending = 0;
+                        }
+                    }
+                }
+                updateWallet.setLong(1, sequenceNumber);
+                updateWallet.setObject(2, walletId);
+                updateWallet.addBatch();
+            }
+            updateTransaction.executeBatch();
+            updateWallet.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
@@ -0,0 +1,3 @@
+-- V10__add_wallet_version.sql
+-- Bumped by every write to the wallet row, so the optimistic write mode can compare-and-set against it.
+ALTER TABLE sws.wallets ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,20 @@
+-- V11__key_idempotency_by_operation.sql
+-- Idempotency keys are claimed per (key, operation) before the operation runs and keep its serialized response, so a
+-- replay is answered from this row alone. Rebuilt rather than altered, since the old primary key has no portable name.
+CREATE TABLE sws.idempotency_keys_by_operation (
+    idempotency_key VARCHAR(255) NOT NULL,
+    operation VARCHAR(50) NOT NULL,
+    resource_id UUID,
+    response TEXT,
+    created_at TIMESTAMP NOT NULL,
+    updated_at  TIMESTAMP NOT NULL,
+    CONSTRAINT pk_idempotency_keys PRIMARY KEY (idempotency_key, operation)
+);
+
+INSERT INTO sws.idempotency_keys_by_operation (idempotency_key, operation, resource_id, created_at, updated_at)
+SELECT idempotency_key, operation, resource_id, created_at, updated_at
+  FROM sws.idempotency_keys;
+
+DROP TABLE sws.idempotency_keys;
+
+ALTER TABLE sws.idempotency_keys_by_operation RENAME TO idempotency_keys;
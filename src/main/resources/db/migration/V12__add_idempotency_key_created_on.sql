@@ -0,0 +1,8 @@
+-- V12__add_idempotency_key_created_on.sql
+-- The UTC day a key was claimed on. On PostgreSQL idempotency_keys is partitioned by it (V13), so expired days are
+-- dropped whole.
+ALTER TABLE sws.idempotency_keys ADD COLUMN created_on DATE;
+
+UPDATE sws.idempotency_keys SET created_on = CAST(created_at AS DATE);
+
+ALTER TABLE sws.idempotency_keys ALTER COLUMN created_on SET NOT NULL;
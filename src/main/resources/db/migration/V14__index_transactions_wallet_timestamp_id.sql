@@ -0,0 +1,4 @@
+-- V14__index_transactions_wallet_timestamp_id.sql
+-- Serves the keyset-paginated ledger history, ordered by (timestamp, id) per wallet: each page is a bounded range
+-- scan starting from the previous page's last row.
+CREATE INDEX ix_transactions_wallet_timestamp_id ON sws.transactions (wallet_id, timestamp, id);
@@ -0,0 +1,3 @@
+-- V15__index_wallets_last_transaction_at.sql
+-- Lets the balance index find the most recently written wallets to warm up with, newest first, without a scan.
+CREATE INDEX ix_wallets_last_transaction_at ON sws.wallets (last_transaction_at);
@@ -0,0 +1,19 @@
+-- V17__create_pending_transfers.sql
+-- Transfers of the sequenced ledger engine whose debit is journaled but whose credit (or refund) is not yet: written
+-- in the debit's transaction and deleted in the credit's, so a transfer cut off between the two is finished when the
+-- engine starts again.
+CREATE TABLE sws.pending_transfers (
+    id UUID PRIMARY KEY,
+    source_wallet_id UUID NOT NULL,
+    target_wallet_id UUID NOT NULL,
+    amount NUMERIC NOT NULL,
+    idempotency_key VARCHAR(255),
+    created_at  TIMESTAMP NOT NULL,
+    updated_at  TIMESTAMP NOT NULL
+);
+
+ALTER TABLE sws.pending_transfers
+  ADD CONSTRAINT fk_pending_transfer_source FOREIGN KEY (source_wallet_id) REFERENCES sws.wallets(id);
+
+ALTER TABLE sws.pending_transfers
+  ADD CONSTRAINT fk_pending_transfer_target FOREIGN KEY (target_wallet_id) REFERENCES sws.wallets(id);
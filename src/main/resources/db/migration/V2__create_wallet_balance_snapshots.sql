@@ -0,0 +1,14 @@
+-- V2__create_wallet_balance_snapshots.sql
+CREATE TABLE sws.wallet_balance_snapshots (
+    id UUID PRIMARY KEY,
+    wallet_id UUID NOT NULL,
+    balance NUMERIC NOT NULL,
+    taken_at TIMESTAMP NOT NULL,
+    created_at  TIMESTAMP NOT NULL,
+    updated_at  TIMESTAMP NOT NULL
+);
+
+ALTER TABLE sws.wallet_balance_snapshots
+  ADD CONSTRAINT fk_snapshot_wallet FOREIGN KEY (wallet_id) REFERENCES sws.wallets(id);
+
+CREATE UNIQUE INDEX ux_snapshot_wallet_taken_at ON sws.wallet_balance_snapshots (wallet_id, taken_at);
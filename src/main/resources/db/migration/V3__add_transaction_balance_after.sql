@@ -0,0 +1,5 @@
+-- V3__add_transaction_balance_after.sql
+ALTER TABLE sws.transactions ADD COLUMN balance_after NUMERIC;
+ALTER TABLE sws.transactions ADD COLUMN sequence_number BIGINT;
+
+ALTER TABLE sws.wallets ADD COLUMN last_sequence_number BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,5 @@
+-- V5__index_transaction_balance_after.sql
+-- Created after the V4 backfill so the rewrite does not pay for index maintenance.
+CREATE UNIQUE INDEX ux_transactions_wallet_sequence ON sws.transactions (wallet_id, sequence_number);
+
+CREATE INDEX ix_transactions_wallet_timestamp_sequence ON sws.transactions (wallet_id, timestamp, sequence_number);
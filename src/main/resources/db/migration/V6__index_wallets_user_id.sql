@@ -0,0 +1,2 @@
+-- V6__index_wallets_user_id.sql
+CREATE INDEX IF NOT EXISTS ix_wallets_user_id ON sws.wallets (user_id);
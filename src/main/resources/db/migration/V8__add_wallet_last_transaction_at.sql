@@ -0,0 +1,4 @@
+-- V8__add_wallet_last_transaction_at.sql
+-- Timestamp of the wallet's latest ledger row. Writers stamp new rows with GREATEST(now, last_transaction_at) while
+-- holding the wallet row lock, so ledger timestamps never go backwards relative to sequence_number.
+ALTER TABLE sws.wallets ADD COLUMN last_transaction_at TIMESTAMP;
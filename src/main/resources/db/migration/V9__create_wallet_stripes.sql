@@ -0,0 +1,18 @@
+-- V9__create_wallet_stripes.sql
+-- Striped (hot) wallets spread credits over `stripes` sub-balance rows; 0 means the wallet is not striped and its
+-- whole balance lives on the wallet row.
+ALTER TABLE sws.wallets ADD COLUMN stripes INT DEFAULT 0 NOT NULL;
+
+CREATE TABLE sws.wallet_stripes (
+    id UUID PRIMARY KEY,
+    wallet_id UUID NOT NULL,
+    stripe INT NOT NULL,
+    balance NUMERIC NOT NULL,
+    created_at  TIMESTAMP NOT NULL,
+    updated_at  TIMESTAMP NOT NULL
+);
+
+ALTER TABLE sws.wallet_stripes
+  ADD CONSTRAINT fk_stripe_wallet FOREIGN KEY (wallet_id) REFERENCES sws.wallets(id);
+
+CREATE UNIQUE INDEX ux_wallet_stripes_wallet_stripe ON sws.wallet_stripes (wallet_id, stripe);
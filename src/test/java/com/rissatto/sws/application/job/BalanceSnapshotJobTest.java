@@ -0,0 +1,116 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.infrastructure.entity.WalletBalanceSnapshotEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.WalletBalanceSnapshotRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class BalanceSnapshotJobTest {
+
+    private static final Instant NOW = Instant.parse("2025-04-25T19:00:00Z");
+    private static final Duration SETTLE_LAG = Duration.ofMinutes(5);
+    private static final Instant TAKEN_AT = NOW.minus(SETTLE_LAG);
+
+    @Mock
+    private WalletRepository walletRepository;
+    @Mock
+    private TransactionRepository transactionRepository;
+    @Mock
+    private WalletBalanceSnapshotRepository snapshotRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private BalanceSnapshotJob job;
+
+    @BeforeEach
+    void beforeEach() {
+        job = new BalanceSnapshotJob(walletRepository, transactionRepository, snapshotRepository, transactionManager,
+                Clock.fixed(NOW, ZoneOffset.UTC), SETTLE_LAG, 2);
+    }
+
+    @Test
+    void shouldStoreFirstSnapshotWhenWalletHasLedger() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(snapshotRepository.findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(walletId, TAKEN_AT))
+                .thenReturn(Optional.empty());
+        when(transactionRepository.existsByWalletIdAndTimestampLessThanEqual(walletId, TAKEN_AT)).thenReturn(true);
+        when(transactionRepository.findBalanceByWalletIdAt(walletId, TAKEN_AT)).thenReturn(Optional.of(BigDecimal.TEN));
+        ArgumentCaptor<WalletBalanceSnapshotEntity> captor = ArgumentCaptor.forClass(WalletBalanceSnapshotEntity.class);
+
+        // Act
+        boolean stored = job.snapshot(walletId, TAKEN_AT);
+
+        // Assert
+        assertThat(stored).isTrue();
+        verify(snapshotRepository).save(captor.capture());
+        assertThat(captor.getValue().getWalletId()).isEqualTo(walletId);
+        assertThat(captor.getValue().getBalance()).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(captor.getValue().getTakenAt()).isEqualTo(TAKEN_AT);
+    }
+
+    @Test
+    void shouldSkipSnapshotWhenNothingChangedSincePreviousOne() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant previousAt = TAKEN_AT.minus(Duration.ofHours(1));
+        when(snapshotRepository.findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(walletId, TAKEN_AT))
+                .thenReturn(Optional.of(new WalletBalanceSnapshotEntity(walletId, BigDecimal.ONE, previousAt)));
+        when(transactionRepository.existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(walletId, previousAt, TAKEN_AT))
+                .thenReturn(false);
+
+        // Act
+        boolean stored = job.snapshot(walletId, TAKEN_AT);
+
+        // Assert
+        assertThat(stored).isFalse();
+        verify(transactionRepository, never()).findBalanceByWalletIdAt(any(), any());
+        verify(snapshotRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldWalkAllWalletsInKeysetBatchesAtSettledInstant() {
+        // Arrange
+        UUID w1 = new UUID(0L, 1L);
+        UUID w2 = new UUID(0L, 2L);
+        UUID w3 = new UUID(0L, 3L);
+        when(walletRepository.findIdsAfter(new UUID(0L, 0L), Limit.of(2))).thenReturn(List.of(w1, w2));
+        when(walletRepository.findIdsAfter(w2, Limit.of(2))).thenReturn(List.of(w3));
+        when(snapshotRepository.findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(any(), eq(TAKEN_AT)))
+                .thenReturn(Optional.empty());
+        when(transactionRepository.existsByWalletIdAndTimestampLessThanEqual(any(), eq(TAKEN_AT))).thenReturn(false);
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(transactionRepository).existsByWalletIdAndTimestampLessThanEqual(w1, TAKEN_AT);
+        verify(transactionRepository).existsByWalletIdAndTimestampLessThanEqual(w2, TAKEN_AT);
+        verify(transactionRepository).existsByWalletIdAndTimestampLessThanEqual(w3, TAKEN_AT);
+        verify(walletRepository, times(2)).findIdsAfter(any(), any());
+        verify(snapshotRepository, never()).save(any());
+    }
+}
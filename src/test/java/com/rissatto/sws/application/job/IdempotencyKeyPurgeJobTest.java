@@ -0,0 +1,111 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyPartitions;
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IdempotencyKeyPurgeJobTest {
+
+    private static final Instant NOW = Instant.parse("2025-04-25T01:00:00Z");
+    private static final LocalDate TODAY = LocalDate.parse("2025-04-25");
+    private static final Duration RETENTION = Duration.ofDays(7);
+    // NOW minus the retention is 2025-04-18T01:00Z, so keys of the 18th may still be inside it
+    private static final LocalDate CUTOFF = LocalDate.parse("2025-04-18");
+
+    @Mock
+    private IdempotencyKeyPartitions partitions;
+    @Mock
+    private IdempotencyKeyRepository repository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private IdempotencyKeyPurgeJob job;
+
+    @BeforeEach
+    void beforeEach() {
+        job = new IdempotencyKeyPurgeJob(partitions, repository, transactionManager, Clock.fixed(NOW, ZoneOffset.UTC),
+                RETENTION, 2);
+    }
+
+    @Test
+    void shouldDropOnlyPartitionsWhollyOutsideRetention() {
+        // Arrange
+        when(partitions.isPartitioned()).thenReturn(true);
+        when(partitions.days()).thenReturn(List.of(CUTOFF.minusDays(2), CUTOFF.minusDays(1), CUTOFF, TODAY,
+                TODAY.plusDays(1), TODAY.plusDays(2)));
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(partitions).drop(CUTOFF.minusDays(2));
+        verify(partitions).drop(CUTOFF.minusDays(1));
+        verify(partitions, never()).drop(CUTOFF);
+        verify(partitions).purgeDefault(CUTOFF);
+        verify(repository, never()).deleteCreatedBefore(any());
+    }
+
+    @Test
+    void shouldCreateMissingPartitionsAhead() {
+        // Arrange
+        when(partitions.isPartitioned()).thenReturn(true);
+        when(partitions.days()).thenReturn(List.of(TODAY));
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(partitions, never()).create(TODAY);
+        verify(partitions).create(TODAY.plusDays(1));
+        verify(partitions).create(TODAY.plusDays(2));
+        verify(partitions, never()).create(TODAY.plusDays(3));
+    }
+
+    @Test
+    void shouldKeepPurgingWhenPartitionCannotBeCreated() {
+        // Arrange
+        when(partitions.isPartitioned()).thenReturn(true);
+        when(partitions.days()).thenReturn(List.of(CUTOFF.minusDays(1)));
+        doThrow(new DataIntegrityViolationException("default partition holds rows of that day"))
+                .when(partitions).create(TODAY);
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(partitions).create(TODAY.plusDays(1));
+        verify(partitions).drop(CUTOFF.minusDays(1));
+    }
+
+    @Test
+    void shouldDeleteRowsWhenTableIsNotPartitioned() {
+        // Arrange
+        when(partitions.isPartitioned()).thenReturn(false);
+        when(repository.deleteCreatedBefore(CUTOFF)).thenReturn(3);
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(repository).deleteCreatedBefore(CUTOFF);
+        verify(partitions, never()).drop(any());
+        verify(partitions, never()).create(any());
+    }
+}
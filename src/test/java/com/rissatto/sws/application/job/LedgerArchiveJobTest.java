@@ -0,0 +1,167 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.archive.ArchivedTransaction;
+import com.rissatto.sws.infrastructure.archive.LedgerArchive;
+import com.rissatto.sws.infrastructure.entity.WalletBalanceSnapshotEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.WalletBalanceSnapshotRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class LedgerArchiveJobTest {
+
+    private static final Instant NOW = Instant.parse("2025-04-25T19:00:00Z");
+    private static final Duration RETENTION = Duration.ofDays(365);
+    private static final Instant THROUGH = NOW.minus(RETENTION);
+
+    @Mock
+    private WalletRepository walletRepository;
+    @Mock
+    private TransactionRepository transactionRepository;
+    @Mock
+    private WalletBalanceSnapshotRepository snapshotRepository;
+
+    @TempDir
+    Path directory;
+
+    private LedgerArchive ledgerArchive;
+    private LedgerArchiveJob job;
+
+    @BeforeEach
+    void beforeEach() {
+        ledgerArchive = new LedgerArchive(directory);
+        job = new LedgerArchiveJob(walletRepository, transactionRepository, snapshotRepository, ledgerArchive,
+                TransactionOperations.withoutTransaction(), Clock.fixed(NOW, ZoneOffset.UTC), RETENTION, 2);
+    }
+
+    @Test
+    void shouldArchiveRowsUpToTheHorizonWithoutDeletingThem() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(transactionRepository.existsByWalletIdAndTimestampLessThanEqual(walletId, THROUGH)).thenReturn(true);
+        when(transactionRepository.streamLedger(walletId, Instant.EPOCH, THROUGH.plus(1, ChronoUnit.MICROS)))
+                .thenReturn(Stream.of(row(THROUGH.minusSeconds(60), "10"), row(THROUGH, "-4")));
+
+        // Act
+        boolean archived = job.archive(walletId, THROUGH);
+
+        // Assert
+        assertThat(archived).isTrue();
+        assertThat(ledgerArchive.closing(walletId)).contains(new LedgerArchive.Closing(THROUGH, new BigDecimal("6")));
+        verify(transactionRepository, never()).deleteByWalletIdAndTimestampLessThanEqual(any(), any());
+        verifyNoInteractions(snapshotRepository);
+    }
+
+    @Test
+    void shouldDeletePreviouslyArchivedRowsNextToASummarySnapshot() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant previous = THROUGH.minus(Duration.ofDays(1));
+        ledgerArchive.append(walletId, previous, List.of(row(previous.minusSeconds(60), "10")).iterator());
+        when(snapshotRepository.findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(walletId, previous))
+                .thenReturn(Optional.empty());
+        when(snapshotRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(transactionRepository.existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(walletId, previous, THROUGH))
+                .thenReturn(false);
+        ArgumentCaptor<WalletBalanceSnapshotEntity> captor = ArgumentCaptor.forClass(WalletBalanceSnapshotEntity.class);
+
+        // Act
+        boolean archived = job.archive(walletId, THROUGH);
+
+        // Assert
+        assertThat(archived).isFalse();
+        verify(snapshotRepository).save(captor.capture());
+        assertThat(captor.getValue().getBalance()).isEqualByComparingTo("10");
+        assertThat(captor.getValue().getTakenAt()).isEqualTo(previous);
+        verify(transactionRepository).deleteByWalletIdAndTimestampLessThanEqual(walletId, previous);
+        verify(transactionRepository, never()).streamLedger(any(), any(), any());
+    }
+
+    @Test
+    void shouldContinueTheArchiveAfterItsClosing() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant previous = THROUGH.minus(Duration.ofDays(1));
+        ledgerArchive.append(walletId, previous, List.of(row(previous.minusSeconds(60), "10")).iterator());
+        when(snapshotRepository.findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(walletId, previous))
+                .thenReturn(Optional.of(new WalletBalanceSnapshotEntity(walletId, BigDecimal.TEN, previous)));
+        when(transactionRepository.existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(walletId, previous, THROUGH))
+                .thenReturn(true);
+        when(transactionRepository.streamLedger(walletId, previous.plus(1, ChronoUnit.MICROS),
+                THROUGH.plus(1, ChronoUnit.MICROS)))
+                .thenReturn(Stream.of(row(THROUGH.minusSeconds(1), "5")));
+
+        // Act
+        boolean archived = job.archive(walletId, THROUGH);
+
+        // Assert
+        assertThat(archived).isTrue();
+        verify(snapshotRepository, never()).save(any());
+        assertThat(ledgerArchive.closing(walletId)).contains(new LedgerArchive.Closing(THROUGH, new BigDecimal("15")));
+        assertThat(ledgerArchive.balanceAt(walletId, previous)).contains(new BigDecimal("10"));
+    }
+
+    @Test
+    void shouldWalkAllWalletsInKeysetBatchesAtTheHorizon() {
+        // Arrange
+        UUID w1 = new UUID(0L, 1L);
+        UUID w2 = new UUID(0L, 2L);
+        UUID w3 = new UUID(0L, 3L);
+        when(walletRepository.findIdsAfter(new UUID(0L, 0L), Limit.of(2))).thenReturn(List.of(w1, w2));
+        when(walletRepository.findIdsAfter(w2, Limit.of(2))).thenReturn(List.of(w3));
+        when(transactionRepository.existsByWalletIdAndTimestampLessThanEqual(any(), eq(THROUGH))).thenReturn(false);
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(transactionRepository).existsByWalletIdAndTimestampLessThanEqual(w1, THROUGH);
+        verify(transactionRepository).existsByWalletIdAndTimestampLessThanEqual(w2, THROUGH);
+        verify(transactionRepository).existsByWalletIdAndTimestampLessThanEqual(w3, THROUGH);
+        verify(walletRepository, times(2)).findIdsAfter(any(), any());
+    }
+
+    @Test
+    void shouldRejectNonPositiveRetention() {
+        // Act & Assert
+        assertThatThrownBy(() -> new LedgerArchiveJob(walletRepository, transactionRepository, snapshotRepository,
+                ledgerArchive, TransactionOperations.withoutTransaction(), Clock.systemUTC(), Duration.ZERO, 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("retention must be positive");
+    }
+
+    private static LedgerEntry row(Instant timestamp, String amount) {
+        BigDecimal signed = new BigDecimal(amount);
+        return new ArchivedTransaction(UUID.randomUUID(),
+                signed.signum() < 0 ? Transaction.Type.WITHDRAWAL : Transaction.Type.DEPOSIT, signed, null, timestamp);
+    }
+}
@@ -0,0 +1,88 @@
+package com.rissatto.sws.application.job;
+
+import com.rissatto.sws.infrastructure.repository.TransactionPartitions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TransactionPartitionJobTest {
+
+    private static final Instant NOW = Instant.parse("2025-11-30T23:00:00Z");
+    private static final YearMonth THIS_MONTH = YearMonth.parse("2025-11");
+
+    @Mock
+    private TransactionPartitions partitions;
+
+    private TransactionPartitionJob job;
+
+    @BeforeEach
+    void beforeEach() {
+        job = new TransactionPartitionJob(partitions, Clock.fixed(NOW, ZoneOffset.UTC), 2);
+    }
+
+    @Test
+    void shouldCreateMissingPartitionsAheadAcrossTheYear() {
+        // Arrange
+        when(partitions.isPartitioned()).thenReturn(true);
+        when(partitions.months()).thenReturn(List.of(THIS_MONTH.minusMonths(1), THIS_MONTH));
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(partitions, never()).create(THIS_MONTH);
+        verify(partitions).create(YearMonth.parse("2025-12"));
+        verify(partitions).create(YearMonth.parse("2026-01"));
+        verify(partitions, never()).create(YearMonth.parse("2026-02"));
+    }
+
+    @Test
+    void shouldKeepCreatingWhenPartitionCannotBeCreated() {
+        // Arrange
+        when(partitions.isPartitioned()).thenReturn(true);
+        when(partitions.months()).thenReturn(List.of());
+        doThrow(new DataIntegrityViolationException("default partition holds rows of that month"))
+                .when(partitions).create(THIS_MONTH);
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(partitions).create(THIS_MONTH.plusMonths(1));
+        verify(partitions).create(THIS_MONTH.plusMonths(2));
+    }
+
+    @Test
+    void shouldDoNothingWhenTableIsNotPartitioned() {
+        // Arrange
+        when(partitions.isPartitioned()).thenReturn(false);
+
+        // Act
+        job.run();
+
+        // Assert
+        verify(partitions, never()).months();
+        verify(partitions, never()).create(any());
+    }
+
+    @Test
+    void shouldRejectNoMonthsAhead() {
+        assertThatThrownBy(() -> new TransactionPartitionJob(partitions, Clock.systemUTC(), 0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("months-ahead must be positive");
+    }
+}
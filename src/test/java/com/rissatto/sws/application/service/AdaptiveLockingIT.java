@@ -0,0 +1,130 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test for the adaptive write mode: many threads write one hot wallet while each also writes a wallet of its
+ * own. Runs outside a test transaction so every write commits on its own.
+ */
+@SpringBootTest(properties = {"sws.wallet.write-mode.default=adaptive", "spring.jmx.enabled=true"})
+@ActiveProfiles("test")
+class AdaptiveLockingIT {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveLockingIT.class);
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 25;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletContentionTracker contentionTracker;
+
+    @Autowired
+    private MBeanServer mBeanServer;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private ExecutorService executor;
+    private UUID userId;
+
+    @BeforeEach
+    void beforeEach() {
+        userId = userRepository.save(new UserEntity("Adaptive Stress " + UUID.randomUUID())).getId();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void hotWalletShouldSwitchToLockingWhileQuietWalletsStayOptimistic() throws Exception {
+        // Arrange
+        UUID hotWalletId = walletService.create(userId).id();
+        List<UUID> quietWalletIds = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            quietWalletIds.add(walletService.create(userId).id());
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+
+        // Act
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            UUID quietWalletId = quietWalletIds.get(t);
+            workers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    try {
+                        walletService.deposit(hotWalletId, BigDecimal.ONE);
+                        walletService.deposit(quietWalletId, BigDecimal.ONE);
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        log.debug("Deposit failed", e);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+
+        // Assert
+        log.info("\n🎯 Adaptive locking: {} compare-and-sets ({} conflicts), {} locks ({} waited), {} switches to locking, {} back",
+                contentionTracker.getCompareAndSets(), contentionTracker.getConflicts(), contentionTracker.getLocks(),
+                contentionTracker.getLockWaits(), contentionTracker.getSwitchesToLocking(),
+                contentionTracker.getSwitchesToOptimistic());
+        assertThat(failures.get()).isZero();
+        assertThat(walletService.getCurrentBalance(hotWalletId))
+                .isEqualByComparingTo(BigDecimal.valueOf(THREADS * OPERATIONS_PER_THREAD));
+        assertThat(contentionTracker.getSwitchesToLocking()).as("the hot wallet keeps conflicting").isPositive();
+        for (UUID quietWalletId : quietWalletIds) {
+            assertThat(walletService.getCurrentBalance(quietWalletId))
+                    .isEqualByComparingTo(BigDecimal.valueOf(OPERATIONS_PER_THREAD));
+            assertThat(contentionTracker.strategyFor(quietWalletId)).isEqualTo(WalletWriteMode.OPTIMISTIC);
+        }
+    }
+
+    @Test
+    void countersShouldBeExportedOverJmx() throws Exception {
+        // Arrange
+        UUID walletId = walletService.create(userId).id();
+        walletService.deposit(walletId, BigDecimal.ONE);
+
+        // Act
+        ObjectName name = new ObjectName("com.rissatto.sws:type=WalletContention");
+
+        // Assert
+        assertThat(mBeanServer.getAttribute(name, "CompareAndSets")).isEqualTo(contentionTracker.getCompareAndSets());
+        assertThat(mBeanServer.invoke(name, "strategyOf", new Object[]{walletId.toString()}, new String[]{String.class.getName()}))
+                .isEqualTo("OPTIMISTIC");
+    }
+}
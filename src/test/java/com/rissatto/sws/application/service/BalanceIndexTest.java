@@ -0,0 +1,337 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.archive.ArchivedTransaction;
+import com.rissatto.sws.infrastructure.archive.LedgerArchive;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerMovement;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BalanceIndexTest {
+
+    private static final Instant T0 = Instant.parse("2025-04-25T10:00:00Z");
+
+    @Mock
+    private WalletRepository walletRepository;
+
+    @Mock
+    private TransactionRepository transactionRepository;
+
+    @TempDir
+    Path archiveDirectory;
+
+    private LedgerArchive ledgerArchive;
+
+    @BeforeEach
+    void beforeEach() {
+        ledgerArchive = new LedgerArchive(archiveDirectory);
+    }
+
+    // region ─ lookups ────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldLoadTheLedgerOnFirstReadAndAnswerLaterReadsFromMemory() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        givenLedger(walletId, 3, movement(T0, "100.00"), movement(T0.plusSeconds(60), "-30.50"),
+                movement(T0.plusSeconds(120), "5.25"));
+
+        // Act
+        Optional<BigDecimal> first = index.balanceAt(walletId, T0.plusSeconds(60));
+        Optional<BigDecimal> before = index.balanceAt(walletId, T0.minusNanos(1000));
+        Optional<BigDecimal> between = index.balanceAt(walletId, T0.plusSeconds(90));
+        Optional<BigDecimal> after = index.balanceAt(walletId, T0.plusSeconds(3600));
+
+        // Assert
+        assertThat(first).contains(new BigDecimal("69.50"));
+        assertThat(before).contains(new BigDecimal("0.00"));
+        assertThat(between).contains(new BigDecimal("69.50"));
+        assertThat(after).contains(new BigDecimal("74.75"));
+        verify(transactionRepository, times(1)).streamMovements(eq(walletId), any(), any());
+        assertThat(index.getLoads()).isEqualTo(1);
+        assertThat(index.getHits()).isEqualTo(3);
+        assertThat(index.getMisses()).isEqualTo(1);
+        assertThat(index.getRows()).isEqualTo(3);
+    }
+
+    @Test
+    void shouldLoadAnArchivedWalletFromWhereItsArchiveClosed() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        Instant archivedThrough = T0.plusSeconds(30);
+        ledgerArchive.append(walletId, archivedThrough, List.of(
+                new ArchivedTransaction(UUID.randomUUID(), Transaction.Type.DEPOSIT, new BigDecimal("100.00"), null, T0))
+                .iterator());
+        givenLedger(walletId, 2, movement(T0.plusSeconds(60), "-30.50"));
+
+        // Act
+        Optional<BigDecimal> balance = index.balanceAt(walletId, T0.plusSeconds(90));
+
+        // Assert
+        assertThat(balance).contains(new BigDecimal("69.50"));
+        assertThat(index.balanceAt(walletId, archivedThrough)).contains(new BigDecimal("100.00"));
+        verify(transactionRepository).streamMovements(eq(walletId), eq(archivedThrough), any());
+        assertThat(index.getRows()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldGiveTheSameAnswersOffHeap() {
+        // Arrange
+        BalanceIndex index = index(1000, true);
+        UUID walletId = UUID.randomUUID();
+        LedgerMovement[] movements = new LedgerMovement[100];
+        for (int i = 0; i < movements.length; i++) {
+            movements[i] = movement(T0.plusSeconds(i), "1.01");
+        }
+        givenLedger(walletId, movements.length, movements);
+
+        // Act
+        Optional<BigDecimal> balance = index.balanceAt(walletId, T0.plusSeconds(49));
+
+        // Assert
+        assertThat(index.isOffHeap()).isTrue();
+        assertThat(balance).contains(new BigDecimal("50.50"));
+        assertThat(index.getRows()).isEqualTo(100);
+    }
+
+    @Test
+    void shouldAnswerNothingWhenDisabled() {
+        // Arrange
+        BalanceIndex index = new BalanceIndex(walletRepository, transactionRepository, ledgerArchive,
+                TransactionOperations.withoutTransaction(), false, 1000, 2, false, 10);
+
+        // Act
+        Optional<BigDecimal> balance = index.balanceAt(UUID.randomUUID(), T0);
+        index.warmUp();
+
+        // Assert
+        assertThat(balance).isEmpty();
+        verifyNoInteractions(walletRepository, transactionRepository);
+    }
+
+    @Test
+    void shouldNotIndexStripedWallets() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        when(walletRepository.findVersionedById(walletId)).thenReturn(Optional.of(versionedWallet(walletId, 0, 2)));
+
+        // Act
+        Optional<BigDecimal> balance = index.balanceAt(walletId, T0);
+
+        // Assert
+        assertThat(balance).isEmpty();
+        assertThat(index.getSize()).isZero();
+        verifyNoInteractions(transactionRepository);
+    }
+
+    @Test
+    void shouldNotIndexAmountsFinerThanTheScale() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        givenLedger(walletId, 1, movement(T0, "0.001"));
+
+        // Act
+        Optional<BigDecimal> balance = index.balanceAt(walletId, T0);
+
+        // Assert
+        assertThat(balance).isEmpty();
+        assertThat(index.getSize()).isZero();
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ appends ────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldExtendALoadedWalletWithTheNextRow() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        givenLedger(walletId, 1, movement(T0, "10.00"));
+        index.balanceAt(walletId, T0);
+
+        // Act
+        index.appendAfterCommit(walletId, 2, T0.plusSeconds(1), new BigDecimal("-4.00"));
+        index.appendAfterCommit(walletId, 2, T0.plusSeconds(1), new BigDecimal("-4.00"));
+
+        // Assert
+        assertThat(index.balanceAt(walletId, T0.plusSeconds(1))).contains(new BigDecimal("6.00"));
+        assertThat(index.balanceAt(walletId, T0)).contains(new BigDecimal("10.00"));
+        assertThat(index.getAppends()).as("a row already indexed is skipped").isEqualTo(1);
+        assertThat(index.getRows()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldDropAWalletThatMissedARow() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        givenLedger(walletId, 1, movement(T0, "10.00"));
+        index.balanceAt(walletId, T0);
+
+        // Act
+        index.appendAfterCommit(walletId, 3, T0.plusSeconds(1), BigDecimal.ONE);
+
+        // Assert
+        assertThat(index.getSize()).isZero();
+        assertThat(index.getRows()).isZero();
+        assertThat(index.getDrops()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldApplyRowsCommittedWhileTheWalletWasLoading() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        when(walletRepository.findVersionedById(walletId)).thenReturn(Optional.of(versionedWallet(walletId, 1, 0)));
+        when(transactionRepository.streamMovements(eq(walletId), any(), any())).thenAnswer(invocation -> {
+            // Committed by another thread after the load's snapshot was taken: row 1 is in it, row 2 is not
+            index.appendAfterCommit(walletId, 1, T0, new BigDecimal("10.00"));
+            index.appendAfterCommit(walletId, 2, T0.plusSeconds(1), new BigDecimal("2.50"));
+            return Stream.of(movement(T0, "10.00"));
+        });
+
+        // Act
+        Optional<BigDecimal> balance = index.balanceAt(walletId, T0.plusSeconds(1));
+
+        // Assert
+        assertThat(balance).contains(new BigDecimal("12.50"));
+        assertThat(index.getRows()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldDiscardALoadWhoseWalletWasDroppedMeanwhile() {
+        // Arrange
+        BalanceIndex index = index(1000, false);
+        UUID walletId = UUID.randomUUID();
+        when(walletRepository.findVersionedById(walletId)).thenReturn(Optional.of(versionedWallet(walletId, 1, 0)));
+        when(transactionRepository.streamMovements(eq(walletId), any(), any())).thenAnswer(invocation -> {
+            index.dropAfterCommit(walletId);
+            return Stream.of(movement(T0, "10.00"));
+        });
+
+        // Act
+        Optional<BigDecimal> balance = index.balanceAt(walletId, T0);
+
+        // Assert
+        assertThat(balance).isEmpty();
+        assertThat(index.getSize()).isZero();
+        assertThat(index.getRows()).isZero();
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ bounds ─────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldEvictTheLeastRecentlyUsedWalletsBeyondMaxRows() {
+        // Arrange
+        BalanceIndex index = index(4, false);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        givenLedger(first, 2, movement(T0, "1.00"), movement(T0.plusSeconds(1), "1.00"));
+        givenLedger(second, 2, movement(T0, "2.00"), movement(T0.plusSeconds(1), "2.00"));
+        givenLedger(third, 1, movement(T0, "3.00"));
+        index.balanceAt(first, T0);
+        index.balanceAt(second, T0);
+        index.balanceAt(first, T0);
+
+        // Act
+        index.balanceAt(third, T0);
+
+        // Assert
+        assertThat(index.getEvictions()).isEqualTo(1);
+        assertThat(index.getSize()).isEqualTo(2);
+        assertThat(index.getRows()).isEqualTo(3);
+        assertThat(index.balanceAt(first, T0)).contains(new BigDecimal("1.00"));
+        verify(transactionRepository, times(1)).streamMovements(eq(first), any(), any());
+    }
+
+    @Test
+    void shouldWarmUpTheMostRecentlyWrittenWallets() {
+        // Arrange
+        BalanceIndex index = new BalanceIndex(walletRepository, transactionRepository, ledgerArchive,
+                TransactionOperations.withoutTransaction(), true, 1000, 2, false, 2);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        when(walletRepository.findIdsByRecentActivity(Limit.of(2))).thenReturn(List.of(first, second));
+        givenLedger(first, 1, movement(T0, "1.00"));
+        givenLedger(second, 1, movement(T0, "2.00"));
+
+        // Act
+        index.warmUp();
+
+        // Assert
+        assertThat(index.getSize()).isEqualTo(2);
+        assertThat(index.balanceAt(second, T0)).contains(new BigDecimal("2.00"));
+        assertThat(index.getHits()).isEqualTo(1);
+        assertThat(index.getHitRate()).isEqualTo(1.0);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private BalanceIndex index(long maxRows, boolean offHeap) {
+        return new BalanceIndex(walletRepository, transactionRepository, ledgerArchive,
+                TransactionOperations.withoutTransaction(), true, maxRows, 2, offHeap, 0);
+    }
+
+    private void givenLedger(UUID walletId, long lastSequenceNumber, LedgerMovement... movements) {
+        when(walletRepository.findVersionedById(walletId))
+                .thenReturn(Optional.of(versionedWallet(walletId, lastSequenceNumber, 0)));
+        when(transactionRepository.streamMovements(eq(walletId), any(), any())).thenReturn(Stream.of(movements));
+    }
+
+    private static VersionedWallet versionedWallet(UUID walletId, long lastSequenceNumber, int stripes) {
+        return new VersionedWallet() {
+            public UUID getId() { return walletId; }
+            public UUID getUserId() { return null; }
+            public BigDecimal getBalance() { return null; }
+            public long getLastSequenceNumber() { return lastSequenceNumber; }
+            public Instant getLastTransactionAt() { return null; }
+            public int getStripes() { return stripes; }
+            public long getVersion() { return 0; }
+        };
+    }
+
+    private static LedgerMovement movement(Instant timestamp, String amount) {
+        return new LedgerMovement() {
+            @Override
+            public Instant getTimestamp() {
+                return timestamp;
+            }
+
+            @Override
+            public BigDecimal getAmount() {
+                return new BigDecimal(amount);
+            }
+        };
+    }
+}
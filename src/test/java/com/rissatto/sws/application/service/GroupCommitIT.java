@@ -0,0 +1,173 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test for group commit: many threads deposit into and withdraw from one wallet through the
+ * {@link CombiningWalletService}. Runs outside a test transaction so every batch commits on its own.
+ */
+@SpringBootTest(properties = "sws.wallet.combiner.enabled=true")
+@ActiveProfiles("test")
+class GroupCommitIT {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitIT.class);
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 25;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletServiceImpl uncombinedWalletService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    private ExecutorService executor;
+    private UUID userId;
+
+    @BeforeEach
+    void beforeEach() {
+        userId = userRepository.save(new UserEntity("Group Commit Stress " + UUID.randomUUID())).getId();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void combinedOperationsShouldKeepBalanceAndLedgerConsistent() throws Exception {
+        // Arrange
+        assertThat(walletService).isInstanceOf(CombiningWalletService.class);
+        UUID walletId = walletService.create(userId).id();
+        walletService.deposit(walletId, BigDecimal.TEN);
+        AtomicInteger deposits = new AtomicInteger();
+        AtomicInteger withdrawals = new AtomicInteger();
+
+        // Act
+        LoadResult result = runLoad(thread -> {
+            if (thread % 2 == 0) {
+                walletService.deposit(walletId, BigDecimal.ONE);
+                deposits.incrementAndGet();
+            } else {
+                walletService.withdraw(walletId, BigDecimal.TWO);
+                withdrawals.incrementAndGet();
+            }
+        });
+
+        // Assert
+        BigDecimal expected = BigDecimal.valueOf(10L + deposits.get() - 2L * withdrawals.get());
+        List<TransactionEntity> ledger = transactionRepository.findByWalletId(walletId).stream()
+                .sorted(Comparator.comparing(TransactionEntity::getSequenceNumber))
+                .toList();
+        log.info("\n🎯 Group commit: {} ({} deposits, {} withdrawals)", result, deposits.get(), withdrawals.get());
+        assertThat(deposits.get()).isEqualTo(THREADS / 2 * OPERATIONS_PER_THREAD);
+        assertThat(result.failures()).as("only withdrawals may fail, with insufficient funds")
+                .isEqualTo(THREADS / 2 * OPERATIONS_PER_THREAD - withdrawals.get());
+        assertThat(walletService.getCurrentBalance(walletId)).isEqualByComparingTo(expected);
+        assertThat(ledger).extracting(TransactionEntity::getSequenceNumber)
+                .containsExactlyElementsOf(LongStream.rangeClosed(1, ledger.size()).boxed().toList());
+        assertThat(ledger).extracting(TransactionEntity::getTimestamp).isSorted();
+        assertThat(ledger.getLast().getBalanceAfter()).isEqualByComparingTo(expected);
+    }
+
+    /**
+     * Compares deposit throughput on one hot wallet with and without the combiner. Only logged, since the gain depends
+     * on the database and on commit latency.
+     */
+    @Test
+    void combinedDepositThroughputBaseline() throws Exception {
+        // Arrange
+        UUID uncombinedWalletId = walletService.create(userId).id();
+        UUID combinedWalletId = walletService.create(userId).id();
+
+        // Act
+        LoadResult uncombined = runLoad(thread -> uncombinedWalletService.deposit(uncombinedWalletId, BigDecimal.ONE));
+        LoadResult combined = runLoad(thread -> walletService.deposit(combinedWalletId, BigDecimal.ONE));
+
+        // Assert
+        log.info("\n🎯 Deposits into one wallet: one commit each {}, group commit {}", uncombined, combined);
+        BigDecimal expected = BigDecimal.valueOf(THREADS * OPERATIONS_PER_THREAD);
+        assertThat(walletService.getCurrentBalance(uncombinedWalletId)).isEqualByComparingTo(expected);
+        assertThat(walletService.getCurrentBalance(combinedWalletId)).isEqualByComparingTo(expected);
+    }
+
+    private LoadResult runLoad(Operation operation) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            workers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    try {
+                        operation.run(thread);
+                        succeeded.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        log.debug("Operation failed", e);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        return new LoadResult(succeeded.get(), failures.get(), elapsedNanos);
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(int thread);
+    }
+
+    private record LoadResult(int succeeded, int failures, long elapsedNanos) {
+
+        double throughput() {
+            return succeeded * 1_000_000_000d / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d succeeded, %d failed in %d ms (%.1f ops/s)",
+                    succeeded, failures, elapsedNanos / 1_000_000, throughput());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.rissatto.sws.application.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HistoricalBalanceCacheTest {
+
+    private static final Instant NOW = Instant.parse("2025-04-25T10:00:00Z");
+    private static final Duration SETTLE_LAG = Duration.ofMinutes(5);
+
+    private final HistoricalBalanceCache cache =
+            new HistoricalBalanceCache(2, SETTLE_LAG, Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void shouldSettleInstantsOnceTheLagHasPassed() {
+        assertThat(cache.isSettled(NOW.minus(SETTLE_LAG))).isTrue();
+        assertThat(cache.isSettled(NOW.minus(SETTLE_LAG).plusNanos(1))).isFalse();
+        assertThat(cache.isSettled(NOW)).isFalse();
+    }
+
+    @Test
+    void shouldCacheSettledBalances() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant at = NOW.minusSeconds(3600);
+
+        // Act
+        cache.putIfSettled(walletId, at, BigDecimal.TEN);
+
+        // Assert
+        assertThat(cache.get(walletId, at)).contains(BigDecimal.TEN);
+        assertThat(cache.get(walletId, at.plusNanos(1))).isEmpty();
+        assertThat(cache.get(UUID.randomUUID(), at)).isEmpty();
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotCacheBalancesThatMayStillChange() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+
+        // Act
+        cache.putIfSettled(walletId, NOW.minusSeconds(1), BigDecimal.TEN);
+
+        // Assert
+        assertThat(cache.get(walletId, NOW.minusSeconds(1))).isEmpty();
+        assertThat(cache.getSize()).isZero();
+    }
+
+    @Test
+    void shouldEvictTheLeastRecentlyReadBalanceBeyondCapacity() {
+        // Arrange
+        Instant at = NOW.minusSeconds(3600);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        cache.putIfSettled(first, at, BigDecimal.ONE);
+        cache.putIfSettled(second, at, BigDecimal.TWO);
+        cache.get(first, at);
+
+        // Act
+        cache.putIfSettled(third, at, BigDecimal.TEN);
+
+        // Assert
+        assertThat(cache.getSize()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.get(first, at)).contains(BigDecimal.ONE);
+        assertThat(cache.get(second, at)).isEmpty();
+    }
+
+    @Test
+    void shouldRejectNegativeCapacity() {
+        assertThatThrownBy(() -> new HistoricalBalanceCache(-1, SETTLE_LAG, Clock.systemUTC()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("capacity must not be negative");
+    }
+}
@@ -0,0 +1,418 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.IdempotencyKey;
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class IdempotencyCacheTest {
+
+    private static final String OPERATION = "depositWallet";
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    @Mock
+    private IdempotencyKeyRepository repository;
+
+    private final AtomicLong now = new AtomicLong();
+
+    // region ─ claim ──────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldClaimNewKey() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        when(repository.findByIdempotencyKeyAndOperation("key", OPERATION)).thenReturn(Optional.empty());
+        when(repository.claim(eq("key"), eq(OPERATION), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+
+        // Act
+        Optional<Wallet> claimed = cache.claim("key", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(claimed).isEmpty();
+        assertThat(cache.getClaims()).isEqualTo(1);
+        assertThat(cache.getClaimConflicts()).isZero();
+    }
+
+    @Test
+    void shouldAnswerCompletedKeyWithoutQuery() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet wallet = wallet("10");
+        when(repository.claim(eq("key"), eq(OPERATION), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+        when(repository.complete(eq("key"), eq(OPERATION), any(LocalDate.class), eq(wallet.id()), anyString(), any(Instant.class))).thenReturn(1);
+        cache.claim("key", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+        cache.complete("key", OPERATION, wallet.id(), wallet);
+
+        // Act
+        Optional<Wallet> replayed = cache.claim("key", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(replayed).contains(wallet);
+        verify(repository, times(1)).claim(anyString(), anyString(), any(Instant.class), any(LocalDate.class));
+        verify(repository, times(1)).findByIdempotencyKeyAndOperation(anyString(), anyString());
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    void shouldReplayStoredResponseWhenClaimConflicts() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet wallet = wallet("10");
+        when(repository.findByIdempotencyKeyAndOperation("key", OPERATION))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(stored("key", wallet)));
+        when(repository.claim(eq("key"), eq(OPERATION), any(Instant.class), any(LocalDate.class))).thenReturn(0);
+
+        // Act
+        Optional<Wallet> replayed = cache.claim("key", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(replayed).contains(wallet);
+        assertThat(cache.getClaimConflicts()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldReplaySnapshotRatherThanCurrentState() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet snapshot = wallet("10");
+        when(repository.findByIdempotencyKeyAndOperation("key", OPERATION)).thenReturn(Optional.of(stored("key", snapshot)));
+
+        // Act
+        Optional<Wallet> first = cache.find("key", OPERATION, Wallet.class, id -> snapshot.deposit(BigDecimal.ONE));
+        Optional<Wallet> second = cache.find("key", OPERATION, Wallet.class, id -> snapshot.deposit(BigDecimal.ONE));
+
+        // Assert
+        assertThat(first).contains(snapshot);
+        assertThat(second).contains(snapshot);
+        verify(repository, times(1)).findByIdempotencyKeyAndOperation("key", OPERATION);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldReplayLegacyKeyThroughResource() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet current = wallet("7");
+        when(repository.findByIdempotencyKeyAndOperation("key", OPERATION))
+                .thenReturn(Optional.of(new IdempotencyKey("key", OPERATION, current.id())));
+
+        // Act
+        Optional<Wallet> replayed = cache.find("key", OPERATION, Wallet.class, id -> current);
+
+        // Assert
+        assertThat(replayed).contains(current);
+    }
+
+    @Test
+    void shouldFailToCompleteUnclaimedKey() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet wallet = wallet("1");
+
+        // Act & Assert
+        assertThatThrownBy(() -> cache.complete("key", OPERATION, wallet.id(), wallet))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(cache.getSize()).isZero();
+        verify(repository, never()).complete(anyString(), anyString(), any(), any(), anyString(), any());
+    }
+
+    @Test
+    void shouldFailToCompleteClaimWhoseRowIsGone() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet wallet = wallet("1");
+        when(repository.claim(eq("key"), eq(OPERATION), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+        when(repository.complete(eq("key"), eq(OPERATION), any(LocalDate.class), eq(wallet.id()), anyString(), any(Instant.class))).thenReturn(0);
+        cache.claim("key", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Act & Assert
+        assertThatThrownBy(() -> cache.complete("key", OPERATION, wallet.id(), wallet))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(cache.getSize()).isZero();
+    }
+
+    @Test
+    void shouldCompleteAndReleaseOnlyTheClaimedDay() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet wallet = wallet("1");
+        ArgumentCaptor<LocalDate> claimedOn = ArgumentCaptor.forClass(LocalDate.class);
+        when(repository.claim(anyString(), eq(OPERATION), any(Instant.class), claimedOn.capture())).thenReturn(1);
+        when(repository.complete(eq("completed"), eq(OPERATION), any(LocalDate.class), eq(wallet.id()), anyString(),
+                any(Instant.class))).thenReturn(1);
+        cache.claim("completed", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+        cache.claim("released", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Act
+        cache.complete("completed", OPERATION, wallet.id(), wallet);
+        cache.release("released", OPERATION);
+        cache.release("released", OPERATION);
+
+        // Assert
+        verify(repository).complete(eq("completed"), eq(OPERATION), eq(claimedOn.getAllValues().get(0)), eq(wallet.id()),
+                anyString(), any(Instant.class));
+        verify(repository, times(1)).release("released", OPERATION, claimedOn.getAllValues().get(1));
+    }
+
+    @Test
+    void shouldLockTheKeyBeforeLookingItUpWhenKeysAreOnlyUniquePerDay() {
+        // Arrange
+        IdempotencyCache cache = new IdempotencyCache(repository, true, 10, TTL, null, now::get);
+        when(repository.claim(eq("key"), eq(OPERATION), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+
+        // Act
+        cache.claim("key", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        InOrder inOrder = inOrder(repository);
+        inOrder.verify(repository).lock("key", OPERATION);
+        inOrder.verify(repository).findByIdempotencyKeyAndOperation("key", OPERATION);
+        inOrder.verify(repository).claim(eq("key"), eq(OPERATION), any(Instant.class), any(LocalDate.class));
+    }
+
+    @Test
+    void storeAllShouldReportKeysAlreadyStoredWithoutCachingThem() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        Wallet first = wallet("1");
+        Wallet second = wallet("2");
+        when(repository.store(eq("b"), eq(OPERATION), eq(first.id()), anyString(), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(0);
+        when(repository.store(eq("a"), eq(OPERATION), eq(second.id()), anyString(), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(1);
+
+        // Act
+        List<IdempotencyCache.Completion> taken = cache.storeAll(List.of(completion("b", first), completion("a", second)));
+
+        // Assert
+        assertThat(taken).containsExactly(completion("b", first));
+        assertThat(cache.getSize()).isEqualTo(1);
+        assertThat(cache.getClaimConflicts()).isEqualTo(1);
+        InOrder inOrder = inOrder(repository);
+        inOrder.verify(repository).store(eq("a"), any(), any(), any(), any(), any());
+        inOrder.verify(repository).store(eq("b"), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void storeAllShouldLockEachKeyBeforeInsertingItWhenClaimsAreLocked() {
+        // Arrange
+        IdempotencyCache cache = new IdempotencyCache(repository, true, 10, TTL, null, now::get);
+        Wallet wallet = wallet("1");
+        when(repository.store(eq("key"), eq(OPERATION), eq(wallet.id()), anyString(), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(1);
+
+        // Act
+        cache.storeAll(List.of(completion("key", wallet)));
+
+        // Assert
+        InOrder inOrder = inOrder(repository);
+        inOrder.verify(repository).lock("key", OPERATION);
+        inOrder.verify(repository).store(eq("key"), eq(OPERATION), eq(wallet.id()), anyString(), any(Instant.class), any(LocalDate.class));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ cache ──────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldKeepOperationsApart() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        when(repository.store(anyString(), eq(OPERATION), any(UUID.class), anyString(), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+        cache.storeAll(List.of(completion("key", wallet("1"))));
+
+        // Act
+        Optional<Wallet> found = cache.find("key", "withdrawWallet", Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(found).isEmpty();
+        verify(repository).findByIdempotencyKeyAndOperation("key", "withdrawWallet");
+    }
+
+    @Test
+    void shouldExpireEntriesAfterTtl() {
+        // Arrange
+        IdempotencyCache cache = cache(10, null);
+        when(repository.store(anyString(), eq(OPERATION), any(UUID.class), anyString(), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+        cache.storeAll(List.of(completion("key", wallet("1"))));
+        now.addAndGet(TTL.toNanos());
+        when(repository.findByIdempotencyKeyAndOperation("key", OPERATION)).thenReturn(Optional.empty());
+
+        // Act
+        Optional<Wallet> found = cache.find("key", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(found).isEmpty();
+        assertThat(cache.getSize()).isZero();
+    }
+
+    @Test
+    void shouldEvictOldestEntriesOverCapacity() {
+        // Arrange
+        IdempotencyCache cache = cache(2, null);
+        when(repository.store(anyString(), eq(OPERATION), any(UUID.class), anyString(), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+
+        // Act
+        cache.storeAll(List.of(completion("first", wallet("1")), completion("second", wallet("2")),
+                completion("third", wallet("3"))));
+
+        // Assert
+        assertThat(cache.getSize()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.find("third", OPERATION, Wallet.class, id -> fail("no legacy lookup"))).isPresent();
+        assertThat(cache.find("first", OPERATION, Wallet.class, id -> fail("no legacy lookup"))).isEmpty();
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ Bloom filter ───────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldQueryDatabaseUntilBloomFilterIsLoaded() {
+        // Arrange
+        IdempotencyCache cache = cache(10, new BloomFilter(100, 0.01));
+
+        // Act
+        cache.find("new", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        verify(repository).findByIdempotencyKeyAndOperation("new", OPERATION);
+        assertThat(cache.isBloomFilterLoaded()).isFalse();
+    }
+
+    @Test
+    void shouldClaimKeysNeverSeenWithoutLookup() {
+        // Arrange
+        IdempotencyCache cache = cache(10, new BloomFilter(100, 0.01));
+        when(repository.findAllAfter(eq(""), eq(""), any(Limit.class))).thenReturn(List.of());
+        when(repository.claim(eq("new"), eq(OPERATION), any(Instant.class), any(LocalDate.class))).thenReturn(1);
+        cache.loadBloomFilter();
+
+        // Act
+        Optional<Wallet> claimed = cache.claim("new", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(claimed).isEmpty();
+        verify(repository, never()).findByIdempotencyKeyAndOperation(anyString(), anyString());
+        assertThat(cache.getBloomFilterSkips()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldLookUpKeysLoadedFromDatabase() {
+        // Arrange
+        IdempotencyCache cache = cache(10, new BloomFilter(100, 0.01));
+        Wallet wallet = wallet("5");
+        IdempotencyKey stored = stored("stored", wallet);
+        when(repository.findAllAfter(eq(""), eq(""), any(Limit.class))).thenReturn(List.of(stored));
+        when(repository.findByIdempotencyKeyAndOperation("stored", OPERATION)).thenReturn(Optional.of(stored));
+        cache.loadBloomFilter();
+
+        // Act
+        Optional<Wallet> found = cache.claim("stored", OPERATION, Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(found).contains(wallet);
+        verify(repository, never()).claim(anyString(), anyString(), any(Instant.class), any(LocalDate.class));
+        assertThat(cache.isBloomFilterLoaded()).isTrue();
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldLoadEveryOperationOfAKeySplitAcrossBatches() {
+        // Arrange
+        IdempotencyCache cache = cache(10, new BloomFilter(10_000, 0.01));
+        Wallet wallet = wallet("5");
+        List<IdempotencyKey> firstBatch = new ArrayList<>();
+        for (int i = 0; i < 999; i++) {
+            firstBatch.add(new IdempotencyKey(String.format("a%04d", i), OPERATION, wallet.id()));
+        }
+        firstBatch.add(new IdempotencyKey("split", OPERATION, wallet.id()));
+        IdempotencyKey withdrawal = stored("split", "withdrawWallet", wallet);
+        when(repository.findAllAfter(eq(""), eq(""), any(Limit.class))).thenReturn(firstBatch);
+        when(repository.findAllAfter(eq("split"), eq(OPERATION), any(Limit.class))).thenReturn(List.of(withdrawal));
+        when(repository.findByIdempotencyKeyAndOperation("split", "withdrawWallet")).thenReturn(Optional.of(withdrawal));
+        cache.loadBloomFilter();
+
+        // Act
+        Optional<Wallet> found = cache.find("split", "withdrawWallet", Wallet.class, id -> fail("no legacy lookup"));
+
+        // Assert
+        assertThat(found).contains(wallet);
+        assertThat(cache.getBloomFilterSkips()).isZero();
+        verify(repository, times(2)).findAllAfter(anyString(), anyString(), any(Limit.class));
+    }
+
+    @Test
+    void shouldNeverMissKeysThatWereAdded() {
+        // Arrange
+        BloomFilter filter = new BloomFilter(1_000, 0.01);
+
+        // Act
+        for (int i = 0; i < 1_000; i++) {
+            filter.put(OPERATION + ':' + i);
+        }
+        long falsePositives = 0;
+        for (int i = 1_000; i < 11_000; i++) {
+            if (filter.mightContain(OPERATION + ':' + i)) {
+                falsePositives++;
+            }
+        }
+
+        // Assert
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(filter.mightContain(OPERATION + ':' + i)).isTrue();
+        }
+        assertThat(falsePositives).as("about 1%% of 10000").isLessThan(250);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private IdempotencyCache cache(int capacity, BloomFilter bloomFilter) {
+        return new IdempotencyCache(repository, false, capacity, TTL, bloomFilter, now::get);
+    }
+
+    private static Wallet wallet(String balance) {
+        return new Wallet(UUID.randomUUID(), UUID.randomUUID(), new BigDecimal(balance));
+    }
+
+    private static IdempotencyCache.Completion completion(String idempotencyKey, Wallet wallet) {
+        return new IdempotencyCache.Completion(idempotencyKey, OPERATION, wallet.id(), wallet);
+    }
+
+    private static IdempotencyKey stored(String idempotencyKey, Wallet wallet) {
+        return stored(idempotencyKey, OPERATION, wallet);
+    }
+
+    private static IdempotencyKey stored(String idempotencyKey, String operation, Wallet wallet) {
+        return new IdempotencyKey(idempotencyKey, operation, wallet.id(),
+                String.format("{\"id\":\"%s\",\"userId\":\"%s\",\"balance\":%s}", wallet.id(), wallet.userId(), wallet.balance()));
+    }
+}
@@ -0,0 +1,110 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Concurrent requests carrying the same idempotency key: exactly one runs the operation, the others wait on its claim
+ * and get the response it stored. Runs outside a test transaction so every request commits on its own.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class IdempotencyConcurrencyIT {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyConcurrencyIT.class);
+    private static final int THREADS = 8;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private IdempotencyKeyRepository idempotencyKeyRepository;
+
+    private ExecutorService executor;
+    private UUID walletId;
+
+    @BeforeEach
+    void beforeEach() {
+        UserEntity user = userRepository.save(new UserEntity("Idempotency Stress " + UUID.randomUUID()));
+        walletId = walletService.create(user.getId()).id();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentRequestsWithSameKeyShouldRunOnce() throws Exception {
+        // Arrange
+        String idempotencyKey = UUID.randomUUID().toString();
+        CountDownLatch start = new CountDownLatch(1);
+
+        // Act
+        List<Future<Wallet>> responses = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            responses.add(executor.submit(() -> {
+                start.await();
+                return walletService.deposit(walletId, BigDecimal.TEN, idempotencyKey);
+            }));
+        }
+        start.countDown();
+        List<Wallet> wallets = new ArrayList<>();
+        for (Future<Wallet> response : responses) {
+            wallets.add(response.get());
+        }
+
+        // Assert
+        log.info("\n🎯 {} concurrent deposits with one key answered {}", THREADS, wallets.getFirst());
+        assertThat(wallets).allSatisfy(wallet -> assertThat(wallet.balance()).isEqualByComparingTo("10"));
+        assertThat(transactionRepository.findByWalletId(walletId)).hasSize(1);
+        assertThat(walletService.getCurrentBalance(walletId)).isEqualByComparingTo("10");
+    }
+
+    @Test
+    void replayShouldReturnStoredResponseAfterLaterChanges() {
+        // Arrange
+        String idempotencyKey = UUID.randomUUID().toString();
+        Wallet original = walletService.deposit(walletId, BigDecimal.TEN, idempotencyKey);
+        walletService.deposit(walletId, BigDecimal.ONE);
+
+        // Act
+        Wallet replayed = walletService.deposit(walletId, BigDecimal.TEN, idempotencyKey);
+
+        // Assert
+        assertThat(replayed.balance()).isEqualByComparingTo(original.balance());
+        assertThat(walletService.getCurrentBalance(walletId)).isEqualByComparingTo("11");
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(idempotencyKey, "depositWallet"))
+                .get()
+                .satisfies(key -> assertThat(key.getResponse()).contains(walletId.toString()));
+    }
+}
@@ -0,0 +1,127 @@
+package com.rissatto.sws.application.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class InFlightRequestsTest {
+
+    private final InFlightRequests<String> inFlight = new InFlightRequests<>();
+    private final AtomicInteger runs = new AtomicInteger();
+    private ExecutorService executor;
+
+    @BeforeEach
+    void beforeEach() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldHandDuplicatesTheRunningResult() throws Exception {
+        // Arrange
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> first = executor.submit(() -> inFlight.run("key", () -> {
+            running.countDown();
+            await(release);
+            return "result-" + runs.incrementAndGet();
+        }));
+        running.await();
+
+        // Act
+        List<Future<String>> duplicates = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            duplicates.add(executor.submit(() -> inFlight.run("key", () -> "result-" + runs.incrementAndGet())));
+        }
+        waitForDuplicatesToAttach();
+        release.countDown();
+
+        // Assert
+        assertThat(first.get()).isEqualTo("result-1");
+        for (Future<String> duplicate : duplicates) {
+            assertThat(duplicate.get()).isEqualTo("result-1");
+        }
+        assertThat(runs).hasValue(1);
+        assertThat(inFlight.size()).isZero();
+    }
+
+    @Test
+    void shouldHandDuplicatesTheRunningFailure() throws Exception {
+        // Arrange
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> first = executor.submit(() -> inFlight.run("key", () -> {
+            running.countDown();
+            await(release);
+            throw new IllegalArgumentException("Insufficient funds");
+        }));
+        running.await();
+
+        // Act
+        Future<String> duplicate = executor.submit(() -> inFlight.run("key", () -> "result-" + runs.incrementAndGet()));
+        waitForDuplicatesToAttach();
+        release.countDown();
+
+        // Assert
+        assertThatThrownBy(first::get).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(duplicate::get).isInstanceOf(ExecutionException.class)
+                .cause().isInstanceOf(IllegalArgumentException.class).hasMessage("Insufficient funds");
+        assertThat(runs).hasValue(0);
+    }
+
+    @Test
+    void shouldRunAgainOnceFinished() {
+        // Act
+        String first = inFlight.run("key", () -> "result-" + runs.incrementAndGet());
+        String second = inFlight.run("key", () -> "result-" + runs.incrementAndGet());
+
+        // Assert
+        assertThat(first).isEqualTo("result-1");
+        assertThat(second).isEqualTo("result-2");
+        assertThat(inFlight.size()).isZero();
+    }
+
+    @Test
+    void shouldRunDifferentKeysIndependently() {
+        // Act
+        String outer = inFlight.run("first", () -> inFlight.run("second", () -> "inner") + "-outer");
+
+        // Assert
+        assertThat(outer).isEqualTo("inner-outer");
+    }
+
+    /**
+     * Duplicates only attach once they find the running request, which cannot be observed from outside; give them
+     * time to get there.
+     */
+    private static void waitForDuplicatesToAttach() throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(100);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.rissatto.sws.application.service;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the {@link TransferConcurrencyIT} stress tests with transfers in the optimistic write mode, where colliding
+ * transfers retry their compare-and-set (or fall back to locking) instead of queueing on the row locks.
+ */
+@TestPropertySource(properties = "sws.wallet.write-mode.transfer=optimistic")
+class OptimisticTransferConcurrencyIT extends TransferConcurrencyIT {
+}
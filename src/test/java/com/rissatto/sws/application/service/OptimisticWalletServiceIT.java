@@ -0,0 +1,10 @@
+package com.rissatto.sws.application.service;
+
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * Runs the {@link WalletServiceIT} scenarios with every mutation in the optimistic write mode.
+ */
+@TestPropertySource(properties = "sws.wallet.write-mode.default=optimistic")
+public class OptimisticWalletServiceIT extends WalletServiceIT {
+}
@@ -0,0 +1,267 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.PendingTransferEntity;
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.repository.PendingTransferRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.UserRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test for the single-writer engine: many threads deposit, withdraw and transfer through the
+ * {@link SequencedWalletService}. Runs outside a test transaction so every batch commits on its own.
+ */
+@SpringBootTest
+@ActiveProfiles({"test", "sequencer"})
+class SequencedLedgerIT {
+
+    private static final Logger log = LoggerFactory.getLogger(SequencedLedgerIT.class);
+    private static final int WALLETS = 4;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 25;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(100);
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private WalletServiceImpl lockingWalletService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    @Autowired
+    private PendingTransferRepository pendingTransferRepository;
+
+    private ExecutorService executor;
+    private UUID userId;
+
+    @BeforeEach
+    void beforeEach() {
+        userId = userRepository.save(new UserEntity("Sequencer Stress " + UUID.randomUUID())).getId();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void sequencedOperationsShouldKeepBalancesAndLedgerConsistent() throws Exception {
+        // Arrange
+        assertThat(walletService).isInstanceOf(SequencedWalletService.class);
+        List<UUID> walletIds = new ArrayList<>();
+        for (int i = 0; i < WALLETS; i++) {
+            UUID walletId = walletService.create(userId).id();
+            walletService.deposit(walletId, INITIAL_BALANCE);
+            walletIds.add(walletId);
+        }
+        AtomicInteger deposits = new AtomicInteger();
+        AtomicInteger withdrawals = new AtomicInteger();
+
+        // Act
+        LoadResult result = runLoad(thread -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            UUID walletId = walletIds.get(random.nextInt(WALLETS));
+            switch (thread % 3) {
+                case 0 -> {
+                    walletService.deposit(walletId, BigDecimal.ONE);
+                    deposits.incrementAndGet();
+                }
+                case 1 -> {
+                    walletService.withdraw(walletId, BigDecimal.TWO);
+                    withdrawals.incrementAndGet();
+                }
+                default -> {
+                    UUID targetId = walletIds.get((walletIds.indexOf(walletId) + 1 + random.nextInt(WALLETS - 1)) % WALLETS);
+                    walletService.transfer(walletId, targetId, BigDecimal.valueOf(random.nextInt(1, 5)));
+                }
+            }
+        });
+
+        // Assert
+        log.info("\n🎯 Sequenced operations: {} ({} deposits, {} withdrawals)", result, deposits.get(), withdrawals.get());
+        BigDecimal expected = INITIAL_BALANCE.multiply(BigDecimal.valueOf(WALLETS))
+                .add(BigDecimal.valueOf(deposits.get() - 2L * withdrawals.get()));
+        BigDecimal inMemory = BigDecimal.ZERO;
+        BigDecimal stored = BigDecimal.ZERO;
+        for (UUID walletId : walletIds) {
+            Wallet wallet = walletService.getById(walletId);
+            inMemory = inMemory.add(wallet.balance());
+            stored = stored.add(walletRepository.findById(walletId).orElseThrow().getBalance());
+
+            List<TransactionEntity> ledger = transactionRepository.findByWalletId(walletId).stream()
+                    .sorted(Comparator.comparing(TransactionEntity::getSequenceNumber))
+                    .toList();
+            assertThat(ledger).extracting(TransactionEntity::getSequenceNumber)
+                    .containsExactlyElementsOf(LongStream.rangeClosed(1, ledger.size()).boxed().toList());
+            assertThat(ledger).extracting(TransactionEntity::getTimestamp).isSorted();
+            assertThat(ledger.getLast().getBalanceAfter()).isEqualByComparingTo(wallet.balance());
+        }
+        assertThat(inMemory).isEqualByComparingTo(expected);
+        assertThat(stored).as("every acknowledged operation is journaled").isEqualByComparingTo(expected);
+        assertThat(pendingTransferRepository.findAll()).as("every transfer is settled")
+                .noneMatch(transfer -> walletIds.contains(transfer.getSourceWalletId()));
+    }
+
+    @Test
+    void transferLeftPendingShouldBeCreditedOnceOnStart() {
+        // Arrange
+        UUID sourceId = walletService.create(userId).id();
+        UUID targetId = walletService.create(userId).id();
+        UUID transferId = UUID.randomUUID();
+        pendingTransferRepository.save(new PendingTransferEntity(transferId, sourceId, targetId, BigDecimal.TEN, null));
+
+        // Act
+        ((SequencedWalletService) walletService).settlePendingTransfers();
+        ((SequencedWalletService) walletService).settlePendingTransfers();
+
+        // Assert
+        assertThat(walletService.getById(targetId).balance()).isEqualByComparingTo("10");
+        assertThat(walletRepository.findById(targetId).orElseThrow().getBalance()).isEqualByComparingTo("10");
+        assertThat(transactionRepository.findByWalletId(targetId)).singleElement()
+                .satisfies(entity -> assertThat(entity.getType()).isEqualTo(Transaction.Type.TRANSFER_IN));
+        assertThat(pendingTransferRepository.existsById(transferId)).isFalse();
+    }
+
+    @Test
+    void keyRacedAcrossWalletsShouldBeAppliedOnce() throws Exception {
+        // Arrange
+        List<UUID> walletIds = new ArrayList<>();
+        for (int i = 0; i < WALLETS; i++) {
+            walletIds.add(walletService.create(userId).id());
+        }
+        int keys = OPERATIONS_PER_THREAD;
+
+        // Act
+        for (int k = 0; k < keys; k++) {
+            String idempotencyKey = "race-" + UUID.randomUUID();
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> racers = new ArrayList<>();
+            for (UUID walletId : walletIds) {
+                racers.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        walletService.deposit(walletId, BigDecimal.ONE, idempotencyKey);
+                    } catch (IllegalStateException e) {
+                        log.debug("Duplicate key failed", e);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> racer : racers) {
+                racer.get();
+            }
+        }
+
+        // Assert
+        BigDecimal stored = walletIds.stream()
+                .map(id -> walletRepository.findById(id).orElseThrow().getBalance())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        assertThat(stored).as("each key deposits once, whichever wallet won it").isEqualByComparingTo(BigDecimal.valueOf(keys));
+    }
+
+    /**
+     * Compares deposit throughput on one hot wallet between the sequencer and the locking service. Only logged, since
+     * the gain depends on the database and on commit latency.
+     */
+    @Test
+    void sequencedDepositThroughputBaseline() throws Exception {
+        // Arrange
+        UUID lockedWalletId = walletService.create(userId).id();
+        UUID sequencedWalletId = walletService.create(userId).id();
+
+        // Act
+        LoadResult locked = runLoad(thread -> lockingWalletService.deposit(lockedWalletId, BigDecimal.ONE));
+        LoadResult sequenced = runLoad(thread -> walletService.deposit(sequencedWalletId, BigDecimal.ONE));
+
+        // Assert
+        log.info("\n🎯 Deposits into one wallet: row-locked {}, sequenced {}", locked, sequenced);
+        BigDecimal expected = BigDecimal.valueOf(THREADS * OPERATIONS_PER_THREAD);
+        assertThat(lockingWalletService.getCurrentBalance(lockedWalletId)).isEqualByComparingTo(expected);
+        assertThat(walletService.getCurrentBalance(sequencedWalletId)).isEqualByComparingTo(expected);
+    }
+
+    private LoadResult runLoad(Operation operation) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            workers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    try {
+                        operation.run(thread);
+                        succeeded.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        log.debug("Operation failed", e);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        return new LoadResult(succeeded.get(), failures.get(), elapsedNanos);
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(int thread);
+    }
+
+    private record LoadResult(int succeeded, int failures, long elapsedNanos) {
+
+        double throughput() {
+            return succeeded * 1_000_000_000d / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d succeeded, %d failed in %d ms (%.1f ops/s)",
+                    succeeded, failures, elapsedNanos / 1_000_000, throughput());
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.PendingTransferEntity;
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class SequencedWalletServiceTest {
+
+    private static final UUID SOURCE_ID = UUID.randomUUID();
+    private static final UUID TARGET_ID = UUID.randomUUID();
+
+    @Mock
+    private WalletServiceImpl delegate;
+    @Mock
+    private SequencerStore store;
+    @Mock
+    private IdempotencyCache idempotencyCache;
+
+    private SequencedWalletService service;
+
+    @BeforeEach
+    void beforeEach() {
+        service = new SequencedWalletService(delegate, store, idempotencyCache, 1, 16, 8);
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        service.stop();
+    }
+
+    @Test
+    void shouldRefundTheSourceAndReleaseTheKeyWhenTheCreditCannotBeJournaled() {
+        // Arrange
+        String idempotencyKey = UUID.randomUUID().toString();
+        when(store.exists(TARGET_ID)).thenReturn(true);
+        when(store.load(SOURCE_ID, "Source Wallet not found")).thenReturn(loaded(SOURCE_ID, "10"));
+        when(store.load(TARGET_ID, "Target Wallet not found")).thenReturn(loaded(TARGET_ID, "0"));
+        List<TransactionEntity> journaled = new ArrayList<>();
+        List<WalletSequencer.ReleasedKey> released = new ArrayList<>();
+        List<UUID> opened = new ArrayList<>();
+        List<UUID> settled = new ArrayList<>();
+        doAnswer(invocation -> {
+            WalletSequencer.Journal journal = invocation.getArgument(0);
+            if (journal.accounts().stream().anyMatch(account -> account.wallet().id().equals(TARGET_ID))) {
+                throw new IllegalStateException("database unavailable");
+            }
+            journaled.addAll(journal.ledger());
+            released.addAll(journal.releasedKeys());
+            journal.openedTransfers().forEach(transfer -> opened.add(transfer.getId()));
+            settled.addAll(journal.settledTransfers());
+            return WalletSequencer.Conflicts.NONE;
+        }).when(store).journal(any());
+
+        // Act
+        assertThatThrownBy(() -> service.transfer(SOURCE_ID, TARGET_ID, new BigDecimal("4"), idempotencyKey))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("database unavailable");
+
+        // Assert
+        assertThat(journaled).extracting(TransactionEntity::getType)
+                .containsExactly(Transaction.Type.TRANSFER_OUT, Transaction.Type.TRANSFER_IN);
+        assertThat(journaled).allSatisfy(entity -> assertThat(entity.getWalletId()).isEqualTo(SOURCE_ID));
+        assertThat(journaled.getLast().getBalanceAfter()).isEqualByComparingTo("10");
+        assertThat(released).containsExactly(new WalletSequencer.ReleasedKey(idempotencyKey, "transferWallet"));
+        assertThat(settled).as("the refund settles the transfer the debit opened").isEqualTo(opened).hasSize(1);
+        assertThat(service.getById(SOURCE_ID).balance()).isEqualByComparingTo("10");
+        verify(store, times(3)).load(TARGET_ID, "Target Wallet not found");
+    }
+
+    @Test
+    void shouldReturnTheDebitWhenTheRefundFindsTheTransferCredited() {
+        // Arrange
+        String idempotencyKey = UUID.randomUUID().toString();
+        when(store.exists(TARGET_ID)).thenReturn(true);
+        when(store.load(SOURCE_ID, "Source Wallet not found")).thenReturn(loaded(SOURCE_ID, "10"));
+        when(store.load(TARGET_ID, "Target Wallet not found")).thenReturn(loaded(TARGET_ID, "0"));
+        doAnswer(invocation -> {
+            WalletSequencer.Journal journal = invocation.getArgument(0);
+            if (journal.accounts().stream().anyMatch(account -> account.wallet().id().equals(TARGET_ID))) {
+                throw new IllegalStateException("commit outcome unknown");
+            }
+            return new WalletSequencer.Conflicts(journal.settledTransfers(), Set.of());
+        }).when(store).journal(any());
+
+        // Act
+        Wallet result = service.transfer(SOURCE_ID, TARGET_ID, new BigDecimal("4"), idempotencyKey);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("6");
+        assertThat(service.getById(SOURCE_ID).balance()).as("the refund is not applied").isEqualByComparingTo("6");
+    }
+
+    @Test
+    void shouldCreditTransfersLeftPendingOnStart() {
+        // Arrange
+        UUID transferId = UUID.randomUUID();
+        when(store.pendingTransfers()).thenReturn(List.of(
+                new PendingTransferEntity(transferId, SOURCE_ID, TARGET_ID, new BigDecimal("4"), null)));
+        when(store.load(TARGET_ID, "Target Wallet not found")).thenReturn(loaded(TARGET_ID, "1"));
+        List<UUID> settled = new ArrayList<>();
+        doAnswer(invocation -> {
+            WalletSequencer.Journal journal = invocation.getArgument(0);
+            settled.addAll(journal.settledTransfers());
+            return WalletSequencer.Conflicts.NONE;
+        }).when(store).journal(any());
+
+        // Act
+        service.settlePendingTransfers();
+
+        // Assert
+        assertThat(settled).containsExactly(transferId);
+        assertThat(service.getById(TARGET_ID).balance()).isEqualByComparingTo("5");
+        verify(store, never()).load(SOURCE_ID, "Source Wallet not found");
+    }
+
+    private static VersionedWallet loaded(UUID walletId, String balance) {
+        return new VersionedWallet() {
+            public UUID getId() { return walletId; }
+            public UUID getUserId() { return UUID.randomUUID(); }
+            public BigDecimal getBalance() { return new BigDecimal(balance); }
+            public long getLastSequenceNumber() { return 0; }
+            public Instant getLastTransactionAt() { return null; }
+            public int getStripes() { return 0; }
+            public long getVersion() { return 0; }
+        };
+    }
+}
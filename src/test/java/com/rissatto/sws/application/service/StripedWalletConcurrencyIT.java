@@ -0,0 +1,172 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test for striped (hot) wallets: many threads credit and debit one wallet at once. Runs outside a test
+ * transaction so every operation commits on its own, as it does behind the API.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class StripedWalletConcurrencyIT {
+
+    private static final Logger log = LoggerFactory.getLogger(StripedWalletConcurrencyIT.class);
+    private static final int STRIPES = 8;
+    private static final int THREADS = 8;
+    private static final int OPERATIONS_PER_THREAD = 25;
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private TransactionRepository transactionRepository;
+
+    private ExecutorService executor;
+    private UUID userId;
+
+    @BeforeEach
+    void beforeEach() {
+        userId = userRepository.save(new UserEntity("Striped Stress " + UUID.randomUUID())).getId();
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCreditsAndDebitsShouldKeepBalanceAndLedgerConsistent() throws Exception {
+        // Arrange
+        UUID walletId = walletService.create(userId).id();
+        walletService.deposit(walletId, BigDecimal.valueOf(10));
+        walletService.stripe(walletId, STRIPES);
+        AtomicInteger deposits = new AtomicInteger();
+        AtomicInteger withdrawals = new AtomicInteger();
+
+        // Act
+        LoadResult result = runLoad(thread -> {
+            if (thread % 2 == 0) {
+                walletService.deposit(walletId, BigDecimal.ONE);
+                deposits.incrementAndGet();
+            } else {
+                walletService.withdraw(walletId, BigDecimal.valueOf(2));
+                withdrawals.incrementAndGet();
+            }
+        });
+
+        // Assert
+        BigDecimal expected = BigDecimal.valueOf(10L + deposits.get() - 2L * withdrawals.get());
+        List<TransactionEntity> ledger = transactionRepository.findByWalletId(walletId);
+        log.info("\n🎯 Striped credits and debits: {} ({} deposits, {} withdrawals)", result, deposits.get(), withdrawals.get());
+        assertThat(deposits.get()).isEqualTo(THREADS / 2 * OPERATIONS_PER_THREAD);
+        assertThat(result.failures()).as("only withdrawals may fail, with insufficient funds")
+                .isEqualTo(THREADS / 2 * OPERATIONS_PER_THREAD - withdrawals.get());
+        assertThat(walletService.getCurrentBalance(walletId)).isEqualByComparingTo(expected);
+        assertThat(ledger.stream().map(TransactionEntity::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add))
+                .isEqualByComparingTo(expected);
+        assertThat(walletService.getHistoricalBalance(walletId, Instant.now())).isEqualByComparingTo(expected);
+
+        Wallet unstriped = walletService.stripe(walletId, 0);
+        assertThat(unstriped.balance()).isEqualByComparingTo(expected);
+    }
+
+    /**
+     * Compares deposit throughput on one hot wallet with and without striping. Only logged, since the gain depends on
+     * the database and on commit latency.
+     */
+    @Test
+    void stripedDepositThroughputBaseline() throws Exception {
+        // Arrange
+        UUID plainWalletId = walletService.create(userId).id();
+        UUID stripedWalletId = walletService.create(userId).id();
+        walletService.stripe(stripedWalletId, STRIPES);
+
+        // Act
+        LoadResult plain = runLoad(thread -> walletService.deposit(plainWalletId, BigDecimal.ONE));
+        LoadResult striped = runLoad(thread -> walletService.deposit(stripedWalletId, BigDecimal.ONE));
+
+        // Assert
+        log.info("\n🎯 Deposits into one wallet: row-locked {}, striped {}", plain, striped);
+        BigDecimal expected = BigDecimal.valueOf(THREADS * OPERATIONS_PER_THREAD);
+        assertThat(walletService.getCurrentBalance(plainWalletId)).isEqualByComparingTo(expected);
+        assertThat(walletService.getCurrentBalance(stripedWalletId)).isEqualByComparingTo(expected);
+    }
+
+    private LoadResult runLoad(Operation operation) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int thread = t;
+            workers.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                    try {
+                        operation.run(thread);
+                        succeeded.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        log.debug("Operation failed", e);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        return new LoadResult(succeeded.get(), failures.get(), elapsedNanos);
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        void run(int thread);
+    }
+
+    private record LoadResult(int succeeded, int failures, long elapsedNanos) {
+
+        double throughput() {
+            return succeeded * 1_000_000_000d / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d succeeded, %d failed in %d ms (%.1f ops/s)",
+                    succeeded, failures, elapsedNanos / 1_000_000, throughput());
+        }
+    }
+}
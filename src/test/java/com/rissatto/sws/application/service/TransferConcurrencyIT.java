@@ -0,0 +1,173 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.entity.WalletEntity;
+import com.rissatto.sws.infrastructure.repository.UserRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Stress test for peer-to-peer transfers: many threads move funds back and forth between a handful of wallets, so
+ * opposite transfers (A→B while B→A) collide constantly. Runs outside a test transaction so every transfer commits
+ * on its own, as it does behind the API.
+ * <p>
+ * The logged transfers/s and deadlock failures come from whatever database the test runs on: H2 by default, or
+ * PostgreSQL when run with the {@code QueryPlanIT} properties from the README. They are not recorded anywhere.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class TransferConcurrencyIT {
+
+    private static final Logger log = LoggerFactory.getLogger(TransferConcurrencyIT.class);
+    private static final int WALLETS = 4;
+    private static final int THREADS = 8;
+    private static final int TRANSFERS_PER_THREAD = 25;
+    private static final BigDecimal INITIAL_BALANCE = BigDecimal.valueOf(1_000);
+
+    @Autowired
+    private WalletService walletService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private WalletRepository walletRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ExecutorService executor;
+    private List<UUID> walletIds;
+
+    @BeforeEach
+    void beforeEach() {
+        UserEntity user = userRepository.save(new UserEntity("Transfer Stress " + UUID.randomUUID()));
+        walletIds = new ArrayList<>();
+        for (int i = 0; i < WALLETS; i++) {
+            Wallet wallet = walletService.create(user.getId());
+            walletService.deposit(wallet.id(), INITIAL_BALANCE);
+            walletIds.add(wallet.id());
+        }
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void opposingTransfersShouldNeverDeadlock() throws Exception {
+        // Act
+        LoadResult result = runLoad((source, target) -> walletService.transfer(source, target, BigDecimal.ONE));
+
+        // Assert
+        log.info("\n🎯 Ordered locking: {}", result);
+        assertThat(result.failures()).as("no transfer may fail with a deadlock or lock timeout").isZero();
+        assertThat(result.succeeded()).isEqualTo(THREADS * TRANSFERS_PER_THREAD);
+        assertThat(totalBalance()).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(WALLETS)));
+    }
+
+    /**
+     * Baseline for comparison: locks source then target with two statements, as transfers did before locking both
+     * wallets in one ordered query. Only logged, since whether and how often it deadlocks depends on timing.
+     */
+    @Test
+    void sourceThenTargetLockingBaseline() throws Exception {
+        // Arrange
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+
+        // Act
+        LoadResult result = runLoad((source, target) -> tx.executeWithoutResult(status -> {
+            WalletEntity sourceEntity = walletRepository.findByIdForUpdate(source).orElseThrow();
+            WalletEntity targetEntity = walletRepository.findByIdForUpdate(target).orElseThrow();
+            sourceEntity.setBalance(sourceEntity.getBalance().subtract(BigDecimal.ONE));
+            targetEntity.setBalance(targetEntity.getBalance().add(BigDecimal.ONE));
+        }));
+
+        // Assert
+        log.info("\n🎯 Source-then-target locking: {}", result);
+        assertThat(result.succeeded() + result.failures()).isEqualTo(THREADS * TRANSFERS_PER_THREAD);
+        assertThat(totalBalance()).isEqualByComparingTo(INITIAL_BALANCE.multiply(BigDecimal.valueOf(WALLETS)));
+    }
+
+    private LoadResult runLoad(Transfer transfer) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            workers.add(executor.submit(() -> {
+                start.await();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+                    int source = random.nextInt(WALLETS);
+                    int target = (source + 1 + random.nextInt(WALLETS - 1)) % WALLETS;
+                    try {
+                        transfer.run(walletIds.get(source), walletIds.get(target));
+                        succeeded.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        failures.incrementAndGet();
+                        log.debug("Transfer failed", e);
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        return new LoadResult(succeeded.get(), failures.get(), elapsedNanos);
+    }
+
+    private BigDecimal totalBalance() {
+        return walletIds.stream()
+                .map(id -> walletRepository.findById(id).orElseThrow().getBalance())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @FunctionalInterface
+    private interface Transfer {
+        void run(UUID source, UUID target);
+    }
+
+    private record LoadResult(int succeeded, int failures, long elapsedNanos) {
+
+        double throughput() {
+            return succeeded * 1_000_000_000d / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d succeeded, %d failed in %d ms (%.1f transfers/s)",
+                    succeeded, failures, elapsedNanos / 1_000_000, throughput());
+        }
+    }
+}
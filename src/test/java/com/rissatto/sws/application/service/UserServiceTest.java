@@ -6,19 +6,25 @@ import com.rissatto.sws.infrastructure.entity.UserEntity;
 import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
 import com.rissatto.sws.infrastructure.repository.UserRepository;
 import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.support.TransactionOperations;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -29,9 +35,15 @@ public class UserServiceTest {
     private UserRepository repository;
     @Mock
     private IdempotencyKeyRepository idempotencyKeyRepository;
-    @InjectMocks
     private UserServiceImpl service;
 
+    @BeforeEach
+    void beforeEach() {
+        service = new UserServiceImpl(repository,
+                new IdempotencyCache(idempotencyKeyRepository, false, 100, Duration.ofMinutes(1), null, System::nanoTime),
+                TransactionOperations.withoutTransaction());
+    }
+
     @Test
     void shouldCreateUserWithTrimmedName() {
         // Arrange
@@ -52,18 +64,20 @@ public class UserServiceTest {
     void shouldCreateUserWithIdempotencyKey() {
         // Arrange
         String idempotencyKey = UUID.randomUUID().toString();
-        ArgumentCaptor<IdempotencyKey> keyCaptor = ArgumentCaptor.forClass(IdempotencyKey.class);
+        ArgumentCaptor<String> response = ArgumentCaptor.forClass(String.class);
+        when(idempotencyKeyRepository.claim(eq(idempotencyKey), eq(CREATE_OPERATION), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(1);
+        when(idempotencyKeyRepository.complete(eq(idempotencyKey), eq(CREATE_OPERATION), any(LocalDate.class), any(UUID.class), anyString(),
+                any(Instant.class))).thenReturn(1);
 
         // Act
         User u = service.create("John Doe", idempotencyKey);
 
         // Assert
         verify(repository).save(any(UserEntity.class));
-        verify(idempotencyKeyRepository).save(keyCaptor.capture());
-        IdempotencyKey saved = keyCaptor.getValue();
-        assertThat(saved.getIdempotencyKey()).isEqualTo(idempotencyKey);
-        assertThat(saved.getOperation()).isEqualTo(CREATE_OPERATION);
-        assertThat(saved.getResourceId()).isEqualTo(u.id());
+        verify(idempotencyKeyRepository).complete(eq(idempotencyKey), eq(CREATE_OPERATION), any(LocalDate.class), eq(u.id()), response.capture(),
+                any(Instant.class));
+        assertThat(response.getValue()).contains(u.id().toString(), "John Doe");
     }
 
     @Test
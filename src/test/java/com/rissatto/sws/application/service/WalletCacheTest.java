@@ -0,0 +1,195 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WalletCacheTest {
+
+    private static final Duration TTL = Duration.ofSeconds(5);
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final WalletCache cache = new WalletCache(2, TTL, nanoTime::get);
+
+    @Test
+    void shouldCacheCommittedWallets() {
+        // Arrange
+        Wallet wallet = wallet(UUID.randomUUID(), "10");
+
+        // Act
+        cache.putAfterCommit(wallet, 1);
+
+        // Assert
+        assertThat(cache.get(wallet.id())).contains(wallet);
+        assertThat(cache.get(UUID.randomUUID())).isEmpty();
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    void shouldNotReplaceANewerWalletWithAnOlderOne() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Wallet newer = wallet(walletId, "15");
+        cache.putAfterCommit(newer, 3);
+
+        // Act
+        cache.put(wallet(walletId, "10"), 2);
+
+        // Assert
+        assertThat(cache.get(walletId)).contains(newer);
+    }
+
+    @Test
+    void shouldExpireWalletsAfterTheTtl() {
+        // Arrange
+        Wallet wallet = wallet(UUID.randomUUID(), "10");
+        cache.put(wallet, 1);
+
+        // Act
+        nanoTime.addAndGet(TTL.toNanos());
+
+        // Assert
+        assertThat(cache.get(wallet.id())).isEmpty();
+        assertThat(cache.getExpirations()).isEqualTo(1);
+        assertThat(cache.getSize()).isZero();
+    }
+
+    @Test
+    void shouldReplaceAnExpiredWalletWhateverItsSequenceNumber() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        cache.put(wallet(walletId, "15"), 3);
+        nanoTime.addAndGet(TTL.toNanos());
+        Wallet reread = wallet(walletId, "10");
+
+        // Act
+        cache.put(reread, 2);
+
+        // Assert
+        assertThat(cache.get(walletId)).contains(reread);
+    }
+
+    @Test
+    void shouldDropEvictedWallets() {
+        // Arrange
+        Wallet wallet = wallet(UUID.randomUUID(), "10");
+        cache.put(wallet, 1);
+
+        // Act
+        cache.evictAfterCommit(wallet.id());
+
+        // Assert
+        assertThat(cache.get(wallet.id())).isEmpty();
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotPutBackTheStateAnEvictedWalletHadUntilTheTtlPassed() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Wallet before = wallet(walletId, "10");
+        cache.put(before, 2);
+        cache.evictAfterCommit(walletId);
+
+        // Act
+        cache.put(before, 2);
+
+        // Assert
+        assertThat(cache.get(walletId)).isEmpty();
+        Wallet after = wallet(walletId, "15");
+        cache.put(after, 3);
+        assertThat(cache.get(walletId)).contains(after);
+    }
+
+    @Test
+    void shouldNotCacheAWalletEvictedWhileUncachedUntilTheTtlPassed() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        cache.evictAfterCommit(walletId);
+
+        // Act
+        cache.put(wallet(walletId, "10"), 2);
+
+        // Assert
+        assertThat(cache.get(walletId)).isEmpty();
+        nanoTime.addAndGet(TTL.toNanos());
+        Wallet reread = wallet(walletId, "15");
+        cache.put(reread, 2);
+        assertThat(cache.get(walletId)).contains(reread);
+    }
+
+    @Test
+    void shouldForgetTheTombstoneOfAnEvictedWalletAfterTheTtl() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        cache.put(wallet(walletId, "10"), 2);
+        cache.evictAfterCommit(walletId);
+        nanoTime.addAndGet(TTL.toNanos());
+        Wallet reread = wallet(walletId, "10");
+
+        // Act
+        cache.put(reread, 2);
+
+        // Assert
+        assertThat(cache.get(walletId)).contains(reread);
+        assertThat(cache.getExpirations()).isZero();
+    }
+
+    @Test
+    void shouldEvictTheLeastRecentlyReadWalletBeyondCapacity() {
+        // Arrange
+        Wallet first = wallet(UUID.randomUUID(), "1");
+        Wallet second = wallet(UUID.randomUUID(), "2");
+        Wallet third = wallet(UUID.randomUUID(), "3");
+        cache.put(first, 1);
+        cache.put(second, 1);
+        cache.get(first.id());
+
+        // Act
+        cache.put(third, 1);
+
+        // Assert
+        assertThat(cache.getSize()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.get(first.id())).contains(first);
+        assertThat(cache.get(second.id())).isEmpty();
+    }
+
+    @Test
+    void shouldCacheNothingWithZeroCapacity() {
+        // Arrange
+        WalletCache disabled = new WalletCache(0, TTL, nanoTime::get);
+        Wallet wallet = wallet(UUID.randomUUID(), "10");
+
+        // Act
+        disabled.putAfterCommit(wallet, 1);
+
+        // Assert
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThat(disabled.get(wallet.id())).isEmpty();
+        assertThat(disabled.getMisses()).isZero();
+    }
+
+    @Test
+    void shouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> new WalletCache(-1, TTL, nanoTime::get))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("capacity must not be negative");
+        assertThatThrownBy(() -> new WalletCache(1, Duration.ZERO, nanoTime::get))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("ttl must be positive");
+    }
+
+    private static Wallet wallet(UUID walletId, String balance) {
+        return new Wallet(walletId, UUID.randomUUID(), new BigDecimal(balance));
+    }
+}
@@ -0,0 +1,117 @@
+package com.rissatto.sws.application.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WalletContentionTrackerTest {
+
+    private static final Duration LOCK_WAIT = Duration.ofMillis(2);
+    private static final long WAITED = Duration.ofMillis(10).toNanos();
+    private static final long NOT_WAITED = 0L;
+
+    private final WalletContentionTracker tracker = new WalletContentionTracker(2, 0.2, 0.05, LOCK_WAIT);
+
+    @Test
+    void shouldStartOptimistic() {
+        assertThat(tracker.strategyFor(UUID.randomUUID())).isEqualTo(WalletWriteMode.OPTIMISTIC);
+        assertThat(tracker.getTrackedWallets()).isZero();
+    }
+
+    @Test
+    void shouldSwitchToLockingOnceConflictRatePassesThreshold() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+
+        // Act
+        tracker.recordCompareAndSet(walletId, true);
+        tracker.recordCompareAndSet(walletId, true);
+        WalletWriteMode afterTwo = tracker.strategyFor(walletId);
+        tracker.recordCompareAndSet(walletId, true);
+
+        // Assert
+        assertThat(afterTwo).isEqualTo(WalletWriteMode.OPTIMISTIC);
+        assertThat(tracker.strategyFor(walletId)).isEqualTo(WalletWriteMode.PESSIMISTIC);
+        assertThat(tracker.getConflicts()).isEqualTo(3);
+        assertThat(tracker.getLockingWallets()).isEqualTo(1);
+        assertThat(tracker.getSwitchesToLocking()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStayOptimisticWhenConflictsAreRare() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+
+        // Act
+        for (int i = 0; i < 100; i++) {
+            tracker.recordCompareAndSet(walletId, i % 10 == 0);
+        }
+
+        // Assert
+        assertThat(tracker.strategyFor(walletId)).isEqualTo(WalletWriteMode.OPTIMISTIC);
+        assertThat(tracker.getSwitchesToLocking()).isZero();
+    }
+
+    @Test
+    void shouldSwitchBackToOptimisticOnceLocksStopWaiting() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) {
+            tracker.recordCompareAndSet(walletId, true);
+        }
+
+        // Act
+        int calmLocks = 0;
+        tracker.recordLock(walletId, WAITED);
+        while (tracker.strategyFor(walletId) == WalletWriteMode.PESSIMISTIC) {
+            tracker.recordLock(walletId, NOT_WAITED);
+            calmLocks++;
+        }
+
+        // Assert
+        assertThat(calmLocks).as("a switched wallet needs a run of calm writes to flip back").isGreaterThan(10);
+        assertThat(tracker.getLockWaits()).isEqualTo(1);
+        assertThat(tracker.getSwitchesToOptimistic()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldIgnoreFallbackLocksOfOptimisticWallets() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+
+        // Act
+        tracker.recordLock(walletId, WAITED);
+
+        // Assert
+        assertThat(tracker.getLocks()).isEqualTo(1);
+        assertThat(tracker.getTrackedWallets()).isZero();
+        assertThat(tracker.strategyFor(walletId)).isEqualTo(WalletWriteMode.OPTIMISTIC);
+    }
+
+    @Test
+    void shouldForgetLeastRecentlyWrittenWalletBeyondCapacity() {
+        // Arrange
+        UUID hotWalletId = UUID.randomUUID();
+        for (int i = 0; i < 3; i++) {
+            tracker.recordCompareAndSet(hotWalletId, true);
+        }
+
+        // Act
+        tracker.recordCompareAndSet(UUID.randomUUID(), false);
+        tracker.recordCompareAndSet(UUID.randomUUID(), false);
+
+        // Assert
+        assertThat(tracker.getTrackedWallets()).isEqualTo(2);
+        assertThat(tracker.strategyFor(hotWalletId)).isEqualTo(WalletWriteMode.OPTIMISTIC);
+    }
+
+    @Test
+    void shouldRejectOverlappingThresholds() {
+        assertThatThrownBy(() -> new WalletContentionTracker(10, 0.1, 0.1, LOCK_WAIT))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
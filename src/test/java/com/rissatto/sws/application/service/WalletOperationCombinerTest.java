@@ -0,0 +1,134 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Wallet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WalletOperationCombinerTest {
+
+    private static final UUID WALLET_ID = UUID.randomUUID();
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    private final List<List<WalletOperation>> batches = new CopyOnWriteArrayList<>();
+    private ExecutorService executor;
+
+    @BeforeEach
+    void beforeEach() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Applies deposits to a running balance starting at zero; withdrawals are always rejected.
+     */
+    private List<WalletOperation.Result> apply(UUID walletId, List<WalletOperation> operations) {
+        batches.add(operations);
+        List<WalletOperation.Result> results = new ArrayList<>();
+        BigDecimal balance = BigDecimal.ZERO;
+        for (WalletOperation operation : operations) {
+            if (operation.type().isWithdrawal()) {
+                results.add(WalletOperation.Result.rejected(new IllegalArgumentException("Insufficient funds")));
+            } else {
+                balance = balance.add(operation.amount());
+                results.add(WalletOperation.Result.applied(new Wallet(walletId, USER_ID, balance)));
+            }
+        }
+        return results;
+    }
+
+    @Test
+    void shouldApplyLoneOperationAfterMaxDelay() {
+        // Arrange
+        WalletOperationCombiner combiner = new WalletOperationCombiner(this::apply, Duration.ofMillis(1), 8);
+
+        // Act
+        Wallet wallet = combiner.submit(WALLET_ID, WalletOperation.deposit(BigDecimal.ONE, null));
+
+        // Assert
+        assertThat(wallet.balance()).isEqualByComparingTo(BigDecimal.ONE);
+        assertThat(batches).hasSize(1);
+    }
+
+    @Test
+    void shouldCombineConcurrentOperationsIntoOneBatch() throws Exception {
+        // Arrange
+        WalletOperationCombiner combiner = new WalletOperationCombiner(this::apply, Duration.ofSeconds(10), 4);
+        CountDownLatch start = new CountDownLatch(1);
+
+        // Act
+        List<Future<Wallet>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return combiner.submit(WALLET_ID, WalletOperation.deposit(BigDecimal.ONE, null));
+            }));
+        }
+        Future<Wallet> rejected = executor.submit(() -> {
+            start.await();
+            return combiner.submit(WALLET_ID, WalletOperation.withdrawal(BigDecimal.ONE, null));
+        });
+        start.countDown();
+
+        // Assert
+        List<BigDecimal> balances = new ArrayList<>();
+        for (Future<Wallet> result : results) {
+            balances.add(result.get().balance());
+        }
+        assertThat(batches).as("the fourth operation fills the batch, well before the max delay").hasSize(1);
+        assertThat(balances).usingElementComparator(BigDecimal::compareTo)
+                .containsExactlyInAnyOrder(BigDecimal.ONE, BigDecimal.TWO, BigDecimal.valueOf(3));
+        assertThatThrownBy(rejected::get).hasCauseInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Insufficient funds");
+    }
+
+    @Test
+    void shouldKeepBatchesOfDifferentWalletsApart() {
+        // Arrange
+        WalletOperationCombiner combiner = new WalletOperationCombiner(this::apply, Duration.ZERO, 8);
+
+        // Act
+        combiner.submit(WALLET_ID, WalletOperation.deposit(BigDecimal.ONE, null));
+        combiner.submit(UUID.randomUUID(), WalletOperation.deposit(BigDecimal.ONE, null));
+
+        // Assert
+        assertThat(batches).hasSize(2).allSatisfy(batch -> assertThat(batch).hasSize(1));
+    }
+
+    @Test
+    void shouldFailEveryCallerWhenBatchCannotBeApplied() {
+        // Arrange
+        WalletOperationCombiner combiner = new WalletOperationCombiner((walletId, operations) -> {
+            throw new IllegalStateException("database unavailable");
+        }, Duration.ZERO, 8);
+
+        // Act & Assert
+        assertThatThrownBy(() -> combiner.submit(WALLET_ID, WalletOperation.deposit(BigDecimal.ONE, null)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("database unavailable");
+    }
+
+    @Test
+    void shouldRejectNonPositiveBatchSize() {
+        assertThatThrownBy(() -> new WalletOperationCombiner(this::apply, Duration.ZERO, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,237 @@
+package com.rissatto.sws.application.service;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class WalletSequencerTest {
+
+    private static final UUID WALLET_ID = UUID.randomUUID();
+    private static final UUID USER_ID = UUID.randomUUID();
+
+    @Mock
+    private SequencerStore store;
+
+    @Captor
+    private ArgumentCaptor<WalletSequencer.Journal> journal;
+
+    private WalletSequencer sequencer;
+
+    @BeforeEach
+    void beforeEach() {
+        sequencer = new WalletSequencer("test-sequencer", store, 16, 8);
+        sequencer.start();
+    }
+
+    @AfterEach
+    void afterEach() throws InterruptedException {
+        sequencer.stop();
+    }
+
+    @Test
+    void shouldApplyAndJournalDeposit() {
+        // Arrange
+        when(store.load(WALLET_ID, "Wallet not found")).thenReturn(loaded("5", 3, 7));
+        when(store.journal(any())).thenReturn(WalletSequencer.Conflicts.NONE);
+
+        // Act
+        Wallet result = sequencer.submit(deposit("10", null));
+
+        // Assert
+        verify(store).journal(journal.capture());
+        assertThat(result.balance()).isEqualByComparingTo("15");
+        assertThat(journal.getValue().accounts()).singleElement().satisfies(account -> {
+            assertThat(account.version()).as("compare-and-set against the loaded version").isEqualTo(7L);
+            assertThat(account.lastSequenceNumber()).isEqualTo(4L);
+        });
+        assertThat(journal.getValue().ledger()).singleElement().satisfies(entity -> {
+            assertThat(entity.getBalanceAfter()).isEqualByComparingTo("15");
+            assertThat(entity.getSequenceNumber()).isEqualTo(4L);
+        });
+        assertThat(sequencer.journaled(WALLET_ID)).get().isEqualTo(result);
+    }
+
+    @Test
+    void shouldKeepWalletInMemoryAcrossBatches() {
+        // Arrange
+        when(store.load(WALLET_ID, "Wallet not found")).thenReturn(loaded("0", 0, 0));
+        when(store.journal(any())).thenReturn(WalletSequencer.Conflicts.NONE);
+
+        // Act
+        sequencer.submit(deposit("1", null));
+        Wallet result = sequencer.submit(deposit("1", null));
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("2");
+        verify(store, times(1)).load(any(), any());
+        verify(store, times(2)).journal(journal.capture());
+        assertThat(journal.getAllValues().get(1).accounts()).singleElement()
+                .satisfies(account -> assertThat(account.version()).isEqualTo(1L));
+    }
+
+    @Test
+    void shouldRejectWithdrawalWithoutJournaling() {
+        // Arrange
+        when(store.load(WALLET_ID, "Wallet not found")).thenReturn(loaded("1", 0, 0));
+
+        // Act & Assert
+        assertThatThrownBy(() -> sequencer.submit(new WalletSequencer.Command(Transaction.Type.WITHDRAWAL, WALLET_ID, null,
+                BigDecimal.TEN, null, "withdrawWallet", "Wallet not found")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Insufficient funds");
+        verify(store, never()).journal(any());
+    }
+
+    @Test
+    void shouldFailWhenWalletNotFound() {
+        // Arrange
+        when(store.load(WALLET_ID, "Wallet not found")).thenThrow(new EntityNotFoundException("Wallet not found"));
+
+        // Act & Assert
+        assertThatThrownBy(() -> sequencer.submit(deposit("1", null)))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessage("Wallet not found");
+    }
+
+    @Test
+    void shouldReloadWalletAfterJournalFailure() {
+        // Arrange
+        when(store.load(WALLET_ID, "Wallet not found")).thenReturn(loaded("0", 0, 0));
+        doThrow(new IllegalStateException("database unavailable")).doReturn(WalletSequencer.Conflicts.NONE)
+                .when(store).journal(any());
+
+        // Act
+        assertThatThrownBy(() -> sequencer.submit(deposit("1", null)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("database unavailable");
+        Wallet result = sequencer.submit(deposit("1", null));
+
+        // Assert
+        assertThat(result.balance()).as("the failed deposit must not linger in memory").isEqualByComparingTo("1");
+        verify(store, times(2)).load(any(), any());
+    }
+
+    @Test
+    void shouldApplyRepeatedIdempotencyKeyOnce() {
+        // Arrange
+        when(store.load(WALLET_ID, "Wallet not found")).thenReturn(loaded("0", 0, 0));
+        String idempotencyKey = UUID.randomUUID().toString();
+        when(store.journal(any())).thenReturn(WalletSequencer.Conflicts.NONE);
+
+        // Act
+        sequencer.submit(deposit("1", idempotencyKey));
+        Wallet replayed = sequencer.submit(deposit("1", idempotencyKey));
+
+        // Assert
+        assertThat(replayed.balance()).isEqualByComparingTo("1");
+        verify(store, times(1)).journal(any());
+    }
+
+    @Test
+    void shouldRejectTransferToSameWallet() {
+        // Arrange
+        when(store.load(WALLET_ID, "Source Wallet not found")).thenReturn(loaded("5", 0, 0));
+
+        // Act & Assert
+        assertThatThrownBy(() -> sequencer.submit(new WalletSequencer.Command(Transaction.Type.TRANSFER_OUT, WALLET_ID,
+                WALLET_ID, BigDecimal.ONE, null, "transferWallet", "Source Wallet not found")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Cannot transfer to the same wallet");
+        verify(store, never()).journal(any());
+    }
+
+    @Test
+    void shouldOpenAPendingTransferWithTheDebit() {
+        // Arrange
+        UUID targetId = UUID.randomUUID();
+        UUID transferId = UUID.randomUUID();
+        when(store.load(WALLET_ID, "Source Wallet not found")).thenReturn(loaded("5", 0, 0));
+        when(store.journal(any())).thenReturn(WalletSequencer.Conflicts.NONE);
+
+        // Act
+        sequencer.submit(new WalletSequencer.Command(Transaction.Type.TRANSFER_OUT, WALLET_ID, targetId,
+                BigDecimal.ONE, null, "transferWallet", "Source Wallet not found", transferId));
+
+        // Assert
+        verify(store).journal(journal.capture());
+        assertThat(journal.getValue().openedTransfers()).singleElement().satisfies(transfer -> {
+            assertThat(transfer.getId()).isEqualTo(transferId);
+            assertThat(transfer.getSourceWalletId()).isEqualTo(WALLET_ID);
+            assertThat(transfer.getTargetWalletId()).isEqualTo(targetId);
+            assertThat(transfer.getAmount()).isEqualByComparingTo("1");
+        });
+        assertThat(journal.getValue().settledTransfers()).isEmpty();
+    }
+
+    @Test
+    void shouldSkipACreditWhoseTransferWasAlreadySettled() {
+        // Arrange
+        UUID transferId = UUID.randomUUID();
+        when(store.load(WALLET_ID, "Target Wallet not found")).thenReturn(loaded("0", 0, 0));
+        when(store.journal(any())).thenReturn(new WalletSequencer.Conflicts(Set.of(transferId), Set.of()));
+
+        // Act
+        Wallet result = sequencer.submit(new WalletSequencer.Command(Transaction.Type.TRANSFER_IN, WALLET_ID,
+                UUID.randomUUID(), BigDecimal.ONE, null, null, "Target Wallet not found", transferId));
+
+        // Assert
+        assertThat(result).isNull();
+        verify(store, times(1)).journal(journal.capture());
+        assertThat(journal.getValue().settledTransfers()).containsExactly(transferId);
+        assertThat(sequencer.journaled(WALLET_ID)).as("the skipped credit must not linger in memory").isEmpty();
+    }
+
+    @Test
+    void shouldFailACommandWhoseKeyAnotherBatchStored() {
+        // Arrange
+        when(store.load(WALLET_ID, "Wallet not found")).thenReturn(loaded("0", 0, 0));
+        when(store.journal(any())).thenReturn(new WalletSequencer.Conflicts(Set.of(), Set.of("depositWallet:taken")));
+
+        // Act & Assert
+        assertThatThrownBy(() -> sequencer.submit(deposit("1", "taken")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Idempotency key taken for depositWallet was used concurrently");
+        verify(store, times(1)).journal(journal.capture());
+        assertThat(journal.getValue().idempotencyKeys()).hasSize(1);
+        assertThat(sequencer.journaled(WALLET_ID)).isEmpty();
+    }
+
+    private static WalletSequencer.Command deposit(String amount, String idempotencyKey) {
+        return new WalletSequencer.Command(Transaction.Type.DEPOSIT, WALLET_ID, null, new BigDecimal(amount),
+                idempotencyKey, "depositWallet", "Wallet not found");
+    }
+
+    private static VersionedWallet loaded(String balance, long lastSequenceNumber, long version) {
+        return new VersionedWallet() {
+            public UUID getId() { return WALLET_ID; }
+            public UUID getUserId() { return USER_ID; }
+            public BigDecimal getBalance() { return new BigDecimal(balance); }
+            public long getLastSequenceNumber() { return lastSequenceNumber; }
+            public Instant getLastTransactionAt() { return null; }
+            public int getStripes() { return 0; }
+            public long getVersion() { return version; }
+        };
+    }
+}
@@ -185,7 +185,7 @@ public class WalletServiceIT {
         // Assert
         assertThat(first.balance()).isEqualByComparingTo(amount);
         assertThat(second.balance()).isEqualByComparingTo(amount);
-        assertThat(transactionRepository.count()).isEqualTo(1);
+        assertThat(transactionRepository.findByWalletId(w.id())).hasSize(1);
         assertThat(idempotencyKeyRepository
                 .findByIdempotencyKeyAndOperation(idempotencyKey, DEPOSIT_OPERATION))
                 .isPresent();
@@ -2,44 +2,97 @@ package com.rissatto.sws.application.service;
 
 import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.archive.ArchivedTransaction;
+import com.rissatto.sws.infrastructure.archive.LedgerArchive;
 import com.rissatto.sws.infrastructure.entity.IdempotencyKey;
 import com.rissatto.sws.infrastructure.entity.TransactionEntity;
 import com.rissatto.sws.infrastructure.entity.WalletEntity;
+import com.rissatto.sws.infrastructure.entity.WalletStripeEntity;
 import com.rissatto.sws.infrastructure.repository.IdempotencyKeyRepository;
 import com.rissatto.sws.infrastructure.repository.TransactionRepository;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerMovement;
 import com.rissatto.sws.infrastructure.repository.WalletRepository;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.VersionedWallet;
+import com.rissatto.sws.infrastructure.repository.WalletRepository.WalletState;
+import com.rissatto.sws.infrastructure.repository.WalletStripeRepository;
 import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
+import org.mockito.Captor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.support.TransactionOperations;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 public class WalletServiceTest {
 
+    private static final OptimisticRetryPolicy RETRY_POLICY = new OptimisticRetryPolicy(3, Duration.ZERO);
+
+    private final WalletContentionTracker contentionTracker = new WalletContentionTracker(100, 0.2, 0.05, Duration.ofMillis(2));
+
     @Mock
     private WalletRepository walletRepository;
 
+    @Mock
+    private WalletStripeRepository walletStripeRepository;
+
     @Mock
     private TransactionRepository transactionRepository;
 
     @Mock
     private IdempotencyKeyRepository idempotencyKeyRepository;
 
-    @InjectMocks
+    @Captor
+    private ArgumentCaptor<List<UUID>> walletIdsCaptor;
+
+    @Captor
+    private ArgumentCaptor<List<TransactionEntity>> transactionsCaptor;
+
+    @TempDir
+    Path archiveDirectory;
+
+    private LedgerArchive ledgerArchive;
+
     private WalletServiceImpl walletService;
 
+    @BeforeEach
+    void beforeEach() {
+        ledgerArchive = new LedgerArchive(archiveDirectory);
+        walletService = new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.PESSIMISTIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+    }
+
     // region ─ create ─────────────────────────────────────────────────────────────────────────────────────────────────
 
     @Test
@@ -67,19 +120,45 @@ public class WalletServiceTest {
         String idempotencyKey = UUID.randomUUID().toString();
         when(walletRepository.save(any(WalletEntity.class)))
                 .thenAnswer(invocation -> invocation.getArgument(0));
+        when(idempotencyKeyRepository.claim(eq(idempotencyKey), eq("createWallet"), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(1);
+        when(idempotencyKeyRepository.complete(eq(idempotencyKey), eq("createWallet"), any(LocalDate.class), any(UUID.class), anyString(),
+                any(Instant.class))).thenReturn(1);
 
         // Act
         Wallet createdWallet = walletService.create(existingUserId, idempotencyKey);
 
         // Assert
         verify(walletRepository).save(any(WalletEntity.class));
-        verify(idempotencyKeyRepository).save(any(IdempotencyKey.class));
+        verify(idempotencyKeyRepository).complete(eq(idempotencyKey), eq("createWallet"), any(LocalDate.class), eq(createdWallet.id()),
+                contains(existingUserId.toString()), any(Instant.class));
         assertThat(createdWallet).isNotNull();
         assertThat(createdWallet.id()).isNotNull();
         assertThat(createdWallet.userId()).isEqualTo(existingUserId);
         assertThat(createdWallet.balance()).isEqualByComparingTo(BigDecimal.ZERO);
     }
 
+    @Test
+    void shouldReplayStoredResponseWhenIdempotencyKeyIsTaken() {
+        // Arrange
+        UUID existingUserId = UUID.randomUUID();
+        UUID walletId = UUID.randomUUID();
+        String idempotencyKey = UUID.randomUUID().toString();
+        String stored = String.format("{\"id\":\"%s\",\"userId\":\"%s\",\"balance\":0}", walletId, existingUserId);
+        when(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(idempotencyKey, "createWallet"))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of(new IdempotencyKey(idempotencyKey, "createWallet", walletId, stored)));
+        when(idempotencyKeyRepository.claim(eq(idempotencyKey), eq("createWallet"), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(0);
+
+        // Act
+        Wallet replayed = walletService.create(existingUserId, idempotencyKey);
+
+        // Assert
+        assertThat(replayed).isEqualTo(new Wallet(walletId, existingUserId, BigDecimal.ZERO));
+        verify(walletRepository, never()).save(any());
+    }
+
     // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
 
     // region ─ getById ────────────────────────────────────────────────────────────────────────────────────────────────
@@ -117,6 +196,72 @@ public class WalletServiceTest {
 
     // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
 
+    // region ─ wallet cache ───────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldAnswerRepeatedReadsFromTheWalletCache() {
+        // Arrange
+        WalletCache walletCache = new WalletCache(100, Duration.ofMinutes(1), System::nanoTime);
+        WalletServiceImpl cachedService = cachedService(walletCache);
+        UUID walletId = UUID.randomUUID();
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.TEN);
+        entity.setId(walletId);
+        when(walletRepository.findById(walletId)).thenReturn(Optional.of(entity));
+
+        // Act
+        Wallet first = cachedService.getById(walletId);
+        BigDecimal balance = cachedService.getCurrentBalance(walletId);
+
+        // Assert
+        assertThat(first.balance()).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(balance).isEqualByComparingTo(BigDecimal.TEN);
+        verify(walletRepository, times(1)).findById(walletId);
+        assertThat(walletCache.getHits()).isEqualTo(1);
+        assertThat(walletCache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCacheTheWalletAWriteCommitted() {
+        // Arrange
+        WalletCache walletCache = new WalletCache(100, Duration.ofMinutes(1), System::nanoTime);
+        WalletServiceImpl cachedService = cachedService(walletCache);
+        UUID walletId = UUID.randomUUID();
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ONE);
+        entity.setId(walletId);
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+
+        // Act
+        cachedService.deposit(walletId, BigDecimal.TEN);
+        BigDecimal balance = cachedService.getCurrentBalance(walletId);
+
+        // Assert
+        assertThat(balance).isEqualByComparingTo("11");
+        verify(walletRepository, never()).findById(any());
+    }
+
+    @Test
+    void shouldNotCacheStripedWallets() {
+        // Arrange
+        WalletCache walletCache = new WalletCache(100, Duration.ofMinutes(1), System::nanoTime);
+        WalletServiceImpl cachedService = cachedService(walletCache);
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 4);
+        when(walletRepository.findById(entity.getId())).thenReturn(Optional.of(entity));
+        WalletState withStripes = walletState(entity.getId(), new BigDecimal("11"));
+        when(walletRepository.findWithStripesById(entity.getId())).thenReturn(Optional.of(withStripes));
+
+        // Act
+        cachedService.getById(entity.getId());
+        BigDecimal balance = cachedService.getCurrentBalance(entity.getId());
+
+        // Assert
+        assertThat(balance).isEqualByComparingTo("11");
+        verify(walletRepository, times(1)).findById(entity.getId());
+        verify(walletRepository, times(2)).findWithStripesById(entity.getId());
+        assertThat(walletCache.getSize()).isZero();
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
     // region ─ getCurrentBalance ──────────────────────────────────────────────────────────────────────────────────────
 
     @Test
@@ -149,6 +294,404 @@ public class WalletServiceTest {
 
     // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
 
+    // region ─ getHistoricalBalance ───────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldReturnHistoricalBalanceFromSnapshotAwareAggregate() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant at = Instant.now();
+        when(transactionRepository.findBalanceByWalletIdAt(walletId, at))
+                .thenReturn(Optional.of(BigDecimal.TEN));
+
+        // Act
+        BigDecimal balance = walletService.getHistoricalBalance(walletId, at);
+
+        // Assert
+        assertThat(balance).isEqualByComparingTo(BigDecimal.TEN);
+        verify(transactionRepository, never()).findByWalletIdAndTimestampLessThanEqual(any(), any());
+        verifyNoInteractions(walletRepository);
+    }
+
+    @Test
+    void shouldReturnHistoricalBalanceFromLatestLedgerRowWithoutAggregating() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant at = Instant.now();
+        when(transactionRepository.findBalanceAfterByWalletIdAt(walletId, at)).thenReturn(Optional.of(BigDecimal.TWO));
+
+        // Act
+        BigDecimal balance = walletService.getHistoricalBalance(walletId, at);
+
+        // Assert
+        assertThat(balance).isEqualByComparingTo(BigDecimal.TWO);
+        verify(transactionRepository, never()).findBalanceByWalletIdAt(any(), any());
+    }
+
+    @Test
+    void shouldAnswerSettledHistoricalBalanceFromCacheOnceRead() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant at = Instant.now().minus(Duration.ofHours(1));
+        when(transactionRepository.findBalanceAfterByWalletIdAt(walletId, at)).thenReturn(Optional.of(BigDecimal.TWO));
+
+        // Act
+        BigDecimal first = walletService.getHistoricalBalance(walletId, at);
+        BigDecimal second = walletService.getHistoricalBalance(walletId, at);
+
+        // Assert
+        assertThat(walletService.isSettled(at)).isTrue();
+        assertThat(first).isEqualByComparingTo(BigDecimal.TWO);
+        assertThat(second).isEqualByComparingTo(BigDecimal.TWO);
+        verify(transactionRepository, times(1)).findBalanceAfterByWalletIdAt(walletId, at);
+    }
+
+    @Test
+    void shouldReadUnsettledHistoricalBalanceEveryTime() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant at = Instant.now().minusSeconds(1);
+        when(transactionRepository.findBalanceAfterByWalletIdAt(walletId, at))
+                .thenReturn(Optional.of(BigDecimal.ONE))
+                .thenReturn(Optional.of(BigDecimal.TWO));
+
+        // Act
+        BigDecimal first = walletService.getHistoricalBalance(walletId, at);
+        BigDecimal second = walletService.getHistoricalBalance(walletId, at);
+
+        // Assert
+        assertThat(walletService.isSettled(at)).isFalse();
+        assertThat(first).isEqualByComparingTo(BigDecimal.ONE);
+        assertThat(second).as("a write may still commit at or before an unsettled instant").isEqualByComparingTo(BigDecimal.TWO);
+    }
+
+    @Test
+    void shouldThrowWhenGetHistoricalBalanceNotFound() {
+        // Arrange
+        UUID nonExistentId = UUID.randomUUID();
+        Instant at = Instant.now();
+        when(transactionRepository.findBalanceByWalletIdAt(nonExistentId, at))
+                .thenReturn(Optional.empty());
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.getHistoricalBalance(nonExistentId, at))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessageContaining("Wallet not found");
+    }
+
+    @Test
+    void shouldAnswerHistoricalBalanceUpToTheArchiveFromTheArchive() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant t0 = Instant.parse("2024-01-10T00:00:00Z");
+        archive(walletId, t0.plusSeconds(120), archived(t0, "100"), archived(t0.plusSeconds(60), "-30.5"));
+
+        // Act
+        BigDecimal between = walletService.getHistoricalBalance(walletId, t0.plusSeconds(30));
+        BigDecimal through = walletService.getHistoricalBalance(walletId, t0.plusSeconds(120));
+
+        // Assert
+        assertThat(between).isEqualByComparingTo("100");
+        assertThat(through).isEqualByComparingTo("69.5");
+        verifyNoInteractions(transactionRepository);
+    }
+
+    @Test
+    void shouldAnswerArchivedWalletsOfHistoricalBalancesFromTheArchive() {
+        // Arrange
+        UUID archivedWallet = UUID.randomUUID();
+        UUID liveWallet = UUID.randomUUID();
+        Instant t0 = Instant.parse("2024-01-10T00:00:00Z");
+        archive(archivedWallet, t0.plusSeconds(60), archived(t0, "7"));
+        Instant at = t0.plusSeconds(30);
+        when(transactionRepository.findBalancesByWalletIdInAt(List.of(liveWallet), at)).thenReturn(List.of());
+
+        // Act
+        List<TransactionRepository.WalletBalance> balances = walletService
+                .getHistoricalBalances(new LinkedHashSet<>(List.of(archivedWallet, liveWallet)), at)
+                .flatMap(List::stream)
+                .toList();
+
+        // Assert
+        assertThat(balances)
+                .extracting(TransactionRepository.WalletBalance::getWalletId, balance -> balance.getBalance().intValueExact())
+                .containsExactly(tuple(archivedWallet, 7));
+        verify(transactionRepository).findBalancesByWalletIdInAt(List.of(liveWallet), at);
+    }
+
+    @Test
+    void shouldQueryHistoricalBalancesOneChunkAtATimeAsTheStreamIsConsumed() {
+        // Arrange
+        Set<UUID> walletIds = new HashSet<>();
+        for (int i = 0; i < 2500; i++) {
+            walletIds.add(UUID.randomUUID());
+        }
+        Instant at = Instant.now();
+        when(transactionRepository.findBalancesByWalletIdInAt(any(), eq(at))).thenReturn(List.of());
+
+        // Act
+        Stream<List<TransactionRepository.WalletBalance>> balances = walletService.getHistoricalBalances(walletIds, at);
+        verifyNoInteractions(transactionRepository);
+        long chunks = balances.count();
+
+        // Assert
+        verify(transactionRepository, times(3)).findBalancesByWalletIdInAt(walletIdsCaptor.capture(), eq(at));
+        assertThat(chunks).isEqualTo(3);
+        assertThat(walletIdsCaptor.getAllValues()).extracting(List::size).containsExactly(1000, 1000, 500);
+        assertThat(walletIdsCaptor.getAllValues().stream().flatMap(List::stream)).containsExactlyInAnyOrderElementsOf(walletIds);
+    }
+
+    @Test
+    void shouldRejectInvalidHistoricalBalancesRequest() {
+        // Arrange
+        Instant at = Instant.now();
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.getHistoricalBalances(Set.of(), at))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("walletIds must not be empty");
+        assertThatThrownBy(() -> walletService.getHistoricalBalances(Set.of(UUID.randomUUID()), null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("at is required");
+        verifyNoInteractions(transactionRepository);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ getBalanceSeries ───────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldEmitRunningBalanceAtEveryStepFromOnePassOverTheLedger() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant from = Instant.parse("2025-04-01T00:00:00Z");
+        BalanceSeries series = BalanceSeries.of(from, from.plus(Duration.ofMinutes(190)), "PT1H");
+        when(transactionRepository.findBalanceAfterByWalletIdAt(walletId, from)).thenReturn(Optional.of(BigDecimal.TEN));
+        when(transactionRepository.streamMovements(walletId, from, from.plus(Duration.ofHours(3))))
+                .thenReturn(Stream.of(
+                        ledgerMovement(from.plus(Duration.ofMinutes(30)), "5"),
+                        ledgerMovement(from.plus(Duration.ofHours(1)), "1"),
+                        ledgerMovement(from.plus(Duration.ofMinutes(150)), "-3")));
+        List<BalanceSeries.Point> points = new ArrayList<>();
+
+        // Act
+        walletService.getBalanceSeries(walletId, series, points::add);
+
+        // Assert
+        assertThat(points)
+                .as("A row stamped exactly on a boundary counts towards it")
+                .extracting(BalanceSeries.Point::at, point -> point.balance().intValueExact())
+                .containsExactly(
+                        tuple(from, 10),
+                        tuple(from.plus(Duration.ofHours(1)), 16),
+                        tuple(from.plus(Duration.ofHours(2)), 16),
+                        tuple(from.plus(Duration.ofHours(3)), 13));
+        verify(transactionRepository, times(1)).streamMovements(any(), any(), any());
+    }
+
+    @Test
+    void shouldFoldArchivedRowsBeforeTheTableRowsAfterThem() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant from = Instant.parse("2024-01-10T00:00:00Z");
+        Instant archivedThrough = from.plus(Duration.ofMinutes(90));
+        archive(walletId, archivedThrough, archived(from.minusSeconds(1), "10"),
+                archived(from.plus(Duration.ofMinutes(30)), "5"), archived(from.plus(Duration.ofHours(1)), "1"));
+        BalanceSeries series = BalanceSeries.of(from, from.plus(Duration.ofHours(2)), "PT1H");
+        when(transactionRepository.streamMovements(walletId, archivedThrough, from.plus(Duration.ofHours(2))))
+                .thenReturn(Stream.of(ledgerMovement(from.plus(Duration.ofMinutes(100)), "-3")));
+        List<BalanceSeries.Point> points = new ArrayList<>();
+
+        // Act
+        walletService.getBalanceSeries(walletId, series, points::add);
+
+        // Assert
+        assertThat(points)
+                .extracting(BalanceSeries.Point::at, point -> point.balance().intValueExact())
+                .containsExactly(
+                        tuple(from, 10),
+                        tuple(from.plus(Duration.ofHours(1)), 16),
+                        tuple(from.plus(Duration.ofHours(2)), 13));
+        verify(transactionRepository, never()).findBalanceAfterByWalletIdAt(any(), any());
+    }
+
+    @Test
+    void shouldThrowWhenGetBalanceSeriesOfUnknownWallet() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant from = Instant.now();
+        BalanceSeries series = BalanceSeries.of(from, from.plus(Duration.ofDays(1)), "PT1H");
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.getBalanceSeries(walletId, series, point -> { }))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessageContaining("Wallet not found");
+        verify(transactionRepository, never()).streamMovements(any(), any(), any());
+    }
+
+    @Test
+    void shouldRejectInvalidBalanceSeries() {
+        // Arrange
+        Instant from = Instant.now();
+
+        // Act & Assert
+        assertThatThrownBy(() -> BalanceSeries.of(from, from.minusSeconds(1), "PT1H"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("to must not be before from");
+        assertThatThrownBy(() -> BalanceSeries.of(from, from.plusSeconds(60), "hourly"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("step is invalid");
+        assertThatThrownBy(() -> BalanceSeries.of(from, from.plusSeconds(60), "PT0S"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("step must be positive");
+        assertThatThrownBy(() -> BalanceSeries.of(from, from.plus(Duration.ofDays(365)), "PT1M"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("points per series");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ getTransactions ────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldReturnFirstPageWithCursorOfItsLastRow() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant now = Instant.now();
+        LedgerEntry newest = ledgerEntry(now);
+        LedgerEntry middle = ledgerEntry(now.minusSeconds(1));
+        LedgerEntry oldest = ledgerEntry(now.minusSeconds(2));
+        when(transactionRepository.findLedgerPage(eq(walletId), eq(EnumSet.allOf(Transaction.Type.class)),
+                eq(Instant.EPOCH), any(Instant.class), eq(Limit.of(3))))
+                .thenReturn(List.of(newest, middle, oldest));
+
+        // Act
+        TransactionPage page = walletService.getTransactions(walletId, Set.of(), null, null, null, 2);
+
+        // Assert
+        assertThat(page.transactions()).containsExactly(newest, middle);
+        assertThat(page.nextCursor()).isNotNull();
+        assertThat(TransactionPage.Position.decode(page.nextCursor()))
+                .isEqualTo(new TransactionPage.Position(middle.getTimestamp(), middle.getId()));
+        verifyNoInteractions(walletRepository);
+    }
+
+    @Test
+    void shouldResumeAfterCursorAndEndOnLastPage() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant from = Instant.now().minusSeconds(3600);
+        TransactionPage.Position after = new TransactionPage.Position(Instant.now(), UUID.randomUUID());
+        LedgerEntry last = ledgerEntry(after.timestamp().minusSeconds(1));
+        when(transactionRepository.findLedgerPageBefore(walletId, Set.of(Transaction.Type.DEPOSIT), from,
+                after.timestamp(), after.id(), Limit.of(3)))
+                .thenReturn(List.of(last));
+
+        // Act
+        TransactionPage page = walletService.getTransactions(walletId, Set.of(Transaction.Type.DEPOSIT), from, null,
+                after.encode(), 2);
+
+        // Assert
+        assertThat(page.transactions()).containsExactly(last);
+        assertThat(page.nextCursor()).isNull();
+        verify(transactionRepository, never()).findLedgerPage(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldContinueThePageIntoTheArchiveWhenTheTableRunsOut() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant t0 = Instant.parse("2024-01-10T00:00:00Z");
+        ArchivedTransaction older = archived(t0, "1");
+        ArchivedTransaction newer = archived(t0.plusSeconds(60), "2");
+        Instant archivedThrough = t0.plusSeconds(120);
+        archive(walletId, archivedThrough, older, newer);
+        LedgerEntry live = ledgerEntry(t0.plusSeconds(600));
+        when(transactionRepository.findLedgerPage(eq(walletId), any(), eq(archivedThrough.plusNanos(1000)), any(),
+                eq(Limit.of(3))))
+                .thenReturn(List.of(live));
+
+        // Act
+        TransactionPage first = walletService.getTransactions(walletId, null, null, null, null, 2);
+        TransactionPage second = walletService.getTransactions(walletId, null, null, null, first.nextCursor(), 2);
+
+        // Assert
+        assertThat(first.transactions()).containsExactly(live, newer);
+        assertThat(first.nextCursor()).isNotNull();
+        assertThat(second.transactions()).containsExactly(older);
+        assertThat(second.nextCursor()).isNull();
+    }
+
+    @Test
+    void shouldThrowWhenGetTransactionsOfUnknownWallet() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(transactionRepository.findLedgerPage(eq(walletId), any(), any(), any(), any())).thenReturn(List.of());
+        when(walletRepository.existsById(walletId)).thenReturn(false);
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.getTransactions(walletId, null, null, null, null, 10))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessageContaining("Wallet not found");
+    }
+
+    @Test
+    void shouldRejectInvalidCursorAndLimit() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.getTransactions(walletId, null, null, null, "not-a-cursor", 10))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("cursor is invalid");
+        assertThatThrownBy(() -> walletService.getTransactions(walletId, null, null, null, null, 0))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("limit must be between 1 and");
+        verifyNoInteractions(transactionRepository);
+    }
+
+    @Test
+    void shouldHandStreamedRowsToSinkAndCloseTheStream() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant now = Instant.now();
+        LedgerEntry older = ledgerEntry(now.minusSeconds(1));
+        LedgerEntry newer = ledgerEntry(now);
+        boolean[] closed = {false};
+        when(transactionRepository.streamLedger(eq(walletId), eq(Instant.EPOCH), any()))
+                .thenReturn(Stream.of(older, newer).onClose(() -> closed[0] = true));
+        List<LedgerEntry> exported = new ArrayList<>();
+
+        // Act
+        walletService.exportTransactions(walletId, null, null, exported::add);
+
+        // Assert
+        assertThat(exported).containsExactly(older, newer);
+        assertThat(closed[0]).isTrue();
+    }
+
+    @Test
+    void shouldExportArchivedRowsBeforeTheTableRowsAfterThem() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant t0 = Instant.parse("2024-01-10T00:00:00Z");
+        ArchivedTransaction archivedRow = archived(t0, "1");
+        Instant archivedThrough = t0.plusSeconds(60);
+        archive(walletId, archivedThrough, archivedRow);
+        LedgerEntry live = ledgerEntry(t0.plusSeconds(120));
+        when(transactionRepository.streamLedger(eq(walletId), eq(archivedThrough.plusNanos(1000)), any()))
+                .thenReturn(Stream.of(live));
+        List<LedgerEntry> exported = new ArrayList<>();
+
+        // Act
+        walletService.exportTransactions(walletId, null, null, exported::add);
+
+        // Assert
+        assertThat(exported).containsExactly(archivedRow, live);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
     // region ─ operations ─────────────────────────────────────────────────────────────────────────────────────────────
 
     @Test
@@ -183,6 +726,29 @@ public class WalletServiceTest {
         assertThat(savedTransaction.getAmount()).isEqualByComparingTo(amount);
         assertThat(savedTransaction.getType()).isEqualTo(Transaction.Type.DEPOSIT);
         assertThat(savedTransaction.getTimestamp()).isNotNull();
+        assertThat(savedTransaction.getBalanceAfter()).isEqualByComparingTo(amount);
+        assertThat(savedTransaction.getSequenceNumber()).isEqualTo(1L);
+        assertThat(entity.getLastSequenceNumber()).isEqualTo(1L);
+    }
+
+    @Test
+    void shouldNeverStampLedgerRowBeforeThePreviousOne() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        Instant previousRowAt = Instant.now().plusSeconds(60);
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ZERO);
+        entity.setId(walletId);
+        entity.setLastTransactionAt(previousRowAt);
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+        ArgumentCaptor<TransactionEntity> captor = ArgumentCaptor.forClass(TransactionEntity.class);
+
+        // Act
+        walletService.deposit(walletId, BigDecimal.ONE);
+
+        // Assert
+        verify(transactionRepository).save(captor.capture());
+        assertThat(captor.getValue().getTimestamp()).isEqualTo(previousRowAt);
+        assertThat(entity.getLastTransactionAt()).isEqualTo(previousRowAt);
     }
 
     @Test
@@ -218,6 +784,8 @@ public class WalletServiceTest {
         assertThat(savedTransaction.getAmount()).isEqualByComparingTo(withdrawAmount.negate());
         assertThat(savedTransaction.getType()).isEqualTo(Transaction.Type.WITHDRAWAL);
         assertThat(savedTransaction.getTimestamp()).isNotNull();
+        assertThat(savedTransaction.getBalanceAfter()).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(savedTransaction.getSequenceNumber()).isEqualTo(1L);
     }
 
     @Test
@@ -236,8 +804,8 @@ public class WalletServiceTest {
         WalletEntity targetEntity = new WalletEntity(userId, initialBalanceTarget);
         targetEntity.setId(targetWalletId);
 
-        when(walletRepository.findByIdForUpdate(sourceWalletId)).thenReturn(Optional.of(sourceEntity));
-        when(walletRepository.findByIdForUpdate(targetWalletId)).thenReturn(Optional.of(targetEntity));
+        when(walletRepository.findAllByIdForUpdate(List.of(sourceWalletId, targetWalletId)))
+                .thenReturn(List.of(targetEntity, sourceEntity));
         when(walletRepository.save(any(WalletEntity.class))).thenAnswer(invocation -> invocation.getArgument(0));
         ArgumentCaptor<TransactionEntity> captor = ArgumentCaptor.forClass(TransactionEntity.class);
 
@@ -245,8 +813,8 @@ public class WalletServiceTest {
         Wallet result = walletService.transfer(sourceWalletId, targetWalletId, transferAmount);
 
         // Assert
-        verify(walletRepository).findByIdForUpdate(sourceWalletId);
-        verify(walletRepository).findByIdForUpdate(targetWalletId);
+        verify(walletRepository).findAllByIdForUpdate(List.of(sourceWalletId, targetWalletId));
+        verify(walletRepository, never()).findByIdForUpdate(any());
         verify(walletRepository, times(2)).save(any(WalletEntity.class));
         verify(transactionRepository, times(2)).save(captor.capture());
 
@@ -267,7 +835,761 @@ public class WalletServiceTest {
         assertThat(targetTransaction.getWalletId()).isEqualTo(targetWalletId);
         assertThat(targetTransaction.getAmount()).isEqualByComparingTo(transferAmount);
         assertThat(targetTransaction.getType()).isEqualTo(Transaction.Type.TRANSFER_IN);
+
+        assertThat(sourceTransaction.getBalanceAfter()).isEqualByComparingTo(BigDecimal.ZERO);
+        assertThat(targetTransaction.getBalanceAfter()).isEqualByComparingTo(transferAmount);
+        assertThat(sourceTransaction.getSequenceNumber()).isEqualTo(1L);
+        assertThat(targetTransaction.getSequenceNumber()).isEqualTo(1L);
     }
 
-    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+    @Test
+    void shouldThrowWhenTransferSourceNotFound() {
+        // Arrange
+        UUID sourceWalletId = UUID.randomUUID();
+        UUID targetWalletId = UUID.randomUUID();
+        WalletEntity targetEntity = new WalletEntity(UUID.randomUUID(), BigDecimal.ZERO);
+        targetEntity.setId(targetWalletId);
+        when(walletRepository.findAllByIdForUpdate(List.of(sourceWalletId, targetWalletId)))
+                .thenReturn(List.of(targetEntity));
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.transfer(sourceWalletId, targetWalletId, BigDecimal.ONE))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessage("Source Wallet not found");
+        verify(transactionRepository, never()).save(any());
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ striped wallets ────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldCreditStripeWithoutLockingWalletWhenStriped() {
+        // Arrange
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 4);
+        UUID walletId = entity.getId();
+        when(walletRepository.findById(walletId)).thenReturn(Optional.of(entity));
+        WalletState withStripes = walletState(walletId, new BigDecimal("11"));
+        when(walletRepository.findWithStripesById(walletId)).thenReturn(Optional.of(withStripes));
+        walletService.getById(walletId);
+        when(walletStripeRepository.credit(eq(walletId), anyLong(), eq(BigDecimal.TEN), any(Instant.class))).thenReturn(1);
+        ArgumentCaptor<TransactionEntity> captor = ArgumentCaptor.forClass(TransactionEntity.class);
+
+        // Act
+        Wallet result = walletService.deposit(walletId, BigDecimal.TEN);
+
+        // Assert
+        verify(walletRepository, never()).findByIdForUpdate(any());
+        verify(transactionRepository).save(captor.capture());
+        assertThat(result.balance()).isEqualByComparingTo("11");
+        assertThat(captor.getValue().getType()).isEqualTo(Transaction.Type.DEPOSIT);
+        assertThat(captor.getValue().getAmount()).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(captor.getValue().getBalanceAfter()).isNull();
+        assertThat(captor.getValue().getSequenceNumber()).isNull();
+    }
+
+    @Test
+    void shouldNotTryAStripeWhenDepositingIntoAnUnstripedWallet() {
+        // Arrange
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ONE);
+        entity.setId(UUID.randomUUID());
+        when(walletRepository.findByIdForUpdate(entity.getId())).thenReturn(Optional.of(entity));
+
+        // Act
+        Wallet result = walletService.deposit(entity.getId(), BigDecimal.TEN);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("11");
+        verifyNoInteractions(walletStripeRepository);
+    }
+
+    @Test
+    void shouldCreditStripeOnceTheLockedPathFoundTheWalletStriped() {
+        // Arrange
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 1);
+        UUID walletId = entity.getId();
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+        when(walletStripeRepository.findAllByWalletIdForUpdate(walletId)).thenReturn(List.of(stripe(walletId, 0, "0")));
+        when(walletStripeRepository.credit(eq(walletId), anyLong(), eq(BigDecimal.ONE), any(Instant.class))).thenReturn(1);
+        WalletState withStripes = walletState(walletId, new BigDecimal("3"));
+        when(walletRepository.findWithStripesById(walletId)).thenReturn(Optional.of(withStripes));
+
+        // Act
+        walletService.deposit(walletId, BigDecimal.ONE);
+        Wallet result = walletService.deposit(walletId, BigDecimal.ONE);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("3");
+        verify(walletRepository, times(1)).findByIdForUpdate(walletId);
+        verify(walletStripeRepository, times(1)).credit(eq(walletId), anyLong(), any(), any());
+    }
+
+    @Test
+    void shouldConsolidateStripesBeforeWithdrawing() {
+        // Arrange
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 2);
+        UUID walletId = entity.getId();
+        WalletStripeEntity first = stripe(walletId, 0, "2");
+        WalletStripeEntity second = stripe(walletId, 1, "3");
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+        when(walletStripeRepository.findAllByWalletIdForUpdate(walletId)).thenReturn(List.of(first, second));
+        ArgumentCaptor<TransactionEntity> captor = ArgumentCaptor.forClass(TransactionEntity.class);
+
+        // Act
+        Wallet result = walletService.withdraw(walletId, BigDecimal.valueOf(4));
+
+        // Assert
+        verify(transactionRepository).save(captor.capture());
+        assertThat(result.balance()).isEqualByComparingTo("2");
+        assertThat(entity.getBalance()).isEqualByComparingTo("2");
+        assertThat(first.getBalance()).isZero();
+        assertThat(second.getBalance()).isZero();
+        assertThat(captor.getValue().getBalanceAfter()).isEqualByComparingTo("2");
+        assertThat(captor.getValue().getSequenceNumber()).isEqualTo(1L);
+    }
+
+    @Test
+    void shouldRejectWithdrawalExceedingWalletAndStripes() {
+        // Arrange
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 1);
+        UUID walletId = entity.getId();
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+        when(walletStripeRepository.findAllByWalletIdForUpdate(walletId)).thenReturn(List.of(stripe(walletId, 0, "2")));
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.withdraw(walletId, BigDecimal.valueOf(4)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Insufficient funds");
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldSumStripesOnGetById() {
+        // Arrange
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 4);
+        when(walletRepository.findById(entity.getId())).thenReturn(Optional.of(entity));
+        WalletState withStripes = walletState(entity.getId(), new BigDecimal("11"));
+        when(walletRepository.findWithStripesById(entity.getId())).thenReturn(Optional.of(withStripes));
+
+        // Act
+        BigDecimal balance = walletService.getCurrentBalance(entity.getId());
+
+        // Assert
+        assertThat(balance).isEqualByComparingTo("11");
+        verifyNoInteractions(walletStripeRepository);
+    }
+
+    @Test
+    void shouldCreateStripesWhenStriping() {
+        // Arrange
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ONE);
+        entity.setId(UUID.randomUUID());
+        when(walletRepository.findByIdForUpdate(entity.getId())).thenReturn(Optional.of(entity));
+        ArgumentCaptor<WalletStripeEntity> captor = ArgumentCaptor.forClass(WalletStripeEntity.class);
+
+        // Act
+        Wallet result = walletService.stripe(entity.getId(), 3);
+
+        // Assert
+        verify(walletStripeRepository, times(3)).save(captor.capture());
+        assertThat(captor.getAllValues()).extracting(WalletStripeEntity::getStripe).containsExactly(0, 1, 2);
+        assertThat(entity.getStripes()).isEqualTo(3);
+        assertThat(result.balance()).isEqualByComparingTo(BigDecimal.ONE);
+    }
+
+    @Test
+    void shouldFoldStripesBackWhenReducingStripes() {
+        // Arrange
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 2);
+        UUID walletId = entity.getId();
+        WalletStripeEntity first = stripe(walletId, 0, "2");
+        WalletStripeEntity second = stripe(walletId, 1, "3");
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+        when(walletStripeRepository.findAllByWalletIdForUpdate(walletId)).thenReturn(List.of(first, second));
+
+        // Act
+        Wallet result = walletService.stripe(walletId, 0);
+
+        // Assert
+        verify(walletStripeRepository).deleteAll(List.of(first, second));
+        verify(walletStripeRepository, never()).save(any());
+        assertThat(entity.getStripes()).isZero();
+        assertThat(result.balance()).isEqualByComparingTo("6");
+    }
+
+    @Test
+    void shouldRejectStripeCountOutOfRange() {
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.stripe(UUID.randomUUID(), 65))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("stripes must be between 0 and 64");
+        verifyNoInteractions(walletRepository);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ applyBatch ───────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldApplyBatchInOrderWithOneLockAndOneLedgerWrite() {
+        // Arrange
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ONE);
+        UUID walletId = UUID.randomUUID();
+        entity.setId(walletId);
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+
+        // Act
+        List<WalletOperation.Result> results = walletService.applyBatch(walletId, List.of(
+                WalletOperation.deposit(BigDecimal.TWO, null),
+                WalletOperation.withdrawal(BigDecimal.TEN, null),
+                WalletOperation.withdrawal(BigDecimal.valueOf(3), null)));
+
+        // Assert
+        verify(walletRepository, times(1)).findByIdForUpdate(walletId);
+        verify(walletRepository, times(1)).save(entity);
+        verify(transactionRepository).saveAll(transactionsCaptor.capture());
+        assertThat(results.get(0).orThrow().balance()).isEqualByComparingTo("3");
+        assertThatThrownBy(() -> results.get(1).orThrow())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Insufficient funds");
+        assertThat(results.get(2).orThrow().balance()).isEqualByComparingTo("0");
+        assertThat(entity.getBalance()).isEqualByComparingTo("0");
+        assertThat(transactionsCaptor.getValue())
+                .extracting(TransactionEntity::getSequenceNumber, t -> t.getBalanceAfter().intValueExact())
+                .containsExactly(tuple(1L, 3), tuple(2L, 0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void shouldApplyRepeatedIdempotencyKeyOnceWithinBatch() {
+        // Arrange
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ZERO);
+        UUID walletId = UUID.randomUUID();
+        entity.setId(walletId);
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+        when(idempotencyKeyRepository.claim(eq("key-1"), eq("depositWallet"), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(1);
+        when(idempotencyKeyRepository.complete(eq("key-1"), eq("depositWallet"), any(LocalDate.class), eq(walletId), anyString(), any(Instant.class)))
+                .thenReturn(1);
+
+        // Act
+        List<WalletOperation.Result> results = walletService.applyBatch(walletId, List.of(
+                WalletOperation.deposit(BigDecimal.ONE, "key-1"),
+                WalletOperation.deposit(BigDecimal.ONE, "key-1")));
+
+        // Assert
+        verify(idempotencyKeyRepository, times(1)).claim(eq("key-1"), eq("depositWallet"), any(Instant.class),
+                any(LocalDate.class));
+        verify(idempotencyKeyRepository, times(1)).complete(eq("key-1"), eq("depositWallet"), any(LocalDate.class),
+                eq(walletId), anyString(),
+                any(Instant.class));
+        assertThat(results).extracting(r -> r.orThrow().balance().intValueExact()).containsExactly(1, 1);
+        assertThat(entity.getLastSequenceNumber()).isEqualTo(1L);
+    }
+
+    @Test
+    void shouldFailWholeBatchWhenWalletNotFound() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.empty());
+
+        // Act & Assert
+        assertThatThrownBy(() -> walletService.applyBatch(walletId, List.of(WalletOperation.deposit(BigDecimal.ONE, null))))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessageContaining("Wallet not found");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ atomic write mode ──────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldDepositInSingleStatementWhenAtomic() {
+        // Arrange
+        WalletServiceImpl atomicService = new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.ATOMIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+        UUID walletId = UUID.randomUUID();
+        String idempotencyKey = UUID.randomUUID().toString();
+        WalletState updated = walletState(walletId, BigDecimal.TEN);
+        when(walletRepository.applyAndRecord(eq(walletId), eq(BigDecimal.TEN), any(UUID.class), eq("DEPOSIT"),
+                any(Instant.class)))
+                .thenReturn(Optional.of(updated));
+        when(idempotencyKeyRepository.claim(eq(idempotencyKey), eq("depositWallet"), any(Instant.class), any(LocalDate.class)))
+                .thenReturn(1);
+        when(idempotencyKeyRepository.complete(eq(idempotencyKey), eq("depositWallet"), any(LocalDate.class), eq(walletId), anyString(),
+                any(Instant.class))).thenReturn(1);
+
+        // Act
+        Wallet result = atomicService.deposit(walletId, BigDecimal.TEN, idempotencyKey);
+
+        // Assert
+        assertThat(result.id()).isEqualTo(walletId);
+        assertThat(result.balance()).isEqualByComparingTo(BigDecimal.TEN);
+        verify(walletRepository).evict(walletId);
+        verify(walletRepository, never()).findByIdForUpdate(any());
+        verify(walletRepository, never()).save(any());
+        verify(transactionRepository, never()).save(any());
+        verify(idempotencyKeyRepository, never()).save(any());
+        verify(idempotencyKeyRepository).complete(eq(idempotencyKey), eq("depositWallet"), any(LocalDate.class), eq(walletId), anyString(),
+                any(Instant.class));
+    }
+
+    @Test
+    void shouldTryAStripeOnlyWhenTheAtomicDepositSkippedTheWallet() {
+        // Arrange
+        WalletServiceImpl atomicService = new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.ATOMIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+        UUID unstripedId = UUID.randomUUID();
+        UUID stripedId = UUID.randomUUID();
+        WalletState unstriped = walletState(unstripedId, BigDecimal.TEN);
+        when(walletRepository.applyAndRecord(eq(unstripedId), any(), any(), any(), any())).thenReturn(Optional.of(unstriped));
+        when(walletRepository.applyAndRecord(eq(stripedId), any(), any(), any(), any())).thenReturn(Optional.empty());
+        when(walletStripeRepository.credit(eq(stripedId), anyLong(), eq(BigDecimal.TEN), any(Instant.class))).thenReturn(1);
+        WalletState striped = walletState(stripedId, BigDecimal.TEN);
+        when(walletRepository.findWithStripesById(stripedId)).thenReturn(Optional.of(striped));
+
+        // Act
+        atomicService.deposit(unstripedId, BigDecimal.TEN);
+        Wallet result = atomicService.deposit(stripedId, BigDecimal.TEN);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo(BigDecimal.TEN);
+        verify(walletStripeRepository, never()).credit(eq(unstripedId), anyLong(), any(), any());
+        verify(walletRepository, never()).findByIdForUpdate(any());
+    }
+
+    @Test
+    void shouldWithdrawWithNegativeDeltaWhenAtomic() {
+        // Arrange
+        WalletServiceImpl atomicService = new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.ATOMIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+        UUID walletId = UUID.randomUUID();
+        WalletState updated = walletState(walletId, BigDecimal.ONE);
+        when(walletRepository.applyAndRecord(eq(walletId), eq(BigDecimal.TEN.negate()), any(UUID.class), eq("WITHDRAWAL"),
+                any(Instant.class)))
+                .thenReturn(Optional.of(updated));
+
+        // Act
+        Wallet result = atomicService.withdraw(walletId, BigDecimal.TEN);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo(BigDecimal.ONE);
+        verify(walletRepository, never()).findByIdForUpdate(any());
+    }
+
+    @Test
+    void shouldFallBackToLockedPathWhenAtomicGuardRejects() {
+        // Arrange
+        WalletServiceImpl atomicService = new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.ATOMIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+        UUID walletId = UUID.randomUUID();
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ONE);
+        entity.setId(walletId);
+        when(walletRepository.applyAndRecord(eq(walletId), any(), any(), any(), any()))
+                .thenReturn(Optional.empty());
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+
+        // Act & Assert
+        assertThatThrownBy(() -> atomicService.withdraw(walletId, BigDecimal.TEN))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Insufficient funds");
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldNotIssueAtomicStatementForNonPositiveAmount() {
+        // Arrange
+        WalletServiceImpl atomicService = new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.ATOMIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+        UUID walletId = UUID.randomUUID();
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), BigDecimal.ONE);
+        entity.setId(walletId);
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+
+        // Act & Assert
+        assertThatThrownBy(() -> atomicService.deposit(walletId, BigDecimal.ONE.negate()))
+                .isInstanceOf(IllegalArgumentException.class);
+        verify(walletRepository, never()).applyAndRecord(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void shouldTransferInSingleStatementWhenAtomic() {
+        // Arrange
+        WalletCache walletCache = new WalletCache(100, Duration.ofMinutes(1), System::nanoTime);
+        WalletServiceImpl atomicService = new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.ATOMIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache, TransactionOperations.withoutTransaction());
+        UUID sourceWalletId = UUID.randomUUID();
+        UUID targetWalletId = UUID.randomUUID();
+        WalletState updatedSource = walletState(sourceWalletId, BigDecimal.ZERO);
+        WalletState updatedTarget = walletState(targetWalletId, BigDecimal.ONE);
+        when(walletRepository.transferAndRecord(eq(sourceWalletId), eq(targetWalletId), eq(BigDecimal.ONE),
+                any(UUID.class), any(UUID.class), any(Instant.class)))
+                .thenReturn(List.of(updatedSource, updatedTarget));
+
+        // Act
+        Wallet result = atomicService.transfer(sourceWalletId, targetWalletId, BigDecimal.ONE);
+
+        // Assert
+        assertThat(result.id()).isEqualTo(sourceWalletId);
+        assertThat(result.balance()).isEqualByComparingTo(BigDecimal.ZERO);
+        verify(walletRepository).evict(sourceWalletId);
+        verify(walletRepository).evict(targetWalletId);
+        verify(walletRepository, never()).findByIdForUpdate(any());
+        verify(transactionRepository, never()).save(any());
+        assertThat(walletCache.get(targetWalletId)).get()
+                .extracting(Wallet::balance).isEqualTo(BigDecimal.ONE);
+    }
+
+    private static WalletState walletState(UUID walletId, BigDecimal balance) {
+        WalletState state = mock(WalletState.class);
+        when(state.getId()).thenReturn(walletId);
+        when(state.getUserId()).thenReturn(UUID.randomUUID());
+        when(state.getBalance()).thenReturn(balance);
+        return state;
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ optimistic write mode ──────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldDepositWithCompareAndSetWhenOptimistic() {
+        // Arrange
+        WalletServiceImpl optimisticService = optimisticService();
+        UUID walletId = UUID.randomUUID();
+        Instant lastTransactionAt = Instant.now().plusSeconds(60);
+        when(walletRepository.findVersionedById(walletId))
+                .thenReturn(Optional.of(versionedWallet(walletId, "5", 3, lastTransactionAt, 7)));
+        when(walletRepository.compareAndSet(eq(walletId), eq(7L), eq(new BigDecimal("15")), eq(4L), eq(lastTransactionAt)))
+                .thenReturn(1);
+        ArgumentCaptor<TransactionEntity> captor = ArgumentCaptor.forClass(TransactionEntity.class);
+
+        // Act
+        Wallet result = optimisticService.deposit(walletId, BigDecimal.TEN);
+
+        // Assert
+        verify(transactionRepository).save(captor.capture());
+        assertThat(result.balance()).isEqualByComparingTo("15");
+        assertThat(captor.getValue().getBalanceAfter()).isEqualByComparingTo("15");
+        assertThat(captor.getValue().getSequenceNumber()).isEqualTo(4L);
+        assertThat(captor.getValue().getTimestamp()).isEqualTo(lastTransactionAt);
+        verify(walletRepository).evict(walletId);
+        verify(walletRepository, never()).findByIdForUpdate(any());
+    }
+
+    @Test
+    void shouldRetryOnFreshReadWhenCompareAndSetLoses() {
+        // Arrange
+        WalletServiceImpl optimisticService = optimisticService();
+        UUID walletId = UUID.randomUUID();
+        when(walletRepository.findVersionedById(walletId))
+                .thenReturn(Optional.of(versionedWallet(walletId, "5", 3, null, 7)))
+                .thenReturn(Optional.of(versionedWallet(walletId, "6", 4, null, 8)));
+        when(walletRepository.compareAndSet(eq(walletId), eq(7L), any(), anyLong(), any())).thenReturn(0);
+        when(walletRepository.compareAndSet(eq(walletId), eq(8L), eq(new BigDecimal("16")), eq(5L), any())).thenReturn(1);
+
+        // Act
+        Wallet result = optimisticService.deposit(walletId, BigDecimal.TEN);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("16");
+        verify(transactionRepository).save(any(TransactionEntity.class));
+        verify(walletRepository, never()).findByIdForUpdate(any());
+    }
+
+    @Test
+    void shouldLockWalletOnceOptimisticAttemptsAreUsedUp() {
+        // Arrange
+        WalletServiceImpl optimisticService = optimisticService();
+        UUID walletId = UUID.randomUUID();
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), new BigDecimal("5"));
+        entity.setId(walletId);
+        when(walletRepository.findVersionedById(walletId))
+                .thenReturn(Optional.of(versionedWallet(walletId, "5", 0, null, 0)));
+        when(walletRepository.compareAndSet(eq(walletId), anyLong(), any(), anyLong(), any())).thenReturn(0);
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+
+        // Act
+        Wallet result = optimisticService.withdraw(walletId, BigDecimal.TWO);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("3");
+        assertThat(entity.getBalance()).isEqualByComparingTo("3");
+        verify(walletRepository, times(RETRY_POLICY.maxAttempts())).compareAndSet(any(), anyLong(), any(), anyLong(), any());
+        verify(walletRepository).save(entity);
+    }
+
+    @Test
+    void shouldLockStripedWalletWhenOptimistic() {
+        // Arrange
+        WalletServiceImpl optimisticService = optimisticService();
+        WalletEntity entity = stripedWallet(BigDecimal.ONE, 1);
+        UUID walletId = entity.getId();
+        when(walletRepository.findVersionedById(walletId))
+                .thenReturn(Optional.of(versionedWallet(walletId, "1", 0, null, 0, 1)));
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+        when(walletStripeRepository.findAllByWalletIdForUpdate(walletId)).thenReturn(List.of(stripe(walletId, 0, "2")));
+
+        // Act
+        Wallet result = optimisticService.withdraw(walletId, BigDecimal.TWO);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("1");
+        verify(walletRepository, never()).compareAndSet(any(), anyLong(), any(), anyLong(), any());
+    }
+
+    @Test
+    void shouldRejectOptimisticWithdrawalExceedingBalance() {
+        // Arrange
+        WalletServiceImpl optimisticService = optimisticService();
+        UUID walletId = UUID.randomUUID();
+        when(walletRepository.findVersionedById(walletId))
+                .thenReturn(Optional.of(versionedWallet(walletId, "1", 0, null, 0)));
+
+        // Act & Assert
+        assertThatThrownBy(() -> optimisticService.withdraw(walletId, BigDecimal.TEN))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Insufficient funds");
+        verify(walletRepository, never()).compareAndSet(any(), anyLong(), any(), anyLong(), any());
+        verify(transactionRepository, never()).save(any());
+    }
+
+    @Test
+    void shouldApplyOptimisticTransferInAscendingIdOrder() {
+        // Arrange
+        WalletServiceImpl optimisticService = optimisticService();
+        UUID targetWalletId = new UUID(0, 1);
+        UUID sourceWalletId = new UUID(0, 2);
+        when(walletRepository.findVersionedById(sourceWalletId))
+                .thenReturn(Optional.of(versionedWallet(sourceWalletId, "10", 0, null, 0)));
+        when(walletRepository.findVersionedById(targetWalletId))
+                .thenReturn(Optional.of(versionedWallet(targetWalletId, "0", 0, null, 0)));
+        when(walletRepository.compareAndSet(any(), anyLong(), any(), anyLong(), any())).thenReturn(1);
+
+        // Act
+        Wallet result = optimisticService.transfer(sourceWalletId, targetWalletId, BigDecimal.ONE);
+
+        // Assert
+        assertThat(result.id()).isEqualTo(sourceWalletId);
+        assertThat(result.balance()).isEqualByComparingTo("9");
+        InOrder inOrder = inOrder(walletRepository);
+        inOrder.verify(walletRepository).compareAndSet(eq(targetWalletId), eq(0L), eq(BigDecimal.ONE), eq(1L), any());
+        inOrder.verify(walletRepository).compareAndSet(eq(sourceWalletId), eq(0L), eq(new BigDecimal("9")), eq(1L), any());
+        verify(transactionRepository, times(2)).save(any(TransactionEntity.class));
+    }
+
+    @Test
+    void shouldFailOptimisticTransferWhenTargetNotFound() {
+        // Arrange
+        WalletServiceImpl optimisticService = optimisticService();
+        UUID sourceWalletId = UUID.randomUUID();
+        UUID targetWalletId = UUID.randomUUID();
+        when(walletRepository.findVersionedById(sourceWalletId))
+                .thenReturn(Optional.of(versionedWallet(sourceWalletId, "10", 0, null, 0)));
+        when(walletRepository.findVersionedById(targetWalletId)).thenReturn(Optional.empty());
+
+        // Act & Assert
+        assertThatThrownBy(() -> optimisticService.transfer(sourceWalletId, targetWalletId, BigDecimal.ONE))
+                .isInstanceOf(EntityNotFoundException.class)
+                .hasMessage("Target Wallet not found");
+        verify(walletRepository, never()).compareAndSet(any(), anyLong(), any(), anyLong(), any());
+    }
+
+    private WalletServiceImpl optimisticService() {
+        return new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.OPTIMISTIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+    }
+
+    private static VersionedWallet versionedWallet(UUID walletId, String balance, long lastSequenceNumber,
+                                                   Instant lastTransactionAt, long version) {
+        return versionedWallet(walletId, balance, lastSequenceNumber, lastTransactionAt, version, 0);
+    }
+
+    private static VersionedWallet versionedWallet(UUID walletId, String balance, long lastSequenceNumber,
+                                                   Instant lastTransactionAt, long version, int stripes) {
+        UUID userId = UUID.randomUUID();
+        return new VersionedWallet() {
+            public UUID getId() { return walletId; }
+            public UUID getUserId() { return userId; }
+            public BigDecimal getBalance() { return new BigDecimal(balance); }
+            public long getLastSequenceNumber() { return lastSequenceNumber; }
+            public Instant getLastTransactionAt() { return lastTransactionAt; }
+            public int getStripes() { return stripes; }
+            public long getVersion() { return version; }
+        };
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ adaptive write mode ────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldWriteQuietWalletOptimisticallyWhenAdaptive() {
+        // Arrange
+        WalletServiceImpl adaptiveService = adaptiveService();
+        UUID walletId = UUID.randomUUID();
+        when(walletRepository.findVersionedById(walletId))
+                .thenReturn(Optional.of(versionedWallet(walletId, "5", 0, null, 0)));
+        when(walletRepository.compareAndSet(eq(walletId), eq(0L), any(), eq(1L), any())).thenReturn(1);
+
+        // Act
+        Wallet result = adaptiveService.deposit(walletId, BigDecimal.ONE);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("6");
+        assertThat(contentionTracker.getCompareAndSets()).isEqualTo(1);
+        assertThat(contentionTracker.strategyFor(walletId)).isEqualTo(WalletWriteMode.OPTIMISTIC);
+        verify(walletRepository, never()).findByIdForUpdate(any());
+    }
+
+    @Test
+    void shouldLockContendedWalletWhenAdaptive() {
+        // Arrange
+        WalletServiceImpl adaptiveService = adaptiveService();
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), new BigDecimal("5"));
+        UUID walletId = UUID.randomUUID();
+        entity.setId(walletId);
+        for (int i = 0; i < 3; i++) {
+            contentionTracker.recordCompareAndSet(walletId, true);
+        }
+        when(walletRepository.findByIdForUpdate(walletId)).thenReturn(Optional.of(entity));
+
+        // Act
+        Wallet result = adaptiveService.withdraw(walletId, BigDecimal.TWO);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("3");
+        assertThat(contentionTracker.getLocks()).isEqualTo(1);
+        verify(walletRepository, never()).findVersionedById(any());
+        verify(walletRepository, never()).compareAndSet(any(), anyLong(), any(), anyLong(), any());
+    }
+
+    @Test
+    void shouldLockTransferWhenEitherWalletIsContendedWhenAdaptive() {
+        // Arrange
+        WalletServiceImpl adaptiveService = adaptiveService();
+        WalletEntity source = new WalletEntity(UUID.randomUUID(), BigDecimal.TEN);
+        source.setId(UUID.randomUUID());
+        WalletEntity target = new WalletEntity(UUID.randomUUID(), BigDecimal.ZERO);
+        target.setId(UUID.randomUUID());
+        for (int i = 0; i < 3; i++) {
+            contentionTracker.recordCompareAndSet(target.getId(), true);
+        }
+        when(walletRepository.findAllByIdForUpdate(List.of(source.getId(), target.getId()))).thenReturn(List.of(source, target));
+
+        // Act
+        Wallet result = adaptiveService.transfer(source.getId(), target.getId(), BigDecimal.ONE);
+
+        // Assert
+        assertThat(result.balance()).isEqualByComparingTo("9");
+        assertThat(target.getBalance()).isEqualByComparingTo("1");
+        assertThat(contentionTracker.getLocks()).isEqualTo(2);
+        verify(walletRepository, never()).findVersionedById(any());
+    }
+
+    private WalletServiceImpl adaptiveService() {
+        return new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.ADAPTIVE), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache(), TransactionOperations.withoutTransaction());
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private IdempotencyCache idempotencyCache() {
+        return new IdempotencyCache(idempotencyKeyRepository, false, 100, Duration.ofMinutes(1), null, System::nanoTime);
+    }
+
+    private HistoricalBalanceCache historicalBalanceCache() {
+        return new HistoricalBalanceCache(100, Duration.ofMinutes(5), Clock.systemUTC());
+    }
+
+    private WalletCache walletCache() {
+        return new WalletCache(0, Duration.ofMinutes(1), System::nanoTime);
+    }
+
+    private WalletServiceImpl cachedService(WalletCache walletCache) {
+        return new WalletServiceImpl(walletRepository, walletStripeRepository, transactionRepository, idempotencyCache(),
+                WalletWriteModes.of(WalletWriteMode.PESSIMISTIC), RETRY_POLICY, contentionTracker,
+                balanceIndex(), historicalBalanceCache(), ledgerArchive, walletCache, TransactionOperations.withoutTransaction());
+    }
+
+    private BalanceIndex balanceIndex() {
+        return new BalanceIndex(walletRepository, transactionRepository, ledgerArchive,
+                TransactionOperations.withoutTransaction(), false, 1000, 2, false, 0);
+    }
+
+    private static WalletEntity stripedWallet(BigDecimal balance, int stripes) {
+        WalletEntity entity = new WalletEntity(UUID.randomUUID(), balance);
+        entity.setId(UUID.randomUUID());
+        entity.setStripes(stripes);
+        return entity;
+    }
+
+    private static LedgerMovement ledgerMovement(Instant timestamp, String amount) {
+        return new LedgerMovement() {
+            @Override
+            public Instant getTimestamp() {
+                return timestamp;
+            }
+
+            @Override
+            public BigDecimal getAmount() {
+                return new BigDecimal(amount);
+            }
+        };
+    }
+
+    private void archive(UUID walletId, Instant through, ArchivedTransaction... rows) {
+        ledgerArchive.append(walletId, through, List.of(rows).iterator());
+    }
+
+    private static ArchivedTransaction archived(Instant timestamp, String amount) {
+        BigDecimal signed = new BigDecimal(amount);
+        return new ArchivedTransaction(UUID.randomUUID(),
+                signed.signum() < 0 ? Transaction.Type.WITHDRAWAL : Transaction.Type.DEPOSIT, signed, null, timestamp);
+    }
+
+    private static LedgerEntry ledgerEntry(Instant timestamp) {
+        UUID id = UUID.randomUUID();
+        return new LedgerEntry() {
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public Transaction.Type getType() {
+                return Transaction.Type.DEPOSIT;
+            }
+
+            @Override
+            public BigDecimal getAmount() {
+                return BigDecimal.ONE;
+            }
+
+            @Override
+            public BigDecimal getBalanceAfter() {
+                return BigDecimal.ONE;
+            }
+
+            @Override
+            public Instant getTimestamp() {
+                return timestamp;
+            }
+        };
+    }
+
+    private static WalletStripeEntity stripe(UUID walletId, int stripe, String balance) {
+        WalletStripeEntity entity = new WalletStripeEntity(walletId, stripe);
+        entity.setBalance(new BigDecimal(balance));
+        return entity;
+    }
 }
@@ -0,0 +1,207 @@
+package com.rissatto.sws.infrastructure.archive;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LedgerArchiveTest {
+
+    private static final Instant T0 = Instant.parse("2024-01-10T00:00:00Z");
+    private static final Set<Transaction.Type> ALL_TYPES = EnumSet.allOf(Transaction.Type.class);
+
+    @TempDir
+    Path directory;
+
+    // region ─ append & balances ──────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldReadBackAppendedRowsExactly() {
+        // Arrange
+        LedgerArchive archive = new LedgerArchive(directory);
+        UUID walletId = UUID.randomUUID();
+        List<ArchivedTransaction> rows = List.of(
+                row(T0, Transaction.Type.DEPOSIT, "10.25", "10.25"),
+                row(T0.plusNanos(1_000), Transaction.Type.WITHDRAWAL, "-3.1", "7.15"),
+                row(T0.plusSeconds(60), Transaction.Type.TRANSFER_OUT, "-0.05", null));
+
+        // Act
+        BigDecimal closing = archive.append(walletId, T0.plusSeconds(60), rows.iterator());
+
+        // Assert
+        assertThat(closing).isEqualByComparingTo("7.10");
+        try (Stream<ArchivedTransaction> read = archive.stream(walletId, Instant.EPOCH, T0.plusSeconds(3600))) {
+            assertThat(read.toList()).isEqualTo(rows);
+        }
+        assertThat(archive.closing(walletId)).contains(new LedgerArchive.Closing(T0.plusSeconds(60), closing));
+    }
+
+    @Test
+    void shouldAnswerBalancesAcrossSegments() {
+        // Arrange
+        LedgerArchive archive = new LedgerArchive(directory);
+        UUID walletId = UUID.randomUUID();
+        archive.append(walletId, T0.plusSeconds(100), List.of(deposit(T0, "10"), deposit(T0.plusSeconds(50), "5")).iterator());
+        archive.append(walletId, T0.plusSeconds(200), List.of(deposit(T0.plusSeconds(150), "-2")).iterator());
+
+        // Act & Assert
+        assertThat(archive.balanceAt(walletId, T0.minusSeconds(1))).contains(BigDecimal.ZERO);
+        assertThat(archive.balanceAt(walletId, T0.plusSeconds(49))).contains(new BigDecimal("10"));
+        assertThat(archive.balanceAt(walletId, T0.plusSeconds(100))).contains(new BigDecimal("15"));
+        assertThat(archive.balanceAt(walletId, T0.plusSeconds(149))).contains(new BigDecimal("15"));
+        assertThat(archive.balanceAt(walletId, T0.plusSeconds(200))).contains(new BigDecimal("13"));
+        assertThat(archive.balanceAt(walletId, T0.plusSeconds(201))).isEmpty();
+        assertThat(archive.balanceAt(UUID.randomUUID(), T0)).isEmpty();
+    }
+
+    @Test
+    void shouldReloadSegmentsWhenReopened() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        new LedgerArchive(directory)
+                .append(walletId, T0.plusSeconds(100), List.of(deposit(T0, "10"), deposit(T0.plusSeconds(50), "5")).iterator());
+
+        // Act
+        LedgerArchive reopened = new LedgerArchive(directory);
+
+        // Assert
+        assertThat(reopened.closing(walletId)).contains(new LedgerArchive.Closing(T0.plusSeconds(100), new BigDecimal("15")));
+        assertThat(reopened.balanceAt(walletId, T0.plusSeconds(10))).contains(new BigDecimal("10"));
+    }
+
+    @Test
+    void shouldBeEmptyWhenDirectoryIsMissing() {
+        // Act
+        LedgerArchive archive = new LedgerArchive(directory.resolve("missing"));
+
+        // Assert
+        assertThat(archive.closing(UUID.randomUUID())).isEmpty();
+    }
+
+    @Test
+    void shouldRejectRowsOutsideTheArchivedRange() throws IOException {
+        // Arrange
+        LedgerArchive archive = new LedgerArchive(directory);
+        UUID walletId = UUID.randomUUID();
+        archive.append(walletId, T0.plusSeconds(100), List.of(deposit(T0, "10")).iterator());
+
+        // Act & Assert
+        assertThatThrownBy(() -> archive.append(walletId, T0.plusSeconds(200),
+                List.of(deposit(T0.plusSeconds(100), "1")).iterator()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> archive.append(walletId, T0.plusSeconds(200),
+                List.of(deposit(T0.plusSeconds(201), "1")).iterator()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> archive.append(walletId, T0.plusSeconds(200), List.<LedgerEntry>of().iterator()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> archive.append(walletId, T0.plusSeconds(50), List.<LedgerEntry>of().iterator()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(archive.closing(walletId)).contains(new LedgerArchive.Closing(T0.plusSeconds(100), new BigDecimal("10")));
+        try (Stream<Path> files = Files.list(directory.resolve(walletId.toString()))) {
+            assertThat(files).hasSize(1);
+        }
+    }
+
+    @Test
+    void shouldDetectCorruptSegments() throws IOException {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        new LedgerArchive(directory).append(walletId, T0.plusSeconds(100),
+                List.of(deposit(T0, "10"), deposit(T0.plusSeconds(50), "5")).iterator());
+        Path segment;
+        try (Stream<Path> files = Files.list(directory.resolve(walletId.toString()))) {
+            segment = files.findFirst().orElseThrow();
+        }
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+        LedgerArchive archive = new LedgerArchive(directory);
+
+        // Act & Assert
+        assertThatThrownBy(() -> archive.stream(walletId, Instant.EPOCH, T0.plusSeconds(100)).toList())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Corrupt archive segment");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ reads ──────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void streamShouldCoverTheRequestedRangeAcrossSegments() {
+        // Arrange
+        LedgerArchive archive = new LedgerArchive(directory);
+        UUID walletId = UUID.randomUUID();
+        List<ArchivedTransaction> rows = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            rows.add(deposit(T0.plusSeconds(i * 10L), "1"));
+        }
+        archive.append(walletId, T0.plusSeconds(25), rows.subList(0, 3).iterator());
+        archive.append(walletId, T0.plusSeconds(60), rows.subList(3, 6).iterator());
+
+        // Act
+        List<ArchivedTransaction> read;
+        try (Stream<ArchivedTransaction> stream = archive.stream(walletId, T0.plusSeconds(10), T0.plusSeconds(40))) {
+            read = stream.toList();
+        }
+
+        // Assert
+        assertThat(read).containsExactlyElementsOf(rows.subList(1, 4));
+    }
+
+    @Test
+    void readBeforeShouldPageNewestFirstAcrossSegments() {
+        // Arrange
+        LedgerArchive archive = new LedgerArchive(directory);
+        UUID walletId = UUID.randomUUID();
+        List<ArchivedTransaction> rows = List.of(
+                deposit(T0, "1"),
+                row(T0.plusSeconds(10), Transaction.Type.WITHDRAWAL, "-1", null),
+                deposit(T0.plusSeconds(20), "1"),
+                deposit(T0.plusSeconds(30), "1"));
+        archive.append(walletId, T0.plusSeconds(15), rows.subList(0, 2).iterator());
+        archive.append(walletId, T0.plusSeconds(30), rows.subList(2, 4).iterator());
+
+        // Act
+        List<LedgerEntry> first = archive.readBefore(walletId, ALL_TYPES, Instant.EPOCH, T0.plusSeconds(60), null, 3);
+        ArchivedTransaction last = (ArchivedTransaction) first.getLast();
+        List<LedgerEntry> second = archive.readBefore(walletId, ALL_TYPES, Instant.EPOCH, last.timestamp(), last.id(), 3);
+        List<LedgerEntry> deposits = archive.readBefore(walletId, Set.of(Transaction.Type.DEPOSIT), T0.plusSeconds(5),
+                T0.plusSeconds(30), null, 10);
+
+        // Assert
+        assertThat(first).containsExactly(rows.get(3), rows.get(2), rows.get(1));
+        assertThat(second).containsExactly(rows.get(0));
+        assertThat(deposits).containsExactly(rows.get(2));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private static ArchivedTransaction deposit(Instant timestamp, String amount) {
+        return row(timestamp, Transaction.Type.DEPOSIT, amount, null);
+    }
+
+    private static ArchivedTransaction row(Instant timestamp, Transaction.Type type, String amount, String balanceAfter) {
+        return new ArchivedTransaction(UUID.randomUUID(), type, new BigDecimal(amount),
+                (balanceAfter == null) ? null : new BigDecimal(balanceAfter), timestamp);
+    }
+}
@@ -0,0 +1,256 @@
+package com.rissatto.sws.infrastructure.journal;
+
+import com.rissatto.sws.domain.Transaction;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LedgerJournalTest {
+
+    private static final int SCALE = 2;
+    private static final Duration INTERVAL = Duration.ofMillis(5);
+
+    @TempDir
+    Path directory;
+
+    // region ─ append & replay ────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldReplayAppendedRecordsInOrder() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        List<JournalRecord> appended = List.of(
+                record(walletId, Transaction.createDeposit(walletId, new BigDecimal("10.25")), 1),
+                record(walletId, Transaction.createWithdrawal(walletId, new BigDecimal("3.10")), 2),
+                record(walletId, Transaction.createTransferOut(walletId, new BigDecimal("0.05")), 3));
+
+        // Act
+        List<JournalRecord> replayed = new ArrayList<>();
+        long replayedCount;
+        try (LedgerJournal journal = journal(16, FsyncPolicy.PER_WRITE)) {
+            appended.forEach(journal::append);
+            replayedCount = journal.replay(replayed::add);
+        }
+
+        // Assert
+        assertThat(replayedCount).isEqualTo(3);
+        assertThat(replayed).isEqualTo(appended);
+        assertThat(replayed.get(1).amount(SCALE)).isEqualByComparingTo("-3.10");
+    }
+
+    @Test
+    void shouldRollSegmentsWhenFull() throws IOException {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+
+        // Act
+        List<JournalRecord> replayed = new ArrayList<>();
+        try (LedgerJournal journal = journal(4, FsyncPolicy.GROUP)) {
+            for (int i = 1; i <= 10; i++) {
+                assertThat(journal.append(deposit(walletId, "1", i))).isEqualTo(i - 1);
+            }
+            journal.replay(replayed::add);
+        }
+
+        // Assert
+        assertThat(segmentNames()).containsExactly(
+                "00000000000000000000.journal", "00000000000000000004.journal", "00000000000000000008.journal");
+        assertThat(replayed).extracting(JournalRecord::walletSequence).containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+    }
+
+    @Test
+    void shouldContinueAfterLastRecordWhenReopened() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        try (LedgerJournal journal = journal(4, FsyncPolicy.GROUP)) {
+            journal.appendAll(List.of(deposit(walletId, "1", 1), deposit(walletId, "1", 2),
+                    deposit(walletId, "1", 3), deposit(walletId, "1", 4), deposit(walletId, "1", 5)));
+        }
+
+        // Act
+        List<JournalRecord> replayed = new ArrayList<>();
+        try (LedgerJournal journal = journal(4, FsyncPolicy.GROUP)) {
+            assertThat(journal.nextPosition()).isEqualTo(5);
+            assertThat(journal.append(deposit(walletId, "1", 6))).isEqualTo(5);
+            journal.replay(replayed::add);
+        }
+
+        // Assert
+        assertThat(replayed).extracting(JournalRecord::walletSequence).containsExactly(1L, 2L, 3L, 4L, 5L, 6L);
+    }
+
+    @Test
+    void shouldStopReplayAtTornRecordAndOverwriteIt() throws IOException {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        try (LedgerJournal journal = journal(8, FsyncPolicy.PER_WRITE)) {
+            journal.appendAll(List.of(deposit(walletId, "1", 1), deposit(walletId, "1", 2), deposit(walletId, "1", 3)));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve("00000000000000000000.journal").toFile(), "rw")) {
+            file.seek(2L * LedgerJournal.RECORD_SIZE + 40);
+            file.writeLong(999);
+        }
+
+        // Act
+        List<JournalRecord> replayed = new ArrayList<>();
+        try (LedgerJournal journal = journal(8, FsyncPolicy.PER_WRITE)) {
+            journal.replay(replayed::add);
+            assertThat(journal.append(deposit(walletId, "2", 3))).isEqualTo(2);
+            replayed.clear();
+            journal.replay(replayed::add);
+        }
+
+        // Assert
+        assertThat(replayed).extracting(JournalRecord::amountMinor).containsExactly(100L, 100L, 200L);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ rebuild ────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldRebuildBalancesPerWallet() {
+        // Arrange
+        UUID source = UUID.randomUUID();
+        UUID target = UUID.randomUUID();
+
+        // Act
+        Map<UUID, LedgerJournal.WalletBalance> balances;
+        try (LedgerJournal journal = journal(2, FsyncPolicy.GROUP)) {
+            journal.append(deposit(source, "100.00", 1));
+            journal.append(record(source, Transaction.createTransferOut(source, new BigDecimal("30.50")), 2));
+            journal.append(record(target, Transaction.createTransferIn(target, new BigDecimal("30.50")), 1));
+            journal.append(record(source, Transaction.createWithdrawal(source, new BigDecimal("0.01")), 3));
+            balances = journal.rebuildBalances();
+        }
+
+        // Assert
+        assertThat(balances).hasSize(2);
+        assertThat(balances.get(source).balance()).isEqualByComparingTo("69.49");
+        assertThat(balances.get(source).lastSequenceNumber()).isEqualTo(3);
+        assertThat(balances.get(target).balance()).isEqualByComparingTo("30.50");
+        assertThat(balances.get(target).lastSequenceNumber()).isEqualTo(1);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ fsync policies ─────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldKeepEveryConcurrentAppendUnderGroupCommit() throws Exception {
+        // Arrange
+        int threads = 8;
+        int perThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        // Act
+        Map<UUID, LedgerJournal.WalletBalance> balances;
+        try (LedgerJournal journal = journal(64, FsyncPolicy.GROUP)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                UUID walletId = UUID.randomUUID();
+                futures.add(executor.submit(() -> {
+                    for (int i = 1; i <= perThread; i++) {
+                        journal.append(deposit(walletId, "1", i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            assertThat(journal.nextPosition()).isEqualTo(threads * perThread);
+            balances = journal.rebuildBalances();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Assert
+        assertThat(balances).hasSize(threads);
+        assertThat(balances.values()).allSatisfy(balance -> {
+            assertThat(balance.balance()).isEqualByComparingTo(String.valueOf(perThread));
+            assertThat(balance.lastSequenceNumber()).isEqualTo(perThread);
+        });
+    }
+
+    @Test
+    void shouldPersistIntervalAppendsOnClose() {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        try (LedgerJournal journal = journal(16, FsyncPolicy.INTERVAL)) {
+            journal.append(deposit(walletId, "7.50", 1));
+            journal.sync();
+            journal.append(deposit(walletId, "2.50", 2));
+        }
+
+        // Act
+        Map<UUID, LedgerJournal.WalletBalance> balances;
+        try (LedgerJournal journal = journal(16, FsyncPolicy.INTERVAL)) {
+            balances = journal.rebuildBalances();
+        }
+
+        // Assert
+        assertThat(balances.get(walletId).balance()).isEqualByComparingTo("10.00");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ validation ─────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldRejectAmountsFinerThanScale() {
+        UUID walletId = UUID.randomUUID();
+        assertThatThrownBy(() -> record(walletId, Transaction.createDeposit(walletId, new BigDecimal("0.001")), 1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("amount 0.001 does not fit 2 decimal places");
+    }
+
+    @Test
+    void shouldRejectAppendAfterClose() {
+        LedgerJournal journal = journal(4, FsyncPolicy.PER_WRITE);
+        journal.close();
+        assertThatThrownBy(() -> journal.append(deposit(UUID.randomUUID(), "1", 1)))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("Journal is closed");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private LedgerJournal journal(int recordsPerSegment, FsyncPolicy fsyncPolicy) {
+        return new LedgerJournal(directory, recordsPerSegment, fsyncPolicy, INTERVAL, SCALE);
+    }
+
+    private List<String> segmentNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString()).sorted().toList();
+        }
+    }
+
+    private static JournalRecord deposit(UUID walletId, String amount, long sequence) {
+        return record(walletId, Transaction.createDeposit(walletId, new BigDecimal(amount)), sequence);
+    }
+
+    private static JournalRecord record(UUID walletId, Transaction transaction, long sequence) {
+        Transaction stamped = new Transaction(transaction.id(), walletId, transaction.type(), transaction.amount(),
+                Instant.now().truncatedTo(ChronoUnit.MICROS));
+        return JournalRecord.of(stamped, sequence, SCALE);
+    }
+}
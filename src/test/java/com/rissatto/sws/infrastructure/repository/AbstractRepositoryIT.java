@@ -1,6 +1,7 @@
 package com.rissatto.sws.infrastructure.repository;
 
 import com.rissatto.sws.infrastructure.config.AuditingConfig;
+import com.rissatto.sws.infrastructure.config.FlywayConfig;
 import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.autoconfigure.flyway.FlywayAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
@@ -11,7 +12,7 @@ import org.springframework.test.context.ActiveProfiles;
 @DataJpaTest
 @ActiveProfiles("test")
 @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
-@Import(AuditingConfig.class)
+@Import({AuditingConfig.class, FlywayConfig.class})
 @ImportAutoConfiguration(FlywayAutoConfiguration.class)
 public abstract class AbstractRepositoryIT {
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@Import(IdempotencyKeyPartitions.class)
+class IdempotencyKeyPartitionsIT extends AbstractRepositoryIT {
+
+    private static final String OPERATION = "depositWallet";
+
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final IdempotencyKeyPartitions partitions;
+    private final DataSource dataSource;
+    private final LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+    @Autowired
+    public IdempotencyKeyPartitionsIT(IdempotencyKeyRepository idempotencyKeyRepository,
+                                      IdempotencyKeyPartitions partitions,
+                                      DataSource dataSource) {
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.partitions = partitions;
+        this.dataSource = dataSource;
+    }
+
+    @Test
+    void deleteCreatedBeforeShouldKeepKeysWithinRetention() {
+        // Arrange
+        String expired = claimOn(today.minusDays(10));
+        String recent = claimOn(today);
+
+        // Act
+        int deleted = idempotencyKeyRepository.deleteCreatedBefore(today.minusDays(7));
+
+        // Assert
+        assertThat(deleted).isPositive();
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(expired, OPERATION)).isEmpty();
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(recent, OPERATION)).isPresent();
+    }
+
+    // region ─ daily partitions (PostgreSQL only) ─────────────────────────────────────────────────────────────────────
+
+    @Test
+    void migrationShouldPartitionKeysByDayAroundToday() throws SQLException {
+        // Arrange
+        assumePostgres();
+
+        // Act
+        boolean partitioned = partitions.isPartitioned();
+
+        // Assert
+        assertThat(partitioned).isTrue();
+        assertThat(partitions.days()).contains(today.minusDays(1), today, today.plusDays(1));
+    }
+
+    @Test
+    void dropShouldForgetOnlyKeysOfThatDay() throws SQLException {
+        // Arrange
+        assumePostgres();
+        LocalDate expiredDay = today.minusDays(5);
+        String expired = claimOn(expiredDay);
+        String recent = claimOn(today);
+
+        // Act
+        partitions.drop(expiredDay);
+
+        // Assert
+        assertThat(partitions.days()).doesNotContain(expiredDay).contains(today);
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(expired, OPERATION)).isEmpty();
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(recent, OPERATION)).isPresent();
+    }
+
+    @Test
+    void createShouldAddPartitionForDay() throws SQLException {
+        // Arrange
+        assumePostgres();
+        LocalDate day = today.plusDays(30);
+
+        // Act
+        partitions.create(day);
+        partitions.create(day);
+
+        // Assert
+        assertThat(partitions.days()).contains(day);
+        String key = claimOn(day);
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(key, OPERATION))
+                .get()
+                .satisfies(found -> assertThat(found.getCreatedOn()).isEqualTo(day));
+    }
+
+    @Test
+    void purgeDefaultShouldDeleteStrayKeysBeforeDay() throws SQLException {
+        // Arrange
+        assumePostgres();
+        String stray = claimOn(today.minusDays(60));
+        String ahead = claimOn(today.plusDays(60));
+
+        // Act
+        int deleted = partitions.purgeDefault(today.minusDays(7));
+
+        // Assert
+        assertThat(deleted).isEqualTo(1);
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(stray, OPERATION)).isEmpty();
+        assertThat(idempotencyKeyRepository.findByIdempotencyKeyAndOperation(ahead, OPERATION)).isPresent();
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private String claimOn(LocalDate day) {
+        String key = UUID.randomUUID().toString();
+        assertThat(idempotencyKeyRepository.claim(key, OPERATION, day.atStartOfDay(ZoneOffset.UTC).toInstant(), day))
+                .isEqualTo(1);
+        return key;
+    }
+
+    private void assumePostgres() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            assumeTrue(connection.getMetaData().getDatabaseProductName().equals("PostgreSQL"),
+                    "Daily partitions require PostgreSQL");
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import com.rissatto.sws.domain.Transaction;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Query-plan regression tests: every repository query is captured exactly as Hibernate renders it, prepared on
+ * PostgreSQL and explained as a generic plan with sequential scans disabled. Any remaining {@code Seq Scan} means
+ * no index can serve the query. Skipped unless the datasource is PostgreSQL.
+ */
+@TestPropertySource(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+        + "com.rissatto.sws.infrastructure.repository.QueryPlanIT$CapturingStatementInspector")
+class QueryPlanIT extends AbstractRepositoryIT {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryPlanIT.class);
+    private static final Pattern JDBC_PARAMETER = Pattern.compile("\\?");
+    private static final Pattern TRANSACTION_PARTITION = Pattern.compile("transactions_(\\d{6}|default)");
+    // Created with the migration, so it exists whenever the table is partitioned
+    private static final YearMonth NEXT_MONTH = YearMonth.now(ZoneOffset.UTC).plusMonths(1);
+
+    private final TransactionRepository transactionRepository;
+    private final WalletRepository walletRepository;
+    private final WalletBalanceSnapshotRepository snapshotRepository;
+    private final WalletStripeRepository walletStripeRepository;
+    private final IdempotencyKeyRepository idempotencyKeyRepository;
+    private final PendingTransferRepository pendingTransferRepository;
+    private final EntityManager entityManager;
+    private final DataSource dataSource;
+
+    @Autowired
+    QueryPlanIT(TransactionRepository transactionRepository,
+                WalletRepository walletRepository,
+                WalletBalanceSnapshotRepository snapshotRepository,
+                WalletStripeRepository walletStripeRepository,
+                IdempotencyKeyRepository idempotencyKeyRepository,
+                PendingTransferRepository pendingTransferRepository,
+                EntityManager entityManager,
+                DataSource dataSource) {
+        this.transactionRepository = transactionRepository;
+        this.walletRepository = walletRepository;
+        this.snapshotRepository = snapshotRepository;
+        this.walletStripeRepository = walletStripeRepository;
+        this.idempotencyKeyRepository = idempotencyKeyRepository;
+        this.pendingTransferRepository = pendingTransferRepository;
+        this.entityManager = entityManager;
+        this.dataSource = dataSource;
+    }
+
+    @BeforeEach
+    void beforeEach() {
+        assumeTrue(session().doReturningWork(c -> c.getMetaData().getDatabaseProductName()).equals("PostgreSQL"),
+                "Query plans are only asserted against PostgreSQL");
+        CapturingStatementInspector.clear();
+    }
+
+    private Session session() {
+        return entityManager.unwrap(Session.class);
+    }
+
+    // region ─ TransactionRepository ──────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void findByWalletIdShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.findByWalletId(UUID.randomUUID()));
+    }
+
+    @Test
+    void findByWalletIdInShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.findByWalletIdIn(List.of(UUID.randomUUID(), UUID.randomUUID())));
+    }
+
+    @Test
+    void findByWalletIdAndTimestampLessThanEqualShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.findByWalletIdAndTimestampLessThanEqual(UUID.randomUUID(), Instant.now()));
+    }
+
+    @Test
+    void findBalanceByWalletIdAtShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.findBalanceByWalletIdAt(UUID.randomUUID(), Instant.now()));
+    }
+
+    @Test
+    void findBalancesByWalletIdInAtShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.findBalancesByWalletIdInAt(
+                List.of(UUID.randomUUID(), UUID.randomUUID(), UUID.randomUUID()), Instant.now()));
+    }
+
+    @Test
+    void findBalanceAfterByWalletIdAtShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.findBalanceAfterByWalletIdAt(UUID.randomUUID(), Instant.now()));
+    }
+
+    @Test
+    void existsByWalletIdAndTimestampLessThanEqualShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.existsByWalletIdAndTimestampLessThanEqual(UUID.randomUUID(), Instant.now()));
+    }
+
+    @Test
+    void existsByWalletIdAndTimestampAfterAndTimestampLessThanEqualShouldUseIndex() {
+        Instant now = Instant.now();
+        assertNoSeqScan(() -> transactionRepository.existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(UUID.randomUUID(), now.minusSeconds(60), now));
+    }
+
+    @Test
+    void findLedgerPageShouldUseIndex() {
+        Instant now = Instant.now();
+        assertNoSeqScan(() -> transactionRepository.findLedgerPage(UUID.randomUUID(), List.of(Transaction.Type.values()),
+                Instant.EPOCH, now, Limit.of(51)));
+    }
+
+    @Test
+    void findLedgerPageBeforeShouldUseIndex() {
+        Instant now = Instant.now();
+        assertNoSeqScan(() -> transactionRepository.findLedgerPageBefore(UUID.randomUUID(), List.of(Transaction.Type.values()),
+                Instant.EPOCH, now, UUID.randomUUID(), Limit.of(51)));
+    }
+
+    @Test
+    void streamLedgerShouldUseIndex() {
+        Instant now = Instant.now();
+        assertNoSeqScan(() -> {
+            try (Stream<TransactionRepository.LedgerEntry> ledger = transactionRepository.streamLedger(UUID.randomUUID(),
+                    Instant.EPOCH, now)) {
+                ledger.forEach(entry -> { });
+            }
+        });
+    }
+
+    @Test
+    void streamMovementsShouldUseIndex() {
+        Instant now = Instant.now();
+        assertNoSeqScan(() -> {
+            try (Stream<TransactionRepository.LedgerMovement> movements = transactionRepository.streamMovements(
+                    UUID.randomUUID(), now.minusSeconds(3600), now)) {
+                movements.forEach(movement -> { });
+            }
+        });
+    }
+
+    @Test
+    void deleteByWalletIdAndTimestampLessThanEqualShouldUseIndex() {
+        assertNoSeqScan(() -> transactionRepository.deleteByWalletIdAndTimestampLessThanEqual(UUID.randomUUID(), Instant.now()));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ monthly partitions of transactions ─────────────────────────────────────────────────────────────────────
+
+    @Test
+    void findByWalletIdAndTimestampLessThanEqualShouldSkipLaterMonths() {
+        UUID walletId = UUID.randomUUID();
+        Instant at = NEXT_MONTH.atDay(15).atStartOfDay(ZoneOffset.UTC).toInstant();
+
+        Set<String> scanned = scannedPartitions(
+                () -> transactionRepository.findByWalletIdAndTimestampLessThanEqual(walletId, at), walletId, at);
+
+        assertThat(scanned).contains(partition(NEXT_MONTH))
+                .doesNotContain(partition(NEXT_MONTH.plusMonths(1)), partition(NEXT_MONTH.plusMonths(2)));
+    }
+
+    @Test
+    void findBalanceAfterByWalletIdAtShouldSkipLaterMonths() {
+        UUID walletId = UUID.randomUUID();
+        Instant at = NEXT_MONTH.atDay(15).atStartOfDay(ZoneOffset.UTC).toInstant();
+
+        Set<String> scanned = scannedPartitions(
+                () -> transactionRepository.findBalanceAfterByWalletIdAt(walletId, at), walletId, at, 1);
+
+        assertThat(scanned).contains(partition(NEXT_MONTH))
+                .doesNotContain(partition(NEXT_MONTH.plusMonths(1)), partition(NEXT_MONTH.plusMonths(2)));
+    }
+
+    @Test
+    void existsByWalletIdAndTimestampAfterAndTimestampLessThanEqualShouldOnlyScanItsMonth() {
+        UUID walletId = UUID.randomUUID();
+        Instant after = NEXT_MONTH.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+        Instant at = after.plus(Duration.ofDays(10));
+
+        Set<String> scanned = scannedPartitions(() -> transactionRepository
+                .existsByWalletIdAndTimestampAfterAndTimestampLessThanEqual(walletId, after, at), walletId, after, at);
+
+        assertThat(scanned).containsExactly(partition(NEXT_MONTH));
+    }
+
+    @Test
+    void streamMovementsShouldOnlyScanItsMonths() {
+        UUID walletId = UUID.randomUUID();
+        Instant after = NEXT_MONTH.atDay(10).atStartOfDay(ZoneOffset.UTC).toInstant();
+        Instant upTo = NEXT_MONTH.plusMonths(1).atDay(10).atStartOfDay(ZoneOffset.UTC).toInstant();
+
+        Set<String> scanned = scannedPartitions(() -> {
+            try (Stream<TransactionRepository.LedgerMovement> movements = transactionRepository.streamMovements(
+                    walletId, after, upTo)) {
+                movements.forEach(movement -> { });
+            }
+        }, walletId, after, upTo);
+
+        assertThat(scanned).containsExactlyInAnyOrder(partition(NEXT_MONTH), partition(NEXT_MONTH.plusMonths(1)));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ WalletRepository ───────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void findByIdShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.findById(UUID.randomUUID()));
+    }
+
+    @Test
+    void findByIdForUpdateShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.findByIdForUpdate(UUID.randomUUID()));
+    }
+
+    @Test
+    void findAllByIdForUpdateShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.findAllByIdForUpdate(List.of(UUID.randomUUID(), UUID.randomUUID())));
+    }
+
+    @Test
+    void findVersionedByIdShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.findVersionedById(UUID.randomUUID()));
+    }
+
+    @Test
+    void findWithStripesByIdShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.findWithStripesById(UUID.randomUUID()));
+    }
+
+    @Test
+    void compareAndSetShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.compareAndSet(UUID.randomUUID(), 0L, BigDecimal.ONE, 1L, Instant.now()));
+    }
+
+    @Test
+    void findIdsAfterShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.findIdsAfter(UUID.randomUUID(), Limit.of(10)));
+    }
+
+    @Test
+    void findIdsByRecentActivityShouldUseIndex() {
+        assertNoSeqScan(() -> walletRepository.findIdsByRecentActivity(Limit.of(10)));
+    }
+
+    @Test
+    void findFirstSnapshotShouldUseIndex() {
+        assertNoSeqScan(() -> snapshotRepository.findFirstByWalletIdAndTakenAtLessThanEqualOrderByTakenAtDesc(UUID.randomUUID(), Instant.now()));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ WalletStripeRepository ─────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void findAllStripesByWalletIdForUpdateShouldUseIndex() {
+        assertNoSeqScan(() -> walletStripeRepository.findAllByWalletIdForUpdate(UUID.randomUUID()));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ IdempotencyKeyRepository ───────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void findByIdempotencyKeyAndOperationShouldUseIndex() {
+        assertNoSeqScan(() -> idempotencyKeyRepository.findByIdempotencyKeyAndOperation("key", "depositWallet"));
+    }
+
+    @Test
+    void findAllIdempotencyKeysAfterShouldUseIndex() {
+        assertNoSeqScan(() -> idempotencyKeyRepository.findAllAfter("", "", Limit.of(10)));
+    }
+
+    @Test
+    void revokeIdempotencyKeyShouldUseIndex() {
+        assertNoSeqScan(() -> idempotencyKeyRepository.revoke("key", "transferWallet"));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ PendingTransferRepository ──────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void settleShouldUseIndex() {
+        assertNoSeqScan(() -> pendingTransferRepository.settle(UUID.randomUUID()));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Explains the captured statement with {@code parameters} bound in order (any left over as NULL), planned for
+     * those values the way the driver first runs it, and returns the partitions of {@code transactions} the plan
+     * still reads.
+     */
+    private Set<String> scannedPartitions(Runnable query, Object... parameters) {
+        assumeTrue(new TransactionPartitions(new JdbcTemplate(dataSource), "sws").isPartitioned(),
+                "transactions is only partitioned by month on PostgreSQL");
+        CapturingStatementInspector.clear();
+        query.run();
+        String sql = CapturingStatementInspector.lastQuery();
+        assertThat(sql).as("repository call should have issued a query").isNotNull();
+
+        List<String> plan = session().doReturningWork(connection -> {
+            List<String> lines = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+                int placeholders = (int) JDBC_PARAMETER.matcher(sql).results().count();
+                for (int i = 0; i < placeholders; i++) {
+                    Object parameter = i < parameters.length ? parameters[i] : null;
+                    statement.setObject(i + 1, parameter instanceof Instant instant
+                            ? LocalDateTime.ofInstant(instant, ZoneOffset.UTC)
+                            : parameter);
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        lines.add(rs.getString(1));
+                    }
+                }
+            }
+            return lines;
+        });
+        log.info("\n🎯 Plan for:\n{}\n{}", sql, String.join("\n", plan));
+
+        Set<String> partitions = new TreeSet<>();
+        for (String line : plan) {
+            TRANSACTION_PARTITION.matcher(line).results().forEach(match -> partitions.add(match.group()));
+        }
+        return partitions;
+    }
+
+    private static String partition(YearMonth month) {
+        return "transactions_" + month.format(DateTimeFormatter.ofPattern("yyyyMM"));
+    }
+
+    private void assertNoSeqScan(Runnable query) {
+        CapturingStatementInspector.clear();
+        query.run();
+        String sql = CapturingStatementInspector.lastQuery();
+        assertThat(sql).as("repository call should have issued a query").isNotNull();
+
+        List<String> plan = session().doReturningWork(connection -> explainGenericPlan(connection, sql));
+        log.info("\n🎯 Plan for:\n{}\n{}", sql, String.join("\n", plan));
+
+        assertThat(plan)
+                .as("Plan must not fall back to a sequential scan:%n%s", String.join("\n", plan))
+                .noneMatch(line -> line.contains("Seq Scan"));
+    }
+
+    /**
+     * Prepares the captured statement and explains its generic plan, which does not depend on parameter values, so
+     * the parameters can be executed as NULL. Disabling sequential scans makes the planner pick any usable index.
+     */
+    private static List<String> explainGenericPlan(Connection connection, String sql) throws SQLException {
+        Matcher matcher = JDBC_PARAMETER.matcher(sql);
+        StringBuilder prepared = new StringBuilder();
+        int parameters = 0;
+        while (matcher.find()) {
+            matcher.appendReplacement(prepared, "\\$" + (++parameters));
+        }
+        matcher.appendTail(prepared);
+
+        List<String> plan = new ArrayList<>();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LOCAL enable_seqscan = off");
+            statement.execute("SET LOCAL plan_cache_mode = force_generic_plan");
+            statement.execute("PREPARE plan_under_test AS " + prepared);
+            try {
+                String arguments = parameters == 0 ? "" : "(" + String.join(", ", Collections.nCopies(parameters, "NULL")) + ")";
+                try (ResultSet rs = statement.executeQuery("EXPLAIN EXECUTE plan_under_test" + arguments)) {
+                    while (rs.next()) {
+                        plan.add(rs.getString(1));
+                    }
+                }
+            } finally {
+                statement.execute("DEALLOCATE plan_under_test");
+            }
+        }
+        return plan;
+    }
+
+    public static class CapturingStatementInspector implements StatementInspector {
+
+        private static final List<String> QUERIES = Collections.synchronizedList(new ArrayList<>());
+
+        static void clear() {
+            QUERIES.clear();
+        }
+
+        static String lastQuery() {
+            synchronized (QUERIES) {
+                for (int i = QUERIES.size() - 1; i >= 0; i--) {
+                    String sql = QUERIES.get(i).stripLeading().toLowerCase();
+                    if (sql.startsWith("select") || sql.startsWith("with") || sql.startsWith("update")
+                            || sql.startsWith("delete")) {
+                        return QUERIES.get(i);
+                    }
+                }
+                return null;
+            }
+        }
+
+        @Override
+        public String inspect(String sql) {
+            QUERIES.add(sql);
+            return sql;
+        }
+    }
+}
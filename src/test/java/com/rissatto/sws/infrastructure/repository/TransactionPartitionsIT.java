@@ -0,0 +1,155 @@
+package com.rissatto.sws.infrastructure.repository;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
+import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.entity.WalletEntity;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@Import(TransactionPartitions.class)
+class TransactionPartitionsIT extends AbstractRepositoryIT {
+
+    private final UserRepository userRepository;
+    private final WalletRepository walletRepository;
+    private final TransactionRepository transactionRepository;
+    private final TransactionPartitions partitions;
+    private final DataSource dataSource;
+    private final YearMonth thisMonth = YearMonth.now(ZoneOffset.UTC);
+
+    @Autowired
+    public TransactionPartitionsIT(UserRepository userRepository,
+                                   WalletRepository walletRepository,
+                                   TransactionRepository transactionRepository,
+                                   TransactionPartitions partitions,
+                                   DataSource dataSource) {
+        this.userRepository = userRepository;
+        this.walletRepository = walletRepository;
+        this.transactionRepository = transactionRepository;
+        this.partitions = partitions;
+        this.dataSource = dataSource;
+    }
+
+    @Test
+    void shouldNotBePartitionedOutsidePostgres() throws SQLException {
+        // Arrange
+        assumeFalsePostgres();
+
+        // Act
+        boolean partitioned = partitions.isPartitioned();
+
+        // Assert
+        assertThat(partitioned).isFalse();
+    }
+
+    // region ─ monthly partitions (PostgreSQL only) ───────────────────────────────────────────────────────────────────
+
+    @Test
+    void migrationShouldPartitionTransactionsByMonthAhead() throws SQLException {
+        // Arrange
+        assumePostgres();
+
+        // Act
+        boolean partitioned = partitions.isPartitioned();
+
+        // Assert
+        assertThat(partitioned).isTrue();
+        assertThat(partitions.months()).contains(thisMonth, thisMonth.plusMonths(1), thisMonth.plusMonths(3));
+    }
+
+    @Test
+    void createShouldAddPartitionForMonth() throws SQLException {
+        // Arrange
+        assumePostgres();
+        YearMonth month = thisMonth.plusMonths(12);
+
+        // Act
+        partitions.create(month);
+        partitions.create(month);
+
+        // Assert
+        assertThat(partitions.months()).contains(month);
+        UUID id = saveOn(month.atDay(20).atStartOfDay(ZoneOffset.UTC).toInstant());
+        assertThat(partitionOf(id)).isEqualTo("transactions_" + month.toString().replace("-", ""));
+    }
+
+    @Test
+    void createdPartitionShouldRejectASequenceNumberTwicePerWallet() throws SQLException {
+        // Arrange
+        assumePostgres();
+        YearMonth month = thisMonth.plusMonths(13);
+        partitions.create(month);
+        Instant timestamp = month.atDay(10).atStartOfDay(ZoneOffset.UTC).toInstant();
+        UUID walletId = transactionRepository.findById(saveOn(timestamp)).orElseThrow().getWalletId();
+        TransactionEntity first = new TransactionEntity(walletId, Transaction.Type.DEPOSIT, BigDecimal.ONE, timestamp);
+        first.setSequenceNumber(1L);
+        transactionRepository.saveAndFlush(first);
+        TransactionEntity second = new TransactionEntity(walletId, Transaction.Type.DEPOSIT, BigDecimal.ONE,
+                timestamp.plusSeconds(1));
+        second.setSequenceNumber(1L);
+
+        // Act & Assert
+        assertThatThrownBy(() -> transactionRepository.saveAndFlush(second))
+                .isInstanceOf(DataIntegrityViolationException.class);
+    }
+
+    @Test
+    void rowsOfMonthsWithoutPartitionShouldLandInDefault() throws SQLException {
+        // Arrange
+        assumePostgres();
+        Instant farAhead = thisMonth.plusYears(50).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+
+        // Act
+        UUID id = saveOn(farAhead);
+
+        // Assert
+        assertThat(partitionOf(id)).isEqualTo("transactions_default");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private UUID saveOn(Instant timestamp) {
+        UserEntity user = userRepository.save(new UserEntity("Jane Roe " + UUID.randomUUID()));
+        WalletEntity wallet = walletRepository.save(new WalletEntity(user.getId(), BigDecimal.ZERO));
+        UUID id = UUID.randomUUID();
+        transactionRepository.saveAndFlush(
+                new TransactionEntity(id, wallet.getId(), Transaction.Type.DEPOSIT, BigDecimal.TEN, timestamp));
+        return id;
+    }
+
+    private String partitionOf(UUID id) {
+        return new JdbcTemplate(dataSource).queryForObject("""
+                SELECT c.relname FROM sws.transactions t JOIN pg_class c ON c.oid = t.tableoid WHERE t.id = ?
+                """, String.class, id);
+    }
+
+    private boolean isPostgres() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            return connection.getMetaData().getDatabaseProductName().equals("PostgreSQL");
+        }
+    }
+
+    private void assumePostgres() throws SQLException {
+        assumeTrue(isPostgres(), "Monthly partitions require PostgreSQL");
+    }
+
+    private void assumeFalsePostgres() throws SQLException {
+        assumeTrue(!isPostgres(), "Transactions are always partitioned on PostgreSQL");
+    }
+}
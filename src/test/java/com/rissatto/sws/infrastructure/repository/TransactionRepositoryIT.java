@@ -3,24 +3,30 @@ package com.rissatto.sws.infrastructure.repository;
 import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.infrastructure.entity.TransactionEntity;
 import com.rissatto.sws.infrastructure.entity.UserEntity;
+import com.rissatto.sws.infrastructure.entity.WalletBalanceSnapshotEntity;
 import com.rissatto.sws.infrastructure.entity.WalletEntity;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.InstanceOfAssertFactories.BIG_DECIMAL;
 
 public class TransactionRepositoryIT extends AbstractRepositoryIT {
 
@@ -30,15 +36,17 @@ public class TransactionRepositoryIT extends AbstractRepositoryIT {
     private final UserRepository userRepository;
     private final WalletRepository walletRepository;
     private final TransactionRepository repository;
+    private final WalletBalanceSnapshotRepository snapshotRepository;
     private final PlatformTransactionManager transactionManager;
 
     private UUID globalWalletId;
 
     @Autowired
-    public TransactionRepositoryIT(UserRepository userRepository, WalletRepository walletRepository, TransactionRepository repository, PlatformTransactionManager transactionManager) {
+    public TransactionRepositoryIT(UserRepository userRepository, WalletRepository walletRepository, TransactionRepository repository, WalletBalanceSnapshotRepository snapshotRepository, PlatformTransactionManager transactionManager) {
         this.userRepository = userRepository;
         this.walletRepository = walletRepository;
         this.repository = repository;
+        this.snapshotRepository = snapshotRepository;
         this.transactionManager = transactionManager;
     }
 
@@ -112,4 +120,201 @@ public class TransactionRepositoryIT extends AbstractRepositoryIT {
                 .extracting(TransactionEntity::getId)
                 .containsExactlyInAnyOrder(tx1.getId(), tx2.getId());
     }
+
+    @Test
+    void findBalanceByWalletIdAtShouldAddLedgerDeltaToLatestSnapshot() {
+        // Arrange
+        Instant instant = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        Instant snapshotAt = instant.minusSeconds(30);
+        TransactionEntity tx1 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TEN, instant.minusSeconds(60));
+        TransactionEntity tx2 = new TransactionEntity(globalWalletId, Transaction.Type.WITHDRAWAL, BigDecimal.ONE.negate(), instant);
+
+        runInTransaction(() -> {
+            repository.saveAll(List.of(tx1, tx2));
+            // deliberately different from the ledger sum, to prove the snapshot is used as the base
+            snapshotRepository.save(new WalletBalanceSnapshotEntity(globalWalletId, BigDecimal.valueOf(100), snapshotAt));
+            return null;
+        });
+
+        // Act
+        Optional<BigDecimal> beforeSnapshot = repository.findBalanceByWalletIdAt(globalWalletId, snapshotAt.minusSeconds(1));
+        Optional<BigDecimal> atSnapshot = repository.findBalanceByWalletIdAt(globalWalletId, snapshotAt);
+        Optional<BigDecimal> afterSnapshot = repository.findBalanceByWalletIdAt(globalWalletId, instant);
+        Optional<BigDecimal> missing = repository.findBalanceByWalletIdAt(UUID.randomUUID(), instant);
+
+        // Assert
+        assertThat(beforeSnapshot).get(BIG_DECIMAL).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(atSnapshot).get(BIG_DECIMAL).isEqualByComparingTo(BigDecimal.valueOf(100));
+        assertThat(afterSnapshot).get(BIG_DECIMAL).isEqualByComparingTo(BigDecimal.valueOf(99));
+        assertThat(missing).isEmpty();
+    }
+
+    @Test
+    void findBalancesByWalletIdInAtShouldGroupSnapshotAndLedgerDeltaPerWallet() {
+        // Arrange
+        Instant instant = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        Instant snapshotAt = instant.minusSeconds(30);
+        UUID otherWalletId = runInTransaction(() -> {
+            WalletEntity wallet = new WalletEntity(userRepository.save(new UserEntity("Jane Roe " + USER_COUNTER.incrementAndGet())).getId(), BigDecimal.ZERO);
+            return walletRepository.save(wallet).getId();
+        });
+        UUID emptyWalletId = runInTransaction(() -> {
+            WalletEntity wallet = new WalletEntity(userRepository.save(new UserEntity("Jim Roe " + USER_COUNTER.incrementAndGet())).getId(), BigDecimal.ZERO);
+            return walletRepository.save(wallet).getId();
+        });
+
+        runInTransaction(() -> {
+            repository.saveAll(List.of(
+                    new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TEN, instant.minusSeconds(60)),
+                    new TransactionEntity(globalWalletId, Transaction.Type.WITHDRAWAL, BigDecimal.ONE.negate(), instant),
+                    new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TWO, instant.plusSeconds(60)),
+                    new TransactionEntity(otherWalletId, Transaction.Type.DEPOSIT, BigDecimal.ONE, instant.minusSeconds(60)),
+                    new TransactionEntity(otherWalletId, Transaction.Type.DEPOSIT, BigDecimal.ONE, instant)));
+            // deliberately different from the ledger sum, to prove the snapshot is used as the base
+            snapshotRepository.save(new WalletBalanceSnapshotEntity(globalWalletId, BigDecimal.valueOf(100), snapshotAt));
+            return null;
+        });
+
+        // Act
+        List<TransactionRepository.WalletBalance> balances = repository.findBalancesByWalletIdInAt(
+                List.of(globalWalletId, otherWalletId, emptyWalletId, UUID.randomUUID()), instant);
+
+        // Assert
+        assertThat(balances)
+                .as("Unknown wallets yield no row at all")
+                .extracting(TransactionRepository.WalletBalance::getWalletId)
+                .containsExactlyInAnyOrder(globalWalletId, otherWalletId, emptyWalletId);
+        assertThat(balances).allSatisfy(balance -> {
+            BigDecimal expected = balance.getWalletId().equals(globalWalletId) ? BigDecimal.valueOf(99)
+                    : balance.getWalletId().equals(otherWalletId) ? BigDecimal.TWO
+                    : BigDecimal.ZERO;
+            assertThat(balance.getBalance()).isEqualByComparingTo(expected);
+        });
+    }
+
+    @Test
+    void findBalanceAfterByWalletIdAtShouldReturnRunningBalanceOfLatestRow() {
+        // Arrange
+        Instant instant = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        TransactionEntity tx1 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TEN, instant.minusSeconds(60));
+        tx1.setBalanceAfter(BigDecimal.TEN);
+        tx1.setSequenceNumber(1L);
+        TransactionEntity tx2 = new TransactionEntity(globalWalletId, Transaction.Type.WITHDRAWAL, BigDecimal.ONE.negate(), instant);
+        tx2.setBalanceAfter(BigDecimal.valueOf(9));
+        tx2.setSequenceNumber(2L);
+        TransactionEntity tx3 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.ONE, instant);
+        tx3.setBalanceAfter(BigDecimal.TEN);
+        tx3.setSequenceNumber(3L);
+
+        runInTransaction(() -> {
+            repository.saveAll(List.of(tx1, tx2, tx3));
+            return null;
+        });
+
+        // Act & Assert
+        assertThat(repository.findBalanceAfterByWalletIdAt(globalWalletId, instant.minusSeconds(61))).isEmpty();
+        assertThat(repository.findBalanceAfterByWalletIdAt(globalWalletId, instant.minusSeconds(1)))
+                .get(BIG_DECIMAL).isEqualByComparingTo(BigDecimal.TEN);
+        assertThat(repository.findBalanceAfterByWalletIdAt(globalWalletId, instant))
+                .as("Rows sharing a timestamp are ordered by their wallet sequence")
+                .get(BIG_DECIMAL).isEqualByComparingTo(BigDecimal.TEN);
+    }
+
+    @Test
+    void ledgerPagesShouldWalkKeysetNewestFirstWithoutGapsOrRepeats() {
+        // Arrange
+        Instant instant = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        TransactionEntity tx1 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TEN, instant.minusSeconds(60));
+        TransactionEntity tx2 = new TransactionEntity(globalWalletId, Transaction.Type.WITHDRAWAL, BigDecimal.ONE.negate(), instant);
+        TransactionEntity tx3 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.ONE, instant);
+        TransactionEntity tx4 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TWO, instant.plusSeconds(60));
+
+        runInTransaction(() -> {
+            repository.saveAll(List.of(tx1, tx2, tx3, tx4));
+            return null;
+        });
+        List<Transaction.Type> allTypes = List.of(Transaction.Type.values());
+
+        // Act
+        List<TransactionRepository.LedgerEntry> first = repository.findLedgerPage(globalWalletId, allTypes,
+                Instant.EPOCH, instant.plusSeconds(3600), Limit.of(2));
+        TransactionRepository.LedgerEntry last = first.get(first.size() - 1);
+        List<TransactionRepository.LedgerEntry> second = repository.findLedgerPageBefore(globalWalletId, allTypes,
+                Instant.EPOCH, last.getTimestamp(), last.getId(), Limit.of(2));
+        List<TransactionRepository.LedgerEntry> deposits = repository.findLedgerPage(globalWalletId,
+                List.of(Transaction.Type.DEPOSIT), instant, instant.plusSeconds(60), Limit.of(10));
+
+        // Assert
+        List<UUID> walked = Stream.concat(first.stream(), second.stream()).map(TransactionRepository.LedgerEntry::getId).toList();
+        assertThat(walked).hasSize(4).doesNotHaveDuplicates();
+        assertThat(walked.get(0)).isEqualTo(tx4.getId());
+        assertThat(walked.subList(1, 3))
+                .as("Rows sharing a timestamp are told apart by id")
+                .containsExactlyInAnyOrder(tx2.getId(), tx3.getId());
+        assertThat(walked.get(3)).isEqualTo(tx1.getId());
+        assertThat(deposits)
+                .as("Type and [from, to) filters apply")
+                .singleElement()
+                .satisfies(entry -> {
+                    assertThat(entry.getId()).isEqualTo(tx3.getId());
+                    assertThat(entry.getAmount()).isEqualByComparingTo(BigDecimal.ONE);
+                });
+    }
+
+    @Test
+    void streamLedgerShouldReturnRangeOldestFirst() {
+        // Arrange
+        Instant instant = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        TransactionEntity tx1 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TEN, instant.minusSeconds(120));
+        TransactionEntity tx2 = new TransactionEntity(globalWalletId, Transaction.Type.WITHDRAWAL, BigDecimal.ONE.negate(), instant.minusSeconds(60));
+        TransactionEntity tx3 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.ONE, instant);
+        TransactionEntity tx4 = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TWO, instant.plusSeconds(60));
+
+        runInTransaction(() -> {
+            repository.saveAll(List.of(tx4, tx2, tx1, tx3));
+            return null;
+        });
+
+        // Act
+        List<UUID> streamed = runInTransaction(() -> {
+            try (Stream<TransactionRepository.LedgerEntry> ledger = repository.streamLedger(globalWalletId,
+                    instant.minusSeconds(60), instant.plusSeconds(60))) {
+                return ledger.map(TransactionRepository.LedgerEntry::getId).toList();
+            }
+        });
+
+        // Assert
+        assertThat(streamed)
+                .as("Rows in [from, to), oldest first")
+                .containsExactly(tx2.getId(), tx3.getId());
+    }
+
+    @Test
+    void streamMovementsShouldReturnRangeExcludingStartOldestFirst() {
+        // Arrange
+        Instant instant = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        TransactionEntity atStart = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TEN, instant.minusSeconds(60));
+        TransactionEntity inside = new TransactionEntity(globalWalletId, Transaction.Type.WITHDRAWAL, BigDecimal.ONE.negate(), instant);
+        TransactionEntity atEnd = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.TWO, instant.plusSeconds(60));
+        TransactionEntity after = new TransactionEntity(globalWalletId, Transaction.Type.DEPOSIT, BigDecimal.ONE, instant.plusSeconds(120));
+
+        runInTransaction(() -> {
+            repository.saveAll(List.of(after, atEnd, inside, atStart));
+            return null;
+        });
+
+        // Act
+        List<BigDecimal> amounts = runInTransaction(() -> {
+            try (Stream<TransactionRepository.LedgerMovement> movements = repository.streamMovements(globalWalletId,
+                    instant.minusSeconds(60), instant.plusSeconds(60))) {
+                return movements.map(TransactionRepository.LedgerMovement::getAmount).toList();
+            }
+        });
+
+        // Assert
+        assertThat(amounts)
+                .as("Rows in (after, upTo], oldest first")
+                .usingElementComparator(BigDecimal::compareTo)
+                .containsExactly(BigDecimal.ONE.negate(), BigDecimal.TWO);
+    }
 }
@@ -1,16 +1,27 @@
 package com.rissatto.sws.infrastructure.repository;
 
+import com.rissatto.sws.infrastructure.entity.TransactionEntity;
 import com.rissatto.sws.infrastructure.entity.UserEntity;
 import com.rissatto.sws.infrastructure.entity.WalletEntity;
+import com.rissatto.sws.infrastructure.entity.WalletStripeEntity;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.sql.DataSource;
 import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.*;
@@ -18,23 +29,34 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class WalletRepositoryIT extends AbstractRepositoryIT {
 
     private static final AtomicInteger USER_COUNTER = new AtomicInteger();
     private final UserRepository userRepository;
     private final WalletRepository walletRepository;
+    private final WalletStripeRepository walletStripeRepository;
+    private final TransactionRepository transactionRepository;
     private final PlatformTransactionManager transactionManager;
+    private final DataSource dataSource;
     private ExecutorService executor;
     private UUID globalUserId;
 
     @Autowired
     public WalletRepositoryIT(UserRepository userRepository,
                               WalletRepository walletRepository,
-                              PlatformTransactionManager platformTransactionManager) {
+                              WalletStripeRepository walletStripeRepository,
+                              TransactionRepository transactionRepository,
+                              PlatformTransactionManager platformTransactionManager,
+                              DataSource dataSource) {
         this.userRepository = userRepository;
         this.walletRepository = walletRepository;
+        this.walletStripeRepository = walletStripeRepository;
+        this.transactionRepository = transactionRepository;
         this.transactionManager = platformTransactionManager;
+        this.dataSource = dataSource;
     }
 
     @BeforeEach
@@ -77,6 +99,32 @@ class WalletRepositoryIT extends AbstractRepositoryIT {
                 });
     }
 
+    @Test
+    void findWithStripesByIdShouldAddTheStripesToTheWalletBalance() {
+        // Arrange
+        WalletEntity striped = new WalletEntity(globalUserId, BigDecimal.ONE);
+        striped.setStripes(2);
+        walletRepository.save(striped);
+        for (int i = 0; i < 2; i++) {
+            WalletStripeEntity stripe = new WalletStripeEntity(striped.getId(), i);
+            stripe.setBalance(BigDecimal.valueOf(i + 2));
+            walletStripeRepository.save(stripe);
+        }
+        UUID unstripedId = createWalletWithBalance(BigDecimal.valueOf(4));
+
+        // Act
+        Optional<WalletRepository.WalletState> stripedState = walletRepository.findWithStripesById(striped.getId());
+        Optional<WalletRepository.WalletState> unstripedState = walletRepository.findWithStripesById(unstripedId);
+
+        // Assert
+        assertThat(stripedState).get().satisfies(state -> {
+            assertThat(state.getUserId()).isEqualTo(globalUserId);
+            assertThat(state.getBalance()).isEqualByComparingTo("6");
+        });
+        assertThat(unstripedState).get().satisfies(state -> assertThat(state.getBalance()).isEqualByComparingTo("4"));
+        assertThat(walletRepository.findWithStripesById(UUID.randomUUID())).isEmpty();
+    }
+
     @Test
     void concurrentWithdrawalsWithLockShouldResultInCorrectBalance() throws ExecutionException, InterruptedException {
         // Arrange
@@ -121,43 +169,140 @@ class WalletRepositoryIT extends AbstractRepositoryIT {
     }
 
     @Test
-    void concurrentWithdrawalsWithoutLockShouldResultInIncorrectBalance() throws ExecutionException, InterruptedException {
+    void concurrentWithdrawalsWithoutLockShouldBeRejectedByVersionCheck() throws ExecutionException, InterruptedException {
         // Arrange
         executor = Executors.newFixedThreadPool(2);
-        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch read = new CountDownLatch(1);
+        CountDownLatch committed = new CountDownLatch(1);
         UUID walletId = runInTransaction(() -> createWalletWithBalance(BigDecimal.TWO));
 
         // Act
-        Future<Void> thread1 = executor.submit(() -> // Thread1: reads balance, signals thread2, withdrawal
+        Future<Void> thread1 = executor.submit(() -> // Thread1: reads balance, waits for thread2 to commit, withdrawal
                 runInTransaction(() -> {
                     WalletEntity w1 = walletRepository.findById(walletId).orElseThrow();
-                    latch.countDown();  // let thread2 proceed
+                    read.countDown();  // let thread2 proceed
+                    try {
+                        committed.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
                     w1.setBalance(w1.getBalance().subtract(BigDecimal.ONE));
                     walletRepository.save(w1);
                     return null;
                 })
         );
 
-        Future<Void> thread2 = executor.submit(() -> { // Thread2: waits latch, reads same balance, withdrawal (overdraw)
-            latch.await();
-            return runInTransaction(() -> {
+        Future<Void> thread2 = executor.submit(() -> { // Thread2: waits latch, reads same balance, withdrawal
+            read.await();
+            runInTransaction(() -> {
                 WalletEntity w2 = walletRepository.findById(walletId).orElseThrow();
                 w2.setBalance(w2.getBalance().subtract(BigDecimal.ONE));
                 walletRepository.save(w2);
                 return null;
             });
+            committed.countDown();
+            return null;
         });
 
-        // Just for fire threads
-        thread1.get();
         thread2.get();
 
-        BigDecimal finalBalance = walletRepository.findById(walletId).orElseThrow().getBalance();
+        // Assert
+        assertThatThrownBy(thread1::get)
+                .as("Without lock, the stale write must fail the version check instead of losing thread2's withdrawal")
+                .hasCauseInstanceOf(ObjectOptimisticLockingFailureException.class);
+        assertThat(walletRepository.findById(walletId).orElseThrow().getBalance()).isOne();
+    }
+
+    // region ─ atomic statements (PostgreSQL only) ─────────────────────────────────────────────────────────────────
+
+    @Test
+    void applyAndRecordShouldRejectMutationThatWouldOverdraw() throws SQLException {
+        // Arrange
+        assumePostgres();
+        UUID walletId = runInTransaction(() -> createWalletWithBalance(BigDecimal.ONE));
+        Instant now = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        // Act
+        Optional<WalletRepository.WalletState> rejected = runInTransaction(() -> walletRepository.applyAndRecord(
+                walletId, BigDecimal.TWO.negate(), UUID.randomUUID(), "WITHDRAWAL", now));
+        Optional<WalletRepository.WalletState> applied = runInTransaction(() -> walletRepository.applyAndRecord(
+                walletId, BigDecimal.TWO, UUID.randomUUID(), "DEPOSIT", now));
 
         // Assert
-        assertThat(finalBalance)
-                .as("Without lock, two concurrent withdrawals of 1 from a 2 balance must leave wrong 1 balance")
-                .isOne();
+        assertThat(rejected).isEmpty();
+        assertThat(applied).isPresent().get().satisfies(w -> {
+            assertThat(w.getBalance()).isEqualByComparingTo("3");
+            assertThat(w.getLastSequenceNumber()).isEqualTo(1L);
+        });
+    }
+
+    @Test
+    void concurrentAtomicWithdrawalsShouldNeverOverdraw() throws Exception {
+        // Arrange
+        assumePostgres();
+        int attempts = 10;
+        executor = Executors.newFixedThreadPool(attempts);
+        CountDownLatch start = new CountDownLatch(1);
+        UUID walletId = runInTransaction(() -> createWalletWithBalance(BigDecimal.valueOf(5)));
+
+        // Act
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return runInTransaction(() -> walletRepository.applyAndRecord(walletId, BigDecimal.ONE.negate(),
+                        UUID.randomUUID(), "WITHDRAWAL", Instant.now()).isPresent());
+            }));
+        }
+        start.countDown();
+        int succeeded = 0;
+        for (Future<Boolean> result : results) {
+            succeeded += result.get() ? 1 : 0;
+        }
+
+        // Assert
+        WalletEntity wallet = walletRepository.findById(walletId).orElseThrow();
+        assertThat(succeeded).isEqualTo(5);
+        assertThat(wallet.getBalance()).isZero();
+        assertThat(wallet.getLastSequenceNumber()).isEqualTo(5L);
+        List<TransactionEntity> ledger = transactionRepository.findByWalletId(walletId).stream()
+                .sorted(Comparator.comparing(TransactionEntity::getSequenceNumber))
+                .toList();
+        assertThat(ledger).hasSize(5);
+        assertThat(ledger)
+                .as("ledger timestamps must follow sequence order even when locks are granted out of call order")
+                .extracting(TransactionEntity::getTimestamp)
+                .isSorted();
+    }
+
+    @Test
+    void transferAndRecordShouldMoveFundsOnlyWhenSourceCovers() throws SQLException {
+        // Arrange
+        assumePostgres();
+        UUID sourceId = runInTransaction(() -> createWalletWithBalance(BigDecimal.ONE));
+        UUID targetId = runInTransaction(() -> createWalletWithBalance(BigDecimal.ZERO));
+
+        // Act
+        List<WalletRepository.WalletState> rejected = runInTransaction(() -> walletRepository.transferAndRecord(sourceId, targetId,
+                BigDecimal.TWO, UUID.randomUUID(), UUID.randomUUID(), Instant.now()));
+        List<WalletRepository.WalletState> applied = runInTransaction(() -> walletRepository.transferAndRecord(sourceId, targetId,
+                BigDecimal.ONE, UUID.randomUUID(), UUID.randomUUID(), Instant.now()));
+
+        // Assert
+        assertThat(rejected).isEmpty();
+        assertThat(applied).extracting(WalletRepository.WalletState::getId).containsExactlyInAnyOrder(sourceId, targetId);
+        assertThat(applied).allSatisfy(w -> assertThat(w.getBalance())
+                .isEqualByComparingTo(w.getId().equals(sourceId) ? BigDecimal.ZERO : BigDecimal.ONE));
+        assertThat(walletRepository.findById(targetId).orElseThrow().getBalance()).isEqualByComparingTo(BigDecimal.ONE);
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private void assumePostgres() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            assumeTrue(connection.getMetaData().getDatabaseProductName().equals("PostgreSQL"),
+                    "Atomic write statements require PostgreSQL");
+        }
     }
 
     private <T> T runInTransaction(Supplier<T> logic) {
@@ -1,6 +1,9 @@
 package com.rissatto.sws.presentation.controller;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rissatto.sws.application.service.UserService;
+import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.presentation.dto.*;
 import com.rissatto.sws.presentation.exception.ErrorResponse;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,9 +16,16 @@ import org.springframework.http.*;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -186,6 +196,107 @@ public class WalletControllerIT {
         assertThat(resp.getBody()).contains("\"balance\":1");
     }
 
+    @Test
+    void shouldStreamHistoricalBalancesOfManyWallets() {
+        // Arrange
+        UUID first = Objects.requireNonNull(restTemplate.postForEntity(baseUrl(), new CreateWalletRequest(globalUserId),
+                WalletResponse.class).getBody()).id();
+        UUID second = Objects.requireNonNull(restTemplate.postForEntity(baseUrl(), new CreateWalletRequest(globalUserId),
+                WalletResponse.class).getBody()).id();
+        restTemplate.postForEntity(baseUrl() + "/" + first + "/deposit", new DepositRequest(BigDecimal.TWO), WalletResponse.class);
+        restTemplate.postForEntity(baseUrl() + "/" + second + "/deposit", new DepositRequest(BigDecimal.TEN), WalletResponse.class);
+        Instant moment = Instant.now();
+        restTemplate.postForEntity(baseUrl() + "/" + first + "/deposit", new DepositRequest(BigDecimal.TEN), WalletResponse.class);
+        HistoricalBalancesRequest request = new HistoricalBalancesRequest(Set.of(first, second, UUID.randomUUID()), moment);
+
+        // Act
+        ResponseEntity<String> response = restTemplate.postForEntity(baseUrl() + "/balances:asOf", request, String.class);
+
+        // Assert
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).hasToString("application/x-ndjson");
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, BigDecimal> balances = Objects.requireNonNull(response.getBody()).lines()
+                .map(line -> {
+                    try {
+                        return objectMapper.readTree(line);
+                    } catch (JsonProcessingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                })
+                .collect(Collectors.toMap(node -> node.get("wallet_id").asText(), node -> node.get("balance").decimalValue()));
+        assertThat(balances)
+                .as("One line per existing wallet")
+                .containsOnlyKeys(first.toString(), second.toString());
+        assertThat(balances.get(first.toString())).isEqualByComparingTo(BigDecimal.TWO);
+        assertThat(balances.get(second.toString())).isEqualByComparingTo(BigDecimal.TEN);
+    }
+
+    @Test
+    void shouldReturn400WhenRequestingHistoricalBalancesOfNoWallets() {
+        // Arrange
+        HistoricalBalancesRequest request = new HistoricalBalancesRequest(Set.of(), Instant.now());
+
+        // Act
+        ResponseEntity<ErrorResponse> response = restTemplate.postForEntity(baseUrl() + "/balances:asOf", request,
+                ErrorResponse.class);
+
+        // Assert
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(Objects.requireNonNull(response.getBody()).message()).isEqualTo("walletIds must not be empty");
+    }
+
+    @Test
+    void shouldStreamBalanceSeriesOfAWallet() {
+        // Arrange
+        String base = Objects.requireNonNull(
+                restTemplate.postForEntity(baseUrl(), new CreateWalletRequest(globalUserId), WalletResponse.class)
+                        .getHeaders().getLocation()
+        ).toString();
+        // Sampled half an hour before the deposits, then twice after them
+        Instant from = Instant.now().truncatedTo(ChronoUnit.SECONDS).minus(Duration.ofMinutes(30));
+        restTemplate.postForEntity(base + "/deposit", new DepositRequest(BigDecimal.TEN), WalletResponse.class);
+        restTemplate.postForEntity(base + "/withdraw", new WithdrawRequest(BigDecimal.ONE), WalletResponse.class);
+        LocalDateTime start = LocalDateTime.ofInstant(from, ZoneOffset.UTC);
+
+        // Act
+        ResponseEntity<String> response = restTemplate.getForEntity(base + "/balance/series?from={from}&to={to}&step={step}",
+                String.class, start, start.plusHours(2), "PT1H");
+
+        // Assert
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(Objects.requireNonNull(response.getBody()).lines())
+                .hasSize(3)
+                .satisfiesExactly(
+                        line -> assertThat(line).contains("\"balance\":0"),
+                        line -> assertThat(line).contains("\"balance\":9"),
+                        line -> assertThat(line).contains("\"balance\":9"));
+    }
+
+    @Test
+    void shouldRevalidateSettledHistoricalBalanceWithItsETag() {
+        // Arrange
+        String base = Objects.requireNonNull(
+                restTemplate.postForEntity(baseUrl(), new CreateWalletRequest(globalUserId), WalletResponse.class)
+                        .getHeaders().getLocation()
+        ).toString();
+        restTemplate.postForEntity(base + "/deposit", new DepositRequest(BigDecimal.TEN), WalletResponse.class);
+        String settled = Instant.now().minus(Duration.ofHours(1)).truncatedTo(ChronoUnit.SECONDS).toString();
+        ResponseEntity<String> first = restTemplate.getForEntity(base + "/balance?at={at}", String.class, settled);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(Objects.requireNonNull(first.getHeaders().getETag()));
+
+        // Act
+        ResponseEntity<String> revalidated = restTemplate.exchange(base + "/balance?at={at}", HttpMethod.GET,
+                new HttpEntity<>(headers), String.class, settled);
+
+        // Assert
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(first.getBody()).contains("\"balance\":0");
+        assertThat(first.getHeaders().getCacheControl()).contains("immutable");
+        assertThat(revalidated.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    }
+
     @Test
     void shouldReturn404WhenGettingBalanceAndNotFoundAWallet() {
         // Arrange
@@ -203,6 +314,58 @@ public class WalletControllerIT {
 
     // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
 
+    // region ─ transactions ───────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldPageThroughTransactionsNewestFirst() {
+        // Arrange
+        String base = Objects.requireNonNull(
+                restTemplate.postForEntity(baseUrl(), new CreateWalletRequest(globalUserId), WalletResponse.class)
+                        .getHeaders().getLocation()
+        ).toString();
+        restTemplate.postForEntity(base + "/deposit", new DepositRequest(BigDecimal.TEN), WalletResponse.class);
+        restTemplate.postForEntity(base + "/withdraw", new WithdrawRequest(BigDecimal.ONE), WalletResponse.class);
+
+        // Act
+        ResponseEntity<TransactionPageResponse> first = restTemplate.getForEntity(
+                base + "/transactions?limit=1", TransactionPageResponse.class);
+        String cursor = Objects.requireNonNull(first.getBody()).nextCursor();
+        ResponseEntity<TransactionPageResponse> second = restTemplate.getForEntity(
+                base + "/transactions?limit=1&cursor={cursor}", TransactionPageResponse.class, cursor);
+
+        // Assert
+        assertThat(first.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(first.getBody().transactions())
+                .singleElement()
+                .satisfies(t -> {
+                    assertThat(t.type()).isEqualTo(Transaction.Type.WITHDRAWAL);
+                    assertThat(t.balanceAfter()).isEqualByComparingTo(BigDecimal.valueOf(9));
+                });
+        assertThat(cursor).isNotNull();
+        assertThat(second.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(Objects.requireNonNull(second.getBody()).transactions())
+                .singleElement()
+                .satisfies(t -> assertThat(t.type()).isEqualTo(Transaction.Type.DEPOSIT));
+        assertThat(second.getBody().nextCursor()).isNull();
+    }
+
+    @Test
+    void shouldReturn404WhenListingTransactionsOfNonExistingWallet() {
+        // Arrange
+        UUID randomId = UUID.randomUUID();
+
+        // Act
+        ResponseEntity<ErrorResponse> response = restTemplate.getForEntity(
+                baseUrl() + "/" + randomId + "/transactions", ErrorResponse.class);
+
+        // Assert
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertNotNull(response.getBody());
+        assertThat(response.getBody().message()).isEqualTo("Wallet not found");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
     // region ─ deposit ────────────────────────────────────────────────────────────────────────────────────────────────
 
     @Test
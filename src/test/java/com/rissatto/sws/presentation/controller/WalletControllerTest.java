@@ -1,10 +1,17 @@
 package com.rissatto.sws.presentation.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.rissatto.sws.application.service.BalanceSeries;
+import com.rissatto.sws.application.service.TransactionPage;
 import com.rissatto.sws.application.service.WalletService;
+import com.rissatto.sws.domain.Transaction;
 import com.rissatto.sws.domain.Wallet;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.WalletBalance;
 import com.rissatto.sws.presentation.dto.CreateWalletRequest;
 import com.rissatto.sws.presentation.dto.DepositRequest;
+import com.rissatto.sws.presentation.dto.StripeWalletRequest;
 import com.rissatto.sws.presentation.dto.TransferRequest;
 import com.rissatto.sws.presentation.dto.WithdrawRequest;
 import com.rissatto.sws.presentation.exception.RestExceptionHandler;
@@ -16,17 +23,34 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultMatcher;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import static org.hamcrest.Matchers.matchesPattern;
 import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -53,6 +77,10 @@ public class WalletControllerTest {
         mockMvc = MockMvcBuilders
                 .standaloneSetup(walletController)
                 .setControllerAdvice(new RestExceptionHandler())
+                // Instants as ISO-8601 like Spring Boot's ObjectMapper, not the standalone default's epoch seconds
+                .setMessageConverters(new MappingJackson2HttpMessageConverter(Jackson2ObjectMapperBuilder.json()
+                        .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                        .build()))
                 .build();
         objectMapper = new ObjectMapper();
     }
@@ -176,6 +204,255 @@ public class WalletControllerTest {
                 .andExpect(jsonPath("$.message").value("Wallet not found"));
     }
 
+    @Test
+    void shouldMarkSettledHistoricalBalanceImmutableWithStrongETag() throws Exception {
+        // Arrange
+        UUID id = UUID.randomUUID();
+        Instant at = Instant.parse("2025-04-25T10:15:30Z");
+        when(walletService.getHistoricalBalance(id, at)).thenReturn(new BigDecimal("12.50"));
+        when(walletService.isSettled(at)).thenReturn(true);
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/balance", id).param("at", "2025-04-25T10:15:30"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Cache-Control", "max-age=31536000, public, immutable"))
+                .andExpect(header().string("ETag", matchesPattern("\"[0-9a-f]{32}\"")))
+                .andExpect(jsonPath("$.balance").value(12.5));
+    }
+
+    @Test
+    void shouldAnswer304WhenSettledHistoricalBalanceETagMatches() throws Exception {
+        // Arrange
+        UUID id = UUID.randomUUID();
+        Instant at = Instant.parse("2025-04-25T10:15:30Z");
+        when(walletService.getHistoricalBalance(id, at)).thenReturn(new BigDecimal("12.50"));
+        when(walletService.isSettled(at)).thenReturn(true);
+        String eTag = mockMvc.perform(get("/wallets/{id}/balance", id).param("at", "2025-04-25T10:15:30"))
+                .andReturn().getResponse().getHeader("ETag");
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/balance", id).param("at", "2025-04-25T10:15:30")
+                        .header("If-None-Match", eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void shouldNotMarkUnsettledHistoricalBalanceCacheable() throws Exception {
+        // Arrange
+        UUID id = UUID.randomUUID();
+        Instant at = Instant.parse("2025-04-25T10:15:30Z");
+        when(walletService.getHistoricalBalance(id, at)).thenReturn(BigDecimal.ONE);
+        when(walletService.isSettled(at)).thenReturn(false);
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/balance", id).param("at", "2025-04-25T10:15:30"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Cache-Control"))
+                .andExpect(header().doesNotExist("ETag"));
+    }
+
+    @Test
+    void shouldStreamBalanceSeries() throws Exception {
+        // Arrange
+        Wallet wallet = createWallet();
+        Instant from = Instant.parse("2025-04-01T00:00:00Z");
+        BalanceSeries series = new BalanceSeries(from, Instant.parse("2025-04-01T02:00:00Z"), Duration.ofHours(1));
+        when(walletService.getById(wallet.id())).thenReturn(wallet);
+        doAnswer(invocation -> {
+            Consumer<BalanceSeries.Point> sink = invocation.getArgument(2);
+            sink.accept(new BalanceSeries.Point(from, BigDecimal.ZERO));
+            sink.accept(new BalanceSeries.Point(from.plus(Duration.ofHours(1)), new BigDecimal("12.50")));
+            return null;
+        }).when(walletService).getBalanceSeries(eq(wallet.id()), eq(series), any());
+
+        // Act
+        MvcResult result = mockMvc.perform(get("/wallets/{id}/balance/series", wallet.id())
+                        .param("from", "2025-04-01T00:00:00")
+                        .param("to", "2025-04-01T02:00:00")
+                        .param("step", "PT1H"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Assert
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"at\":\"2025-04-01T00:00:00Z\",\"balance\":0}\n"
+                        + "{\"at\":\"2025-04-01T01:00:00Z\",\"balance\":12.50}\n"));
+    }
+
+    @Test
+    void shouldReturn400WithoutStreamingWhenBalanceSeriesStepIsInvalid() throws Exception {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/balance/series", walletId)
+                        .param("from", "2025-04-01T00:00:00")
+                        .param("to", "2025-04-02T00:00:00")
+                        .param("step", "hourly"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("step is invalid"));
+        verifyNoInteractions(walletService);
+    }
+
+    @Test
+    void shouldReturn404WithoutStreamingWhenBalanceSeriesWalletIsUnknown() throws Exception {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(walletService.getById(walletId)).thenThrow(new EntityNotFoundException("Wallet not found"));
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/balance/series", walletId)
+                        .param("from", "2025-04-01T00:00:00")
+                        .param("to", "2025-04-02T00:00:00")
+                        .param("step", "PT1H"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.message").value("Wallet not found"));
+        verify(walletService, never()).getBalanceSeries(any(), any(), any());
+    }
+
+    @Test
+    void shouldStreamHistoricalBalancesChunkByChunk() throws Exception {
+        // Arrange
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        Instant at = Instant.parse("2025-04-30T23:59:59Z");
+        WalletBalance firstBalance = mock(WalletBalance.class);
+        when(firstBalance.getWalletId()).thenReturn(first);
+        when(firstBalance.getBalance()).thenReturn(new BigDecimal("12.50"));
+        WalletBalance secondBalance = mock(WalletBalance.class);
+        when(secondBalance.getWalletId()).thenReturn(second);
+        when(secondBalance.getBalance()).thenReturn(BigDecimal.ZERO);
+        when(walletService.getHistoricalBalances(Set.of(first, second), at))
+                .thenReturn(Stream.of(List.of(firstBalance), List.of(secondBalance)));
+
+        // Act
+        MvcResult result = mockMvc.perform(post("/wallets/balances:asOf")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"walletIds\":[\"" + first + "\",\"" + second + "\"],\"at\":\"" + at + "\"}"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Assert
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"wallet_id\":\"" + first + "\",\"balance\":12.50}\n"
+                        + "{\"wallet_id\":\"" + second + "\",\"balance\":0}\n"));
+    }
+
+    @Test
+    void shouldReturn400WhenHistoricalBalancesRequestIsInvalid() throws Exception {
+        // Arrange
+        when(walletService.getHistoricalBalances(Set.of(), null))
+                .thenThrow(new IllegalArgumentException("walletIds must not be empty"));
+
+        // Act & Assert
+        mockMvc.perform(post("/wallets/balances:asOf")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"walletIds\":[]}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("walletIds must not be empty"));
+    }
+
+    // region ─ transactions ───────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldReturn200AndPageWhenListingTransactions() throws Exception {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        UUID transactionId = UUID.randomUUID();
+        Instant timestamp = Instant.parse("2025-04-25T10:15:30Z");
+        LedgerEntry entry = mock(LedgerEntry.class);
+        when(entry.getId()).thenReturn(transactionId);
+        when(entry.getType()).thenReturn(Transaction.Type.WITHDRAWAL);
+        when(entry.getAmount()).thenReturn(BigDecimal.ONE.negate());
+        when(entry.getBalanceAfter()).thenReturn(BigDecimal.TEN);
+        when(entry.getTimestamp()).thenReturn(timestamp);
+        when(walletService.getTransactions(walletId, Set.of(Transaction.Type.WITHDRAWAL, Transaction.Type.TRANSFER_OUT),
+                Instant.parse("2025-04-01T00:00:00Z"), null, "cursor-1", 1))
+                .thenReturn(new TransactionPage(List.of(entry), "cursor-2"));
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/transactions", walletId)
+                        .param("type", "WITHDRAWAL", "TRANSFER_OUT")
+                        .param("from", "2025-04-01T00:00:00")
+                        .param("cursor", "cursor-1")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.transactions[0].id").value(transactionId.toString()))
+                .andExpect(jsonPath("$.transactions[0].type").value("WITHDRAWAL"))
+                .andExpect(jsonPath("$.transactions[0].amount").value(-1))
+                .andExpect(jsonPath("$.transactions[0].balanceAfter").value(10))
+                .andExpect(jsonPath("$.transactions[0].timestamp").value("2025-04-25T10:15:30Z"))
+                .andExpect(jsonPath("$.nextCursor").value("cursor-2"));
+    }
+
+    @Test
+    void shouldReturn400WhenTransactionCursorIsInvalid() throws Exception {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(walletService.getTransactions(walletId, null, null, null, "bogus", 50))
+                .thenThrow(new IllegalArgumentException("cursor is invalid"));
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/transactions", walletId).param("cursor", "bogus"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("cursor is invalid"));
+    }
+
+    @Test
+    void shouldStreamCsvAttachmentWhenExportingTransactions() throws Exception {
+        // Arrange
+        Wallet wallet = createWallet();
+        UUID transactionId = UUID.randomUUID();
+        LedgerEntry entry = mock(LedgerEntry.class);
+        when(entry.getId()).thenReturn(transactionId);
+        when(entry.getType()).thenReturn(Transaction.Type.DEPOSIT);
+        when(entry.getAmount()).thenReturn(new BigDecimal("12.50"));
+        when(entry.getBalanceAfter()).thenReturn(new BigDecimal("12.50"));
+        when(entry.getTimestamp()).thenReturn(Instant.parse("2025-04-25T10:15:30Z"));
+        when(walletService.getById(wallet.id())).thenReturn(wallet);
+        doAnswer(invocation -> {
+            invocation.<Consumer<LedgerEntry>>getArgument(3).accept(entry);
+            return null;
+        }).when(walletService).exportTransactions(eq(wallet.id()), eq(Instant.parse("2025-04-01T00:00:00Z")),
+                isNull(), any());
+
+        // Act
+        MvcResult result = mockMvc.perform(get("/wallets/{id}/transactions/export", wallet.id())
+                        .param("format", "CSV")
+                        .param("from", "2025-04-01T00:00:00"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // Assert
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("text/csv"))
+                .andExpect(header().string("Content-Disposition",
+                        "attachment; filename=\"wallet-" + wallet.id() + ".csv\""))
+                .andExpect(content().string("id,type,amount,balance_after,timestamp\n"
+                        + transactionId + ",DEPOSIT,12.50,12.50,2025-04-25T10:15:30Z\n"));
+    }
+
+    @Test
+    void shouldReturn404WithoutStreamingWhenExportingTransactionsOfUnknownWallet() throws Exception {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(walletService.getById(walletId)).thenThrow(new EntityNotFoundException("Wallet not found"));
+
+        // Act & Assert
+        mockMvc.perform(get("/wallets/{id}/transactions/export", walletId))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.message").value("Wallet not found"));
+        verify(walletService, never()).exportTransactions(any(), any(), any(), any());
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
     // region ─ deposit ───────────────────────────────────────────────────────────────────────────────────────────────
 
     @Test
@@ -373,4 +650,42 @@ public class WalletControllerTest {
     }
 
     // endregion ────────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ stripes ────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldReturn200AndBodyWhenStriping() throws Exception {
+        // Arrange
+        Wallet wallet = createWallet();
+        when(walletService.stripe(wallet.id(), 8)).thenReturn(wallet);
+
+        StripeWalletRequest req = new StripeWalletRequest(8);
+
+        // Act & Assert
+        mockMvc.perform(put("/wallets/{id}/stripes", wallet.id())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(status().isOk())
+                .andExpectAll(assertWalletBody(wallet));
+    }
+
+    @Test
+    void shouldReturn400WhenStripeCountIsOutOfRange() throws Exception {
+        // Arrange
+        UUID walletId = UUID.randomUUID();
+        when(walletService.stripe(walletId, 65))
+                .thenThrow(new IllegalArgumentException("stripes must be between 0 and 64"));
+
+        StripeWalletRequest req = new StripeWalletRequest(65);
+
+        // Act & Assert
+        mockMvc.perform(put("/wallets/{id}/stripes", walletId)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(req)))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("stripes must be between 0 and 64"));
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
 }
@@ -0,0 +1,120 @@
+package com.rissatto.sws.presentation.export;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs in its own surefire execution with {@code -Xmx32m}: each export below writes several hundred megabytes, so it
+ * only passes if nothing on the way holds on to the rows or the output.
+ */
+public class LedgerExportSmallHeapTest {
+
+    private static final long ROWS = 2_000_000;
+    private static final Instant START = Instant.parse("2025-01-01T00:00:00Z");
+
+    // region ─ constant memory ────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldExportMillionsOfRowsInASmallHeap() throws IOException {
+        // Arrange
+        CountingOutputStream out = new CountingOutputStream();
+        LedgerExportWriter writer = new LedgerExportWriter(out, LedgerExportFormat.NDJSON, false);
+
+        // Act
+        rows().forEach(writer);
+        writer.finish();
+
+        // Assert
+        assertThat(out.lines).isEqualTo(ROWS);
+        assertThat(out.bytes).isGreaterThan(Runtime.getRuntime().maxMemory());
+    }
+
+    @Test
+    void shouldGzipMillionsOfRowsInASmallHeap() throws IOException {
+        // Arrange
+        CountingOutputStream out = new CountingOutputStream();
+        LedgerExportWriter writer = new LedgerExportWriter(out, LedgerExportFormat.CSV, true);
+
+        // Act
+        rows().forEach(writer);
+        writer.finish();
+
+        // Assert
+        assertThat(out.bytes).isPositive();
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    /**
+     * Rows generated one at a time, the way a database cursor hands them over.
+     */
+    private static Stream<LedgerEntry> rows() {
+        UUID walletId = UUID.randomUUID();
+        return LongStream.range(0, ROWS).mapToObj(i -> new LedgerEntry() {
+            private final UUID id = new UUID(walletId.getMostSignificantBits(), i);
+
+            @Override
+            public UUID getId() {
+                return id;
+            }
+
+            @Override
+            public Transaction.Type getType() {
+                return Transaction.Type.DEPOSIT;
+            }
+
+            @Override
+            public BigDecimal getAmount() {
+                return BigDecimal.valueOf(i % 10_000, 2);
+            }
+
+            @Override
+            public BigDecimal getBalanceAfter() {
+                return BigDecimal.valueOf(i * 100, 2);
+            }
+
+            @Override
+            public Instant getTimestamp() {
+                return START.plusMillis(i);
+            }
+        });
+    }
+
+    /**
+     * Discards what is written, keeping only the byte and line counts.
+     */
+    private static class CountingOutputStream extends OutputStream {
+
+        private long bytes;
+        private long lines;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+            if (b == '\n') {
+                lines++;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+    }
+}
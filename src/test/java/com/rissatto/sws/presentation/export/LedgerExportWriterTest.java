@@ -0,0 +1,174 @@
+package com.rissatto.sws.presentation.export;
+
+import com.rissatto.sws.domain.Transaction;
+import com.rissatto.sws.infrastructure.repository.TransactionRepository.LedgerEntry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LedgerExportWriterTest {
+
+    private static final UUID FIRST_ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID SECOND_ID = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    // region ─ formats ────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldWriteOneJsonObjectPerLineInNdjson() throws IOException {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        export(out, LedgerExportFormat.NDJSON, false);
+
+        // Assert
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("""
+                {"id":"00000000-0000-0000-0000-000000000001","type":"DEPOSIT","amount":100.00,"balance_after":100.00,"timestamp":"2025-04-25T10:15:30Z"}
+                {"id":"00000000-0000-0000-0000-000000000002","type":"WITHDRAWAL","amount":-0.50,"balance_after":null,"timestamp":"2025-04-25T10:15:30.123456Z"}
+                """);
+    }
+
+    @Test
+    void shouldWriteHeaderAndOneRecordPerLineInCsv() throws IOException {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        export(out, LedgerExportFormat.CSV, false);
+
+        // Assert
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("""
+                id,type,amount,balance_after,timestamp
+                00000000-0000-0000-0000-000000000001,DEPOSIT,100.00,100.00,2025-04-25T10:15:30Z
+                00000000-0000-0000-0000-000000000002,WITHDRAWAL,-0.50,,2025-04-25T10:15:30.123456Z
+                """);
+    }
+
+    @Test
+    void shouldWriteOnlyTheHeaderWhenThereAreNoRows() throws IOException {
+        // Arrange
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        // Act
+        new LedgerExportWriter(out, LedgerExportFormat.CSV, false).finish();
+
+        // Assert
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo("id,type,amount,balance_after,timestamp\n");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    // region ─ gzip ───────────────────────────────────────────────────────────────────────────────────────────────────
+
+    @Test
+    void shouldGzipTheSameLinesWhenAsked() throws IOException {
+        // Arrange
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        export(plain, LedgerExportFormat.CSV, false);
+
+        // Act
+        export(gzipped, LedgerExportFormat.CSV, true);
+
+        // Assert
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped.toByteArray()))) {
+            assertThat(in.readAllBytes()).isEqualTo(plain.toByteArray());
+        }
+    }
+
+    @Test
+    void shouldLeaveTheResponseStreamOpenWhenFinished() throws IOException {
+        // Arrange
+        boolean[] closed = {false};
+        OutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+
+        // Act
+        export(out, LedgerExportFormat.NDJSON, true);
+
+        // Assert
+        assertThat(closed[0]).isFalse();
+    }
+
+    @Test
+    void shouldRethrowWriteFailuresUnchecked() throws IOException {
+        // Arrange
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("connection reset");
+            }
+        };
+        LedgerExportWriter writer = new LedgerExportWriter(broken, LedgerExportFormat.NDJSON, false);
+        LedgerEntry row = row(FIRST_ID, Transaction.Type.DEPOSIT, "1.00", "1.00", "2025-04-25T10:15:30Z");
+
+        // Act & Assert: rows larger than the buffer reach the stream while still being accepted
+        assertThatThrownBy(() -> {
+            for (int i = 0; i < 10_000; i++) {
+                writer.accept(row);
+            }
+        })
+                .isInstanceOf(UncheckedIOException.class)
+                .hasRootCauseMessage("connection reset");
+    }
+
+    // endregion ───────────────────────────────────────────────────────────────────────────────────────────────────────
+
+    private static void export(OutputStream out, LedgerExportFormat format, boolean gzip) throws IOException {
+        LedgerExportWriter writer = new LedgerExportWriter(out, format, gzip);
+        writer.accept(row(FIRST_ID, Transaction.Type.DEPOSIT, "100.00", "100.00", "2025-04-25T10:15:30Z"));
+        writer.accept(row(SECOND_ID, Transaction.Type.WITHDRAWAL, "-0.50", null, "2025-04-25T10:15:30.123456Z"));
+        writer.finish();
+    }
+
+    private static LedgerEntry row(UUID id, Transaction.Type type, String amount, String balanceAfter,
+                                   String timestamp) {
+        return new Row(id, type, new BigDecimal(amount), (balanceAfter == null) ? null : new BigDecimal(balanceAfter),
+                Instant.parse(timestamp));
+    }
+
+    private record Row(UUID id, Transaction.Type type, BigDecimal amount, BigDecimal balanceAfter, Instant timestamp)
+            implements LedgerEntry {
+
+        @Override
+        public UUID getId() {
+            return id;
+        }
+
+        @Override
+        public Transaction.Type getType() {
+            return type;
+        }
+
+        @Override
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        @Override
+        public BigDecimal getBalanceAfter() {
+            return balanceAfter;
+        }
+
+        @Override
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+    }
+}